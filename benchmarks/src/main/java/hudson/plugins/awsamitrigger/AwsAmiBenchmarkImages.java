@@ -0,0 +1,108 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.ArchitectureValues;
+import com.amazonaws.services.ec2.model.HypervisorType;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ImageTypeValues;
+import com.amazonaws.services.ec2.model.ProductCode;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.util.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic AWS images for the benchmarks, built the same way as the
+ * images of the unit tests.
+ *
+ * @author Rik Turnbull
+ *
+ */
+final class AwsAmiBenchmarkImages {
+
+  static final long START = 1497298758000L;
+  static final String TAGS = "project=jenkins";
+
+  /**
+   * Prevents instantiation.
+   */
+  private AwsAmiBenchmarkImages() {
+  }
+
+  /**
+   * Creates an AWS image.
+   *
+   * @param index          index of the image, used for its id and name
+   * @param creationDate   creation date of the image
+   * @return a new image
+   */
+  static Image createImage(int index, Date creationDate) {
+    Image image = new Image();
+    image.setArchitecture(ArchitectureValues.X86_64);
+    image.setCreationDate(DateUtils.formatISO8601Date(creationDate));
+    image.setDescription("description " + index);
+    image.setHypervisor(HypervisorType.Xen);
+    image.setImageId(String.format("ami-%08x", index));
+    image.setImageType(ImageTypeValues.Machine);
+    image.setName("name-" + index);
+    image.setImageOwnerAlias("ownerAlias");
+    image.setOwnerId("ownerId");
+    image.setProductCodes(Collections.singletonList(new ProductCode().withProductCodeId("productCode")));
+    image.setTags(Collections.singletonList(new Tag().withKey("project").withValue("jenkins")));
+    image.setPublic(index % 2 == 0);
+    return image;
+  }
+
+  /**
+   * Creates images an hour apart in a random order, as DescribeImages
+   * returns them unsorted.
+   *
+   * @param count   number of images
+   * @param seed    seed of the shuffle
+   * @return a new list of images
+   */
+  static List<Image> createImages(int count, long seed) {
+    List<Image> images = new ArrayList<Image>(count);
+    for(int i = 0; i < count; i++) {
+      images.add(createImage(i, new Date(START + TimeUnit.HOURS.toMillis(i))));
+    }
+    Collections.shuffle(images, new Random(seed));
+    return images;
+  }
+
+  /**
+   * Creates a filter using every field.
+   *
+   * @return a new filter
+   */
+  static AwsAmiTriggerFilter createFilter() {
+    return new AwsAmiTriggerFilter("x86_64", "description*", "name-*", "ownerAlias", "ownerId", "productCode", TAGS, "true");
+  }
+}
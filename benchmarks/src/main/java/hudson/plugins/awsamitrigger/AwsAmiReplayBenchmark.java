@@ -0,0 +1,122 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks replaying a recorded DescribeImages response and selecting
+ * the newest images from it. The recording is a file written by
+ * {@link AwsAmiImageRecording}; without one a synthetic catalog of 10k
+ * images, some without a creation date, is recorded in memory.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AwsAmiReplayBenchmark {
+
+  @Param({ "" })
+  public String recording;
+
+  private byte[] bytes;
+  private List<Image> images;
+
+  /**
+   * Loads the recording.
+   *
+   * @throws IOException if the recording could not be read
+   */
+  @Setup
+  public void setUp() throws IOException {
+    if(recording.isEmpty()) {
+      List<Image> synthetic = AwsAmiBenchmarkImages.createImages(10000, 10000);
+      for(int i = 0; i < synthetic.size(); i += 50) {
+        synthetic.get(i).setCreationDate(null);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      AwsAmiImageRecording.write(out, "synthetic", synthetic);
+      bytes = out.toByteArray();
+    } else {
+      bytes = Files.readAllBytes(Paths.get(recording));
+    }
+    images = AwsAmiImageRecording.read(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Reads the recording.
+   *
+   * @return the images
+   * @throws IOException if the recording could not be read
+   */
+  @Benchmark
+  public List<Image> read() throws IOException {
+    return AwsAmiImageRecording.read(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Selects the five newest images, as a trigger with a top-k filter does.
+   *
+   * @return the newest images
+   */
+  @Benchmark
+  public List<Image> newestImages() {
+    return AwsAmiImageMatcher.newestImages(images, 5);
+  }
+
+  /**
+   * Fingerprints the images.
+   *
+   * @return the fingerprint
+   */
+  @Benchmark
+  public long fingerprint() {
+    return AwsAmiImageMatcher.fingerprint(images);
+  }
+}
@@ -0,0 +1,98 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import antlr.ANTLRException;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks checking the latest image of a filter against the watermark
+ * of an {@link AwsAmiTrigger}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AwsAmiTriggerBenchmark {
+
+  private AwsAmiTrigger trigger;
+  private AwsAmiTriggerFilter filter;
+  private Image newImage;
+  private Image oldImage;
+
+  /**
+   * Creates the trigger and an image either side of its watermark.
+   *
+   * @throws ANTLRException if the schedule is invalid
+   */
+  @Setup
+  public void setUp() throws ANTLRException {
+    filter = AwsAmiBenchmarkImages.createFilter();
+    trigger = new AwsAmiTrigger("* * * * *", "aws-credentials", "eu-west-1", Collections.singletonList(filter));
+    long now = System.currentTimeMillis();
+    newImage = AwsAmiBenchmarkImages.createImage(0, new Date(now + TimeUnit.DAYS.toMillis(1)));
+    oldImage = AwsAmiBenchmarkImages.createImage(1, new Date(now - TimeUnit.DAYS.toMillis(1)));
+  }
+
+  /**
+   * Checks an image created after the watermark.
+   *
+   * @return true
+   */
+  @Benchmark
+  public boolean isNewImage() {
+    return trigger.isNewImage(filter, newImage);
+  }
+
+  /**
+   * Checks an image created before the watermark.
+   *
+   * @return false
+   */
+  @Benchmark
+  public boolean isOldImage() {
+    return trigger.isNewImage(filter, oldImage);
+  }
+}
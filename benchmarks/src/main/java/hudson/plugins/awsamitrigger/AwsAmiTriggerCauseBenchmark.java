@@ -0,0 +1,120 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import hudson.util.XStream2;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks exporting the environment of an {@link AwsAmiTriggerCause}
+ * and writing it to and reading it from a build record.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AwsAmiTriggerCauseBenchmark {
+
+  @Param({ "1", "10" })
+  public int matches;
+
+  private AwsAmiTriggerCause.AwsAmiTriggerMatch match;
+  private AwsAmiTriggerCause cause;
+  private XStream2 xstream;
+  private String xml;
+
+  /**
+   * Creates the cause and serializes it once for the read benchmark.
+   */
+  @Setup
+  public void setUp() {
+    AwsAmiTriggerFilter filter = AwsAmiBenchmarkImages.createFilter();
+    match = new AwsAmiTriggerCause.AwsAmiTriggerMatch(filter,
+      AwsAmiImage.from(AwsAmiBenchmarkImages.createImage(0, new Date(AwsAmiBenchmarkImages.START))),
+      Arrays.asList("ami-00000001", "ami-00000002"));
+
+    cause = new AwsAmiTriggerCause();
+    for(int i = 0; i < matches; i++) {
+      cause.addMatch(filter, AwsAmiBenchmarkImages.createImage(i, new Date(AwsAmiBenchmarkImages.START + i)));
+    }
+
+    xstream = new XStream2();
+    xstream.registerConverter(new AwsAmiImageConverter());
+    xml = xstream.toXML(cause);
+  }
+
+  /**
+   * Exports the environment variables of a single match.
+   *
+   * @return the environment variables
+   */
+  @Benchmark
+  public Map<String, String> populateEnvironment() {
+    Map<String, String> envVars = new HashMap<String, String>();
+    match.populateEnvironment(envVars, "");
+    return envVars;
+  }
+
+  /**
+   * Writes the cause as XML.
+   *
+   * @return the XML
+   */
+  @Benchmark
+  public String toXML() {
+    return xstream.toXML(cause);
+  }
+
+  /**
+   * Reads the cause from XML.
+   *
+   * @return the cause
+   */
+  @Benchmark
+  public Object fromXML() {
+    return xstream.fromXML(xml);
+  }
+}
@@ -0,0 +1,103 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks ordering the images returned by DescribeImages in
+ * {@link AwsAmiImageMatcher}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EC2ServiceBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  public int size;
+
+  private List<Image> images;
+
+  /**
+   * Creates the images.
+   */
+  @Setup
+  public void setUp() {
+    images = AwsAmiBenchmarkImages.createImages(size, size);
+  }
+
+  /**
+   * Sorts every image by creation date, as <code>describeImages</code> does.
+   *
+   * @return the sorted images
+   */
+  @Benchmark
+  public List<Image> sortByCreationDate() {
+    List<Image> sorted = new ArrayList<Image>(images);
+    AwsAmiImageMatcher.sortByCreationDate(sorted);
+    return sorted;
+  }
+
+  /**
+   * Selects the newest image, as <code>fetchLatestImage</code> does.
+   *
+   * @return the newest image
+   */
+  @Benchmark
+  public List<Image> newestImage() {
+    return AwsAmiImageMatcher.newestImages(images, 1);
+  }
+
+  /**
+   * Fingerprints the images, as every poll does.
+   *
+   * @return the fingerprint
+   */
+  @Benchmark
+  public long fingerprint() {
+    return AwsAmiImageMatcher.fingerprint(images);
+  }
+}
@@ -0,0 +1,152 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * A change to the images matching a filter, found by comparing
+ * consecutive {@link AwsAmiImageSnapshot}s of the filter.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiEvent {
+
+  /**
+   * Types of {@link AwsAmiEvent}.
+   */
+  public enum Type {
+    /** An image started matching the filter. */
+    ADDED,
+    /** An image that matched the filter was deregistered or stopped matching. */
+    REMOVED,
+    /** The public flag, tags, name or description of a matching image changed. */
+    STATE_CHANGED
+  }
+
+  private final Type type;
+  private final long time;
+  private final String jobName;
+  private final String regionName;
+  private final String filterKey;
+  private final String imageId;
+  private final long creationTime;
+
+  /**
+   * Creates a new {@link AwsAmiEvent}.
+   *
+   * @param type           the event type
+   * @param time           time the change was found
+   * @param jobName        full name of the job whose trigger found the change
+   * @param regionName     AWS region name
+   * @param filterKey      key of the filter
+   * @param imageId        the image id
+   * @param creationTime   creation time of the image
+   */
+  public AwsAmiEvent(Type type, long time, String jobName, String regionName, String filterKey, String imageId,
+      long creationTime) {
+    this.type = type;
+    this.time = time;
+    this.jobName = jobName;
+    this.regionName = regionName;
+    this.filterKey = filterKey;
+    this.imageId = imageId;
+    this.creationTime = creationTime;
+  }
+
+  /**
+   * Gets the event type.
+   * @return the event type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets the time the change was found.
+   * @return time in milliseconds
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Gets the job whose trigger found the change.
+   * @return full name of the job
+   */
+  public String getJobName() {
+    return jobName;
+  }
+
+  /**
+   * Gets the region of the image.
+   * @return AWS region name
+   */
+  public String getRegionName() {
+    return regionName;
+  }
+
+  /**
+   * Gets the key of the filter.
+   * @return key of the filter
+   */
+  public String getFilterKey() {
+    return filterKey;
+  }
+
+  /**
+   * Gets the image id.
+   * @return image id
+   */
+  public String getImageId() {
+    return imageId;
+  }
+
+  /**
+   * Gets the creation time of the image.
+   * @return creation time in milliseconds
+   */
+  public long getCreationTime() {
+    return creationTime;
+  }
+
+  /**
+   * Converts this object to a string.
+   * @return string representing this object
+   */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+      .append("type", type)
+      .append("time", time)
+      .append("jobName", jobName)
+      .append("regionName", regionName)
+      .append("filterKey", filterKey)
+      .append("imageId", imageId)
+      .append("creationTime", creationTime)
+      .toString();
+  }
+}
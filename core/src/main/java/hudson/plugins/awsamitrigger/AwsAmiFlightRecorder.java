@@ -0,0 +1,204 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java Flight Recorder events for polls, EC2 calls and build scheduling.
+ *
+ * <p>The plugin targets Java 7, which has no <code>jdk.jfr</code> API, so
+ * the event types are defined at runtime through
+ * <code>jdk.jfr.EventFactory</code> when the controller runs on a JVM that
+ * has it (OpenJDK 8u262 and later, 11 and later). Every event carries the
+ * job, filter, region and image count, and JFR records its duration.</p>
+ *
+ * <p>When the JVM has no flight recorder, or no recording has the event
+ * enabled, {@link #begin()} is a single check that returns
+ * <code>null</code> and {@link #commit} does nothing, so the call sites
+ * allocate nothing.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiFlightRecorder {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiFlightRecorder.class.getName());
+  private static final String[] CATEGORY = { "Jenkins", "AWS AMI Trigger" };
+  private static final String[] FIELDS = { "job", "filter", "region", "imageCount" };
+  private static final Class<?>[] FIELD_TYPES = { String.class, String.class, String.class, int.class };
+
+  /** A trigger run. */
+  public static final AwsAmiFlightRecorder POLL = new AwsAmiFlightRecorder("Poll", "AMI Trigger Poll");
+  /** The fetch of the latest images of a filter. */
+  public static final AwsAmiFlightRecorder FETCH = new AwsAmiFlightRecorder("Fetch", "AMI Filter Fetch");
+  /** A DescribeImages call. */
+  public static final AwsAmiFlightRecorder DESCRIBE_IMAGES = new AwsAmiFlightRecorder("DescribeImages", "EC2 DescribeImages");
+  /** The scheduling of a build. */
+  public static final AwsAmiFlightRecorder FIRE = new AwsAmiFlightRecorder("Fire", "AMI Trigger Fire");
+
+  private final MethodHandle isEnabled;
+  private final MethodHandle newEvent;
+  private final MethodHandle begin;
+  private final MethodHandle end;
+  private final MethodHandle set;
+  private final MethodHandle commit;
+
+  /**
+   * Creates a new {@link AwsAmiFlightRecorder} event type. The type is
+   * inert if the JVM has no <code>jdk.jfr</code> API.
+   *
+   * @param name    the event name, prefixed with the package name
+   * @param label   the human readable event label
+   */
+  private AwsAmiFlightRecorder(String name, String label) {
+    MethodHandle isEnabled = null;
+    MethodHandle newEvent = null;
+    MethodHandle begin = null;
+    MethodHandle end = null;
+    MethodHandle set = null;
+    MethodHandle commit = null;
+    try {
+      final ClassLoader loader = ClassLoader.getSystemClassLoader();
+      final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+      final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", true, loader);
+      final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", true, loader);
+      final Class<?> eventType = Class.forName("jdk.jfr.EventType", true, loader);
+      final Class<?> event = Class.forName("jdk.jfr.Event", true, loader);
+
+      final Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+      final List<Object> annotations = new ArrayList<Object>();
+      annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name", true, loader), AwsAmiFlightRecorder.class.getPackage().getName() + "." + name));
+      annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label", true, loader), label));
+      annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category", true, loader), CATEGORY));
+
+      final Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class);
+      final List<Object> fields = new ArrayList<Object>();
+      for(int i = 0; i < FIELDS.length; i++) {
+        fields.add(field.newInstance(FIELD_TYPES[i], FIELDS[i]));
+      }
+
+      final Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+      final Object type = eventFactory.getMethod("getEventType").invoke(factory);
+
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      isEnabled = lookup.findVirtual(eventType, "isEnabled", MethodType.methodType(boolean.class)).bindTo(type);
+      newEvent = lookup.findVirtual(eventFactory, "newEvent", MethodType.methodType(event)).bindTo(factory)
+        .asType(MethodType.methodType(Object.class));
+      begin = asObjectReceiver(lookup.findVirtual(event, "begin", MethodType.methodType(void.class)));
+      end = asObjectReceiver(lookup.findVirtual(event, "end", MethodType.methodType(void.class)));
+      set = asObjectReceiver(lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class)));
+      commit = asObjectReceiver(lookup.findVirtual(event, "commit", MethodType.methodType(void.class)));
+    } catch(ClassNotFoundException e) {
+      LOGGER.log(Level.FINE, "No flight recorder in this JVM, {0} events are disabled", name);
+      isEnabled = null;
+    } catch(Exception e) {
+      LOGGER.log(Level.FINE, "Failed to define flight recorder event " + name, e);
+      isEnabled = null;
+    }
+    this.isEnabled = isEnabled;
+    this.newEvent = newEvent;
+    this.begin = begin;
+    this.end = end;
+    this.set = set;
+    this.commit = commit;
+  }
+
+  /**
+   * Changes the receiver of an event method handle to <code>Object</code>.
+   *
+   * @param handle   the method handle
+   * @return the method handle taking an <code>Object</code> receiver
+   */
+  private static MethodHandle asObjectReceiver(MethodHandle handle) {
+    return handle.asType(handle.type().changeParameterType(0, Object.class));
+  }
+
+  /**
+   * Checks whether a recording has this event enabled.
+   * @return true if events of this type are recorded
+   */
+  public boolean isEnabled() {
+    if(isEnabled == null) {
+      return false;
+    }
+    try {
+      return (boolean) isEnabled.invokeExact();
+    } catch(Throwable e) {
+      return false;
+    }
+  }
+
+  /**
+   * Starts timing an event.
+   *
+   * @return the event or <code>null</code> if the event is not recorded
+   */
+  public Object begin() {
+    if(!isEnabled()) {
+      return null;
+    }
+    try {
+      final Object event = (Object) newEvent.invokeExact();
+      begin.invokeExact(event);
+      return event;
+    } catch(Throwable e) {
+      LOGGER.log(Level.FINE, "Failed to begin flight recorder event", e);
+      return null;
+    }
+  }
+
+  /**
+   * Ends and commits an event started by {@link #begin()}. Does nothing
+   * if <code>event</code> is <code>null</code>.
+   *
+   * @param event        the event
+   * @param job          full name of the job (may be <code>null</code>)
+   * @param filter       key of the filter (may be <code>null</code>)
+   * @param region       AWS region name (may be <code>null</code>)
+   * @param imageCount   number of images
+   */
+  public void commit(Object event, String job, String filter, String region, int imageCount) {
+    if(event == null) {
+      return;
+    }
+    try {
+      end.invokeExact(event);
+      set.invokeExact(event, 0, (Object) job);
+      set.invokeExact(event, 1, (Object) filter);
+      set.invokeExact(event, 2, (Object) region);
+      set.invokeExact(event, 3, (Object) Integer.valueOf(imageCount));
+      commit.invokeExact(event);
+    } catch(Throwable e) {
+      LOGGER.log(Level.FINE, "Failed to commit flight recorder event", e);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two buckets from 1&micro;s to
+ * about 68s. Recording a value is a few atomic increments, so it can be
+ * used on the polling path; quantiles are estimated from the bucket upper
+ * bounds.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiHistogram {
+
+  private static final int MIN_SHIFT = 10;
+  private static final int BUCKETS = 27;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos   the duration in nanoseconds
+   */
+  public void record(long nanos) {
+    final long value = Math.max(0, nanos);
+    counts.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+  }
+
+  /**
+   * Gets the number of recorded durations.
+   * @return number of durations
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the sum of the recorded durations.
+   * @return sum in nanoseconds
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * Estimates a quantile of the recorded durations.
+   *
+   * @param quantile   the quantile (0 to 1)
+   * @return upper bound of the bucket holding the quantile in nanoseconds,
+   * or 0 if nothing was recorded
+   */
+  public long getQuantile(double quantile) {
+    final long[] snapshot = getCounts();
+    long total = 0;
+    for(long bucketCount : snapshot) {
+      total += bucketCount;
+    }
+    if(total == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for(int bucket = 0; bucket < snapshot.length; bucket++) {
+      seen += snapshot[bucket];
+      if(seen >= rank) {
+        return getUpperBound(bucket);
+      }
+    }
+    return getUpperBound(BUCKETS);
+  }
+
+  /**
+   * Estimates a quantile of the recorded durations in milliseconds.
+   *
+   * @param quantile   the quantile (0 to 1)
+   * @return quantile in milliseconds
+   */
+  public double getQuantileMillis(double quantile) {
+    return getQuantile(quantile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * Gets a copy of the bucket counts. Bucket <code>n</code> holds
+   * durations up to {@link #getUpperBound(int) getUpperBound(n)}; the last
+   * bucket holds everything longer.
+   *
+   * @return bucket counts
+   */
+  public long[] getCounts() {
+    final long[] snapshot = new long[counts.length()];
+    for(int bucket = 0; bucket < snapshot.length; bucket++) {
+      snapshot[bucket] = counts.get(bucket);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Gets the number of buckets.
+   * @return number of buckets including the overflow bucket
+   */
+  public static int getBuckets() {
+    return BUCKETS + 1;
+  }
+
+  /**
+   * Gets the upper bound of a bucket.
+   *
+   * @param bucket   the bucket
+   * @return upper bound in nanoseconds, or <code>Long.MAX_VALUE</code> for
+   * the overflow bucket
+   */
+  public static long getUpperBound(int bucket) {
+    return bucket >= BUCKETS ? Long.MAX_VALUE : 1L << (MIN_SHIFT + bucket);
+  }
+
+  /**
+   * Gets the bucket of a duration.
+   *
+   * @param nanos   the duration in nanoseconds
+   * @return the bucket
+   */
+  static int getBucket(long nanos) {
+    if(nanos <= 1L << MIN_SHIFT) {
+      return 0;
+    }
+    return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT);
+  }
+}
@@ -0,0 +1,313 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ProductCode;
+import com.amazonaws.services.ec2.model.Tag;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * An immutable snapshot of the fields of an AWS <code>Image</code> that
+ * the plugin exposes. Builds keep this snapshot rather than the full
+ * <code>Image</code>, which also holds block device mappings, state
+ * reasons and other data that the plugin never reads.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImage {
+
+  private final String imageId;
+  private final String name;
+  private final String description;
+  private final String creationDate;
+  private final String architecture;
+  private final String hypervisor;
+  private final String imageType;
+  private final String ownerAlias;
+  private final String ownerId;
+  private final String productCodes;
+  private final String tags;
+  private final Boolean shared;
+
+  /**
+   * Creates a new {@link AwsAmiImage}.
+   *
+   * @param imageId        ami id
+   * @param name           name of ami
+   * @param description    description of image
+   * @param creationDate   ISO 8601 creation date
+   * @param architecture   image architecture (i386|x86_64)
+   * @param hypervisor     hypervisor (xen|ovm)
+   * @param imageType      image type (kernel|machine|ramdisk)
+   * @param ownerAlias     the AWS account alias
+   * @param ownerId        the AWS account id of the image owner
+   * @param productCodes   product codes in format code,code
+   * @param tags           tags in format key=value;key=value
+   * @param shared         aka is public
+   */
+  public AwsAmiImage(String imageId, String name, String description, String creationDate, String architecture,
+      String hypervisor, String imageType, String ownerAlias, String ownerId, String productCodes, String tags, Boolean shared) {
+    this.imageId = imageId;
+    this.name = name;
+    this.description = description;
+    this.creationDate = creationDate;
+    this.architecture = architecture;
+    this.hypervisor = hypervisor;
+    this.imageType = imageType;
+    this.ownerAlias = ownerAlias;
+    this.ownerId = ownerId;
+    this.productCodes = productCodes;
+    this.tags = tags;
+    this.shared = shared;
+  }
+
+  /**
+   * Creates a snapshot of an AWS <code>Image</code>.
+   *
+   * @param image   the image
+   * @return snapshot of the image
+   */
+  public static AwsAmiImage from(Image image) {
+    return new AwsAmiImage(image.getImageId(), image.getName(), image.getDescription(), image.getCreationDate(),
+      image.getArchitecture(), image.getHypervisor(), image.getImageType(), image.getImageOwnerAlias(), image.getOwnerId(),
+      joinProductCodes(image.getProductCodes()), joinTags(image.getTags()), image.isPublic());
+  }
+
+  /**
+   * Joins product codes into a single string.
+   *
+   * @param productCodes   the product codes (may be <code>null</code>)
+   * @return product codes in format code,code
+   */
+  private static String joinProductCodes(List<ProductCode> productCodes) {
+    final List<String> productCodeIds = new ArrayList<String>();
+    if(productCodes != null) {
+      for(ProductCode productCode : productCodes) {
+        productCodeIds.add(productCode.getProductCodeId());
+      }
+    }
+    return StringUtils.join(productCodeIds, ",");
+  }
+
+  /**
+   * Joins tags into a single string.
+   *
+   * @param tags   the tags (may be <code>null</code>)
+   * @return tags in format key=value;key=value
+   */
+  private static String joinTags(List<Tag> tags) {
+    final List<String> keyValues = new ArrayList<String>();
+    if(tags != null) {
+      for(Tag tag : tags) {
+        keyValues.add(tag.getKey() + "=" + tag.getValue());
+      }
+    }
+    return StringUtils.join(keyValues, ";");
+  }
+
+  /**
+   * Gets image id.
+   * @return ami id
+   */
+  public String getImageId() {
+    return imageId;
+  }
+
+  /**
+   * Gets name.
+   * @return name of ami
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets description.
+   * @return description of image
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Gets creation date.
+   * @return ISO 8601 creation date
+   */
+  public String getCreationDate() {
+    return creationDate;
+  }
+
+  /**
+   * Gets architecture.
+   * @return image architecture (i386|x86_64)
+   */
+  public String getArchitecture() {
+    return architecture;
+  }
+
+  /**
+   * Gets hypervisor.
+   * @return hypervisor (xen|ovm)
+   */
+  public String getHypervisor() {
+    return hypervisor;
+  }
+
+  /**
+   * Gets image type.
+   * @return image type (kernel|machine|ramdisk)
+   */
+  public String getImageType() {
+    return imageType;
+  }
+
+  /**
+   * Gets owner alias.
+   * @return the AWS account alias
+   */
+  public String getOwnerAlias() {
+    return ownerAlias;
+  }
+
+  /**
+   * Gets owner id.
+   * @return the AWS account id of the image owner
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * Gets product codes.
+   * @return product codes in format code,code
+   */
+  public String getProductCodes() {
+    return productCodes;
+  }
+
+  /**
+   * Gets tags.
+   * @return tags in format key=value;key=value
+   */
+  public String getTags() {
+    return tags;
+  }
+
+  /**
+   * Gets is-public.
+   * @return true if the image is public
+   */
+  public Boolean getShared() {
+    return shared;
+  }
+
+  /**
+   * Compares all fields of the images.
+   *
+   * @param other   the object to compare with
+   * @return true if the other object is an image with equal fields
+   */
+  @Override
+  public boolean equals(Object other) {
+    if(this == other) {
+      return true;
+    }
+    if(!(other instanceof AwsAmiImage)) {
+      return false;
+    }
+    final AwsAmiImage image = (AwsAmiImage) other;
+    return Objects.equals(imageId, image.imageId) && Objects.equals(name, image.name)
+      && Objects.equals(description, image.description) && Objects.equals(creationDate, image.creationDate)
+      && Objects.equals(architecture, image.architecture) && Objects.equals(hypervisor, image.hypervisor)
+      && Objects.equals(imageType, image.imageType) && Objects.equals(ownerAlias, image.ownerAlias)
+      && Objects.equals(ownerId, image.ownerId) && Objects.equals(productCodes, image.productCodes)
+      && Objects.equals(tags, image.tags) && Objects.equals(shared, image.shared);
+  }
+
+  /**
+   * Returns a hash code for the image.
+   * @return hash code of the image id and creation date
+   */
+  @Override
+  public int hashCode() {
+    return Objects.hash(imageId, creationDate);
+  }
+
+  /**
+   * Converts {@link AwsAmiImage} into a map of its fields, as returned by
+   * the pipeline step and the REST API.
+   *
+   * @return map of field name to value
+   */
+  public Map<String, String> toMap() {
+    final Map<String, String> map = new LinkedHashMap<String, String>();
+    map.put("imageId", imageId);
+    map.put("name", name);
+    map.put("description", description);
+    map.put("creationDate", creationDate);
+    map.put("architecture", architecture);
+    map.put("hypervisor", hypervisor);
+    map.put("imageType", imageType);
+    map.put("ownerAlias", ownerAlias);
+    map.put("ownerId", ownerId);
+    map.put("productCodes", productCodes);
+    map.put("tags", tags);
+    map.put("shared", shared == null ? null : shared.toString());
+    return map;
+  }
+
+  /**
+   * Converts {@link AwsAmiImage} into a <code>String</code>
+   * representation.
+   *
+   * @return string containing all fields
+   */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+      .append("imageId", imageId)
+      .append("name", name)
+      .append("description", description)
+      .append("creationDate", creationDate)
+      .append("architecture", architecture)
+      .append("hypervisor", hypervisor)
+      .append("imageType", imageType)
+      .append("ownerAlias", ownerAlias)
+      .append("ownerId", ownerId)
+      .append("productCodes", productCodes)
+      .append("tags", tags)
+      .append("shared", shared).toString();
+  }
+}
@@ -0,0 +1,256 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.ec2.model.Image;
+
+/**
+ * Cache of the latest image of each query, shared by every trigger and
+ * pipeline on the controller.
+ *
+ * <p>Triggers store the result of every poll. Lookups are served from the
+ * cache while the cached image is younger than the requested maximum age;
+ * otherwise the image is fetched, and concurrent lookups of the same
+ * query wait for a single fetch rather than each calling DescribeImages.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageCache {
+
+  private static final int MAX_ENTRIES = 1000;
+  private static final AwsAmiImageCache INSTANCE = new AwsAmiImageCache();
+
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  private final ConcurrentMap<String, FutureTask<Entry>> fetches = new ConcurrentHashMap<String, FutureTask<Entry>>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a new {@link AwsAmiImageCache}.
+   */
+  AwsAmiImageCache() {
+  }
+
+  /**
+   * Gets the {@link AwsAmiImageCache} singleton.
+   * @return the cache
+   */
+  public static AwsAmiImageCache get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets the latest image of a query, fetching it from a source if the
+   * cached image is older than <code>maxAgeMillis</code>.
+   *
+   * @param source         the source of the image
+   * @param query          the query
+   * @param maxAgeMillis   maximum age of a cached image
+   * @return the cache entry
+   * @throws Exception if the image could not be fetched
+   */
+  public Entry getLatestImage(final AwsAmiImageSource source, final AwsAmiImageQuery query, long maxAgeMillis)
+      throws Exception {
+    return get(getKey(source.getKey(), query), maxAgeMillis, new Callable<AwsAmiImage>() {
+      @Override
+      public AwsAmiImage call() {
+        final List<Image> images = source.fetchLatestImages(query.toAWSFilters(), 1);
+        return images.isEmpty() ? null : AwsAmiImage.from(images.get(0));
+      }
+    });
+  }
+
+  /**
+   * Stores the latest image of a query found by a poll.
+   *
+   * @param sourceKey   key of the source polled
+   * @param query       the query
+   * @param image       the latest image or <code>null</code> if none
+   *                    matched
+   */
+  public void putLatestImage(String sourceKey, AwsAmiImageQuery query, Image image) {
+    put(getKey(sourceKey, query), new Entry(image == null ? null : AwsAmiImage.from(image), System.currentTimeMillis()));
+  }
+
+  /**
+   * Gets the cached latest image of a query without fetching it.
+   *
+   * @param sourceKey   key of the source
+   * @param query       the query
+   * @return the cache entry or <code>null</code> if not cached
+   */
+  public Entry peekLatestImage(String sourceKey, AwsAmiImageQuery query) {
+    synchronized(entries) {
+      return entries.get(getKey(sourceKey, query));
+    }
+  }
+
+  /**
+   * Gets an entry, loading it if the cached entry is older than
+   * <code>maxAgeMillis</code>. Only one load runs per key at a time.
+   *
+   * @param key            the cache key
+   * @param maxAgeMillis   maximum age of a cached entry
+   * @param loader         loads the image
+   * @return the cache entry
+   * @throws Exception if the image could not be loaded
+   */
+  Entry get(final String key, long maxAgeMillis, final Callable<AwsAmiImage> loader) throws Exception {
+    final long now = System.currentTimeMillis();
+    synchronized(entries) {
+      final Entry entry = entries.get(key);
+      if(entry != null && now - entry.getTime() <= maxAgeMillis) {
+        hits.incrementAndGet();
+        return entry;
+      }
+    }
+
+    final FutureTask<Entry> fetch = new FutureTask<Entry>(new Callable<Entry>() {
+      @Override
+      public Entry call() throws Exception {
+        final Entry entry = new Entry(loader.call(), System.currentTimeMillis());
+        put(key, entry);
+        return entry;
+      }
+    });
+    FutureTask<Entry> running = fetches.putIfAbsent(key, fetch);
+    if(running == null) {
+      misses.incrementAndGet();
+      running = fetch;
+      try {
+        fetch.run();
+      } finally {
+        fetches.remove(key, fetch);
+      }
+    } else {
+      hits.incrementAndGet();
+    }
+
+    try {
+      return running.get();
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Gets the number of lookups served from the cache, including lookups
+   * that waited for another lookup's fetch.
+   * @return number of hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups that fetched the image.
+   * @return number of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Stores an entry unless a newer entry is already cached.
+   *
+   * @param key     the cache key
+   * @param entry   the entry
+   */
+  private void put(String key, Entry entry) {
+    synchronized(entries) {
+      final Entry current = entries.get(key);
+      if(current == null || current.getTime() <= entry.getTime()) {
+        entries.put(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Gets the cache key of a query.
+   *
+   * @param sourceKey   key of the source
+   * @param query       the query
+   * @return the cache key
+   */
+  private static String getKey(String sourceKey, AwsAmiImageQuery query) {
+    return sourceKey + "|" + query.getKey();
+  }
+
+  /**
+   * A cached latest image.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Entry {
+    private final AwsAmiImage image;
+    private final long time;
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param image   the latest image or <code>null</code> if none matched
+     * @param time    time the image was fetched
+     */
+    Entry(AwsAmiImage image, long time) {
+      this.image = image;
+      this.time = time;
+    }
+
+    /**
+     * Gets the latest image.
+     * @return the image or <code>null</code> if none matched
+     */
+    public AwsAmiImage getImage() {
+      return image;
+    }
+
+    /**
+     * Gets the time the image was fetched.
+     * @return time in milliseconds
+     */
+    public long getTime() {
+      return time;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.LaunchPermission;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Extra metadata of an image that is not returned by the polling call in a
+ * useful form, or at all. It is fetched on demand when a
+ * build cause is displayed.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageExtras {
+
+  private final String imageId;
+  private final String rootDeviceType;
+  private final String snapshotIds;
+  private final String volumeSizes;
+  private final String launchPermissions;
+
+  /**
+   * Creates a new {@link AwsAmiImageExtras}.
+   *
+   * @param imageId             ami id
+   * @param rootDeviceType      root device type (ebs|instance-store)
+   * @param snapshotIds         EBS snapshot ids in format snap,snap
+   * @param volumeSizes         EBS volume sizes in GiB in format size,size
+   * @param launchPermissions   launch permissions in format
+   *                            user,user or <code>all</code> for public
+   *                            images; <code>null</code> if they could
+   *                            not be read
+   */
+  public AwsAmiImageExtras(String imageId, String rootDeviceType, String snapshotIds, String volumeSizes, String launchPermissions) {
+    this.imageId = imageId;
+    this.rootDeviceType = rootDeviceType;
+    this.snapshotIds = snapshotIds;
+    this.volumeSizes = volumeSizes;
+    this.launchPermissions = launchPermissions;
+  }
+
+  /**
+   * Creates a {@link AwsAmiImageExtras} from an AWS <code>Image</code>.
+   *
+   * @param image               the AWS image
+   * @param launchPermissions   the launch permissions of the image
+   * @return the extras
+   */
+  public static AwsAmiImageExtras from(Image image, List<LaunchPermission> launchPermissions) {
+    final List<String> snapshotIds = new ArrayList<String>();
+    final List<String> volumeSizes = new ArrayList<String>();
+    for(BlockDeviceMapping mapping : image.getBlockDeviceMappings()) {
+      EbsBlockDevice ebs = mapping.getEbs();
+      if(ebs != null) {
+        snapshotIds.add(StringUtils.defaultString(ebs.getSnapshotId()));
+        volumeSizes.add(ebs.getVolumeSize() == null ? "" : String.valueOf(ebs.getVolumeSize()));
+      }
+    }
+    return new AwsAmiImageExtras(image.getImageId(), image.getRootDeviceType(), StringUtils.join(snapshotIds, ","),
+      StringUtils.join(volumeSizes, ","), joinLaunchPermissions(launchPermissions));
+  }
+
+  /**
+   * Joins launch permissions into a comma separated string.
+   *
+   * @param launchPermissions   the launch permissions or <code>null</code>
+   * @return launch permissions in format user,user,all or <code>null</code>
+   */
+  private static String joinLaunchPermissions(List<LaunchPermission> launchPermissions) {
+    if(launchPermissions == null) {
+      return null;
+    }
+    final List<String> values = new ArrayList<String>();
+    for(LaunchPermission launchPermission : launchPermissions) {
+      values.add(StringUtils.defaultIfEmpty(launchPermission.getUserId(), launchPermission.getGroup()));
+    }
+    return StringUtils.join(values, ",");
+  }
+
+  /**
+   * Gets image id.
+   * @return image id
+   */
+  public String getImageId() {
+    return imageId;
+  }
+
+  /**
+   * Gets root device type.
+   * @return root device type (ebs|instance-store)
+   */
+  public String getRootDeviceType() {
+    return rootDeviceType;
+  }
+
+  /**
+   * Gets EBS snapshot ids.
+   * @return snapshot ids in format snap,snap
+   */
+  public String getSnapshotIds() {
+    return snapshotIds;
+  }
+
+  /**
+   * Gets EBS volume sizes.
+   * @return volume sizes in GiB in format size,size
+   */
+  public String getVolumeSizes() {
+    return volumeSizes;
+  }
+
+  /**
+   * Gets launch permissions.
+   * @return launch permissions in format user,user or <code>all</code>
+   */
+  public String getLaunchPermissions() {
+    return launchPermissions;
+  }
+
+  /**
+   * Converts this object to a string.
+   * @return string representing this object
+   */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+      .append("imageId", imageId)
+      .append("rootDeviceType", rootDeviceType)
+      .append("snapshotIds", snapshotIds)
+      .append("volumeSizes", volumeSizes)
+      .append("launchPermissions", launchPermissions)
+      .toString();
+  }
+}
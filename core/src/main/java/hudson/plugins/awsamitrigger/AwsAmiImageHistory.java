@@ -0,0 +1,217 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded history of the latest images seen by the polls of a filter,
+ * newest first. The images are held in a ring buffer so that adding an
+ * image and looking up the image <code>n</code> polls back are constant
+ * time.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageHistory {
+
+  private final String[] imageIds;
+  private final long[] creationTimes;
+  private int head = -1;
+  private int size;
+
+  /**
+   * Creates a new {@link AwsAmiImageHistory}.
+   *
+   * @param capacity   the maximum number of images to keep
+   */
+  public AwsAmiImageHistory(int capacity) {
+    if(capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.imageIds = new String[capacity];
+    this.creationTimes = new long[capacity];
+  }
+
+  /**
+   * Gets the maximum number of images kept.
+   * @return capacity of the history
+   */
+  public int getCapacity() {
+    return imageIds.length;
+  }
+
+  /**
+   * Gets the number of images in the history.
+   * @return number of images
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Adds the latest image seen by a poll. Images already in the history
+   * (for example when a newer image is deregistered and an older one
+   * becomes the latest again) are not added again; if the history is full
+   * the oldest image is dropped.
+   *
+   * @param imageId        the image id
+   * @param creationTime   creation time of the image
+   * @return true if the image was added
+   */
+  public synchronized boolean add(String imageId, long creationTime) {
+    if(indexOf(imageId) >= 0) {
+      return false;
+    }
+    head = (head + 1) % imageIds.length;
+    imageIds[head] = imageId;
+    creationTimes[head] = creationTime;
+    size = Math.min(size + 1, imageIds.length);
+    return true;
+  }
+
+  /**
+   * Gets the image id <code>n</code> images back.
+   *
+   * @param n   number of images back, 0 for the latest image
+   * @return the image id or <code>null</code> if the history is shorter
+   */
+  public synchronized String getImageId(int n) {
+    return n < 0 || n >= size ? null : imageIds[slot(n)];
+  }
+
+  /**
+   * Gets the creation time of the image <code>n</code> images back.
+   *
+   * @param n   number of images back, 0 for the latest image
+   * @return the creation time or -1 if the history is shorter
+   */
+  public synchronized long getCreationTime(int n) {
+    return n < 0 || n >= size ? -1 : creationTimes[slot(n)];
+  }
+
+  /**
+   * Gets the image ids, newest first.
+   * @return list of image ids
+   */
+  public synchronized List<String> getImageIds() {
+    final List<String> ids = new ArrayList<String>(size);
+    for(int n = 0; n < size; n++) {
+      ids.add(imageIds[slot(n)]);
+    }
+    return ids;
+  }
+
+  /**
+   * Gets the ids of the images seen before an image, newest first.
+   *
+   * @param imageId   the image id
+   * @return list of older image ids; empty if the image is not in the
+   * history
+   */
+  public synchronized List<String> getImageIdsBefore(String imageId) {
+    final List<String> ids = new ArrayList<String>();
+    final int index = indexOf(imageId);
+    if(index >= 0) {
+      for(int n = index + 1; n < size; n++) {
+        ids.add(imageIds[slot(n)]);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Copies this history into a history with a different capacity, keeping
+   * the newest images.
+   *
+   * @param capacity   the maximum number of images to keep
+   * @return the resized history
+   */
+  public synchronized AwsAmiImageHistory resize(int capacity) {
+    final AwsAmiImageHistory history = new AwsAmiImageHistory(capacity);
+    for(int n = Math.min(size, capacity) - 1; n >= 0; n--) {
+      history.add(imageIds[slot(n)], creationTimes[slot(n)]);
+    }
+    return history;
+  }
+
+  /**
+   * Gets the position of an image in the history.
+   *
+   * @param imageId   the image id
+   * @return number of images back or -1 if not in the history
+   */
+  private int indexOf(String imageId) {
+    for(int n = 0; n < size; n++) {
+      if(imageIds[slot(n)].equals(imageId)) {
+        return n;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the array slot of the image <code>n</code> images back.
+   *
+   * @param n   number of images back
+   * @return index into the arrays
+   */
+  private int slot(int n) {
+    return (head - n + imageIds.length) % imageIds.length;
+  }
+
+  /**
+   * Writes the history, oldest image first.
+   *
+   * @param out   the output to write to
+   * @throws IOException if the history could not be written
+   */
+  synchronized void write(DataOutput out) throws IOException {
+    out.writeInt(imageIds.length);
+    out.writeInt(size);
+    for(int n = size - 1; n >= 0; n--) {
+      out.writeUTF(imageIds[slot(n)]);
+      out.writeLong(creationTimes[slot(n)]);
+    }
+  }
+
+  /**
+   * Reads a history written by {@link #write(DataOutput)}.
+   *
+   * @param in   the input to read from
+   * @return the history
+   * @throws IOException if the history could not be read
+   */
+  static AwsAmiImageHistory read(DataInput in) throws IOException {
+    final AwsAmiImageHistory history = new AwsAmiImageHistory(in.readInt());
+    for(int count = in.readInt(); count > 0; count--) {
+      history.add(in.readUTF(), in.readLong());
+    }
+    return history;
+  }
+}
@@ -0,0 +1,199 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.util.DateUtils;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Orders and compares the images returned by a poll: selects the newest
+ * images, fingerprints a poll result and checks images against a
+ * watermark.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageMatcher {
+
+  /**
+   * Prevents instantiation.
+   */
+  private AwsAmiImageMatcher() {
+  }
+
+  /**
+   * Sorts images by <code>creationDate</code> with the newest image first.
+   * Images with the same <code>creationDate</code> are sorted by image id.
+   *
+   * @param images   the images to sort
+   */
+  public static void sortByCreationDate(List<Image> images) {
+    Collections.sort(images, new Comparator<Image>() {
+      @Override
+      public int compare(Image a, Image b) {
+        return compareImages(getCreationTime(b), b.getImageId(), getCreationTime(a), a.getImageId());
+      }
+    });
+  }
+
+  /**
+   * Selects the newest images. Rather than sorting every image, the images
+   * are passed through a heap bounded to <code>count</code> entries, so
+   * each creation date is parsed once and only the newest images are kept.
+   *
+   * @param results   the images to select from
+   * @param count     the number of images to return
+   * @return up to <code>count</code> images sorted in reverse order by
+   * <code>creationDate</code>
+   */
+  public static List<Image> newestImages(Collection<Image> results, int count) {
+    final PriorityQueue<DatedImage> heap = new PriorityQueue<DatedImage>(Math.max(1, Math.min(count, results.size()) + 1));
+    for(Image image : results) {
+      heap.add(new DatedImage(image));
+      if(heap.size() > count) {
+        heap.poll();
+      }
+    }
+
+    final LinkedList<Image> images = new LinkedList<Image>();
+    while(!heap.isEmpty()) {
+      images.addFirst(heap.poll().image);
+    }
+    return images;
+  }
+
+  /**
+   * Orders two images by creation time. Images created at the same time
+   * are ordered by image id, so the newest images of a poll do not depend
+   * on the order in which AWS returned them.
+   *
+   * @param aTime   creation time of the first image
+   * @param aId     id of the first image
+   * @param bTime   creation time of the second image
+   * @param bId     id of the second image
+   * @return negative if the first image is older than the second
+   */
+  private static int compareImages(long aTime, String aId, long bTime, String bId) {
+    if(aTime != bTime) {
+      return aTime < bTime ? -1 : 1;
+    }
+    return StringUtils.defaultString(aId).compareTo(StringUtils.defaultString(bId));
+  }
+
+  /**
+   * Computes a fingerprint of a poll result from the id, creation date and
+   * {@link AwsAmiImageSnapshot#signature(Image) signature} of each image.
+   * The fingerprint does not depend on the order of the images, so two
+   * polls that return the same images have the same fingerprint without
+   * parsing or sorting anything.
+   *
+   * @param images   the images returned by a poll
+   * @return fingerprint of the images
+   */
+  public static long fingerprint(Collection<Image> images) {
+    long fingerprint = images.size();
+    for(Image image : images) {
+      long hash = ((long) StringUtils.defaultString(image.getImageId()).hashCode() << 32)
+        ^ ((StringUtils.defaultString(image.getCreationDate()).hashCode() * 31 + AwsAmiImageSnapshot.signature(image)) & 0xffffffffL);
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+      fingerprint += hash;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Checks if the image has a <code>creationDate</code> no older than a
+   * watermark. An image without a creation date is never new.
+   *
+   * @param image       the latest image matching a query
+   * @param watermark   creation time of the newest image already seen
+   * @return true if the image is new
+   */
+  public static boolean isNewImage(Image image, long watermark) {
+    if(image == null) {
+      return false;
+    }
+    final long creationTime = getCreationTime(image);
+    return creationTime != Long.MIN_VALUE && creationTime >= watermark;
+  }
+
+  /**
+   * Gets the creation time of an image. Some catalogs return images
+   * without a creation date, so a missing date is not an error.
+   *
+   * @param image   the image
+   * @return creation time in milliseconds or <code>Long.MIN_VALUE</code> if
+   * the image has no creation date
+   */
+  public static long getCreationTime(Image image) {
+    return StringUtils.isEmpty(image.getCreationDate())
+      ? Long.MIN_VALUE : DateUtils.parseISO8601Date(image.getCreationDate()).getTime();
+  }
+
+  /**
+   * An image and its parsed creation date, ordered oldest first. Images
+   * without a creation date are the oldest.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  private static final class DatedImage implements Comparable<DatedImage> {
+    private final Image image;
+    private final long creationTime;
+
+    /**
+     * Creates a new {@link DatedImage}.
+     *
+     * @param image   the AWS image
+     */
+    DatedImage(Image image) {
+      this.image = image;
+      this.creationTime = getCreationTime(image);
+    }
+
+    /**
+     * Compares creation dates, then image ids.
+     *
+     * @param other   the image to compare with
+     * @return negative if this image is older than <code>other</code>
+     */
+    @Override
+    public int compareTo(DatedImage other) {
+      return compareImages(creationTime, image.getImageId(), other.creationTime, other.image.getImageId());
+    }
+  }
+}
@@ -0,0 +1,445 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.ec2.model.Image;
+
+/**
+ * Polls the queries of a trigger and decides when to fire. Each poll
+ * fetches the latest images of every query, records them in the
+ * {@link AwsAmiTriggerState}, compares them with the previous poll and adds
+ * new matches and events to a pending set. The pending set is fired once
+ * the settle window (or max delay) has passed, as one {@link Fire}.
+ *
+ * <p>The poller does not schedule anything itself. The caller runs a poll,
+ * waits for the flush delay the poll returns, flushes and turns a fire into
+ * a build, {@link Fire#release() releasing} it when the build is
+ * scheduled.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImagePoller {
+
+  private final AwsAmiTriggerState state;
+  private final String regionName;
+  private final List<AwsAmiImageQuery> queries;
+  private final Map<String, AwsAmiLatestImages> latestImages = new ConcurrentHashMap<String, AwsAmiLatestImages>();
+  private int settleMinutes;
+  private int maxDelayMinutes;
+  private int historySize = 1;
+  private boolean buildOnRemoved;
+  private boolean buildOnStateChanged;
+
+  private Map<AwsAmiImageQuery, List<Image>> pendingMatches;
+  private List<AwsAmiEvent> pendingEvents;
+  private long pendingSince;
+  private long pendingUpdated;
+  private long pendingPolled;
+
+  /**
+   * Creates a new {@link AwsAmiImagePoller}.
+   *
+   * @param state        the polling state of the trigger
+   * @param regionName   AWS region name
+   * @param queries      the queries to poll
+   */
+  public AwsAmiImagePoller(AwsAmiTriggerState state, String regionName, List<AwsAmiImageQuery> queries) {
+    this.state = state;
+    this.regionName = regionName;
+    this.queries = queries;
+  }
+
+  /**
+   * Gets the polling state.
+   * @return the polling state of the trigger
+   */
+  public AwsAmiTriggerState getState() {
+    return state;
+  }
+
+  /**
+   * Sets the settle window.
+   * @param settleMinutes   minutes without a new match before a build is
+   *                        fired (0 fires immediately)
+   */
+  public void setSettleMinutes(int settleMinutes) {
+    this.settleMinutes = Math.max(0, settleMinutes);
+  }
+
+  /**
+   * Sets the maximum delay.
+   * @param maxDelayMinutes maximum minutes a match may wait for the settle
+   *                        window (0 for no limit)
+   */
+  public void setMaxDelayMinutes(int maxDelayMinutes) {
+    this.maxDelayMinutes = Math.max(0, maxDelayMinutes);
+  }
+
+  /**
+   * Sets the number of images kept in the history of each query.
+   * @param historySize   number of images kept per query
+   */
+  public void setHistorySize(int historySize) {
+    this.historySize = Math.max(1, historySize);
+  }
+
+  /**
+   * Sets whether a removed image fires a build.
+   * @param buildOnRemoved   true if removed images fire a build
+   */
+  public void setBuildOnRemoved(boolean buildOnRemoved) {
+    this.buildOnRemoved = buildOnRemoved;
+  }
+
+  /**
+   * Sets whether a change of the public flag, tags, name or description of
+   * an image fires a build.
+   * @param buildOnStateChanged   true if state changes fire a build
+   */
+  public void setBuildOnStateChanged(boolean buildOnStateChanged) {
+    this.buildOnStateChanged = buildOnStateChanged;
+  }
+
+  /**
+   * Polls each query for its latest images and adds the matches and the
+   * events selected for builds to the pending set.
+   *
+   * @param source     the source of the images
+   * @param status     the status of the trigger
+   * @param jobName    full name of the job, or <code>null</code>
+   * @param pollTime   time the poll started
+   * @return the result of the poll
+   */
+  public Poll poll(AwsAmiImageSource source, AwsAmiTriggerStatus status, String jobName, long pollTime) {
+    int imageCount = 0;
+    state.recordPoll(pollTime);
+
+    final Map<AwsAmiImageQuery, List<Image>> matches = new LinkedHashMap<AwsAmiImageQuery, List<Image>>();
+    final List<AwsAmiEvent> events = new ArrayList<AwsAmiEvent>();
+    for(AwsAmiImageQuery query : queries) {
+      final AwsAmiLatestImages previous = latestImages.get(query.getKey());
+      final AwsAmiLatestImages latest = fetchLatestImages(source, query, previous, jobName);
+      final List<Image> images = latest.getImages();
+      status.recordCall(System.currentTimeMillis());
+      imageCount += images.size();
+      AwsAmiImageCache.get().putLatestImage(source.getKey(), query, images.isEmpty() ? null : images.get(0));
+      if(latest == previous) {
+        state.recordResult(false);
+        continue;
+      }
+      latestImages.put(query.getKey(), latest);
+      state.recordResult(true);
+
+      final AwsAmiImageSnapshot snapshot = AwsAmiImageSnapshot.of(images);
+      events.addAll(snapshot.diff(state.recordSnapshot(query.getKey(), snapshot), query.getTopK(),
+        System.currentTimeMillis(), jobName, regionName, query.getKey()));
+      AwsAmiTriggerStateStore.get().markDirty();
+
+      final long creationTime = images.isEmpty() ? Long.MIN_VALUE : AwsAmiImageMatcher.getCreationTime(images.get(0));
+      if(creationTime != Long.MIN_VALUE
+          && state.recordImage(query.getKey(), images.get(0).getImageId(), creationTime, historySize)) {
+        AwsAmiTriggerStateStore.get().markDirty();
+      }
+      if(query.getTopK() > 1) {
+        if(state.recordTopImages(query.getKey(), getImageIds(images), creationTime)) {
+          AwsAmiTriggerStateStore.get().markDirty();
+          matches.put(query, images);
+          status.recordMatch(images.isEmpty() ? null : images.get(0).getImageId(), System.currentTimeMillis());
+        }
+      } else if(!images.isEmpty() && AwsAmiImageMatcher.isNewImage(images.get(0), state.getWatermark(query.getKey()))) {
+        matches.put(query, images);
+        status.recordMatch(images.get(0).getImageId(), System.currentTimeMillis());
+      }
+    }
+
+    return new Poll(imageCount, events, addPendingMatches(matches, getBuildEvents(events), pollTime));
+  }
+
+  /**
+   * Fetches the latest images of a query, recording a flight recorder event
+   * if one is enabled.
+   *
+   * @param source     the source of the images
+   * @param query      the query
+   * @param previous   the latest images of the previous poll of the query,
+   *                   or <code>null</code>
+   * @param jobName    full name of the job, or <code>null</code>
+   * @return <code>previous</code> if the result is unchanged, otherwise up
+   * to {@link AwsAmiImageQuery#getTopK()} images, newest first
+   */
+  private AwsAmiLatestImages fetchLatestImages(AwsAmiImageSource source, AwsAmiImageQuery query,
+      AwsAmiLatestImages previous, String jobName) {
+    final Object event = AwsAmiFlightRecorder.FETCH.begin();
+    AwsAmiLatestImages images = null;
+    try {
+      images = source.fetchLatestImages(query.toAWSFilters(), query.getTopK(), previous);
+    } finally {
+      if(event != null) {
+        AwsAmiFlightRecorder.FETCH.commit(event, jobName, query.getKey(), regionName,
+          images == null ? 0 : images.getImages().size());
+      }
+    }
+    return images;
+  }
+
+  /**
+   * Gets the events that fire builds.
+   *
+   * @param events   the events found by a poll
+   * @return the removed and state changed events selected for builds
+   */
+  private List<AwsAmiEvent> getBuildEvents(List<AwsAmiEvent> events) {
+    final List<AwsAmiEvent> buildEvents = new ArrayList<AwsAmiEvent>();
+    for(AwsAmiEvent event : events) {
+      if((buildOnRemoved && event.getType() == AwsAmiEvent.Type.REMOVED)
+          || (buildOnStateChanged && event.getType() == AwsAmiEvent.Type.STATE_CHANGED)) {
+        buildEvents.add(event);
+      }
+    }
+    return buildEvents;
+  }
+
+  /**
+   * Gets the ids of images.
+   *
+   * @param images   the images
+   * @return list of image ids in the same order
+   */
+  private static List<String> getImageIds(List<Image> images) {
+    final List<String> imageIds = new ArrayList<String>(images.size());
+    for(Image image : images) {
+      imageIds.add(image.getImageId());
+    }
+    return imageIds;
+  }
+
+  /**
+   * Adds matches and events to the pending set. The settle window restarts
+   * whenever a query matches an image that is not already pending or an
+   * event is added.
+   *
+   * @param matches    images that matched in the latest poll keyed by query
+   * @param events     events that fire builds
+   * @param pollTime   time the poll started
+   * @return milliseconds until the pending set may be flushed if the
+   * settle window restarted, otherwise 0
+   */
+  private synchronized long addPendingMatches(Map<AwsAmiImageQuery, List<Image>> matches, List<AwsAmiEvent> events,
+      long pollTime) {
+    if(matches.isEmpty() && events.isEmpty()) {
+      return 0;
+    }
+
+    final long now = System.currentTimeMillis();
+    pendingPolled = pollTime;
+    if(pendingMatches == null) {
+      pendingMatches = new LinkedHashMap<AwsAmiImageQuery, List<Image>>();
+      pendingEvents = new ArrayList<AwsAmiEvent>();
+      pendingSince = now;
+    }
+
+    pendingEvents.addAll(events);
+    boolean changed = !events.isEmpty();
+    for(Map.Entry<AwsAmiImageQuery, List<Image>> match : matches.entrySet()) {
+      List<Image> previous = pendingMatches.put(match.getKey(), match.getValue());
+      if(previous == null || !getImageIds(previous).equals(getImageIds(match.getValue()))) {
+        changed = true;
+      }
+    }
+
+    if(!changed) {
+      return 0;
+    }
+    pendingUpdated = now;
+    return Math.max(0, getFlushTime() - now);
+  }
+
+  /**
+   * Gets the time at which the pending set should be fired.
+   * @return the earlier of the end of the settle window and the max delay
+   */
+  private long getFlushTime() {
+    long flushTime = pendingUpdated + TimeUnit.MINUTES.toMillis(settleMinutes);
+    if(maxDelayMinutes > 0) {
+      flushTime = Math.min(flushTime, pendingSince + TimeUnit.MINUTES.toMillis(maxDelayMinutes));
+    }
+    return flushTime;
+  }
+
+  /**
+   * Takes the pending set if the settle window (or max delay) has passed
+   * by <code>now</code>. The watermark of the fire is the start of the poll
+   * that last added matches rather than <code>now</code>, so images created
+   * while the matches were pending are found by the next poll.
+   *
+   * @param now   the current time
+   * @return the fire, or <code>null</code> if nothing is pending or the
+   * settle window has not passed
+   */
+  public synchronized Fire flush(long now) {
+    if(pendingMatches == null || now < getFlushTime()) {
+      return null;
+    }
+    final Fire fire = new Fire(state, pendingMatches, pendingEvents, pendingPolled);
+    pendingMatches = null;
+    pendingEvents = null;
+    return fire;
+  }
+
+  /**
+   * The result of a poll.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Poll {
+    private final int imageCount;
+    private final List<AwsAmiEvent> events;
+    private final long flushDelay;
+
+    /**
+     * Creates a new {@link Poll}.
+     *
+     * @param imageCount   number of images returned for all queries
+     * @param events       the events found by the poll
+     * @param flushDelay   milliseconds until the pending set may be flushed,
+     *                     or 0
+     */
+    Poll(int imageCount, List<AwsAmiEvent> events, long flushDelay) {
+      this.imageCount = imageCount;
+      this.events = events;
+      this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Gets the number of images returned for all queries.
+     * @return number of images
+     */
+    public int getImageCount() {
+      return imageCount;
+    }
+
+    /**
+     * Gets the events found by the poll, whether or not they fire builds.
+     * @return the events
+     */
+    public List<AwsAmiEvent> getEvents() {
+      return events;
+    }
+
+    /**
+     * Gets the time until the pending set may be flushed. It is only set
+     * when the poll restarted the settle window.
+     * @return milliseconds until a flush, or 0 if the caller need not
+     * schedule one
+     */
+    public long getFlushDelay() {
+      return flushDelay;
+    }
+  }
+
+  /**
+   * The matches and events of one build. The watermark of the queries is
+   * advanced when the fire is {@link #release() released}, so a fire that
+   * is still held for admission at a restart is found again.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Fire {
+    private final AwsAmiTriggerState state;
+    private final Map<AwsAmiImageQuery, List<Image>> matches;
+    private final List<AwsAmiEvent> events;
+    private final long watermark;
+
+    /**
+     * Creates a new {@link Fire}.
+     *
+     * @param state       the polling state the fire advances
+     * @param matches     the matched images keyed by query
+     * @param events      the events that fire the build
+     * @param watermark   start of the poll that last added matches
+     */
+    Fire(AwsAmiTriggerState state, Map<AwsAmiImageQuery, List<Image>> matches, List<AwsAmiEvent> events,
+        long watermark) {
+      this.state = state;
+      this.matches = Collections.unmodifiableMap(matches);
+      this.events = Collections.unmodifiableList(events);
+      this.watermark = watermark;
+    }
+
+    /**
+     * Gets the matched images.
+     * @return images keyed by query, newest first
+     */
+    public Map<AwsAmiImageQuery, List<Image>> getMatches() {
+      return matches;
+    }
+
+    /**
+     * Gets the events that fire the build.
+     * @return the events
+     */
+    public List<AwsAmiEvent> getEvents() {
+      return events;
+    }
+
+    /**
+     * Gets the watermark the fire advances to.
+     * @return watermark in milliseconds
+     */
+    public long getWatermark() {
+      return watermark;
+    }
+
+    /**
+     * Gets the ids of the images a query saw before an image.
+     *
+     * @param query     the query
+     * @param imageId   the image id
+     * @return list of image ids, newest first
+     */
+    public List<String> getImageHistoryBefore(AwsAmiImageQuery query, String imageId) {
+      return state.getImageHistoryBefore(query.getKey(), imageId);
+    }
+
+    /**
+     * Records that the build of the fire was scheduled, advancing the
+     * watermark of the queries.
+     */
+    public void release() {
+      state.recordFire(watermark);
+      AwsAmiTriggerStateStore.get().markDirty();
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.ec2.model.Filter;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The values of an AMI search and the DescribeImages filters they are
+ * planned into. Empty values, and values set to {@link #ANY}, do not
+ * restrict the search.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageQuery {
+  public static final String ANY = "- any -";
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiImageQuery.class.getName());
+
+  private final String key;
+  private final String architecture;
+  private final String description;
+  private final String name;
+  private final String ownerAlias;
+  private final String ownerId;
+  private final String productCode;
+  private final String tags;
+  private final String shared;
+  private final int topK;
+
+  /**
+   * Creates a new {@link AwsAmiImageQuery}.
+   *
+   * @param key            key that identifies the values of the query
+   * @param architecture   image architecture (i386|x86_64)
+   * @param description    description of image (provided during image creation)
+   * @param name           name of ami (may be a wildcard)
+   * @param ownerAlias     the AWS account alias (for example, amazon)
+   * @param ownerId        the AWS account id of the image owner
+   * @param productCode    the product code
+   * @param tags           <code>key=value</code> tags separated by <code>;</code>
+   * @param shared         aka is public
+   * @param topK           number of latest images tracked
+   */
+  public AwsAmiImageQuery(String key, String architecture, String description, String name, String ownerAlias,
+      String ownerId, String productCode, String tags, String shared, int topK) {
+    this.key = key;
+    this.architecture = architecture;
+    this.description = description;
+    this.name = name;
+    this.ownerAlias = ownerAlias;
+    this.ownerId = ownerId;
+    this.productCode = productCode;
+    this.tags = tags;
+    this.shared = shared;
+    this.topK = Math.max(1, topK);
+  }
+
+  /**
+   * Gets a key that identifies the values of the query. Queries with the
+   * same values have the same key.
+   * @return key for the query values
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Gets the number of latest images tracked.
+   * @return number of latest images, at least 1
+   */
+  public int getTopK() {
+    return topK;
+  }
+
+  /**
+   * Plans the query into a Collection of AWS spec <code>Filter</code>
+   * objects.
+   *
+   * <p>Any values that are empty or set to -any- are ignored. A filter of
+   * <code>state=available</code> is always added. Tags are parsed and added
+   * as individual <code>Filter</code> objects.</p>
+   *
+   * @return Collection of Filter objects
+   */
+  public Collection<Filter> toAWSFilters() {
+    Collection<Filter> filters = new ArrayList<Filter>();
+    filters.add(new Filter("state", Collections.singletonList("available")));
+    if(!StringUtils.isEmpty(architecture) && !ANY.equals(architecture)) {
+      filters.add(new Filter("architecture", Collections.singletonList(architecture)));
+    }
+    if(!StringUtils.isEmpty(description)) {
+      filters.add(new Filter("description", Collections.singletonList(description)));
+    }
+    if(!StringUtils.isEmpty(name)) {
+      filters.add(new Filter("name", Collections.singletonList(name)));
+    }
+    if(!StringUtils.isEmpty(ownerAlias) && !ANY.equals(ownerAlias)) {
+      filters.add(new Filter("owner-alias", Collections.singletonList(ownerAlias)));
+    }
+    if(!StringUtils.isEmpty(ownerId)) {
+      filters.add(new Filter("owner-id", Collections.singletonList(ownerId)));
+    }
+    if(!StringUtils.isEmpty(productCode)) {
+      filters.add(new Filter("product-code", Collections.singletonList(productCode)));
+    }
+    if(!StringUtils.isEmpty(tags)) {
+      for(String tag : tags.split(";")) {
+        String[] nv = tag.split("=",2);
+        if(nv.length != 2) {
+          LOGGER.log(Level.WARNING, "Invalid tags specification {0}", nv);
+        } else {
+          filters.add(new Filter("tag:"+nv[0],Collections.singletonList(nv[1])));
+        }
+      }
+    }
+    if(!StringUtils.isEmpty(shared) && !ANY.equals(shared)) {
+      filters.add(new Filter("is-public", Collections.singletonList(shared)));
+    }
+    return filters;
+  }
+
+  /**
+   * Converts {@link AwsAmiImageQuery} into a <code>String</code>
+   * representation.
+   *
+   * @return the query key
+   */
+  @Override
+  public String toString() {
+    return key;
+  }
+}
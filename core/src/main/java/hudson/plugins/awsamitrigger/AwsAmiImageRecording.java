@@ -0,0 +1,429 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ProductCode;
+import com.amazonaws.services.ec2.model.Tag;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Records DescribeImages responses to compact files and replays them, so
+ * that benchmarks and regression tests can run against captured image
+ * catalogs without network access.
+ *
+ * <p>Each response is stored in a gzipped, tab separated file named after a
+ * digest of the source (account and region) and the request filters and
+ * image ids, so the same filters against two regions are kept apart. The
+ * first line holds the format version, the source and the request; every other line holds one image in the
+ * order EC2 returned it. Tabs, line breaks, backslashes, commas and equals
+ * signs in values are escaped with a backslash and <code>\N</code> stands
+ * for <code>null</code>.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageRecording {
+
+  private static final String MAGIC = "aws-ami-trigger-images";
+  private static final int FORMAT_VERSION = 1;
+  private static final String NULL = "\\N";
+  private static final String SUFFIX = ".tsv.gz";
+
+  private final File directory;
+
+  /**
+   * Creates a new {@link AwsAmiImageRecording}.
+   *
+   * @param directory   the directory holding the recorded responses
+   */
+  public AwsAmiImageRecording(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Gets the recording in the directory named by a system property.
+   *
+   * @param property   name of the system property
+   * @return the recording or <code>null</code> if the property is not set
+   */
+  static AwsAmiImageRecording fromProperty(String property) {
+    final String directory = System.getProperty(property);
+    return StringUtils.isEmpty(directory) ? null : new AwsAmiImageRecording(new File(directory));
+  }
+
+  /**
+   * Gets a canonical form of a request that does not depend on the order
+   * of its filters.
+   *
+   * @param request   the request
+   * @return the canonical request
+   */
+  static String getKey(DescribeImagesRequest request) {
+    final List<String> parts = new ArrayList<String>();
+    for(Filter filter : request.getFilters()) {
+      final List<String> values = new ArrayList<String>(filter.getValues());
+      Collections.sort(values);
+      parts.add(filter.getName() + "=" + StringUtils.join(values, ","));
+    }
+    Collections.sort(parts);
+    if(!request.getImageIds().isEmpty()) {
+      final List<String> imageIds = new ArrayList<String>(request.getImageIds());
+      Collections.sort(imageIds);
+      parts.add("image-ids=" + StringUtils.join(imageIds, ","));
+    }
+    return StringUtils.join(parts, ";");
+  }
+
+  /**
+   * Gets a canonical form of a request to a source.
+   *
+   * @param sourceKey   key of the account and region
+   * @param request     the request
+   * @return the canonical source and request
+   * @see AwsAmiImageSource#getKey()
+   */
+  static String getKey(String sourceKey, DescribeImagesRequest request) {
+    return StringUtils.defaultString(sourceKey) + "|" + getKey(request);
+  }
+
+  /**
+   * Gets the lower case hexadecimal MD5 digest of a string.
+   *
+   * @param text   the string
+   * @return the digest
+   */
+  static String getDigest(String text) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder hex = new StringBuilder(digest.length * 2);
+      for(byte b : digest) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  /**
+   * Gets the file of the response to a request.
+   *
+   * @param sourceKey   key of the account and region
+   * @param request     the request
+   * @return the file
+   */
+  File getFile(String sourceKey, DescribeImagesRequest request) {
+    return new File(directory, getDigest(getKey(sourceKey, request)) + SUFFIX);
+  }
+
+  /**
+   * Records the response to a request, replacing any earlier recording.
+   *
+   * @param sourceKey   key of the account and region
+   * @param request     the request
+   * @param images      the images in the order EC2 returned them
+   * @throws IOException if the response could not be written
+   */
+  public void record(String sourceKey, DescribeImagesRequest request, List<Image> images) throws IOException {
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory);
+    }
+    final File file = getFile(sourceKey, request);
+    final File tmp = new File(file.getPath() + ".tmp");
+    final OutputStream out = new FileOutputStream(tmp);
+    try {
+      write(out, getKey(sourceKey, request), images);
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replays the response to a request.
+   *
+   * @param sourceKey   key of the account and region
+   * @param request     the request
+   * @return the images in the order EC2 returned them
+   * @throws FileNotFoundException if the request was not recorded for the
+   * source
+   * @throws IOException if the response could not be read
+   */
+  public List<Image> replay(String sourceKey, DescribeImagesRequest request) throws IOException {
+    final InputStream in = new FileInputStream(getFile(sourceKey, request));
+    try {
+      return read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes images in the recording format.
+   *
+   * @param out      the stream to write to, which is finished but not closed
+   * @param key      the canonical request
+   * @param images   the images
+   * @throws IOException if the images could not be written
+   */
+  public static void write(OutputStream out, String key, List<Image> images) throws IOException {
+    final GZIPOutputStream gzip = new GZIPOutputStream(out);
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, "UTF-8"));
+    writer.write(MAGIC + "\t" + FORMAT_VERSION + "\t" + escape(key) + "\n");
+    for(Image image : images) {
+      final List<String> productCodes = new ArrayList<String>();
+      if(image.getProductCodes() != null) {
+        for(ProductCode productCode : image.getProductCodes()) {
+          productCodes.add(escape(productCode.getProductCodeId()) + "=" + escape(productCode.getProductCodeType()));
+        }
+      }
+      final List<String> tags = new ArrayList<String>();
+      if(image.getTags() != null) {
+        for(Tag tag : image.getTags()) {
+          tags.add(escape(tag.getKey()) + "=" + escape(tag.getValue()));
+        }
+      }
+
+      writer.write(StringUtils.join(new String[] {
+        escape(image.getImageId()),
+        escape(image.getCreationDate()),
+        escape(image.getName()),
+        escape(image.getDescription()),
+        escape(image.getState()),
+        escape(image.getArchitecture()),
+        escape(image.getImageType()),
+        escape(image.getHypervisor()),
+        escape(image.getVirtualizationType()),
+        escape(image.getRootDeviceType()),
+        escape(image.getPlatform()),
+        escape(image.getImageLocation()),
+        escape(image.getImageOwnerAlias()),
+        escape(image.getOwnerId()),
+        image.getPublic() == null ? NULL : image.getPublic().toString(),
+        image.getProductCodes() == null ? NULL : StringUtils.join(productCodes, ","),
+        image.getTags() == null ? NULL : StringUtils.join(tags, ",")
+      }, '\t'));
+      writer.write('\n');
+    }
+    writer.flush();
+    gzip.finish();
+  }
+
+  /**
+   * Reads images in the recording format.
+   *
+   * @param in   the stream to read from
+   * @return the images
+   * @throws IOException if the images could not be read
+   */
+  public static List<Image> read(InputStream in) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(in), "UTF-8"));
+    final String header = reader.readLine();
+    if(header == null || !header.startsWith(MAGIC + "\t")) {
+      throw new IOException("Not an image recording");
+    }
+    final String[] version = header.split("\t", -1);
+    if(!String.valueOf(FORMAT_VERSION).equals(version[1])) {
+      throw new IOException("Unknown image recording version " + version[1]);
+    }
+
+    final List<Image> images = new ArrayList<Image>();
+    for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+      final String[] fields = line.split("\t", -1);
+      if(fields.length != 17) {
+        throw new IOException("Invalid image recording line " + (images.size() + 2));
+      }
+      final Image image = new Image();
+      image.setImageId(unescape(fields[0]));
+      image.setCreationDate(unescape(fields[1]));
+      image.setName(unescape(fields[2]));
+      image.setDescription(unescape(fields[3]));
+      image.setState(unescape(fields[4]));
+      image.setArchitecture(unescape(fields[5]));
+      image.setImageType(unescape(fields[6]));
+      image.setHypervisor(unescape(fields[7]));
+      image.setVirtualizationType(unescape(fields[8]));
+      image.setRootDeviceType(unescape(fields[9]));
+      image.setPlatform(unescape(fields[10]));
+      image.setImageLocation(unescape(fields[11]));
+      image.setImageOwnerAlias(unescape(fields[12]));
+      image.setOwnerId(unescape(fields[13]));
+      image.setPublic(NULL.equals(fields[14]) ? null : Boolean.valueOf(fields[14]));
+      if(!NULL.equals(fields[15])) {
+        final List<ProductCode> productCodes = new ArrayList<ProductCode>();
+        for(String[] pair : splitPairs(fields[15])) {
+          productCodes.add(new ProductCode().withProductCodeId(pair[0]).withProductCodeType(pair[1]));
+        }
+        image.setProductCodes(productCodes);
+      }
+      if(!NULL.equals(fields[16])) {
+        final List<Tag> tags = new ArrayList<Tag>();
+        for(String[] pair : splitPairs(fields[16])) {
+          tags.add(new Tag().withKey(pair[0]).withValue(pair[1]));
+        }
+        image.setTags(tags);
+      }
+      images.add(image);
+    }
+    return images;
+  }
+
+  /**
+   * Splits a list of <code>key=value</code> pairs.
+   *
+   * @param field   the escaped list
+   * @return the unescaped pairs
+   * @throws IOException if a pair has no value
+   */
+  private static List<String[]> splitPairs(String field) throws IOException {
+    final List<String[]> pairs = new ArrayList<String[]>();
+    if(field.isEmpty()) {
+      return pairs;
+    }
+    for(String item : field.split(",", -1)) {
+      final String[] pair = item.split("=", -1);
+      if(pair.length != 2) {
+        throw new IOException("Invalid image recording pair " + item);
+      }
+      pairs.add(new String[] { unescape(pair[0]), unescape(pair[1]) });
+    }
+    return pairs;
+  }
+
+  /**
+   * Escapes a value.
+   *
+   * @param value   the value
+   * @return the escaped value or <code>\N</code> for <code>null</code>
+   */
+  static String escape(String value) {
+    if(value == null) {
+      return NULL;
+    }
+    final StringBuilder escaped = new StringBuilder(value.length());
+    for(int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      switch(c) {
+        case '\\':
+          escaped.append("\\\\");
+          break;
+        case '\t':
+          escaped.append("\\t");
+          break;
+        case '\n':
+          escaped.append("\\n");
+          break;
+        case '\r':
+          escaped.append("\\r");
+          break;
+        case ',':
+          escaped.append("\\c");
+          break;
+        case '=':
+          escaped.append("\\e");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Unescapes a value.
+   *
+   * @param value   the escaped value
+   * @return the value or <code>null</code> for <code>\N</code>
+   * @throws IOException if the value has an invalid escape
+   */
+  static String unescape(String value) throws IOException {
+    if(NULL.equals(value)) {
+      return null;
+    }
+    if(value.indexOf('\\') == -1) {
+      return value;
+    }
+    final StringBuilder unescaped = new StringBuilder(value.length());
+    for(int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if(c != '\\') {
+        unescaped.append(c);
+        continue;
+      }
+      if(++i == value.length()) {
+        throw new IOException("Invalid escape in " + value);
+      }
+      switch(value.charAt(i)) {
+        case '\\':
+          unescaped.append('\\');
+          break;
+        case 't':
+          unescaped.append('\t');
+          break;
+        case 'n':
+          unescaped.append('\n');
+          break;
+        case 'r':
+          unescaped.append('\r');
+          break;
+        case 'c':
+          unescaped.append(',');
+          break;
+        case 'e':
+          unescaped.append('=');
+          break;
+        default:
+          throw new IOException("Invalid escape in " + value);
+      }
+    }
+    return unescaped.toString();
+  }
+}
@@ -0,0 +1,211 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.util.DateUtils;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The images returned by one poll of a filter, reduced to their id,
+ * creation time and a signature of the fields that can change after an
+ * image is created (public flag, tags, name and description).
+ *
+ * <p>Two consecutive snapshots of a filter are compared by
+ * {@link #diff(AwsAmiImageSnapshot, int, long, String, String, String)}.
+ * As a poll only returns the latest images of a filter, images that drop
+ * out of a full snapshot because newer images arrived (or that re-enter
+ * it) are not reported.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageSnapshot {
+
+  private final Map<String, Entry> entries;
+
+  /**
+   * Creates a new {@link AwsAmiImageSnapshot}.
+   *
+   * @param entries   entries keyed by image id, newest first
+   */
+  private AwsAmiImageSnapshot(Map<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Creates a snapshot of the images returned by a poll.
+   *
+   * @param images   the images, newest first
+   * @return the snapshot
+   */
+  public static AwsAmiImageSnapshot of(List<Image> images) {
+    final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    for(Image image : images) {
+      final long creationTime = StringUtils.isEmpty(image.getCreationDate())
+        ? -1 : DateUtils.parseISO8601Date(image.getCreationDate()).getTime();
+      entries.put(image.getImageId(), new Entry(image.getImageId(), creationTime, signature(image)));
+    }
+    return new AwsAmiImageSnapshot(entries);
+  }
+
+  /**
+   * Computes the signature of the fields of an image that can change after
+   * it is created.
+   *
+   * @param image   the image
+   * @return signature of the image
+   */
+  static int signature(Image image) {
+    final AwsAmiImage snapshot = AwsAmiImage.from(image);
+    int signature = String.valueOf(snapshot.getShared()).hashCode();
+    signature = 31 * signature + StringUtils.defaultString(snapshot.getTags()).hashCode();
+    signature = 31 * signature + StringUtils.defaultString(snapshot.getName()).hashCode();
+    signature = 31 * signature + StringUtils.defaultString(snapshot.getDescription()).hashCode();
+    return signature;
+  }
+
+  /**
+   * Gets the number of images in the snapshot.
+   * @return number of images
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Compares this snapshot with the previous snapshot of the filter.
+   *
+   * @param previous     the previous snapshot or <code>null</code> for the
+   *                     first poll, which reports nothing
+   * @param capacity     the maximum number of images a poll returns
+   * @param time         time of the poll
+   * @param jobName      full name of the job
+   * @param regionName   AWS region name
+   * @param filterKey    key of the filter
+   * @return the events, empty if nothing changed
+   */
+  public List<AwsAmiEvent> diff(AwsAmiImageSnapshot previous, int capacity, long time, String jobName,
+      String regionName, String filterKey) {
+    if(previous == null) {
+      return Collections.emptyList();
+    }
+
+    final List<AwsAmiEvent> events = new ArrayList<AwsAmiEvent>();
+    final long oldest = getOldestCreationTime();
+    for(Entry entry : previous.entries.values()) {
+      if(!entries.containsKey(entry.imageId) && !(size() >= capacity && entry.creationTime < oldest)) {
+        events.add(new AwsAmiEvent(AwsAmiEvent.Type.REMOVED, time, jobName, regionName, filterKey, entry.imageId, entry.creationTime));
+      }
+    }
+
+    final long previousOldest = previous.getOldestCreationTime();
+    for(Entry entry : entries.values()) {
+      final Entry previousEntry = previous.entries.get(entry.imageId);
+      if(previousEntry == null) {
+        if(!(previous.size() >= capacity && entry.creationTime < previousOldest)) {
+          events.add(new AwsAmiEvent(AwsAmiEvent.Type.ADDED, time, jobName, regionName, filterKey, entry.imageId, entry.creationTime));
+        }
+      } else if(previousEntry.signature != entry.signature) {
+        events.add(new AwsAmiEvent(AwsAmiEvent.Type.STATE_CHANGED, time, jobName, regionName, filterKey, entry.imageId, entry.creationTime));
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Gets the creation time of the oldest image.
+   * @return creation time or <code>Long.MIN_VALUE</code> if empty
+   */
+  private long getOldestCreationTime() {
+    long oldest = Long.MAX_VALUE;
+    for(Entry entry : entries.values()) {
+      oldest = Math.min(oldest, entry.creationTime);
+    }
+    return entries.isEmpty() ? Long.MIN_VALUE : oldest;
+  }
+
+  /**
+   * Writes the snapshot.
+   *
+   * @param out   the output to write to
+   * @throws IOException if the snapshot could not be written
+   */
+  void write(DataOutput out) throws IOException {
+    out.writeInt(entries.size());
+    for(Entry entry : entries.values()) {
+      out.writeUTF(entry.imageId);
+      out.writeLong(entry.creationTime);
+      out.writeInt(entry.signature);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write(DataOutput)}.
+   *
+   * @param in   the input to read from
+   * @return the snapshot
+   * @throws IOException if the snapshot could not be read
+   */
+  static AwsAmiImageSnapshot read(DataInput in) throws IOException {
+    final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    for(int count = in.readInt(); count > 0; count--) {
+      final Entry entry = new Entry(in.readUTF(), in.readLong(), in.readInt());
+      entries.put(entry.imageId, entry);
+    }
+    return new AwsAmiImageSnapshot(entries);
+  }
+
+  /**
+   * An image in a snapshot.
+   */
+  private static final class Entry {
+    private final String imageId;
+    private final long creationTime;
+    private final int signature;
+
+    /**
+     * Creates a new {@link Entry}.
+     *
+     * @param imageId        the image id
+     * @param creationTime   creation time of the image
+     * @param signature      signature of the changeable fields
+     */
+    Entry(String imageId, long creationTime, int signature) {
+      this.imageId = imageId;
+      this.creationTime = creationTime;
+      this.signature = signature;
+    }
+  }
+}
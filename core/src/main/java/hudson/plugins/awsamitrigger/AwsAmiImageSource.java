@@ -0,0 +1,74 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+
+/**
+ * A source of AMIs for one account and region, such as EC2 itself or a
+ * recording of its responses.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public interface AwsAmiImageSource {
+
+  /**
+   * Gets a key that identifies the account and region of the source.
+   * Sources with the same key return the same images.
+   * @return the source key
+   */
+  String getKey();
+
+  /**
+   * Fetches the latest <code>count</code> images matching the supplied
+   * <code>filters</code>.
+   *
+   * @param filters   collection of AWS <code>Filter</code>
+   * @param count     the number of images to return
+   * @return up to <code>count</code> AWS images sorted in reverse order by
+   * <code>creationDate</code>
+   */
+  List<Image> fetchLatestImages(Collection<Filter> filters, int count);
+
+  /**
+   * Fetches the latest <code>count</code> images matching the supplied
+   * <code>filters</code> unless every image matching them is the same as in
+   * a previous poll.
+   *
+   * @param filters    collection of AWS <code>Filter</code>
+   * @param count      the number of images to return
+   * @param previous   the result of the previous poll with the same filters
+   *                   and count, or <code>null</code>
+   * @return <code>previous</code> if the images are unchanged, otherwise up
+   * to <code>count</code> AWS images sorted in reverse order by
+   * <code>creationDate</code>
+   * @see AwsAmiImageMatcher#fingerprint(Collection)
+   */
+  AwsAmiLatestImages fetchLatestImages(Collection<Filter> filters, int count, AwsAmiLatestImages previous);
+}
@@ -0,0 +1,69 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.amazonaws.services.ec2.model.Image;
+
+/**
+ * The latest images selected by a poll and the fingerprint of all the
+ * images the poll returned.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiLatestImages {
+  private final long fingerprint;
+  private final List<Image> images;
+
+  /**
+   * Creates a new {@link AwsAmiLatestImages}.
+   *
+   * @param fingerprint   fingerprint of all the images returned
+   * @param images        the latest images, newest first
+   */
+  public AwsAmiLatestImages(long fingerprint, List<Image> images) {
+    this.fingerprint = fingerprint;
+    this.images = images;
+  }
+
+  /**
+   * Gets the fingerprint of all the images returned by the poll.
+   * @return the fingerprint
+   * @see AwsAmiImageMatcher#fingerprint(Collection)
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Gets the latest images.
+   * @return the latest images, newest first
+   */
+  public List<Image> getImages() {
+    return images;
+  }
+}
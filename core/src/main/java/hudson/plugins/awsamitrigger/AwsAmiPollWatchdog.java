@@ -0,0 +1,377 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs trigger polls with a deadline. Each poll runs on a watchdog thread
+ * while the calling (cron) thread waits for at most the deadline; a poll
+ * that overruns it is interrupted, abandoned and recorded as a stall with a
+ * thread dump. Until an abandoned poll finishes, further polls of the same
+ * job are skipped, so a hung EC2 connection costs one thread rather than
+ * one per poll.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiPollWatchdog {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiPollWatchdog.class.getName());
+  private static final int MAX_STALLS = 20;
+  private static final AwsAmiPollWatchdog INSTANCE = new AwsAmiPollWatchdog(
+    Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread thread = new Thread(r, "AwsAmiPollWatchdog-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+
+  private final ExecutorService executor;
+  private final ConcurrentMap<String, InFlightPoll> polls = new ConcurrentHashMap<String, InFlightPoll>();
+  private final Deque<Stall> stalls = new LinkedList<Stall>();
+  private final AtomicLong stallCount = new AtomicLong();
+
+  /**
+   * Creates a new {@link AwsAmiPollWatchdog}.
+   *
+   * @param executor   runs the polls
+   */
+  AwsAmiPollWatchdog(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the {@link AwsAmiPollWatchdog} singleton.
+   * @return the watchdog
+   */
+  public static AwsAmiPollWatchdog get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Runs a poll of a job and waits for it for at most
+   * <code>timeoutMillis</code>.
+   *
+   * @param jobName         full name of the job
+   * @param poll            the poll
+   * @param timeoutMillis   the deadline
+   * @return true if the poll completed, false if it was skipped because a
+   * previous poll of the job is still running or abandoned because it
+   * overran the deadline
+   */
+  public boolean run(final String jobName, final Runnable poll, long timeoutMillis) {
+    final InFlightPoll inFlight = new InFlightPoll(jobName, System.currentTimeMillis());
+    final InFlightPoll previous = polls.putIfAbsent(jobName, inFlight);
+    if(previous != null) {
+      LOGGER.log(Level.WARNING, "Skipping poll of {0}, the poll started at {1,time} is still running",
+        new Object[] { jobName, previous.getStart() });
+      return false;
+    }
+
+    final Future<?> future;
+    try {
+      future = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          inFlight.thread = Thread.currentThread();
+          try {
+            poll.run();
+          } finally {
+            inFlight.thread = null;
+            polls.remove(jobName, inFlight);
+          }
+          return null;
+        }
+      });
+    } catch(RuntimeException e) {
+      polls.remove(jobName, inFlight);
+      throw e;
+    }
+
+    try {
+      future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch(TimeoutException e) {
+      recordStall(inFlight);
+      future.cancel(true);
+      return false;
+    } catch(InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    } catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if(e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Records a poll that overran its deadline.
+   *
+   * @param inFlight   the poll
+   */
+  private void recordStall(InFlightPoll inFlight) {
+    final Stall stall = new Stall(inFlight.getJobName(), inFlight.getStart(), System.currentTimeMillis(), inFlight.getThreadDump());
+    LOGGER.log(Level.WARNING, "Abandoning poll of {0} after {1}ms:\n{2}",
+      new Object[] { stall.getJobName(), stall.getTime() - stall.getStart(), stall.getThreadDump() });
+    stallCount.incrementAndGet();
+    synchronized(stalls) {
+      stalls.addFirst(stall);
+      while(stalls.size() > MAX_STALLS) {
+        stalls.removeLast();
+      }
+    }
+  }
+
+  /**
+   * Gets the polls in progress.
+   * @return the polls, including abandoned polls that have not finished
+   */
+  public List<InFlightPoll> getPolls() {
+    return new ArrayList<InFlightPoll>(polls.values());
+  }
+
+  /**
+   * Gets the polls that have been running for longer than a deadline.
+   *
+   * @param timeoutMillis   the deadline
+   * @return the stuck polls
+   */
+  public List<InFlightPoll> getStuckPolls(long timeoutMillis) {
+    final long now = System.currentTimeMillis();
+    final List<InFlightPoll> stuck = new ArrayList<InFlightPoll>();
+    for(InFlightPoll poll : polls.values()) {
+      if(now - poll.getStart() > timeoutMillis) {
+        stuck.add(poll);
+      }
+    }
+    return stuck;
+  }
+
+  /**
+   * Gets the recent stalls.
+   * @return the stalls, newest first
+   */
+  public List<Stall> getStalls() {
+    synchronized(stalls) {
+      return Collections.unmodifiableList(new ArrayList<Stall>(stalls));
+    }
+  }
+
+  /**
+   * Gets the number of polls abandoned since startup.
+   * @return number of stalls
+   */
+  public long getStallCount() {
+    return stallCount.get();
+  }
+
+  /**
+   * Forgets the recorded stalls.
+   */
+  public void clearStalls() {
+    synchronized(stalls) {
+      stalls.clear();
+    }
+  }
+
+  /**
+   * Formats the stack of a thread.
+   *
+   * @param thread   the thread (may be <code>null</code>)
+   * @return the thread dump or an empty string
+   */
+  static String getThreadDump(Thread thread) {
+    if(thread == null) {
+      return "";
+    }
+    final StringBuilder dump = new StringBuilder();
+    dump.append('"').append(thread.getName()).append("\" ").append(thread.getState()).append('\n');
+    for(StackTraceElement element : thread.getStackTrace()) {
+      dump.append("\tat ").append(element).append('\n');
+    }
+    return dump.toString();
+  }
+
+  /**
+   * A poll in progress.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class InFlightPoll {
+    private final String jobName;
+    private final long start;
+    private volatile Thread thread;
+
+    /**
+     * Creates a new {@link InFlightPoll}.
+     *
+     * @param jobName   full name of the job
+     * @param start     start time of the poll
+     */
+    InFlightPoll(String jobName, long start) {
+      this.jobName = jobName;
+      this.start = start;
+    }
+
+    /**
+     * Gets the job name.
+     * @return full name of the job
+     */
+    public String getJobName() {
+      return jobName;
+    }
+
+    /**
+     * Gets the start time of the poll.
+     * @return start time in milliseconds
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Gets the start date of the poll.
+     * @return start date
+     */
+    public Date getStartDate() {
+      return new Date(start);
+    }
+
+    /**
+     * Gets how long the poll has been running.
+     * @return duration in milliseconds
+     */
+    public long getDuration() {
+      return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Gets a thread dump of the thread running the poll.
+     * @return the thread dump or an empty string if the poll has not
+     * started or has finished
+     */
+    public String getThreadDump() {
+      return AwsAmiPollWatchdog.getThreadDump(thread);
+    }
+  }
+
+  /**
+   * A poll that overran its deadline.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Stall {
+    private final String jobName;
+    private final long start;
+    private final long time;
+    private final String threadDump;
+
+    /**
+     * Creates a new {@link Stall}.
+     *
+     * @param jobName      full name of the job
+     * @param start        start time of the poll
+     * @param time         time the poll was abandoned
+     * @param threadDump   thread dump of the poll when it was abandoned
+     */
+    Stall(String jobName, long start, long time, String threadDump) {
+      this.jobName = jobName;
+      this.start = start;
+      this.time = time;
+      this.threadDump = threadDump;
+    }
+
+    /**
+     * Gets the job name.
+     * @return full name of the job
+     */
+    public String getJobName() {
+      return jobName;
+    }
+
+    /**
+     * Gets the start time of the poll.
+     * @return start time in milliseconds
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Gets the start date of the poll.
+     * @return start date
+     */
+    public Date getStartDate() {
+      return new Date(start);
+    }
+
+    /**
+     * Gets the time the poll was abandoned.
+     * @return time in milliseconds
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Gets the thread dump of the poll when it was abandoned.
+     * @return the thread dump
+     */
+    public String getThreadDump() {
+      return threadDump;
+    }
+  }
+}
@@ -0,0 +1,397 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Polling state of an AMI trigger. The state is kept by the
+ * {@link AwsAmiTriggerStateStore} rather than in the job configuration so
+ * that it can be updated on every poll without saving the job.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerState {
+
+  private String credentialsId;
+  private String regionName;
+  private final Map<String, Long> watermarks = new HashMap<String, Long>();
+  private final Map<String, AwsAmiImageHistory> histories = new HashMap<String, AwsAmiImageHistory>();
+  private final Map<String, String> topImages = new HashMap<String, String>();
+  private final Map<String, AwsAmiImageSnapshot> snapshots = new HashMap<String, AwsAmiImageSnapshot>();
+  private long lastRun;
+  private long lastPoll;
+  private long polls;
+  private long fires;
+  private long changedResults;
+  private long unchangedResults;
+
+  /**
+   * Creates a new {@link AwsAmiTriggerState}.
+   *
+   * @param lastRun   the initial watermark
+   */
+  public AwsAmiTriggerState(long lastRun) {
+    this.lastRun = lastRun;
+  }
+
+  /**
+   * Gets the watermark. Images created before this time are not new.
+   * @return time a build was last scheduled (or the trigger was created)
+   */
+  public synchronized long getLastRun() {
+    return lastRun;
+  }
+
+  /**
+   * Gets the watermark of a filter. Images matching the filter that were
+   * created before this time are not new.
+   *
+   * @param filterKey   key of the filter
+   * @return watermark of the filter or the trigger watermark if the filter
+   * has none
+   */
+  public synchronized long getWatermark(String filterKey) {
+    final Long watermark = watermarks.get(filterKey);
+    return watermark == null ? lastRun : watermark;
+  }
+
+  /**
+   * Checks if the state was recorded for the same AWS credentials and region.
+   *
+   * @param credentialsId   AWS credentials identifier
+   * @param regionName      AWS region name
+   * @return true if the state belongs to the same credentials and region
+   */
+  public synchronized boolean isSameSource(String credentialsId, String regionName) {
+    return StringUtils.equals(this.credentialsId, credentialsId) && StringUtils.equals(this.regionName, regionName);
+  }
+
+  /**
+   * Updates the state to match the trigger configuration. Watermarks of
+   * filters that are no longer configured are dropped and new filters get
+   * the supplied watermark.
+   *
+   * @param credentialsId   AWS credentials identifier
+   * @param regionName      AWS region name
+   * @param filterKeys      keys of the configured filters
+   * @param watermark       watermark for filters that have none
+   */
+  public synchronized void configure(String credentialsId, String regionName, Collection<String> filterKeys, long watermark) {
+    this.credentialsId = credentialsId;
+    this.regionName = regionName;
+    watermarks.keySet().retainAll(filterKeys);
+    histories.keySet().retainAll(filterKeys);
+    topImages.keySet().retainAll(filterKeys);
+    snapshots.keySet().retainAll(filterKeys);
+    for(String filterKey : filterKeys) {
+      if(!watermarks.containsKey(filterKey)) {
+        watermarks.put(filterKey, watermark);
+      }
+    }
+  }
+
+  /**
+   * Records the latest image seen by a poll of a filter in the history of
+   * the filter.
+   *
+   * @param filterKey      key of the filter
+   * @param imageId        the image id
+   * @param creationTime   creation time of the image
+   * @param capacity       the number of images to keep for the filter
+   * @return true if the history changed
+   */
+  public synchronized boolean recordImage(String filterKey, String imageId, long creationTime, int capacity) {
+    AwsAmiImageHistory history = histories.get(filterKey);
+    if(history == null) {
+      history = new AwsAmiImageHistory(capacity);
+      histories.put(filterKey, history);
+    } else if(history.getCapacity() != capacity) {
+      history = history.resize(capacity);
+      histories.put(filterKey, history);
+    }
+    return history.add(imageId, creationTime);
+  }
+
+  /**
+   * Records the latest images of a filter that tracks more than one image.
+   * The first poll of a filter has nothing to compare with, so it reports
+   * a change if the newest image is no older than the watermark of the
+   * filter, as a filter that tracks one image would.
+   *
+   * @param filterKey      key of the filter
+   * @param imageIds       ids of the latest images, newest first
+   * @param creationTime   creation time of the newest image or
+   *                       <code>Long.MIN_VALUE</code> if it is unknown
+   * @return true if the images differ from the images recorded by the
+   * previous poll or, on the first poll, if the newest image is new
+   */
+  public synchronized boolean recordTopImages(String filterKey, List<String> imageIds, long creationTime) {
+    final String current = StringUtils.join(imageIds, ",");
+    final String previous = topImages.put(filterKey, current);
+    if(previous == null) {
+      return creationTime != Long.MIN_VALUE && creationTime >= getWatermark(filterKey);
+    }
+    return !previous.equals(current);
+  }
+
+  /**
+   * Records the snapshot of the latest poll of a filter.
+   *
+   * @param filterKey   key of the filter
+   * @param snapshot    the snapshot
+   * @return the snapshot of the previous poll or <code>null</code> if this
+   * is the first poll of the filter
+   */
+  public synchronized AwsAmiImageSnapshot recordSnapshot(String filterKey, AwsAmiImageSnapshot snapshot) {
+    return snapshots.put(filterKey, snapshot);
+  }
+
+  /**
+   * Gets the ids of the latest images seen by the polls of a filter.
+   *
+   * @param filterKey   key of the filter
+   * @return list of image ids, newest first
+   */
+  public synchronized List<String> getImageHistory(String filterKey) {
+    final AwsAmiImageHistory history = histories.get(filterKey);
+    return history == null ? Collections.<String>emptyList() : history.getImageIds();
+  }
+
+  /**
+   * Gets the ids of the images seen by the polls of a filter before an
+   * image.
+   *
+   * @param filterKey   key of the filter
+   * @param imageId     the image id
+   * @return list of older image ids, newest first
+   */
+  public synchronized List<String> getImageHistoryBefore(String filterKey, String imageId) {
+    final AwsAmiImageHistory history = histories.get(filterKey);
+    return history == null ? Collections.<String>emptyList() : history.getImageIdsBefore(imageId);
+  }
+
+  /**
+   * Gets the time of the last poll.
+   * @return time of the last poll or 0 if never polled
+   */
+  public synchronized long getLastPoll() {
+    return lastPoll;
+  }
+
+  /**
+   * Gets the number of polls.
+   * @return number of polls
+   */
+  public synchronized long getPolls() {
+    return polls;
+  }
+
+  /**
+   * Gets the number of times a build was scheduled.
+   * @return number of scheduled builds
+   */
+  public synchronized long getFires() {
+    return fires;
+  }
+
+  /**
+   * Gets the number of filter results that differed from the previous
+   * poll of the filter.
+   * @return number of changed results
+   */
+  public synchronized long getChangedResults() {
+    return changedResults;
+  }
+
+  /**
+   * Gets the number of filter results that were the same as the previous
+   * poll of the filter and so were not processed.
+   * @return number of unchanged results
+   */
+  public synchronized long getUnchangedResults() {
+    return unchangedResults;
+  }
+
+  /**
+   * Records whether the result of polling a filter changed.
+   *
+   * @param changed   true if the result differed from the previous poll
+   */
+  public synchronized void recordResult(boolean changed) {
+    if(changed) {
+      changedResults++;
+    } else {
+      unchangedResults++;
+    }
+  }
+
+  /**
+   * Records a poll.
+   *
+   * @param time   time of the poll
+   */
+  public synchronized void recordPoll(long time) {
+    lastPoll = time;
+    polls++;
+  }
+
+  /**
+   * Records a scheduled build and advances the watermark.
+   *
+   * @param time   the new watermark: the start of the poll that found the
+   *               images the build was scheduled for
+   */
+  public synchronized void recordFire(long time) {
+    lastRun = time;
+    for(Map.Entry<String, Long> watermark : watermarks.entrySet()) {
+      watermark.setValue(time);
+    }
+    fires++;
+  }
+
+  /**
+   * Writes the state.
+   *
+   * @param out   the output to write to
+   * @throws IOException if the state could not be written
+   */
+  synchronized void write(DataOutput out) throws IOException {
+    writeString(out, credentialsId);
+    writeString(out, regionName);
+    out.writeInt(watermarks.size());
+    for(Map.Entry<String, Long> watermark : watermarks.entrySet()) {
+      out.writeUTF(watermark.getKey());
+      out.writeLong(watermark.getValue());
+    }
+    out.writeLong(lastRun);
+    out.writeLong(lastPoll);
+    out.writeLong(polls);
+    out.writeLong(fires);
+    out.writeInt(histories.size());
+    for(Map.Entry<String, AwsAmiImageHistory> history : histories.entrySet()) {
+      out.writeUTF(history.getKey());
+      history.getValue().write(out);
+    }
+    out.writeInt(topImages.size());
+    for(Map.Entry<String, String> images : topImages.entrySet()) {
+      out.writeUTF(images.getKey());
+      out.writeUTF(images.getValue());
+    }
+    out.writeLong(changedResults);
+    out.writeLong(unchangedResults);
+    out.writeInt(snapshots.size());
+    for(Map.Entry<String, AwsAmiImageSnapshot> snapshot : snapshots.entrySet()) {
+      out.writeUTF(snapshot.getKey());
+      snapshot.getValue().write(out);
+    }
+  }
+
+  /**
+   * Reads a state written by {@link #write(DataOutput)}.
+   *
+   * @param in        the input to read from
+   * @param version   format version of the input; version 1 has no
+   *                  credentials, region or watermarks, version 2 has no
+   *                  image histories, version 3 has no latest images,
+   *                  version 4 has no result counters and version 5 has no
+   *                  snapshots
+   * @return the state
+   * @throws IOException if the state could not be read
+   */
+  static AwsAmiTriggerState read(DataInput in, int version) throws IOException {
+    String credentialsId = null;
+    String regionName = null;
+    final Map<String, Long> watermarks = new HashMap<String, Long>();
+    if(version >= 2) {
+      credentialsId = readString(in);
+      regionName = readString(in);
+      for(int count = in.readInt(); count > 0; count--) {
+        watermarks.put(in.readUTF(), in.readLong());
+      }
+    }
+    final AwsAmiTriggerState state = new AwsAmiTriggerState(in.readLong());
+    state.credentialsId = credentialsId;
+    state.regionName = regionName;
+    state.watermarks.putAll(watermarks);
+    state.lastPoll = in.readLong();
+    state.polls = in.readLong();
+    state.fires = in.readLong();
+    if(version >= 3) {
+      for(int count = in.readInt(); count > 0; count--) {
+        state.histories.put(in.readUTF(), AwsAmiImageHistory.read(in));
+      }
+    }
+    if(version >= 4) {
+      for(int count = in.readInt(); count > 0; count--) {
+        state.topImages.put(in.readUTF(), in.readUTF());
+      }
+    }
+    if(version >= 5) {
+      state.changedResults = in.readLong();
+      state.unchangedResults = in.readLong();
+    }
+    if(version >= 6) {
+      for(int count = in.readInt(); count > 0; count--) {
+        state.snapshots.put(in.readUTF(), AwsAmiImageSnapshot.read(in));
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Writes a string that may be <code>null</code>.
+   *
+   * @param out     the output to write to
+   * @param value   the string to write
+   * @throws IOException if the string could not be written
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if(value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutput, String)}.
+   *
+   * @param in      the input to read from
+   * @return the string or <code>null</code>
+   * @throws IOException if the string could not be read
+   */
+  static String readString(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
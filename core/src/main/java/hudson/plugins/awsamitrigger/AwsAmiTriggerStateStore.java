@@ -0,0 +1,258 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores the {@link AwsAmiTriggerState} of every trigger in a single file
+ * outside of the job configuration.
+ *
+ * <p>Updates only change the in-memory state and mark the store dirty. The
+ * file is rewritten in the background on a schedule: the states are
+ * written to a temporary file which is synced to disk and then atomically
+ * renamed over the previous file, so a crash leaves either the old or the
+ * new file in place.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerStateStore {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiTriggerStateStore.class.getName());
+  private static final int FORMAT_VERSION = 6;
+
+  private static AwsAmiTriggerStateStore instance;
+
+  private final File file;
+  private final ConcurrentMap<String, AwsAmiTriggerState> states = new ConcurrentHashMap<String, AwsAmiTriggerState>();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  /**
+   * Creates a new {@link AwsAmiTriggerStateStore}.
+   *
+   * @param file   the file to store states in or <code>null</code> to only
+   *               keep states in memory
+   */
+  AwsAmiTriggerStateStore(File file) {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * Creates a new {@link AwsAmiTriggerStateStore} and loads the states
+   * already stored in <code>file</code>.
+   *
+   * @param file   the file to store states in
+   * @return the store
+   */
+  public static AwsAmiTriggerStateStore open(File file) {
+    return new AwsAmiTriggerStateStore(file);
+  }
+
+  /**
+   * Gets the {@link AwsAmiTriggerStateStore} singleton.
+   * @return the store installed by {@link #set(AwsAmiTriggerStateStore)},
+   * or an in-memory store if none has been installed
+   */
+  public static synchronized AwsAmiTriggerStateStore get() {
+    if(instance == null) {
+      instance = new AwsAmiTriggerStateStore(null);
+    }
+    return instance;
+  }
+
+  /**
+   * Installs the {@link AwsAmiTriggerStateStore} singleton.
+   *
+   * @param store   the store
+   */
+  public static synchronized void set(AwsAmiTriggerStateStore store) {
+    instance = store;
+  }
+
+  /**
+   * Gets the state of a job, adding <code>initial</code> if the job has no
+   * state yet.
+   *
+   * @param jobName   full name of the job
+   * @param initial   state to use if the job has no state
+   * @return the stored state
+   */
+  public AwsAmiTriggerState getState(String jobName, AwsAmiTriggerState initial) {
+    final AwsAmiTriggerState state = states.putIfAbsent(jobName, initial);
+    if(state == null) {
+      markDirty();
+      return initial;
+    }
+    return state;
+  }
+
+  /**
+   * Replaces the state of a job.
+   *
+   * @param jobName   full name of the job
+   * @param state     the new state
+   */
+  public void putState(String jobName, AwsAmiTriggerState state) {
+    states.put(jobName, state);
+    markDirty();
+  }
+
+  /**
+   * Moves the state of a renamed job.
+   *
+   * @param oldJobName   full name before the change
+   * @param newJobName   full name after the change
+   */
+  public void moveState(String oldJobName, String newJobName) {
+    final AwsAmiTriggerState state = states.remove(oldJobName);
+    if(state != null) {
+      putState(newJobName, state);
+    }
+  }
+
+  /**
+   * Removes the state of a job.
+   *
+   * @param jobName   full name of the job
+   */
+  public void removeState(String jobName) {
+    if(states.remove(jobName) != null) {
+      markDirty();
+    }
+  }
+
+  /**
+   * Marks the store as changed so that it is written by the next flush.
+   */
+  public void markDirty() {
+    dirty.set(true);
+  }
+
+  /**
+   * Checks whether the store has changed since the last flush.
+   * @return true if the next flush writes the states
+   */
+  public boolean isDirty() {
+    return file != null && dirty.get();
+  }
+
+  /**
+   * Writes the states to disk if they have changed since the last flush.
+   * @return false if the states could not be written, in which case the
+   * store stays dirty and the next flush tries again
+   */
+  public synchronized boolean flush() {
+    if(file == null || !dirty.getAndSet(false)) {
+      return true;
+    }
+
+    try {
+      write();
+      return true;
+    } catch(IOException e) {
+      dirty.set(true);
+      LOGGER.log(Level.WARNING, "Failed to save trigger state to " + file, e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the states to a temporary file, syncs it and renames it over
+   * the store file.
+   *
+   * @throws IOException if the states could not be written
+   */
+  private void write() throws IOException {
+    final File parent = file.getParentFile();
+    if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Failed to create " + parent);
+    }
+
+    final File tmp = new File(file.getPath() + ".tmp");
+    final FileOutputStream fos = new FileOutputStream(tmp);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      out.writeInt(FORMAT_VERSION);
+      for(Map.Entry<String, AwsAmiTriggerState> entry : states.entrySet()) {
+        out.writeBoolean(true);
+        out.writeUTF(entry.getKey());
+        entry.getValue().write(out);
+      }
+      out.writeBoolean(false);
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Loads the states from disk.
+   */
+  private void load() {
+    if(file == null) {
+      return;
+    }
+
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        final int version = in.readInt();
+        if(version < 1 || version > FORMAT_VERSION) {
+          LOGGER.log(Level.WARNING, "Ignoring trigger state {0} with unknown version {1}", new Object[] { file, version });
+          return;
+        }
+        while(in.readBoolean()) {
+          final String jobName = in.readUTF();
+          states.put(jobName, AwsAmiTriggerState.read(in, version));
+        }
+      } finally {
+        in.close();
+      }
+    } catch(FileNotFoundException e) {
+      LOGGER.log(Level.FINE, "No trigger state in {0}", file);
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to load trigger state from " + file, e);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory polling status of a trigger: last poll, last match, calls per
+ * hour and a circuit breaker. The breaker opens after
+ * {@link #FAILURE_THRESHOLD} consecutive failed polls and skips polls for
+ * {@link #OPEN_MILLIS}; the first poll after that is a trial that closes
+ * the breaker on success or opens it again on failure.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerStatus {
+
+  public static final int FAILURE_THRESHOLD = 5;
+  public static final long OPEN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final int MINUTES = 60;
+
+  /**
+   * State of the circuit breaker.
+   */
+  public enum BreakerState {
+    /** Polls run normally. */
+    CLOSED,
+    /** Polls are skipped until the open period ends. */
+    OPEN,
+    /** The next poll is a trial. */
+    HALF_OPEN
+  }
+
+  private final long[] callMinutes = new long[MINUTES];
+  private final int[] callCounts = new int[MINUTES];
+  private long lastPoll;
+  private long lastPollDuration;
+  private String lastImageId;
+  private long lastMatch;
+  private String lastError;
+  private long errors;
+  private int consecutiveFailures;
+  private long openUntil;
+  private long skippedPolls;
+
+  /**
+   * Checks whether the breaker lets a poll run, counting the poll as
+   * skipped if it does not.
+   *
+   * @param now   the current time
+   * @return true if the poll may run
+   */
+  public synchronized boolean allowPoll(long now) {
+    if(consecutiveFailures >= FAILURE_THRESHOLD && now < openUntil) {
+      skippedPolls++;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Records a successful poll and closes the breaker.
+   *
+   * @param start      start time of the poll
+   * @param duration   duration of the poll in milliseconds
+   */
+  public synchronized void recordSuccess(long start, long duration) {
+    lastPoll = start;
+    lastPollDuration = duration;
+    consecutiveFailures = 0;
+    openUntil = 0;
+  }
+
+  /**
+   * Records a failed poll, opening the breaker once
+   * {@link #FAILURE_THRESHOLD} polls in a row have failed.
+   *
+   * @param start      start time of the poll
+   * @param duration   duration of the poll in milliseconds
+   * @param error      the failure
+   */
+  public synchronized void recordFailure(long start, long duration, Throwable error) {
+    lastPoll = start;
+    lastPollDuration = duration;
+    lastError = String.valueOf(error);
+    errors++;
+    consecutiveFailures++;
+    if(consecutiveFailures >= FAILURE_THRESHOLD) {
+      openUntil = start + duration + OPEN_MILLIS;
+    }
+  }
+
+  /**
+   * Records a DescribeImages call for the calls per hour.
+   *
+   * @param now   the current time
+   */
+  public synchronized void recordCall(long now) {
+    final long minute = now / MINUTE;
+    final int slot = (int) (minute % MINUTES);
+    if(callMinutes[slot] != minute) {
+      callMinutes[slot] = minute;
+      callCounts[slot] = 0;
+    }
+    callCounts[slot]++;
+  }
+
+  /**
+   * Records the newest image that matched.
+   *
+   * @param imageId   the image id
+   * @param now       the current time
+   */
+  public synchronized void recordMatch(String imageId, long now) {
+    lastImageId = imageId;
+    lastMatch = now;
+  }
+
+  /**
+   * Gets the state of the breaker.
+   *
+   * @param now   the current time
+   * @return the breaker state
+   */
+  public synchronized BreakerState getBreakerState(long now) {
+    if(consecutiveFailures < FAILURE_THRESHOLD) {
+      return BreakerState.CLOSED;
+    }
+    return now < openUntil ? BreakerState.OPEN : BreakerState.HALF_OPEN;
+  }
+
+  /**
+   * Gets the number of DescribeImages calls in the last hour.
+   *
+   * @param now   the current time
+   * @return number of calls
+   */
+  public synchronized int getCallsPerHour(long now) {
+    final long minute = now / MINUTE;
+    int calls = 0;
+    for(int slot = 0; slot < MINUTES; slot++) {
+      if(minute - callMinutes[slot] < MINUTES) {
+        calls += callCounts[slot];
+      }
+    }
+    return calls;
+  }
+
+  /**
+   * Gets the start time of the last poll.
+   * @return start time in milliseconds or 0 if the trigger has not polled
+   */
+  public synchronized long getLastPoll() {
+    return lastPoll;
+  }
+
+  /**
+   * Gets the duration of the last poll.
+   * @return duration in milliseconds
+   */
+  public synchronized long getLastPollDuration() {
+    return lastPollDuration;
+  }
+
+  /**
+   * Gets the newest image that matched.
+   * @return image id or <code>null</code> if nothing matched since startup
+   */
+  public synchronized String getLastImageId() {
+    return lastImageId;
+  }
+
+  /**
+   * Gets the time of the last match.
+   * @return time in milliseconds or 0 if nothing matched since startup
+   */
+  public synchronized long getLastMatch() {
+    return lastMatch;
+  }
+
+  /**
+   * Gets the last failure.
+   * @return the failure or <code>null</code> if no poll failed
+   */
+  public synchronized String getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Gets the number of failed polls.
+   * @return number of errors
+   */
+  public synchronized long getErrors() {
+    return errors;
+  }
+
+  /**
+   * Gets the number of failed polls in a row.
+   * @return number of consecutive failures
+   */
+  public synchronized int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  /**
+   * Gets the number of polls skipped by the open breaker.
+   * @return number of skipped polls
+   */
+  public synchronized long getSkippedPolls() {
+    return skippedPolls;
+  }
+}
@@ -0,0 +1,70 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiFlightRecorder}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiFlightRecorderTest extends AwsAmiAbstractCoreTest {
+
+  @Parameter(0)
+  public AwsAmiFlightRecorder recorder;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { AwsAmiFlightRecorder.POLL },
+        { AwsAmiFlightRecorder.FETCH },
+        { AwsAmiFlightRecorder.DESCRIBE_IMAGES },
+        { AwsAmiFlightRecorder.FIRE }
+      }
+    );
+  }
+
+  /**
+   * Tests that events are not created while no recording is running and
+   * that committing a missing event does nothing.
+   */
+  @Test
+  public void testDisabled() {
+    Assert.assertFalse("isEnabled()", recorder.isEnabled());
+    Assert.assertNull("begin()", recorder.begin());
+    recorder.commit(null, "folder/projectName", "filter", REGION_NAME, 1);
+  }
+}
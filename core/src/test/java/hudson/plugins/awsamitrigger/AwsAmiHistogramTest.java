@@ -0,0 +1,92 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiHistogram}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiHistogramTest {
+
+  @Parameter(0)
+  public long nanos;
+  @Parameter(1)
+  public long expectedUpperBound;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { -5L, 1024L },
+        { 0L, 1024L },
+        { 1024L, 1024L },
+        { 1025L, 2048L },
+        { 1000000L, 1048576L },
+        { Long.MAX_VALUE, Long.MAX_VALUE }
+      }
+    );
+  }
+
+  /**
+   * Tests that a duration is counted in the smallest bucket that holds it.
+   */
+  @Test
+  public void testRecord() {
+    AwsAmiHistogram histogram = new AwsAmiHistogram();
+    histogram.record(nanos);
+    Assert.assertEquals("getCount()", 1, histogram.getCount());
+    Assert.assertEquals("getSum()", Math.max(0, nanos), histogram.getSum());
+    Assert.assertEquals("getQuantile(0.5)", expectedUpperBound, histogram.getQuantile(0.5));
+    Assert.assertEquals("getUpperBound()", expectedUpperBound,
+      AwsAmiHistogram.getUpperBound(AwsAmiHistogram.getBucket(Math.max(0, nanos))));
+  }
+
+  /**
+   * Tests that quantiles come from the buckets of the ranked durations.
+   */
+  @Test
+  public void testGetQuantile() {
+    AwsAmiHistogram histogram = new AwsAmiHistogram();
+    Assert.assertEquals("empty", 0, histogram.getQuantile(0.5));
+    for(int i = 0; i < 99; i++) {
+      histogram.record(1000L);
+    }
+    histogram.record(nanos);
+    Assert.assertEquals("getQuantile(0.5)", 1024L, histogram.getQuantile(0.5));
+    Assert.assertEquals("getQuantile(1)", Math.max(1024L, expectedUpperBound), histogram.getQuantile(1));
+  }
+}
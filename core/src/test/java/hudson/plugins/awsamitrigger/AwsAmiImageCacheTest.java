@@ -0,0 +1,141 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImageCache}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImageCacheTest {
+
+  private final static String KEY = "credentials|region|filter";
+
+  @Parameter(0)
+  public int threads;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 1 },
+        { 8 },
+        { 64 }
+      }
+    );
+  }
+
+  /**
+   * Tests that concurrent lookups of a key share a single load.
+   *
+   * @throws Exception if a lookup fails
+   */
+  @Test
+  public void testSingleLoad() throws Exception {
+    final AwsAmiImageCache cache = new AwsAmiImageCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(threads);
+    final Callable<AwsAmiImage> loader = new Callable<AwsAmiImage>() {
+      @Override
+      public AwsAmiImage call() throws Exception {
+        loads.incrementAndGet();
+        started.await(1, TimeUnit.SECONDS);
+        return createImage("ami-1");
+      }
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<AwsAmiImageCache.Entry>> entries = new ArrayList<Future<AwsAmiImageCache.Entry>>();
+      for(int i = 0; i < threads; i++) {
+        entries.add(executor.submit(new Callable<AwsAmiImageCache.Entry>() {
+          @Override
+          public AwsAmiImageCache.Entry call() throws Exception {
+            started.countDown();
+            return cache.get(KEY, TimeUnit.MINUTES.toMillis(1), loader);
+          }
+        }));
+      }
+      for(Future<AwsAmiImageCache.Entry> entry : entries) {
+        Assert.assertEquals("getImageId()", "ami-1", entry.get().getImage().getImageId());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals("loads", 1, loads.get());
+  }
+
+  /**
+   * Tests that an entry older than the maximum age is loaded again.
+   *
+   * @throws Exception if a lookup fails
+   */
+  @Test
+  public void testStale() throws Exception {
+    final AwsAmiImageCache cache = new AwsAmiImageCache();
+    final AtomicInteger loads = new AtomicInteger();
+    final Callable<AwsAmiImage> loader = new Callable<AwsAmiImage>() {
+      @Override
+      public AwsAmiImage call() {
+        return createImage("ami-" + loads.incrementAndGet());
+      }
+    };
+
+    for(int i = 0; i < threads; i++) {
+      Assert.assertEquals("cached", "ami-1", cache.get(KEY, TimeUnit.MINUTES.toMillis(1), loader).getImage().getImageId());
+    }
+    Assert.assertEquals("stale", "ami-2", cache.get(KEY, -1, loader).getImage().getImageId());
+  }
+
+  /**
+   * Creates an image with only an id.
+   *
+   * @param imageId   the image id
+   * @return the image
+   */
+  private static AwsAmiImage createImage(String imageId) {
+    return new AwsAmiImage(imageId, null, null, null, null, null, null, null, null, null, null, null);
+  }
+}
@@ -0,0 +1,132 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImageHistory}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImageHistoryTest {
+
+  @Parameter(0)
+  public int capacity;
+  @Parameter(1)
+  public int images;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 1, 0 },
+        { 1, 3 },
+        { 5, 3 },
+        { 5, 12 }
+      }
+    );
+  }
+
+  /**
+   * Tests that the newest images are kept, newest first.
+   */
+  @Test
+  public void testAdd() {
+    AwsAmiImageHistory history = createHistory();
+    Assert.assertEquals("size()", Math.min(capacity, images), history.size());
+    for(int n = 0; n < history.size(); n++) {
+      Assert.assertEquals("getImageId(" + n + ")", "ami-" + (images - n), history.getImageId(n));
+      Assert.assertEquals("getCreationTime(" + n + ")", images - n, history.getCreationTime(n));
+    }
+    Assert.assertNull("getImageId(size)", history.getImageId(history.size()));
+
+    if(images > 0) {
+      Assert.assertFalse("add(latest)", history.add("ami-" + images, images));
+      Assert.assertEquals("size()", Math.min(capacity, images), history.size());
+    }
+  }
+
+  /**
+   * Tests the images before an image are returned newest first.
+   */
+  @Test
+  public void testGetImageIdsBefore() {
+    AwsAmiImageHistory history = createHistory();
+    List<String> before = history.getImageIdsBefore("ami-" + images);
+    Assert.assertEquals("size()", Math.max(0, Math.min(capacity, images) - 1), before.size());
+    if(!before.isEmpty()) {
+      Assert.assertEquals("previous", "ami-" + (images - 1), before.get(0));
+    }
+    Assert.assertTrue("unknown", history.getImageIdsBefore("ami-unknown").isEmpty());
+  }
+
+  /**
+   * Tests that the history survives a write and read, and a resize.
+   *
+   * @throws IOException if the history could not be written or read
+   */
+  @Test
+  public void testWriteAndRead() throws IOException {
+    AwsAmiImageHistory history = createHistory();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    history.write(new DataOutputStream(bytes));
+    AwsAmiImageHistory read = AwsAmiImageHistory.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals("getCapacity()", capacity, read.getCapacity());
+    Assert.assertEquals("getImageIds()", history.getImageIds(), read.getImageIds());
+
+    AwsAmiImageHistory resized = history.resize(2);
+    Assert.assertEquals("resize().size()", Math.min(2, history.size()), resized.size());
+    Assert.assertEquals("resize().getImageId(0)", history.getImageId(0), resized.getImageId(0));
+  }
+
+  /**
+   * Creates a history with images <code>ami-1..ami-images</code>.
+   *
+   * @return the history
+   */
+  private AwsAmiImageHistory createHistory() {
+    AwsAmiImageHistory history = new AwsAmiImageHistory(capacity);
+    for(int i = 1; i <= images; i++) {
+      Assert.assertTrue("add()", history.add("ami-" + i, i));
+    }
+    return history;
+  }
+}
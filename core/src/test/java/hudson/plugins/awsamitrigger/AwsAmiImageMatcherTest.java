@@ -0,0 +1,173 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.util.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImageMatcher}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImageMatcherTest {
+
+  @Parameter(0)
+  public String image1ImageId;
+  @Parameter(1)
+  public String image2ImageId;
+  @Parameter(2)
+  public String image1CreationDate;
+  @Parameter(3)
+  public String image2CreationDate;
+  @Parameter(4)
+  public String newestImageId;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { "ami-123", "ami-456", "2017-06-12T20:19:18Z", "2017-06-13T20:19:18Z", "ami-456" },
+        { "ami-123", "ami-456", "2017-06-14T20:19:18Z", "2017-06-13T20:19:18Z", "ami-123" }
+      }
+    );
+  }
+
+  /**
+   * Tests the <code>sortByCreationDate</code> method puts the newest image
+   * first.
+   */
+  @Test
+  public void testSortByCreationDate() {
+    List<Image> images = new ArrayList<Image>(createImages());
+    AwsAmiImageMatcher.sortByCreationDate(images);
+    Assert.assertEquals("imageId", newestImageId, images.get(0).getImageId());
+  }
+
+  /**
+   * Tests the <code>newestImages</code> method returns at most the
+   * requested number of images, newest first.
+   */
+  @Test
+  public void testNewestImages() {
+    List<Image> newest = AwsAmiImageMatcher.newestImages(createImages(), 1);
+    Assert.assertEquals("size()", 1, newest.size());
+    Assert.assertEquals("imageId", newestImageId, newest.get(0).getImageId());
+
+    List<Image> all = AwsAmiImageMatcher.newestImages(createImages(), 5);
+    Assert.assertEquals("size()", 2, all.size());
+    Assert.assertEquals("imageId", newestImageId, all.get(0).getImageId());
+    Assert.assertNotEquals("imageId", newestImageId, all.get(1).getImageId());
+
+    Assert.assertTrue("empty", AwsAmiImageMatcher.newestImages(Collections.<Image>emptyList(), 1).isEmpty());
+  }
+
+  /**
+   * Tests that images created at the same time are selected by image id
+   * whatever order they are returned in.
+   */
+  @Test
+  public void testNewestImagesTies() {
+    final String tieImageId = image1ImageId.compareTo(image2ImageId) > 0 ? image1ImageId : image2ImageId;
+    List<Image> images = new ArrayList<Image>(Arrays.asList(
+      new Image().withImageId(image1ImageId).withCreationDate(image1CreationDate),
+      new Image().withImageId(image2ImageId).withCreationDate(image1CreationDate)));
+    for(int i = 0; i < 2; i++) {
+      Assert.assertEquals("imageId", tieImageId, AwsAmiImageMatcher.newestImages(images, 1).get(0).getImageId());
+      Collections.reverse(images);
+    }
+    AwsAmiImageMatcher.sortByCreationDate(images);
+    Assert.assertEquals("sorted", tieImageId, images.get(0).getImageId());
+  }
+
+  /**
+   * Tests the <code>fingerprint</code> method ignores the order of images
+   * and detects changed creation dates.
+   */
+  @Test
+  public void testFingerprint() {
+    Image image1 = new Image().withImageId(image1ImageId).withCreationDate(image1CreationDate);
+    Image image2 = new Image().withImageId(image2ImageId).withCreationDate(image2CreationDate);
+    long fingerprint = AwsAmiImageMatcher.fingerprint(Arrays.asList(image1, image2));
+    Assert.assertEquals("reordered", fingerprint, AwsAmiImageMatcher.fingerprint(Arrays.asList(image2, image1)));
+    Assert.assertNotEquals("subset", fingerprint, AwsAmiImageMatcher.fingerprint(Arrays.asList(image1)));
+    Assert.assertNotEquals("empty", fingerprint, AwsAmiImageMatcher.fingerprint(Collections.<Image>emptyList()));
+
+    Image changed = new Image().withImageId(image2ImageId).withCreationDate(image1CreationDate);
+    Assert.assertNotEquals("changed", fingerprint, AwsAmiImageMatcher.fingerprint(Arrays.asList(image1, changed)));
+  }
+
+  /**
+   * Tests the <code>isNewImage</code> method compares the creation date
+   * with the watermark.
+   */
+  @Test
+  public void testIsNewImage() {
+    Image image = new Image().withImageId(image1ImageId).withCreationDate(image1CreationDate);
+    long creationTime = DateUtils.parseISO8601Date(image1CreationDate).getTime();
+    Assert.assertTrue("same", AwsAmiImageMatcher.isNewImage(image, creationTime));
+    Assert.assertTrue("newer", AwsAmiImageMatcher.isNewImage(image, creationTime - 1));
+    Assert.assertFalse("older", AwsAmiImageMatcher.isNewImage(image, creationTime + 1));
+    Assert.assertFalse("null", AwsAmiImageMatcher.isNewImage(null, 0));
+    Assert.assertFalse("undated", AwsAmiImageMatcher.isNewImage(new Image().withImageId(image1ImageId), Long.MIN_VALUE));
+  }
+
+  /**
+   * Tests the <code>getCreationTime</code> method parses the creation date
+   * and tolerates images without one.
+   */
+  @Test
+  public void testGetCreationTime() {
+    Image image = new Image().withImageId(image1ImageId).withCreationDate(image1CreationDate);
+    Assert.assertEquals("dated", DateUtils.parseISO8601Date(image1CreationDate).getTime(), AwsAmiImageMatcher.getCreationTime(image));
+    Assert.assertEquals("undated", Long.MIN_VALUE, AwsAmiImageMatcher.getCreationTime(new Image().withImageId(image1ImageId)));
+    Assert.assertEquals("empty", Long.MIN_VALUE, AwsAmiImageMatcher.getCreationTime(new Image().withCreationDate("")));
+  }
+
+  /**
+   * Creates the two images of the test values.
+   *
+   * @return the images
+   */
+  private List<Image> createImages() {
+    return Arrays.asList(
+      new Image().withImageId(image1ImageId).withCreationDate(image1CreationDate),
+      new Image().withImageId(image2ImageId).withCreationDate(image2CreationDate));
+  }
+}
@@ -0,0 +1,244 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.util.DateUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImagePoller}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImagePollerTest extends AwsAmiAbstractCoreTest {
+
+  @Parameter(0)
+  public int settleMinutes;
+  @Parameter(1)
+  public int maxDelayMinutes;
+  @Parameter(2)
+  public int flushMinutes;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0,  0, 0 },
+        { 1,  0, 1 },
+        { 10, 2, 2 }
+      }
+    );
+  }
+
+  /**
+   * Starts each test with an empty in-memory state store.
+   */
+  @Before
+  public void setUp() {
+    AwsAmiTriggerStateStore.set(new AwsAmiTriggerStateStore(null));
+  }
+
+  /**
+   * Tests that a new image is held for the settle window (or max delay)
+   * and then fired once, and that the watermark only advances to the poll
+   * that found it when the fire is released.
+   */
+  @Test
+  public void testPollNewImage() {
+    AwsAmiTriggerState state = new AwsAmiTriggerState(1000L);
+    AwsAmiImageQuery query = createQuery(ARCHITECTURE, DESCRIPTION, NAME, TAGS, SHARED);
+    AwsAmiImagePoller poller = createPoller(state, query);
+    TestImageSource source = new TestImageSource(createImage(IMAGE_ID, new Date()));
+
+    long pollTime = System.currentTimeMillis();
+    AwsAmiImagePoller.Poll poll = poller.poll(source, new AwsAmiTriggerStatus(), "job", pollTime);
+    long after = System.currentTimeMillis();
+    Assert.assertEquals("getImageCount()", 1, poll.getImageCount());
+    Assert.assertTrue("getFlushDelay()", poll.getFlushDelay() <= TimeUnit.MINUTES.toMillis(flushMinutes));
+    Assert.assertTrue("getFlushDelay()", poll.getFlushDelay() >= TimeUnit.MINUTES.toMillis(flushMinutes) - (after - pollTime));
+
+    if(flushMinutes > 0) {
+      Assert.assertNull("settling", poller.flush(after));
+    }
+    AwsAmiImagePoller.Fire fire = poller.flush(after + TimeUnit.MINUTES.toMillis(flushMinutes));
+    Assert.assertNotNull("fire", fire);
+    Assert.assertEquals("getMatches()", Collections.singletonMap(query, source.images), fire.getMatches());
+    Assert.assertTrue("getEvents()", fire.getEvents().isEmpty());
+    Assert.assertEquals("getWatermark()", pollTime, fire.getWatermark());
+    Assert.assertNull("fired", poller.flush(Long.MAX_VALUE));
+
+    Assert.assertEquals("getFires()", 0, state.getFires());
+    Assert.assertEquals("getWatermark()", 1000L, state.getWatermark(query.getKey()));
+    fire.release();
+    Assert.assertEquals("getFires()", 1, state.getFires());
+    Assert.assertEquals("getWatermark()", pollTime, state.getWatermark(query.getKey()));
+  }
+
+  /**
+   * Tests that a result that is the same as the previous poll of a query
+   * is skipped and does not restart the settle window.
+   */
+  @Test
+  public void testPollUnchanged() {
+    AwsAmiTriggerState state = new AwsAmiTriggerState(1000L);
+    AwsAmiImagePoller poller = createPoller(state, createQuery(ARCHITECTURE, DESCRIPTION, NAME, TAGS, SHARED));
+    TestImageSource source = new TestImageSource(createImage(IMAGE_ID, new Date()));
+
+    poller.poll(source, new AwsAmiTriggerStatus(), "job", System.currentTimeMillis());
+    AwsAmiImagePoller.Poll poll = poller.poll(source, new AwsAmiTriggerStatus(), "job", System.currentTimeMillis());
+    Assert.assertEquals("getFlushDelay()", 0, poll.getFlushDelay());
+    Assert.assertEquals("getChangedResults()", 1, state.getChangedResults());
+    Assert.assertEquals("getUnchangedResults()", 1, state.getUnchangedResults());
+    Assert.assertEquals("getPolls()", 2, state.getPolls());
+  }
+
+  /**
+   * Tests that a removed image is reported as an event and only fires a
+   * build when builds on removed images are enabled.
+   */
+  @Test
+  public void testPollRemoved() {
+    for(boolean buildOnRemoved : new boolean[] { false, true }) {
+      AwsAmiTriggerState state = new AwsAmiTriggerState(System.currentTimeMillis());
+      AwsAmiImageQuery query = createQuery(ARCHITECTURE, DESCRIPTION, NAME, TAGS, SHARED);
+      AwsAmiImagePoller poller = createPoller(state, query);
+      poller.setBuildOnRemoved(buildOnRemoved);
+
+      Image image1 = createImage("ami-1", new Date(TimeUnit.DAYS.toMillis(1)));
+      Image image2 = createImage("ami-2", new Date(TimeUnit.DAYS.toMillis(2)));
+      poller.poll(new TestImageSource(image2, image1), new AwsAmiTriggerStatus(), "job", System.currentTimeMillis());
+      Assert.assertNull("first poll", poller.flush(Long.MAX_VALUE));
+
+      AwsAmiImagePoller.Poll poll = poller.poll(new TestImageSource(image1), new AwsAmiTriggerStatus(), "job",
+        System.currentTimeMillis());
+      Assert.assertEquals("getEvents()", 1, poll.getEvents().size());
+      Assert.assertEquals("getType()", AwsAmiEvent.Type.REMOVED, poll.getEvents().get(0).getType());
+      AwsAmiImagePoller.Fire fire = poller.flush(Long.MAX_VALUE);
+      Assert.assertEquals("fire", buildOnRemoved, fire != null);
+      if(fire != null) {
+        Assert.assertEquals("getEvents()", poll.getEvents(), fire.getEvents());
+        Assert.assertTrue("getMatches()", fire.getMatches().isEmpty());
+      }
+    }
+  }
+
+  /**
+   * Creates a poller of one query with the settle window and max delay of
+   * the test.
+   *
+   * @param state   the polling state
+   * @param query   the query
+   * @return a new poller
+   */
+  private AwsAmiImagePoller createPoller(AwsAmiTriggerState state, AwsAmiImageQuery query) {
+    AwsAmiImagePoller poller = new AwsAmiImagePoller(state, REGION_NAME, Collections.singletonList(query));
+    poller.setSettleMinutes(settleMinutes);
+    poller.setMaxDelayMinutes(maxDelayMinutes);
+    return poller;
+  }
+
+  /**
+   * Creates a new AWS image.
+   *
+   * @param imageId        ami id
+   * @param creationDate   image creation date
+   * @return a new image
+   */
+  private Image createImage(String imageId, Date creationDate) {
+    return new Image().withImageId(imageId).withCreationDate(DateUtils.formatISO8601Date(creationDate));
+  }
+
+  /**
+   * An image source that returns a fixed list of images.
+   */
+  private static final class TestImageSource implements AwsAmiImageSource {
+    private final List<Image> images;
+
+    /**
+     * Creates a new {@link TestImageSource}.
+     *
+     * @param images   the images the source returns, newest first
+     */
+    TestImageSource(Image... images) {
+      this.images = Arrays.asList(images);
+    }
+
+    /**
+     * Gets a key that identifies the source.
+     * @return the source key
+     */
+    @Override
+    public String getKey() {
+      return CREDENTIALS_ID + "|" + REGION_NAME;
+    }
+
+    /**
+     * Fetches the latest images.
+     *
+     * @param filters   ignored
+     * @param count     the number of images to return
+     * @return up to <code>count</code> images, newest first
+     */
+    @Override
+    public List<Image> fetchLatestImages(Collection<Filter> filters, int count) {
+      return fetchLatestImages(filters, count, null).getImages();
+    }
+
+    /**
+     * Fetches the latest images unless they are unchanged.
+     *
+     * @param filters    ignored
+     * @param count      the number of images to return
+     * @param previous   the result of the previous poll, or <code>null</code>
+     * @return <code>previous</code> if the images are unchanged, otherwise up
+     * to <code>count</code> images, newest first
+     */
+    @Override
+    public AwsAmiLatestImages fetchLatestImages(Collection<Filter> filters, int count, AwsAmiLatestImages previous) {
+      final long fingerprint = AwsAmiImageMatcher.fingerprint(images);
+      if(previous != null && previous.getFingerprint() == fingerprint) {
+        return previous;
+      }
+      return new AwsAmiLatestImages(fingerprint, AwsAmiImageMatcher.newestImages(images, count));
+    }
+  }
+}
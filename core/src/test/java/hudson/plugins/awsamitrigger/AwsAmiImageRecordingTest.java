@@ -0,0 +1,148 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImageRecording}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImageRecordingTest extends AwsAmiAbstractCoreTest {
+
+  @Parameter(0)
+  public String imageDescription;
+  @Parameter(1)
+  public String tagValue;
+  @Parameter(2)
+  public boolean creationDate;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { DESCRIPTION, TAG_VALUE, true },
+        { null, "", true },
+        { "tab\there\nnew line, comma = equals \\N \\", "a=b,c;d", true },
+        { "été 日本", TAG_VALUE, false }
+      }
+    );
+  }
+
+  /**
+   * Tests that images are written and read back unchanged and in order.
+   *
+   * @throws IOException if the images could not be written or read
+   */
+  @Test
+  public void testWriteAndRead() throws IOException {
+    List<Image> images = createImages();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    AwsAmiImageRecording.write(out, "name=" + NAME, images);
+    Assert.assertEquals("read()", images, AwsAmiImageRecording.read(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  /**
+   * Tests that a response is replayed for the same filters in any order
+   * and not for other filters or another region.
+   *
+   * @throws IOException if the response could not be recorded or replayed
+   */
+  @Test
+  public void testRecordAndReplay() throws IOException {
+    File directory = File.createTempFile("aws-ami-recording", "");
+    Assert.assertTrue("delete()", directory.delete());
+    try {
+      AwsAmiImageRecording recording = new AwsAmiImageRecording(directory);
+      AwsAmiImageQuery query = createQuery(ARCHITECTURE, imageDescription, NAME, TAGS, SHARED);
+      List<Image> images = createImages();
+      String sourceKey = CREDENTIALS_ID + "|" + REGION_NAME;
+      recording.record(sourceKey, new DescribeImagesRequest().withFilters(query.toAWSFilters()), images);
+
+      List<Filter> reversed = new ArrayList<Filter>(query.toAWSFilters());
+      Collections.reverse(reversed);
+      Assert.assertEquals("replay()", images, recording.replay(sourceKey, new DescribeImagesRequest().withFilters(reversed)));
+
+      try {
+        recording.replay(sourceKey, new DescribeImagesRequest().withImageIds(IMAGE_ID));
+        Assert.fail("replay() of an unrecorded request");
+      } catch(FileNotFoundException e) {
+        // expected
+      }
+
+      try {
+        recording.replay(CREDENTIALS_ID + "|us-east-1", new DescribeImagesRequest().withFilters(reversed));
+        Assert.fail("replay() of a request recorded for another region");
+      } catch(FileNotFoundException e) {
+        // expected
+      }
+    } finally {
+      for(File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  /**
+   * Creates images based on the test values, with and without optional
+   * values.
+   *
+   * @return the images
+   */
+  private List<Image> createImages() {
+    Image image = createImage(ARCHITECTURE, new Date(), imageDescription, HYPERVISOR, IMAGE_ID, IMAGE_TYPE, NAME,
+      OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAG_KEY, tagValue, SHARED);
+    if(!creationDate) {
+      image.setCreationDate(null);
+    }
+    Image bare = new Image().withImageId("ami-bare");
+    return Arrays.asList(image, bare);
+  }
+}
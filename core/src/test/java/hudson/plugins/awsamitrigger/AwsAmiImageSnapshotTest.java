@@ -0,0 +1,113 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiImageSnapshot}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiImageSnapshotTest extends AwsAmiAbstractCoreTest {
+
+  @Parameter(0)
+  public String previousImages;
+  @Parameter(1)
+  public String currentImages;
+  @Parameter(2)
+  public int capacity;
+  @Parameter(3)
+  public String expectedEvents;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { null,    "3,2",    2, "" },
+        { "3,2",   "3,2",    2, "" },
+        { "3,2",   "4,3",    2, "ADDED ami-4" },
+        { "3,2",   "2,1",    2, "REMOVED ami-3" },
+        { "3,2",   "3",      2, "REMOVED ami-2" },
+        { "3",     "3,2",    2, "ADDED ami-2" },
+        { "3,2",   "3,2*",   2, "STATE_CHANGED ami-2" },
+        { "3,2,1", "4,3,2",  3, "ADDED ami-4" },
+        { "3",     "4",      1, "ADDED ami-4" },
+        { "4",     "3",      1, "REMOVED ami-4" }
+      }
+    );
+  }
+
+  /**
+   * Tests the events found by comparing snapshots.
+   */
+  @Test
+  public void testDiff() {
+    AwsAmiImageSnapshot previous = previousImages == null ? null : AwsAmiImageSnapshot.of(createImages(previousImages));
+    AwsAmiImageSnapshot current = AwsAmiImageSnapshot.of(createImages(currentImages));
+
+    List<String> events = new ArrayList<String>();
+    for(AwsAmiEvent event : current.diff(previous, capacity, 0, "job", REGION_NAME, "filter")) {
+      events.add(event.getType() + " " + event.getImageId());
+    }
+    Assert.assertEquals("diff()", expectedEvents, StringUtils.join(events, ","));
+  }
+
+  /**
+   * Creates images from a specification such as <code>3,2*</code>; each
+   * number is the image id and creation day, and <code>*</code> marks a
+   * changed tag.
+   *
+   * @param specification   the images, newest first
+   * @return list of images
+   */
+  private List<Image> createImages(String specification) {
+    List<Image> images = new ArrayList<Image>();
+    for(String image : specification.split(",")) {
+      boolean changed = image.endsWith("*");
+      String number = changed ? image.substring(0, image.length() - 1) : image;
+      images.add(new Image()
+        .withImageId("ami-" + number)
+        .withCreationDate("2017-06-1" + number + "T20:19:18Z")
+        .withTags(new Tag("Role", changed ? "Changed" : "Web")));
+    }
+    return images;
+  }
+}
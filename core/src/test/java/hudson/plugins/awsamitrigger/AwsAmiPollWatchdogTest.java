@@ -0,0 +1,142 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiPollWatchdog}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiPollWatchdogTest {
+
+  private final static String JOB_NAME = "folder/projectName";
+
+  @Parameter(0)
+  public long pollMillis;
+  @Parameter(1)
+  public long timeoutMillis;
+  @Parameter(2)
+  public boolean expectedCompleted;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0L, 1000L, true },
+        { 50L, 5000L, true },
+        { 5000L, 50L, false }
+      }
+    );
+  }
+
+  /**
+   * Tests that a poll overrunning the deadline is abandoned, interrupted
+   * and recorded as a stall.
+   *
+   * @throws InterruptedException if the test is interrupted
+   */
+  @Test
+  public void testRun() throws InterruptedException {
+    final AwsAmiPollWatchdog watchdog = new AwsAmiPollWatchdog(Executors.newCachedThreadPool());
+    final CountDownLatch finished = new CountDownLatch(1);
+    boolean completed = watchdog.run(JOB_NAME, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(pollMillis);
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          finished.countDown();
+        }
+      }
+    }, timeoutMillis);
+
+    Assert.assertEquals("run()", expectedCompleted, completed);
+    Assert.assertTrue("finished", finished.await(1, TimeUnit.SECONDS));
+    Assert.assertEquals("getStallCount()", expectedCompleted ? 0 : 1, watchdog.getStallCount());
+    Assert.assertEquals("getStalls()", expectedCompleted ? 0 : 1, watchdog.getStalls().size());
+    if(!expectedCompleted) {
+      Assert.assertEquals("getJobName()", JOB_NAME, watchdog.getStalls().get(0).getJobName());
+      Assert.assertTrue("getThreadDump()", watchdog.getStalls().get(0).getThreadDump().contains("sleep"));
+    }
+  }
+
+  /**
+   * Tests that a poll is skipped while the previous poll of the job is
+   * still running.
+   *
+   * @throws InterruptedException if the test is interrupted
+   */
+  @Test
+  public void testSkip() throws InterruptedException {
+    final AwsAmiPollWatchdog watchdog = new AwsAmiPollWatchdog(Executors.newCachedThreadPool());
+    final CountDownLatch release = new CountDownLatch(1);
+    Assert.assertFalse("run(stuck)", watchdog.run(JOB_NAME, new Runnable() {
+      @Override
+      public void run() {
+        boolean interrupted = false;
+        while(release.getCount() > 0) {
+          try {
+            release.await();
+          } catch(InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if(interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, 10L));
+
+    Assert.assertEquals("getStuckPolls()", 1, watchdog.getStuckPolls(0L).size());
+    Assert.assertFalse("run(skipped)", watchdog.run(JOB_NAME, new Runnable() {
+      @Override
+      public void run() {
+        Assert.fail("run()");
+      }
+    }, timeoutMillis));
+
+    release.countDown();
+    for(int i = 0; i < 100 && !watchdog.getPolls().isEmpty(); i++) {
+      Thread.sleep(10L);
+    }
+    Assert.assertTrue("getPolls()", watchdog.getPolls().isEmpty());
+  }
+}
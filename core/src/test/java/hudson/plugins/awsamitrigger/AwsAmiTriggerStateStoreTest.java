@@ -0,0 +1,142 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiTriggerStateStore}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiTriggerStateStoreTest {
+
+  private final static String JOB_NAME = "folder/projectName";
+
+  @Parameter(0)
+  public long lastRun;
+  @Parameter(1)
+  public int polls;
+  @Parameter(2)
+  public int fires;
+
+  private File file;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0L, 0, 0 },
+        { 1497298758000L, 10, 0 },
+        { 1497298758000L, 10, 3 }
+      }
+    );
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("aws-ami-trigger-state", ".bin");
+    Assert.assertTrue("delete()", file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Tests that states survive a flush and reload.
+   */
+  @Test
+  public void testFlushAndLoad() {
+    AwsAmiTriggerStateStore store = new AwsAmiTriggerStateStore(file);
+    AwsAmiTriggerState state = store.getState(JOB_NAME, new AwsAmiTriggerState(lastRun));
+    for(int i = 0; i < polls; i++) {
+      state.recordPoll(lastRun + i);
+    }
+    for(int i = 0; i < fires; i++) {
+      state.recordFire(lastRun + i);
+      state.recordImage("filter", "ami-" + i, lastRun + i, 2);
+      state.recordResult(i % 2 == 0);
+    }
+    store.markDirty();
+    store.flush();
+
+    Assert.assertTrue("exists()", file.exists());
+    Assert.assertFalse("tmp exists()", new File(file.getPath() + ".tmp").exists());
+
+    AwsAmiTriggerState loaded = new AwsAmiTriggerStateStore(file).getState(JOB_NAME, new AwsAmiTriggerState(-1));
+    Assert.assertEquals("getLastRun()", state.getLastRun(), loaded.getLastRun());
+    Assert.assertEquals("getLastPoll()", state.getLastPoll(), loaded.getLastPoll());
+    Assert.assertEquals("getPolls()", polls, loaded.getPolls());
+    Assert.assertEquals("getFires()", fires, loaded.getFires());
+    Assert.assertEquals("getChangedResults()", state.getChangedResults(), loaded.getChangedResults());
+    Assert.assertEquals("getUnchangedResults()", state.getUnchangedResults(), loaded.getUnchangedResults());
+    Assert.assertEquals("getImageHistory()", state.getImageHistory("filter"), loaded.getImageHistory("filter"));
+  }
+
+  /**
+   * Tests that an in-memory store keeps the first state added for a job.
+   */
+  @Test
+  public void testGetState() {
+    AwsAmiTriggerStateStore store = new AwsAmiTriggerStateStore(null);
+    AwsAmiTriggerState state = store.getState(JOB_NAME, new AwsAmiTriggerState(lastRun));
+    Assert.assertSame("getState()", state, store.getState(JOB_NAME, new AwsAmiTriggerState(-1)));
+    store.flush();
+
+    store.removeState(JOB_NAME);
+    Assert.assertEquals("getLastRun()", -1, store.getState(JOB_NAME, new AwsAmiTriggerState(-1)).getLastRun());
+  }
+
+  /**
+   * Tests that the state of a renamed job moves to the new name.
+   */
+  @Test
+  public void testMoveState() {
+    AwsAmiTriggerStateStore store = new AwsAmiTriggerStateStore(file);
+    AwsAmiTriggerState state = store.getState(JOB_NAME, new AwsAmiTriggerState(lastRun));
+    store.flush();
+    Assert.assertFalse("isDirty()", store.isDirty());
+
+    store.moveState(JOB_NAME, JOB_NAME + "-renamed");
+    Assert.assertTrue("isDirty()", store.isDirty());
+    Assert.assertSame("getState(renamed)", state, store.getState(JOB_NAME + "-renamed", new AwsAmiTriggerState(-1)));
+    Assert.assertEquals("getState(old)", -1, store.getState(JOB_NAME, new AwsAmiTriggerState(-1)).getLastRun());
+  }
+}
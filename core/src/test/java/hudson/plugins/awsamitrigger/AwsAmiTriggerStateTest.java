@@ -0,0 +1,138 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiTriggerState}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiTriggerStateTest extends AwsAmiAbstractCoreTest {
+
+  private final static String FILTER_KEY_1 = "filter1";
+  private final static String FILTER_KEY_2 = "filter2";
+  private final static String FILTER_KEY_3 = "filter3";
+
+  @Parameter(0)
+  public String credentialsId;
+  @Parameter(1)
+  public String regionName;
+  @Parameter(2)
+  public boolean expectedSameSource;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { CREDENTIALS_ID, REGION_NAME, true },
+        { CREDENTIALS_ID, "us-east-1", false },
+        { "other-credentials", REGION_NAME, false },
+        { null, null, false }
+      }
+    );
+  }
+
+  /**
+   * Tests that watermarks of unchanged filters are kept when the filters
+   * are reconfigured.
+   */
+  @Test
+  public void testConfigure() {
+    AwsAmiTriggerState state = new AwsAmiTriggerState(1000L);
+    state.configure(CREDENTIALS_ID, REGION_NAME, Arrays.asList(FILTER_KEY_1, FILTER_KEY_2), 1000L);
+    state.recordFire(2000L);
+    state.configure(credentialsId, regionName, Arrays.asList(FILTER_KEY_2, FILTER_KEY_3), 3000L);
+
+    Assert.assertEquals("isSameSource()", expectedSameSource, state.isSameSource(CREDENTIALS_ID, REGION_NAME));
+    Assert.assertTrue("isSameSource()", state.isSameSource(credentialsId, regionName));
+    Assert.assertEquals("getWatermark(removed)", 2000L, state.getWatermark(FILTER_KEY_1));
+    Assert.assertEquals("getWatermark(unchanged)", 2000L, state.getWatermark(FILTER_KEY_2));
+    Assert.assertEquals("getWatermark(added)", 3000L, state.getWatermark(FILTER_KEY_3));
+    Assert.assertEquals("getFires()", 1, state.getFires());
+  }
+
+  /**
+   * Tests that a change of the latest images is reported and that the
+   * first poll of a filter is compared with its watermark.
+   */
+  @Test
+  public void testRecordTopImages() {
+    AwsAmiTriggerState state = new AwsAmiTriggerState(1000L);
+    Assert.assertFalse("first old", state.recordTopImages(FILTER_KEY_1, Arrays.asList("ami-2", "ami-1"), 999L));
+    Assert.assertFalse("unchanged", state.recordTopImages(FILTER_KEY_1, Arrays.asList("ami-2", "ami-1"), 999L));
+    Assert.assertTrue("added", state.recordTopImages(FILTER_KEY_1, Arrays.asList("ami-3", "ami-2"), 1001L));
+    Assert.assertTrue("removed", state.recordTopImages(FILTER_KEY_1, Arrays.asList("ami-2", "ami-1"), 999L));
+
+    state.configure(credentialsId, regionName, Arrays.asList(FILTER_KEY_2), 1000L);
+    Assert.assertFalse("dropped", state.recordTopImages(FILTER_KEY_1, Arrays.asList("ami-3", "ami-2"), 999L));
+    Assert.assertTrue("first new", state.recordTopImages(FILTER_KEY_2, Arrays.asList("ami-3", "ami-2"), 1000L));
+    Assert.assertFalse("first undated",
+      new AwsAmiTriggerState(1000L).recordTopImages(FILTER_KEY_1, Arrays.asList("ami-1"), Long.MIN_VALUE));
+  }
+
+  /**
+   * Tests that a version 1 state, which has no credentials, region or
+   * watermarks, is read and that its filters start from its last run.
+   * @throws IOException if the state cannot be written or read
+   */
+  @Test
+  public void testReadVersion1() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(1000L);
+    out.writeLong(2000L);
+    out.writeLong(3L);
+    out.writeLong(1L);
+    out.close();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    AwsAmiTriggerState state = AwsAmiTriggerState.read(in, 1);
+    Assert.assertEquals("available()", 0, in.available());
+    Assert.assertEquals("getLastRun()", 1000L, state.getLastRun());
+    Assert.assertEquals("getLastPoll()", 2000L, state.getLastPoll());
+    Assert.assertEquals("getPolls()", 3L, state.getPolls());
+    Assert.assertEquals("getFires()", 1L, state.getFires());
+
+    state.configure(credentialsId, regionName, Arrays.asList(FILTER_KEY_1), state.getLastRun());
+    Assert.assertTrue("isSameSource()", state.isSameSource(credentialsId, regionName));
+    Assert.assertEquals("getWatermark()", 1000L, state.getWatermark(FILTER_KEY_1));
+  }
+}
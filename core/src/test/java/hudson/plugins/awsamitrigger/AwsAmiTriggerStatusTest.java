@@ -0,0 +1,108 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run tests for {@link AwsAmiTriggerStatus}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(Parameterized.class)
+public class AwsAmiTriggerStatusTest {
+
+  private final static long START = 1497298758000L;
+
+  @Parameter(0)
+  public int failures;
+  @Parameter(1)
+  public AwsAmiTriggerStatus.BreakerState breakerState;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0, AwsAmiTriggerStatus.BreakerState.CLOSED },
+        { AwsAmiTriggerStatus.FAILURE_THRESHOLD - 1, AwsAmiTriggerStatus.BreakerState.CLOSED },
+        { AwsAmiTriggerStatus.FAILURE_THRESHOLD, AwsAmiTriggerStatus.BreakerState.OPEN }
+      }
+    );
+  }
+
+  /**
+   * Tests that consecutive failures open the breaker until the open period
+   * ends and that a successful trial closes it.
+   */
+  @Test
+  public void testBreaker() {
+    AwsAmiTriggerStatus status = new AwsAmiTriggerStatus();
+    for(int i = 0; i < failures; i++) {
+      status.recordFailure(START + i, 0, new IllegalStateException("failure"));
+    }
+    long now = START + failures;
+
+    Assert.assertEquals("getBreakerState()", breakerState, status.getBreakerState(now));
+    Assert.assertEquals("allowPoll()", breakerState != AwsAmiTriggerStatus.BreakerState.OPEN, status.allowPoll(now));
+    Assert.assertEquals("getErrors()", failures, status.getErrors());
+
+    long later = now + AwsAmiTriggerStatus.OPEN_MILLIS;
+    Assert.assertTrue("allowPoll(later)", status.allowPoll(later));
+    if(failures >= AwsAmiTriggerStatus.FAILURE_THRESHOLD) {
+      Assert.assertEquals("getBreakerState(later)", AwsAmiTriggerStatus.BreakerState.HALF_OPEN, status.getBreakerState(later));
+      Assert.assertEquals("getSkippedPolls()", 1, status.getSkippedPolls());
+    }
+
+    status.recordSuccess(later, 10);
+    Assert.assertEquals("getBreakerState(success)", AwsAmiTriggerStatus.BreakerState.CLOSED, status.getBreakerState(later));
+    Assert.assertEquals("getConsecutiveFailures()", 0, status.getConsecutiveFailures());
+    Assert.assertEquals("getLastPoll()", later, status.getLastPoll());
+  }
+
+  /**
+   * Tests that calls older than an hour are not counted.
+   */
+  @Test
+  public void testGetCallsPerHour() {
+    AwsAmiTriggerStatus status = new AwsAmiTriggerStatus();
+    long minute = TimeUnit.MINUTES.toMillis(1);
+    for(int i = 0; i < 90; i++) {
+      for(int j = 0; j <= failures; j++) {
+        status.recordCall(START + i * minute);
+      }
+    }
+    Assert.assertEquals("getCallsPerHour()", 60 * (failures + 1), status.getCallsPerHour(START + 89 * minute));
+    Assert.assertEquals("getCallsPerHour(later)", 0, status.getCallsPerHour(START + 200 * minute));
+  }
+}
@@ -0,0 +1,694 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+/**
+ * Inverted index from image id to the builds that the image triggered.
+ *
+ * <p>The index is held in memory and every change is appended to a log
+ * file, so an update costs one small write rather than a rewrite. The log
+ * is replayed when Jenkins starts and compacted when it holds more
+ * removed than live entries. A partly written record at the end of the
+ * log (after a crash) is dropped. A log with an unknown format version is
+ * moved aside. When there is no usable log the index is backfilled once
+ * from the builds of all jobs after they have been loaded.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiBuildIndex {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiBuildIndex.class.getName());
+  private static final int FORMAT_VERSION = 1;
+  private static final String FILE_NAME = "aws-ami-trigger-index.bin";
+
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_REMOVE = 2;
+  private static final byte RECORD_RENAME = 3;
+
+  private static AwsAmiBuildIndex instance;
+
+  private final File file;
+  private final Map<String, List<BuildReference>> byImage = new HashMap<String, List<BuildReference>>();
+  private final Map<String, TreeMap<Integer, List<BuildReference>>> byJob = new HashMap<String, TreeMap<Integer, List<BuildReference>>>();
+  private int size;
+  private int records;
+  private boolean backfill;
+
+  /**
+   * Creates a new {@link AwsAmiBuildIndex}.
+   *
+   * @param file   the log file or <code>null</code> to only keep the index
+   *               in memory
+   */
+  AwsAmiBuildIndex(File file) {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * Gets the {@link AwsAmiBuildIndex} singleton.
+   * @return the index in the Jenkins root directory, or an in-memory index if
+   * Jenkins is not running
+   */
+  public static synchronized AwsAmiBuildIndex get() {
+    if(instance == null) {
+      final Jenkins jenkins = Jenkins.getInstance();
+      instance = new AwsAmiBuildIndex(jenkins == null ? null : new File(jenkins.getRootDir(), FILE_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the builds triggered by an image.
+   *
+   * @param imageId   the image id
+   * @return the builds, oldest first
+   */
+  public synchronized List<BuildReference> getBuilds(String imageId) {
+    final List<BuildReference> references = byImage.get(imageId);
+    if(references == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<BuildReference>(references);
+  }
+
+  /**
+   * Gets the builds triggered by an image matching a filter.
+   *
+   * @param imageId     the image id
+   * @param filterKey   the {@link AwsAmiTriggerFilter#getKey() key} of the filter
+   * @return the builds, oldest first
+   */
+  public synchronized List<BuildReference> getBuilds(String imageId, String filterKey) {
+    final List<BuildReference> builds = new ArrayList<BuildReference>();
+    for(BuildReference reference : getBuilds(imageId)) {
+      if(reference.getFilterKey().equals(filterKey)) {
+        builds.add(reference);
+      }
+    }
+    return builds;
+  }
+
+  /**
+   * Gets the number of build references in the index.
+   * @return number of references
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Adds the images that triggered a build.
+   *
+   * @param jobName       full name of the job
+   * @param buildNumber   build number
+   * @param cause         the cause of the build
+   */
+  public void add(String jobName, int buildNumber, AwsAmiTriggerCause cause) {
+    for(AwsAmiTriggerCause.AwsAmiTriggerMatch match : cause.getMatches()) {
+      add(new BuildReference(jobName, buildNumber, match.getImageId(), match.getFilter().getKey()));
+    }
+  }
+
+  /**
+   * Adds a build reference.
+   *
+   * @param reference   the build reference
+   */
+  synchronized void add(BuildReference reference) {
+    index(reference);
+    append(RECORD_ADD, reference.getJobName(), reference.getBuildNumber(), reference.getImageId(), reference.getFilterKey());
+  }
+
+  /**
+   * Removes the references of a build.
+   *
+   * @param jobName       full name of the job
+   * @param buildNumber   build number
+   */
+  public synchronized void remove(String jobName, int buildNumber) {
+    if(unindex(jobName, buildNumber)) {
+      append(RECORD_REMOVE, jobName, buildNumber, null, null);
+    }
+  }
+
+  /**
+   * Removes the references of all the builds of a job.
+   *
+   * @param jobName   full name of the job
+   */
+  public synchronized void remove(String jobName) {
+    if(unindex(jobName, -1)) {
+      append(RECORD_REMOVE, jobName, -1, null, null);
+    }
+  }
+
+  /**
+   * Moves the references of a renamed job.
+   *
+   * @param oldJobName   full name before the change
+   * @param newJobName   full name after the change
+   */
+  public synchronized void rename(String oldJobName, String newJobName) {
+    if(reindex(oldJobName, newJobName)) {
+      append(RECORD_RENAME, oldJobName, -1, newJobName, null);
+    }
+  }
+
+  /**
+   * Checks whether the index still has to be backfilled from the builds of
+   * the jobs because there was no usable log when it was loaded.
+   * @return true if {@link #backfill(List)} has not run yet
+   */
+  public synchronized boolean isBackfillNeeded() {
+    return backfill;
+  }
+
+  /**
+   * Backfills the index with the references of existing builds and writes
+   * the log. Builds that are already indexed are skipped. Only the first
+   * call after the index was loaded without a usable log has any effect.
+   *
+   * @param references   the references of the existing builds
+   */
+  public synchronized void backfill(List<BuildReference> references) {
+    if(!backfill) {
+      return;
+    }
+    backfill = false;
+
+    final Map<String, List<Integer>> indexed = new HashMap<String, List<Integer>>();
+    for(Map.Entry<String, TreeMap<Integer, List<BuildReference>>> builds : byJob.entrySet()) {
+      indexed.put(builds.getKey(), new ArrayList<Integer>(builds.getValue().keySet()));
+    }
+    for(BuildReference reference : references) {
+      final List<Integer> buildNumbers = indexed.get(reference.getJobName());
+      if(buildNumbers == null || !buildNumbers.contains(reference.getBuildNumber())) {
+        index(reference);
+      }
+    }
+    LOGGER.log(Level.INFO, "Backfilled build index {0} with {1} references", new Object[] { file, size });
+    try {
+      compact();
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to write build index " + file, e);
+    }
+  }
+
+  /**
+   * Adds a reference to the in-memory index.
+   *
+   * @param reference   the build reference
+   */
+  private void index(BuildReference reference) {
+    List<BuildReference> references = byImage.get(reference.getImageId());
+    if(references == null) {
+      references = new ArrayList<BuildReference>(1);
+      byImage.put(reference.getImageId(), references);
+    }
+    references.add(reference);
+
+    TreeMap<Integer, List<BuildReference>> builds = byJob.get(reference.getJobName());
+    if(builds == null) {
+      builds = new TreeMap<Integer, List<BuildReference>>();
+      byJob.put(reference.getJobName(), builds);
+    }
+    List<BuildReference> buildReferences = builds.get(reference.getBuildNumber());
+    if(buildReferences == null) {
+      buildReferences = new ArrayList<BuildReference>(1);
+      builds.put(reference.getBuildNumber(), buildReferences);
+    }
+    buildReferences.add(reference);
+    size++;
+  }
+
+  /**
+   * Removes the references of a build, or of all builds of a job, from the
+   * in-memory index.
+   *
+   * @param jobName       full name of the job
+   * @param buildNumber   build number or <code>-1</code> for all builds
+   * @return true if any references were removed
+   */
+  private boolean unindex(String jobName, int buildNumber) {
+    final TreeMap<Integer, List<BuildReference>> builds = byJob.get(jobName);
+    if(builds == null) {
+      return false;
+    }
+
+    final List<BuildReference> removed = new ArrayList<BuildReference>();
+    if(buildNumber < 0) {
+      for(List<BuildReference> references : builds.values()) {
+        removed.addAll(references);
+      }
+      builds.clear();
+    } else {
+      final List<BuildReference> references = builds.remove(buildNumber);
+      if(references != null) {
+        removed.addAll(references);
+      }
+    }
+    if(builds.isEmpty()) {
+      byJob.remove(jobName);
+    }
+
+    for(BuildReference reference : removed) {
+      final List<BuildReference> references = byImage.get(reference.getImageId());
+      references.remove(reference);
+      if(references.isEmpty()) {
+        byImage.remove(reference.getImageId());
+      }
+      size--;
+    }
+    return !removed.isEmpty();
+  }
+
+  /**
+   * Moves the references of a job in the in-memory index.
+   *
+   * @param oldJobName   full name before the change
+   * @param newJobName   full name after the change
+   * @return true if any references were moved
+   */
+  private boolean reindex(String oldJobName, String newJobName) {
+    final TreeMap<Integer, List<BuildReference>> builds = byJob.get(oldJobName);
+    if(builds == null) {
+      return false;
+    }
+
+    final List<BuildReference> moved = new ArrayList<BuildReference>();
+    for(List<BuildReference> references : builds.values()) {
+      moved.addAll(references);
+    }
+    unindex(oldJobName, -1);
+    for(BuildReference reference : moved) {
+      index(new BuildReference(newJobName, reference.getBuildNumber(), reference.getImageId(), reference.getFilterKey()));
+    }
+    return true;
+  }
+
+  /**
+   * Appends a record to the log. If the log has grown to more than twice
+   * the size of the index it is compacted instead, which already includes
+   * the change.
+   *
+   * @param type          record type
+   * @param jobName       full name of the job
+   * @param buildNumber   build number
+   * @param value1        image id or new job name
+   * @param value2        filter key
+   */
+  private void append(byte type, String jobName, int buildNumber, String value1, String value2) {
+    if(file == null) {
+      return;
+    }
+
+    try {
+      if(records > 64 && records > size * 2) {
+        compact();
+        return;
+      }
+      final boolean header = !file.exists();
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      try {
+        if(header) {
+          out.writeInt(FORMAT_VERSION);
+        }
+        writeRecord(out, type, jobName, buildNumber, value1, value2);
+      } finally {
+        out.close();
+      }
+      records++;
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to update build index " + file, e);
+    }
+  }
+
+  /**
+   * Writes a record.
+   *
+   * @param out           the output
+   * @param type          record type
+   * @param jobName       full name of the job
+   * @param buildNumber   build number
+   * @param value1        image id or new job name
+   * @param value2        filter key
+   * @throws IOException if the record could not be written
+   */
+  private static void writeRecord(DataOutputStream out, byte type, String jobName, int buildNumber, String value1,
+      String value2) throws IOException {
+    out.writeByte(type);
+    out.writeUTF(jobName);
+    out.writeInt(buildNumber);
+    if(type == RECORD_ADD) {
+      out.writeUTF(value1);
+      out.writeUTF(value2);
+    } else if(type == RECORD_RENAME) {
+      out.writeUTF(value1);
+    }
+  }
+
+  /**
+   * Rewrites the log with one record per live reference. The new log is
+   * written to a temporary file, synced and renamed over the old log.
+   *
+   * @throws IOException if the log could not be written
+   */
+  private void compact() throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    final FileOutputStream fos = new FileOutputStream(tmp);
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+      out.writeInt(FORMAT_VERSION);
+      for(TreeMap<Integer, List<BuildReference>> builds : byJob.values()) {
+        for(List<BuildReference> references : builds.values()) {
+          for(BuildReference reference : references) {
+            writeRecord(out, RECORD_ADD, reference.getJobName(), reference.getBuildNumber(), reference.getImageId(),
+              reference.getFilterKey());
+          }
+        }
+      }
+      out.flush();
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    records = size;
+  }
+
+  /**
+   * Replays the log into the in-memory index.
+   */
+  private void load() {
+    if(file == null) {
+      return;
+    }
+
+    boolean truncated = false;
+    boolean unknownVersion = false;
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        final int version = in.readInt();
+        if(version == FORMAT_VERSION) {
+          replay(in);
+        } else {
+          LOGGER.log(Level.WARNING, "Moving aside build index {0} with unknown version {1}", new Object[] { file, version });
+          unknownVersion = true;
+        }
+      } finally {
+        in.close();
+      }
+    } catch(FileNotFoundException e) {
+      LOGGER.log(Level.FINE, "No build index in {0}", file);
+      backfill = true;
+    } catch(EOFException e) {
+      LOGGER.log(Level.WARNING, "Dropping partly written record at the end of build index {0}", file);
+      truncated = true;
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to load build index from " + file, e);
+      truncated = true;
+    }
+
+    if(unknownVersion) {
+      try {
+        Files.move(file.toPath(), new File(file.getPath() + ".old").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        backfill = true;
+      } catch(IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to move aside build index " + file, e);
+        truncated = true;
+      }
+    }
+
+    if(truncated) {
+      try {
+        compact();
+      } catch(IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to compact build index " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Replays the records of the log into the in-memory index.
+   *
+   * @param in   the log, positioned after the format version
+   * @throws IOException if a record could not be read
+   */
+  private void replay(DataInputStream in) throws IOException {
+    while(true) {
+      final int type = in.read();
+      if(type < 0) {
+        break;
+      }
+      final String jobName = in.readUTF();
+      final int buildNumber = in.readInt();
+      if(type == RECORD_ADD) {
+        index(new BuildReference(jobName, buildNumber, in.readUTF(), in.readUTF()));
+      } else if(type == RECORD_REMOVE) {
+        unindex(jobName, buildNumber);
+      } else if(type == RECORD_RENAME) {
+        reindex(jobName, in.readUTF());
+      } else {
+        throw new IOException("Unknown record type " + type);
+      }
+      records++;
+    }
+  }
+
+  /**
+   * A build triggered by an image.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class BuildReference {
+    private final String jobName;
+    private final int buildNumber;
+    private final String imageId;
+    private final String filterKey;
+
+    /**
+     * Creates a new {@link BuildReference}.
+     *
+     * @param jobName       full name of the job
+     * @param buildNumber   build number
+     * @param imageId       id of the image that triggered the build
+     * @param filterKey     key of the filter that matched the image
+     */
+    public BuildReference(String jobName, int buildNumber, String imageId, String filterKey) {
+      this.jobName = jobName;
+      this.buildNumber = buildNumber;
+      this.imageId = imageId;
+      this.filterKey = filterKey;
+    }
+
+    /**
+     * Gets the full name of the job.
+     * @return full name of the job
+     */
+    public String getJobName() {
+      return jobName;
+    }
+
+    /**
+     * Gets the build number.
+     * @return build number
+     */
+    public int getBuildNumber() {
+      return buildNumber;
+    }
+
+    /**
+     * Gets the image id.
+     * @return id of the image that triggered the build
+     */
+    public String getImageId() {
+      return imageId;
+    }
+
+    /**
+     * Gets the filter key.
+     * @return key of the filter that matched the image
+     */
+    public String getFilterKey() {
+      return filterKey;
+    }
+
+    /**
+     * Converts this object to a string.
+     * @return string representing this object
+     */
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+        .append("jobName", jobName)
+        .append("buildNumber", buildNumber)
+        .append("imageId", imageId)
+        .append("filterKey", filterKey)
+        .toString();
+    }
+  }
+
+  /**
+   * Adds builds started by an {@link AwsAmiTriggerCause} to the index and
+   * removes deleted builds.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class RunListenerImpl extends RunListener<Run<?,?>> {
+
+    /**
+     * Indexes a started build. The build number is only known once the
+     * build leaves the queue, so builds are indexed when they start.
+     *
+     * @param run        the build
+     * @param listener   task listener
+     */
+    @Override
+    public void onStarted(Run<?,?> run, TaskListener listener) {
+      final AwsAmiTriggerCause cause = run.getCause(AwsAmiTriggerCause.class);
+      if(cause != null) {
+        get().add(run.getParent().getFullName(), run.getNumber(), cause);
+      }
+    }
+
+    /**
+     * Removes a deleted build from the index.
+     *
+     * @param run   the build
+     */
+    @Override
+    public void onDeleted(Run<?,?> run) {
+      if(run.getCause(AwsAmiTriggerCause.class) != null) {
+        get().remove(run.getParent().getFullName(), run.getNumber());
+      }
+    }
+  }
+
+  /**
+   * Keeps the {@link AwsAmiBuildIndex} in step with renamed and deleted
+   * jobs, and backfills it once all the jobs have been loaded.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class ItemListenerImpl extends ItemListener {
+
+    /**
+     * Backfills the index in the background if it had no usable log. Every
+     * build of every job is loaded, so this only happens once.
+     */
+    @Override
+    public void onLoaded() {
+      if(!get().isBackfillNeeded()) {
+        return;
+      }
+      Timer.get().submit(new Runnable() {
+        @Override
+        public void run() {
+          final Jenkins jenkins = Jenkins.getInstance();
+          if(jenkins == null) {
+            return;
+          }
+          final List<BuildReference> references = new ArrayList<BuildReference>();
+          for(Job<?,?> job : jenkins.getAllItems(Job.class)) {
+            for(Run<?,?> run : job.getBuilds()) {
+              final AwsAmiTriggerCause cause = run.getCause(AwsAmiTriggerCause.class);
+              if(cause != null) {
+                for(AwsAmiTriggerCause.AwsAmiTriggerMatch match : cause.getMatches()) {
+                  references.add(new BuildReference(job.getFullName(), run.getNumber(), match.getImageId(),
+                    match.getFilter().getKey()));
+                }
+              }
+            }
+          }
+          get().backfill(references);
+        }
+      });
+    }
+
+    /**
+     * Moves the references of a renamed or moved job.
+     *
+     * @param item          the job
+     * @param oldFullName   full name before the change
+     * @param newFullName   full name after the change
+     */
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+      get().rename(oldFullName, newFullName);
+    }
+
+    /**
+     * Removes the references of a deleted job.
+     *
+     * @param item          the job
+     */
+    @Override
+    public void onDeleted(Item item) {
+      get().remove(item.getFullName());
+    }
+  }
+}
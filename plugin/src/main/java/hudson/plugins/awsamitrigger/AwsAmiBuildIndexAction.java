@@ -0,0 +1,165 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.RootAction;
+import hudson.model.Run;
+
+import jenkins.model.Jenkins;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Page and REST endpoint to look up the builds triggered by an image in
+ * the {@link AwsAmiBuildIndex}. Only builds of jobs the user can read are
+ * returned.
+ *
+ * <p><code>GET /aws-ami-builds/lookup?imageId=ami-123[&amp;filter=key]</code>
+ * returns the builds as JSON.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiBuildIndexAction implements RootAction {
+
+  /**
+   * Gets the icon file name.
+   * @return icon of the action or <code>null</code> if the user cannot read
+   */
+  @Override
+  public String getIconFileName() {
+    final Jenkins jenkins = Jenkins.getInstance();
+    return jenkins != null && jenkins.hasPermission(Jenkins.READ) ? "search.png" : null;
+  }
+
+  /**
+   * Gets the display name.
+   * @return display name of the action
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.BuildIndexDisplayName();
+  }
+
+  /**
+   * Gets the URL name.
+   * @return URL of the action relative to the Jenkins root
+   */
+  @Override
+  public String getUrlName() {
+    return "aws-ami-builds";
+  }
+
+  /**
+   * Gets the readable builds triggered by an image.
+   *
+   * @param imageId   the image id
+   * @param filter    the key of the filter or empty for all filters
+   * @return the builds, oldest first
+   */
+  public List<AwsAmiBuildIndex.BuildReference> getBuilds(String imageId, String filter) {
+    final List<AwsAmiBuildIndex.BuildReference> builds = new ArrayList<AwsAmiBuildIndex.BuildReference>();
+    if(StringUtils.isBlank(imageId)) {
+      return builds;
+    }
+
+    final AwsAmiBuildIndex index = AwsAmiBuildIndex.get();
+    final List<AwsAmiBuildIndex.BuildReference> references = StringUtils.isEmpty(filter)
+      ? index.getBuilds(imageId.trim()) : index.getBuilds(imageId.trim(), filter);
+    for(AwsAmiBuildIndex.BuildReference reference : references) {
+      if(getJob(reference) != null) {
+        builds.add(reference);
+      }
+    }
+    return builds;
+  }
+
+  /**
+   * Gets the build of a reference.
+   *
+   * @param reference   the build reference
+   * @return the build or <code>null</code> if it no longer exists or the
+   * user cannot read it
+   */
+  public Run<?,?> getRun(AwsAmiBuildIndex.BuildReference reference) {
+    final Job<?,?> job = getJob(reference);
+    return job == null ? null : job.getBuildByNumber(reference.getBuildNumber());
+  }
+
+  /**
+   * Gets the job of a reference.
+   *
+   * @param reference   the build reference
+   * @return the job or <code>null</code> if it no longer exists or the user
+   * cannot read it
+   */
+  private Job<?,?> getJob(AwsAmiBuildIndex.BuildReference reference) {
+    final Jenkins jenkins = Jenkins.getInstance();
+    return jenkins == null ? null : jenkins.getItemByFullName(reference.getJobName(), Job.class);
+  }
+
+  /**
+   * Returns the builds triggered by an image as JSON.
+   *
+   * @param imageId    the image id
+   * @param filter     the key of the filter or empty for all filters
+   * @param response   the response
+   * @throws IOException if the response could not be written
+   * @throws ServletException if the response could not be written
+   */
+  public void doLookup(@QueryParameter String imageId, @QueryParameter String filter, StaplerResponse response)
+      throws IOException, ServletException {
+    final JSONArray builds = new JSONArray();
+    for(AwsAmiBuildIndex.BuildReference reference : getBuilds(imageId, filter)) {
+      final JSONObject build = new JSONObject();
+      build.put("job", reference.getJobName());
+      build.put("number", reference.getBuildNumber());
+      build.put("imageId", reference.getImageId());
+      build.put("filter", reference.getFilterKey());
+      builds.add(build);
+    }
+
+    final JSONObject result = new JSONObject();
+    result.put("imageId", StringUtils.trimToEmpty(imageId));
+    result.put("builds", builds);
+
+    response.setContentType("application/json;charset=UTF-8");
+    response.getWriter().write(result.toString());
+  }
+}
@@ -0,0 +1,196 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Append-only journal of {@link AwsAmiEvent}s. Each event is written as a
+ * line of JSON to <code>$JENKINS_HOME/aws-ami-trigger-events.log</code>.
+ * When the journal reaches {@link #MAX_SIZE} bytes it is rolled over to
+ * <code>aws-ami-trigger-events.log.1</code>, replacing the previous one.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiEventJournal {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiEventJournal.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String FILE_NAME = "aws-ami-trigger-events.log";
+  static final long MAX_SIZE = 10L * 1024 * 1024;
+
+  private static AwsAmiEventJournal instance;
+
+  private final File file;
+
+  /**
+   * Creates a new {@link AwsAmiEventJournal}.
+   *
+   * @param file   the journal file or <code>null</code> to discard events
+   */
+  AwsAmiEventJournal(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Gets the {@link AwsAmiEventJournal} singleton.
+   * @return the journal in the Jenkins root directory, or a journal that
+   * discards events if Jenkins is not running
+   */
+  public static synchronized AwsAmiEventJournal get() {
+    if(instance == null) {
+      final Jenkins jenkins = Jenkins.getInstance();
+      instance = new AwsAmiEventJournal(jenkins == null ? null : new File(jenkins.getRootDir(), FILE_NAME));
+    }
+    return instance;
+  }
+
+  /**
+   * Appends events to the journal.
+   *
+   * @param events   the events
+   */
+  public synchronized void append(Collection<AwsAmiEvent> events) {
+    if(file == null || events.isEmpty()) {
+      return;
+    }
+
+    try {
+      if(file.length() >= MAX_SIZE) {
+        final File rolled = new File(file.getPath() + ".1");
+        if(rolled.exists() && !rolled.delete()) {
+          throw new IOException("Failed to delete " + rolled);
+        }
+        if(!file.renameTo(rolled)) {
+          throw new IOException("Failed to roll over " + file);
+        }
+      }
+
+      final Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+      try {
+        for(AwsAmiEvent event : events) {
+          writer.write(toJSON(event).toString());
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to append events to " + file, e);
+    }
+  }
+
+  /**
+   * Reads the most recent events from the journal.
+   *
+   * @param count   the maximum number of events
+   * @return the events, oldest first
+   */
+  public synchronized List<AwsAmiEvent> getRecent(int count) {
+    final Deque<AwsAmiEvent> events = new ArrayDeque<AwsAmiEvent>(count);
+    if(file == null || count <= 0) {
+      return new ArrayList<AwsAmiEvent>(events);
+    }
+
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      try {
+        String line;
+        while((line = reader.readLine()) != null) {
+          try {
+            events.addLast(fromJSON(JSONObject.fromObject(line)));
+          } catch(JSONException e) {
+            LOGGER.log(Level.FINE, "Skipping invalid event in " + file, e);
+            continue;
+          } catch(IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "Skipping invalid event in " + file, e);
+            continue;
+          }
+          if(events.size() > count) {
+            events.removeFirst();
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch(FileNotFoundException e) {
+      LOGGER.log(Level.FINE, "No events in {0}", file);
+    } catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read events from " + file, e);
+    }
+    return new ArrayList<AwsAmiEvent>(events);
+  }
+
+  /**
+   * Converts an event to JSON.
+   *
+   * @param event   the event
+   * @return JSON object
+   */
+  static JSONObject toJSON(AwsAmiEvent event) {
+    final JSONObject json = new JSONObject();
+    json.put("type", event.getType().name());
+    json.put("time", event.getTime());
+    json.put("job", event.getJobName());
+    json.put("region", event.getRegionName());
+    json.put("filter", event.getFilterKey());
+    json.put("imageId", event.getImageId());
+    json.put("creationTime", event.getCreationTime());
+    return json;
+  }
+
+  /**
+   * Creates an event from JSON written by {@link #toJSON(AwsAmiEvent)}.
+   *
+   * @param json   JSON object
+   * @return the event
+   */
+  static AwsAmiEvent fromJSON(JSONObject json) {
+    return new AwsAmiEvent(AwsAmiEvent.Type.valueOf(json.getString("type")), json.getLong("time"), json.optString("job", null),
+      json.optString("region", null), json.optString("filter", null), json.getString("imageId"),
+      json.optLong("creationTime", -1));
+  }
+}
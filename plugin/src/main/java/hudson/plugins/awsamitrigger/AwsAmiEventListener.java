@@ -0,0 +1,104 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Extension point for receiving {@link AwsAmiEvent}s found by the polls of
+ * every {@link AwsAmiTrigger} on the controller.
+ *
+ * <p>Implementations are annotated with <code>@Extension</code> and
+ * override {@link #getEventTypes()} to only receive the event types they
+ * care about. Events are delivered on the polling thread, so listeners
+ * should return quickly.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public abstract class AwsAmiEventListener implements ExtensionPoint {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiEventListener.class.getName());
+
+  /**
+   * Gets the event types this listener receives.
+   * @return set of event types; all types by default
+   */
+  public Set<AwsAmiEvent.Type> getEventTypes() {
+    return EnumSet.allOf(AwsAmiEvent.Type.class);
+  }
+
+  /**
+   * Receives an event.
+   *
+   * @param event   the event
+   */
+  public abstract void onEvent(AwsAmiEvent event);
+
+  /**
+   * Gets all the registered listeners.
+   * @return list of listeners
+   */
+  public static ExtensionList<AwsAmiEventListener> all() {
+    return ExtensionList.lookup(AwsAmiEventListener.class);
+  }
+
+  /**
+   * Appends events to the {@link AwsAmiEventJournal} and delivers them to
+   * the listeners that receive their type.
+   *
+   * @param events   the events
+   */
+  public static void fire(List<AwsAmiEvent> events) {
+    if(events.isEmpty()) {
+      return;
+    }
+
+    AwsAmiEventJournal.get().append(events);
+    if(Jenkins.getInstance() == null) {
+      return;
+    }
+    for(AwsAmiEventListener listener : all()) {
+      final Set<AwsAmiEvent.Type> types = listener.getEventTypes();
+      for(AwsAmiEvent event : events) {
+        if(types.contains(event.getType())) {
+          try {
+            listener.onEvent(event);
+          } catch(RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Listener " + listener + " failed to handle " + event, e);
+          }
+        }
+      }
+    }
+  }
+}
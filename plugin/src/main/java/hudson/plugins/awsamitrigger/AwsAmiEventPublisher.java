@@ -0,0 +1,349 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams <code>Publisher</code> of the {@link AwsAmiEvent}s found
+ * by the polls of every {@link AwsAmiTrigger} on the controller, so other
+ * plugins can follow image changes without polling EC2 themselves.
+ *
+ * <p>Each subscriber has its own filter and a buffer of
+ * {@link #DEFAULT_BUFFER_SIZE} events. Events are delivered on a
+ * publisher thread, never on the polling thread, and only as far as the
+ * subscriber has requested them. Polling never waits for a subscriber: if
+ * a buffer is full the oldest event in it is dropped and counted.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiEventPublisher implements Publisher<AwsAmiEvent> {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiEventPublisher.class.getName());
+  public static final int DEFAULT_BUFFER_SIZE = 256;
+
+  private static final AwsAmiEventPublisher INSTANCE = new AwsAmiEventPublisher(
+    Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "AwsAmiEventPublisher")));
+
+  private final ExecutorService executor;
+  private final CopyOnWriteArrayList<EventSubscription> subscriptions = new CopyOnWriteArrayList<EventSubscription>();
+  private final AtomicLong droppedEvents = new AtomicLong();
+
+  /**
+   * Creates a new {@link AwsAmiEventPublisher}.
+   *
+   * @param executor   executor that delivers events to subscribers
+   */
+  AwsAmiEventPublisher(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the {@link AwsAmiEventPublisher} singleton.
+   * @return the publisher
+   */
+  public static AwsAmiEventPublisher get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Subscribes to all events.
+   *
+   * @param subscriber   the subscriber
+   */
+  @Override
+  public void subscribe(Subscriber<? super AwsAmiEvent> subscriber) {
+    subscribe(subscriber, Predicates.<AwsAmiEvent>alwaysTrue(), DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Subscribes to the events accepted by a filter.
+   *
+   * @param subscriber   the subscriber
+   * @param filter       the events to deliver
+   * @param bufferSize   the maximum number of undelivered events to keep
+   */
+  public void subscribe(Subscriber<? super AwsAmiEvent> subscriber, Predicate<? super AwsAmiEvent> filter, int bufferSize) {
+    if(subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    final EventSubscription subscription = new EventSubscription(subscriber, filter, Math.max(1, bufferSize));
+    subscriptions.add(subscription);
+    try {
+      subscriber.onSubscribe(subscription);
+    } catch(RuntimeException e) {
+      subscriptions.remove(subscription);
+      LOGGER.log(Level.WARNING, "Subscriber " + subscriber + " failed in onSubscribe", e);
+    }
+  }
+
+  /**
+   * Gets the number of active subscriptions.
+   * @return number of subscriptions
+   */
+  public int getSubscriberCount() {
+    return subscriptions.size();
+  }
+
+  /**
+   * Gets the number of events dropped because the buffer of a subscriber
+   * was full.
+   * @return number of dropped events across all subscriptions
+   */
+  public long getDroppedCount() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * Offers an event to every subscription.
+   *
+   * @param event   the event
+   */
+  void publish(AwsAmiEvent event) {
+    for(EventSubscription subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /**
+   * Completes every subscription.
+   */
+  void complete() {
+    for(EventSubscription subscription : subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  /**
+   * Completes the subscriptions when Jenkins shuts down.
+   */
+  @Terminator
+  public static void completeOnShutdown() {
+    get().complete();
+  }
+
+  /**
+   * The subscription of one subscriber. Events are queued by
+   * {@link #offer(AwsAmiEvent)} and drained by a single task at a time, so
+   * the subscriber is never called concurrently.
+   */
+  private final class EventSubscription implements Subscription, Runnable {
+    private final Subscriber<? super AwsAmiEvent> subscriber;
+    private final Predicate<? super AwsAmiEvent> filter;
+    private final int bufferSize;
+    private final Deque<AwsAmiEvent> buffer = new ArrayDeque<AwsAmiEvent>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile Throwable error;
+
+    /**
+     * Creates a new {@link EventSubscription}.
+     *
+     * @param subscriber   the subscriber
+     * @param filter       the events to deliver
+     * @param bufferSize   the maximum number of undelivered events
+     */
+    EventSubscription(Subscriber<? super AwsAmiEvent> subscriber, Predicate<? super AwsAmiEvent> filter, int bufferSize) {
+      this.subscriber = subscriber;
+      this.filter = filter;
+      this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Queues an event if the subscriber wants it.
+     *
+     * @param event   the event
+     */
+    void offer(AwsAmiEvent event) {
+      if(cancelled || completed || !filter.apply(event)) {
+        return;
+      }
+      synchronized(buffer) {
+        if(buffer.size() >= bufferSize) {
+          buffer.removeFirst();
+          droppedEvents.incrementAndGet();
+          if(dropped.incrementAndGet() == 1) {
+            LOGGER.log(Level.WARNING, "Subscriber {0} is not keeping up, dropping events", subscriber);
+          }
+        }
+        buffer.addLast(event);
+      }
+      drain();
+    }
+
+    /**
+     * Completes the subscription once the buffered events are delivered.
+     */
+    void complete() {
+      completed = true;
+      drain();
+    }
+
+    /**
+     * Requests more events.
+     *
+     * @param n   number of events
+     */
+    @Override
+    public void request(long n) {
+      if(n <= 0) {
+        error = new IllegalArgumentException("non-positive request: " + n);
+      } else {
+        long current;
+        long next;
+        do {
+          current = demand.get();
+          next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        } while(!demand.compareAndSet(current, next));
+      }
+      drain();
+    }
+
+    /**
+     * Cancels the subscription.
+     */
+    @Override
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      synchronized(buffer) {
+        buffer.clear();
+      }
+    }
+
+    /**
+     * Schedules delivery unless a delivery task is already running.
+     */
+    private void drain() {
+      if(work.getAndIncrement() == 0) {
+        executor.execute(this);
+      }
+    }
+
+    /**
+     * Delivers buffered events while there is demand.
+     */
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        if(deliver()) {
+          return;
+        }
+        missed = work.addAndGet(-missed);
+      } while(missed != 0);
+    }
+
+    /**
+     * Delivers buffered events, an error or completion.
+     *
+     * @return true if the subscription has ended
+     */
+    private boolean deliver() {
+      try {
+        while(!cancelled) {
+          if(error != null) {
+            cancel();
+            subscriber.onError(error);
+            return true;
+          }
+          AwsAmiEvent event = null;
+          if(demand.get() > 0) {
+            synchronized(buffer) {
+              event = buffer.pollFirst();
+            }
+          }
+          if(event == null) {
+            if(completed && isBufferEmpty()) {
+              cancel();
+              subscriber.onComplete();
+              return true;
+            }
+            return false;
+          }
+          demand.decrementAndGet();
+          subscriber.onNext(event);
+        }
+      } catch(RuntimeException e) {
+        cancel();
+        LOGGER.log(Level.WARNING, "Subscriber " + subscriber + " failed, cancelling its subscription", e);
+      }
+      return cancelled;
+    }
+
+    /**
+     * Checks if the buffer is empty.
+     * @return true if no events are buffered
+     */
+    private boolean isBufferEmpty() {
+      synchronized(buffer) {
+        return buffer.isEmpty();
+      }
+    }
+  }
+
+  /**
+   * Feeds the events of every poll to the {@link AwsAmiEventPublisher}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class Feeder extends AwsAmiEventListener {
+
+    /**
+     * Publishes an event.
+     *
+     * @param event   the event
+     */
+    @Override
+    public void onEvent(AwsAmiEvent event) {
+      get().publish(event);
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Queue;
+import hudson.model.Run;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * XStream converter that writes an {@link AwsAmiImage} as a single element
+ * with one attribute per field.
+ *
+ * <p>Builds triggered by earlier versions of the plugin stored the full AWS
+ * <code>Image</code> as nested elements. Those are read into an
+ * {@link AwsAmiImage} directly, without creating the AWS model objects,
+ * and are written in the compact form the next time the build is saved.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiImageConverter implements Converter {
+
+  /**
+   * Registers the converter for build records and the build queue.
+   */
+  @Initializer(before = InitMilestone.PLUGINS_STARTED)
+  public static void register() {
+    Run.XSTREAM2.registerConverter(new AwsAmiImageConverter());
+    Queue.XSTREAM.registerConverter(new AwsAmiImageConverter());
+  }
+
+  /**
+   * Checks if the type can be converted.
+   *
+   * @param type   the type to convert
+   * @return true for {@link AwsAmiImage}
+   */
+  @Override
+  public boolean canConvert(Class type) {
+    return type == AwsAmiImage.class;
+  }
+
+  /**
+   * Writes an {@link AwsAmiImage} as attributes.
+   *
+   * @param source    the image
+   * @param writer    the writer
+   * @param context   the marshalling context
+   */
+  @Override
+  public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+    final AwsAmiImage image = (AwsAmiImage) source;
+    addAttribute(writer, "id", image.getImageId());
+    addAttribute(writer, "name", image.getName());
+    addAttribute(writer, "description", image.getDescription());
+    addAttribute(writer, "created", image.getCreationDate());
+    addAttribute(writer, "architecture", image.getArchitecture());
+    addAttribute(writer, "hypervisor", image.getHypervisor());
+    addAttribute(writer, "type", image.getImageType());
+    addAttribute(writer, "ownerAlias", image.getOwnerAlias());
+    addAttribute(writer, "ownerId", image.getOwnerId());
+    addAttribute(writer, "productCodes", image.getProductCodes());
+    addAttribute(writer, "tags", image.getTags());
+    addAttribute(writer, "public", BooleanUtils.toStringTrueFalse(image.getShared()));
+  }
+
+  /**
+   * Reads an {@link AwsAmiImage} in either the compact or the legacy form.
+   *
+   * @param reader    the reader
+   * @param context   the unmarshalling context
+   * @return the image
+   */
+  @Override
+  public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+    if(reader.getAttribute("id") == null && reader.hasMoreChildren()) {
+      return unmarshalLegacy(reader);
+    }
+    return new AwsAmiImage(reader.getAttribute("id"), reader.getAttribute("name"), reader.getAttribute("description"),
+      reader.getAttribute("created"), reader.getAttribute("architecture"), reader.getAttribute("hypervisor"),
+      reader.getAttribute("type"), reader.getAttribute("ownerAlias"), reader.getAttribute("ownerId"),
+      reader.getAttribute("productCodes"), reader.getAttribute("tags"), BooleanUtils.toBooleanObject(reader.getAttribute("public")));
+  }
+
+  /**
+   * Reads an AWS <code>Image</code> written by the XStream reflection
+   * converter. Only the fields kept by {@link AwsAmiImage} are read.
+   *
+   * @param reader    the reader positioned on the image element
+   * @return the image
+   */
+  private AwsAmiImage unmarshalLegacy(HierarchicalStreamReader reader) {
+    String imageId = null, name = null, description = null, creationDate = null, architecture = null;
+    String hypervisor = null, imageType = null, ownerAlias = null, ownerId = null;
+    Boolean shared = null;
+    final List<String> productCodes = new ArrayList<String>();
+    final List<String> tags = new ArrayList<String>();
+
+    while(reader.hasMoreChildren()) {
+      reader.moveDown();
+      final String field = reader.getNodeName();
+      if("productCodes".equals(field)) {
+        readProductCodes(reader, productCodes);
+      } else if("tags".equals(field)) {
+        readTags(reader, tags);
+      } else if(!reader.hasMoreChildren()) {
+        final String value = reader.getValue();
+        if("imageId".equals(field)) {
+          imageId = value;
+        } else if("name".equals(field)) {
+          name = value;
+        } else if("description".equals(field)) {
+          description = value;
+        } else if("creationDate".equals(field)) {
+          creationDate = value;
+        } else if("architecture".equals(field)) {
+          architecture = value;
+        } else if("hypervisor".equals(field)) {
+          hypervisor = value;
+        } else if("imageType".equals(field)) {
+          imageType = value;
+        } else if("imageOwnerAlias".equals(field)) {
+          ownerAlias = value;
+        } else if("ownerId".equals(field)) {
+          ownerId = value;
+        } else if("publicValue".equals(field)) {
+          shared = BooleanUtils.toBooleanObject(value);
+        }
+      }
+      reader.moveUp();
+    }
+
+    return new AwsAmiImage(imageId, name, description, creationDate, architecture, hypervisor, imageType,
+      ownerAlias, ownerId, StringUtils.join(productCodes, ","), StringUtils.join(tags, ";"), shared);
+  }
+
+  /**
+   * Collects every <code>productCodeId</code> below the current element.
+   *
+   * @param reader         the reader
+   * @param productCodes   list to add the product code ids to
+   */
+  private void readProductCodes(HierarchicalStreamReader reader, List<String> productCodes) {
+    while(reader.hasMoreChildren()) {
+      reader.moveDown();
+      if("productCodeId".equals(reader.getNodeName())) {
+        productCodes.add(reader.getValue());
+      } else {
+        readProductCodes(reader, productCodes);
+      }
+      reader.moveUp();
+    }
+  }
+
+  /**
+   * Collects every <code>key</code>/<code>value</code> pair below the
+   * current element.
+   *
+   * @param reader   the reader
+   * @param tags     list to add the tags to in format key=value
+   */
+  private void readTags(HierarchicalStreamReader reader, List<String> tags) {
+    String key = null;
+    String value = null;
+    while(reader.hasMoreChildren()) {
+      reader.moveDown();
+      if("key".equals(reader.getNodeName())) {
+        key = reader.getValue();
+      } else if("value".equals(reader.getNodeName())) {
+        value = reader.getValue();
+      } else {
+        readTags(reader, tags);
+      }
+      reader.moveUp();
+    }
+    if(key != null) {
+      tags.add(key + "=" + StringUtils.defaultString(value));
+    }
+  }
+
+  /**
+   * Adds an attribute if the value is not <code>null</code>.
+   *
+   * @param writer   the writer
+   * @param name     the attribute name
+   * @param value    the attribute value
+   */
+  private void addAttribute(HierarchicalStreamWriter writer, String name, String value) {
+    if(value != null) {
+      writer.addAttribute(name, value);
+    }
+  }
+}
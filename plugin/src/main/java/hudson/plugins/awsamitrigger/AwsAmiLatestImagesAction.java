@@ -0,0 +1,227 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.BuildableItem;
+import hudson.model.Item;
+import hudson.model.RootAction;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Read-only REST endpoint that returns the latest image of each filter of
+ * every started {@link AwsAmiTrigger}, straight from the
+ * {@link AwsAmiImageCache}. No AWS calls are made.
+ *
+ * <p><code>GET /aws-ami-images/latest[?job=folder/name]</code> returns the
+ * images as JSON. The response carries a weak ETag over the images only;
+ * a request with a matching <code>If-None-Match</code> header gets a 304,
+ * even if the images have been fetched again since. The
+ * <code>fetched</code> time and <code>ageMillis</code> of each image are
+ * not covered by the ETag.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiLatestImagesAction implements RootAction {
+
+  /**
+   * Gets the icon file name.
+   * @return <code>null</code> as the endpoint has no page
+   */
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  /**
+   * Gets the display name.
+   * @return display name of the action
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.LatestImagesDisplayName();
+  }
+
+  /**
+   * Gets the URL name.
+   * @return URL of the action relative to the Jenkins root
+   */
+  @Override
+  public String getUrlName() {
+    return "aws-ami-images";
+  }
+
+  /**
+   * Returns the latest image of each filter of the readable triggers as
+   * JSON.
+   *
+   * @param job        full name of a job or empty for all jobs
+   * @param request    the request
+   * @param response   the response
+   * @throws IOException if the response could not be written
+   * @throws ServletException if the response could not be written
+   */
+  public void doLatest(@QueryParameter String job, StaplerRequest request, StaplerResponse response)
+      throws IOException, ServletException {
+    final JSONObject result = getLatestImages(getTriggers(StringUtils.trimToNull(job)));
+    final String etag = getETag(result);
+
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+    if(etag.equals(request.getHeader("If-None-Match"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    addAges(result, System.currentTimeMillis());
+    response.setContentType("application/json;charset=UTF-8");
+    response.getWriter().write(result.toString());
+  }
+
+  /**
+   * Gets the started triggers of readable jobs, ordered by job name.
+   *
+   * @param jobName   full name of a job or <code>null</code> for all jobs
+   * @return the triggers
+   */
+  List<AwsAmiTrigger> getTriggers(String jobName) {
+    final List<AwsAmiTrigger> triggers = new ArrayList<AwsAmiTrigger>();
+    for(AwsAmiTrigger trigger : AwsAmiTrigger.getRunningTriggers()) {
+      final BuildableItem item = trigger.getItem();
+      if(item != null && (jobName == null || jobName.equals(item.getFullName())) && isReadable(item)) {
+        triggers.add(trigger);
+      }
+    }
+    Collections.sort(triggers, new Comparator<AwsAmiTrigger>() {
+      @Override
+      public int compare(AwsAmiTrigger trigger1, AwsAmiTrigger trigger2) {
+        return trigger1.getItem().getFullName().compareTo(trigger2.getItem().getFullName());
+      }
+    });
+    return triggers;
+  }
+
+  /**
+   * Gets the latest images of triggers and when each was fetched.
+   *
+   * @param triggers   the triggers
+   * @return JSON object with a <code>triggers</code> array
+   */
+  static JSONObject getLatestImages(List<AwsAmiTrigger> triggers) {
+    final AwsAmiImageCache cache = AwsAmiImageCache.get();
+    final JSONArray jobs = new JSONArray();
+    for(AwsAmiTrigger trigger : triggers) {
+      final JSONArray filters = new JSONArray();
+      for(AwsAmiTriggerFilter filter : trigger.getFilters()) {
+        final AwsAmiImageCache.Entry entry = cache.peekLatestImage(
+          EC2Service.getKey(trigger.getCredentialsId(), trigger.getRegionName()), filter.toQuery());
+        final JSONObject latest = new JSONObject();
+        latest.put("filter", filter.getKey());
+        if(entry != null) {
+          latest.put("fetched", entry.getTime());
+          if(entry.getImage() != null) {
+            latest.put("image", JSONObject.fromObject(entry.getImage().toMap()));
+          }
+        }
+        filters.add(latest);
+      }
+
+      final JSONObject job = new JSONObject();
+      job.put("job", trigger.getItem().getFullName());
+      job.put("regionName", StringUtils.defaultString(trigger.getRegionName()));
+      job.put("filters", filters);
+      jobs.add(job);
+    }
+
+    final JSONObject result = new JSONObject();
+    result.put("triggers", jobs);
+    return result;
+  }
+
+  /**
+   * Gets a weak ETag for a result of {@link #getLatestImages(List)}. The
+   * <code>fetched</code> times are left out, so a poll that finds the same
+   * images again does not change the ETag.
+   *
+   * @param result   the result
+   * @return the ETag
+   */
+  static String getETag(JSONObject result) {
+    final JSONObject images = JSONObject.fromObject(result);
+    for(Object job : images.getJSONArray("triggers")) {
+      for(Object filter : ((JSONObject) job).getJSONArray("filters")) {
+        ((JSONObject) filter).remove("fetched");
+      }
+    }
+    return "W/\"" + Util.getDigestOf(images.toString()) + "\"";
+  }
+
+  /**
+   * Adds the age of each fetched image to a result of
+   * {@link #getLatestImages(List)}.
+   *
+   * @param result   the result
+   * @param now      the current time
+   */
+  static void addAges(JSONObject result, long now) {
+    for(Object job : result.getJSONArray("triggers")) {
+      for(Object filter : ((JSONObject) job).getJSONArray("filters")) {
+        final JSONObject latest = (JSONObject) filter;
+        if(latest.has("fetched")) {
+          latest.put("ageMillis", Math.max(0, now - latest.getLong("fetched")));
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks whether the current user can read a job.
+   *
+   * @param item   the job
+   * @return true if the user has {@link Item#READ} on the job
+   */
+  private static boolean isReadable(BuildableItem item) {
+    return item.hasPermission(Item.READ);
+  }
+}
@@ -0,0 +1,435 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Pipeline step that returns the latest image matching a filter, for
+ * example <code>awsAmiLatest credentialsId: 'aws', regionName: 'eu-west-1',
+ * name: 'my-ami-*'</code>.
+ *
+ * <p>Images are served from the {@link AwsAmiImageCache}, so concurrent
+ * pipelines looking up the same filter share a single DescribeImages call
+ * and polls of triggers with the same filter keep the cache warm.</p>
+ *
+ * <p>The credentials are looked up in the context of the run, so folder
+ * credentials can be used, and their use is tracked against the run.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiLatestStep extends AbstractStepImpl {
+
+  private final String credentialsId;
+  private final String regionName;
+  private String architecture;
+  private String description;
+  private String name;
+  private String ownerAlias;
+  private String ownerId;
+  private String productCode;
+  private String tags;
+  private String shared;
+  private int maxAgeSeconds = -1;
+
+  /**
+   * Creates a new {@link AwsAmiLatestStep}.
+   *
+   * @param credentialsId   aws credentials id
+   * @param regionName      aws region name
+   */
+  @DataBoundConstructor
+  public AwsAmiLatestStep(String credentialsId, String regionName) {
+    this.credentialsId = credentialsId;
+    this.regionName = regionName;
+  }
+
+  /**
+   * Gets AWS credentials identifier.
+   * @return AWS credentials identifier
+   */
+  public String getCredentialsId() {
+    return credentialsId;
+  }
+
+  /**
+   * Gets AWS region name.
+   * @return AWS region name
+   */
+  public String getRegionName() {
+    return regionName;
+  }
+
+  /**
+   * Gets architecture filter.
+   * @return image architecture (i386|x86_64)
+   */
+  public String getArchitecture() {
+    return architecture;
+  }
+
+  /**
+   * Sets architecture filter.
+   * @param architecture   image architecture (i386|x86_64)
+   */
+  @DataBoundSetter
+  public void setArchitecture(String architecture) {
+    this.architecture = architecture;
+  }
+
+  /**
+   * Gets description filter.
+   * @return description of image
+   */
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * Sets description filter.
+   * @param description   description of image (may be a wildcard)
+   */
+  @DataBoundSetter
+  public void setDescription(String description) {
+    this.description = description;
+  }
+
+  /**
+   * Gets name filter.
+   * @return name of ami
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets name filter.
+   * @param name   name of ami (may be a wildcard)
+   */
+  @DataBoundSetter
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Gets owner alias filter.
+   * @return the AWS account alias
+   */
+  public String getOwnerAlias() {
+    return ownerAlias;
+  }
+
+  /**
+   * Sets owner alias filter.
+   * @param ownerAlias   the AWS account alias (for example, amazon)
+   */
+  @DataBoundSetter
+  public void setOwnerAlias(String ownerAlias) {
+    this.ownerAlias = ownerAlias;
+  }
+
+  /**
+   * Gets owner id filter.
+   * @return the AWS account id of the image owner
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * Sets owner id filter.
+   * @param ownerId   the AWS account id of the image owner
+   */
+  @DataBoundSetter
+  public void setOwnerId(String ownerId) {
+    this.ownerId = ownerId;
+  }
+
+  /**
+   * Gets product code filter.
+   * @return the product code
+   */
+  public String getProductCode() {
+    return productCode;
+  }
+
+  /**
+   * Sets product code filter.
+   * @param productCode   the product code
+   */
+  @DataBoundSetter
+  public void setProductCode(String productCode) {
+    this.productCode = productCode;
+  }
+
+  /**
+   * Gets tags filter.
+   * @return the key/value combination of a tag assigned to the resource
+   */
+  public String getTags() {
+    return tags;
+  }
+
+  /**
+   * Sets tags filter.
+   * @param tags   tags in format key=value;key=value
+   */
+  @DataBoundSetter
+  public void setTags(String tags) {
+    this.tags = tags;
+  }
+
+  /**
+   * Gets is-public filter.
+   * @return is-public value for image (true|false)
+   */
+  public String getShared() {
+    return shared;
+  }
+
+  /**
+   * Sets is-public filter.
+   * @param shared   is-public value for image (true|false)
+   */
+  @DataBoundSetter
+  public void setShared(String shared) {
+    this.shared = shared;
+  }
+
+  /**
+   * Gets the maximum age of a cached image.
+   * @return maximum age in seconds, or the global default if not set
+   */
+  public int getMaxAgeSeconds() {
+    if(maxAgeSeconds >= 0) {
+      return maxAgeSeconds;
+    }
+    final AwsAmiTriggerConfiguration configuration = AwsAmiTriggerConfiguration.get();
+    return configuration == null ? AwsAmiTriggerConfiguration.DEFAULT_CACHE_MAX_AGE_SECONDS : configuration.getCacheMaxAgeSeconds();
+  }
+
+  /**
+   * Sets the maximum age of a cached image.
+   * @param maxAgeSeconds   maximum age in seconds (0 to always fetch, -1 for
+   *                        the global default)
+   */
+  @DataBoundSetter
+  public void setMaxAgeSeconds(int maxAgeSeconds) {
+    this.maxAgeSeconds = maxAgeSeconds < 0 ? -1 : maxAgeSeconds;
+  }
+
+  /**
+   * Gets the filter of the step.
+   * @return filter built from the filter fields
+   */
+  public AwsAmiTriggerFilter getFilter() {
+    return new AwsAmiTriggerFilter(architecture, description, name, ownerAlias, ownerId, productCode, tags, shared);
+  }
+
+  /**
+   * Looks up the latest image of an {@link AwsAmiLatestStep}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Map<String, String>> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    private transient AwsAmiLatestStep step;
+
+    @StepContextParameter
+    private transient TaskListener listener;
+
+    @StepContextParameter
+    private transient Run<?, ?> run;
+
+    /**
+     * Gets the latest image from the cache, fetching it if the cached image
+     * is too old.
+     *
+     * @return map of image fields or <code>null</code> if no image matched
+     * @throws Exception if the credentials are not found or the image could
+     * not be fetched
+     */
+    @Override
+    protected Map<String, String> run() throws Exception {
+      final AwsAmiTriggerFilter filter = step.getFilter();
+      final AwsAmiImageCache.Entry entry = AwsAmiImageCache.get().getLatestImage(
+        EC2Service.get(step.getCredentialsId(), step.getRegionName(), getCredentials()), filter.toQuery(),
+        TimeUnit.SECONDS.toMillis(step.getMaxAgeSeconds()));
+      if(entry.getImage() == null) {
+        listener.getLogger().println(Messages.NoLatestImage(filter));
+      } else {
+        listener.getLogger().println(Messages.LatestImage(entry.getImage().getImageId(),
+          TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - entry.getTime())));
+      }
+      return entry.getImage() == null ? null : entry.getImage().toMap();
+    }
+
+    /**
+     * Looks up the credentials of the step in the context of the run and
+     * tracks their use.
+     *
+     * @return the credentials, or <code>null</code> to use the default AWS
+     * credentials if the step has no credentials id
+     * @throws AbortException if there are no credentials with the id
+     */
+    private AmazonWebServicesCredentials getCredentials() throws AbortException {
+      final String credentialsId = step.getCredentialsId();
+      if(StringUtils.isEmpty(credentialsId)) {
+        return null;
+      }
+      final AmazonWebServicesCredentials credentials = CredentialsProvider.findCredentialById(
+        credentialsId, AmazonWebServicesCredentials.class, run);
+      if(credentials == null) {
+        throw new AbortException(Messages.CredentialsNotFound(credentialsId));
+      }
+      CredentialsProvider.track(run, credentials);
+      return credentials;
+    }
+  }
+
+  /**
+   * Descriptor for {@link AwsAmiLatestStep}. Only registered when the
+   * Pipeline plugins are installed.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension(optional = true)
+  public static final class AwsAmiLatestStepDescriptor extends AbstractStepDescriptorImpl {
+
+    /**
+     * Creates a new {@link AwsAmiLatestStepDescriptor}.
+     */
+    public AwsAmiLatestStepDescriptor() {
+      super(Execution.class);
+    }
+
+    /**
+     * Returns the pipeline function name of the step.
+     * @return the function name
+     */
+    @Override
+    public String getFunctionName() {
+      return "awsAmiLatest";
+    }
+
+    /**
+     * Returns the display name of the step.
+     * @return the display name
+     */
+    @Override
+    public String getDisplayName() {
+      return Messages.LatestDisplayName();
+    }
+
+    /**
+     * Returns a list of AWS credentials.
+     * @return {@link ListBoxModel} populated with AWS credential identifiers
+     */
+    public ListBoxModel doFillCredentialsIdItems() {
+      return getTriggerDescriptor().doFillCredentialsIdItems();
+    }
+
+    /**
+     * Returns a list of AWS region names.
+     * @return {@link ListBoxModel} populated with AWS region names
+     */
+    public ListBoxModel doFillRegionNameItems() {
+      return getTriggerDescriptor().doFillRegionNameItems();
+    }
+
+    /**
+     * Returns a list of AMI architectures.
+     * @return {@link ListBoxModel} populated with AMI architecture options
+     */
+    public ListBoxModel doFillArchitectureItems() {
+      return getTriggerDescriptor().doFillArchitectureItems();
+    }
+
+    /**
+     * Returns a list of AMI owner aliases.
+     * @return {@link ListBoxModel} populated with AMI owner alias options
+     */
+    public ListBoxModel doFillOwnerAliasItems() {
+      return getTriggerDescriptor().doFillOwnerAliasItems();
+    }
+
+    /**
+     * Returns a list of AMI is-public options.
+     * @return {@link ListBoxModel} populated with AMI is-public options
+     */
+    public ListBoxModel doFillSharedItems() {
+      return getTriggerDescriptor().doFillSharedItems();
+    }
+
+    /**
+     * Validates the <code>maxAgeSeconds</code>.
+     *
+     * @param value   maximum age in seconds
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message if invalid
+     */
+    public FormValidation doCheckMaxAgeSeconds(@QueryParameter String value) {
+      return AwsAmiTriggerConfiguration.validateMaxAgeSeconds(value);
+    }
+
+    /**
+     * Gets the trigger descriptor whose form options the step shares.
+     * @return the {@link AwsAmiTrigger.AwsAmiTriggerDescriptor}
+     */
+    private static AwsAmiTrigger.AwsAmiTriggerDescriptor getTriggerDescriptor() {
+      return Jenkins.getActiveInstance().getDescriptorByType(AwsAmiTrigger.AwsAmiTriggerDescriptor.class);
+    }
+  }
+}
@@ -0,0 +1,684 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+import hudson.init.Terminator;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Timers and counters for the polling path, kept per trigger and per
+ * AWS account (credentials) and region. Recording only touches atomics, so
+ * the instrumentation is cheap enough to leave on.
+ *
+ * <p>Every scope is registered as an MXBean under
+ * <code>hudson.plugins.awsamitrigger</code>; the totals are also published
+ * through the Metrics plugin when it is installed.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiMetrics {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiMetrics.class.getName());
+  private static final String DOMAIN = "hudson.plugins.awsamitrigger";
+  private static final AwsAmiMetrics INSTANCE = new AwsAmiMetrics(true);
+
+  /**
+   * A timed phase of a poll.
+   */
+  public enum Phase {
+    /** Looking up the AWS credentials. */
+    CREDENTIALS,
+    /** Building the EC2 client. */
+    CLIENT,
+    /** Sending DescribeImages and reading the response. */
+    HTTP,
+    /** Unmarshalling the response. */
+    UNMARSHALL,
+    /** Selecting and sorting the latest images. */
+    SORT,
+    /** Fetching the images of a filter, end to end. */
+    FETCH,
+    /** A whole trigger run. */
+    POLL,
+    /** Writing the trigger state store. */
+    SAVE
+  }
+
+  private final boolean jmx;
+  private final ConcurrentMap<String, Scope> triggers = new ConcurrentHashMap<String, Scope>();
+  private final ConcurrentMap<String, Scope> sources = new ConcurrentHashMap<String, Scope>();
+  private final Scope total;
+  private final Scope store;
+  private final AtomicInteger pollsInFlight = new AtomicInteger();
+
+  /**
+   * Creates a new {@link AwsAmiMetrics}.
+   *
+   * @param jmx   true to register scopes as MXBeans
+   */
+  AwsAmiMetrics(boolean jmx) {
+    this.jmx = jmx;
+    this.total = register(new Scope("Total", "all"));
+    this.store = register(new Scope("Store", "state"));
+  }
+
+  /**
+   * Gets the {@link AwsAmiMetrics} singleton.
+   * @return the metrics
+   */
+  public static AwsAmiMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets the metrics of a trigger.
+   *
+   * @param jobName   full name of the job
+   * @return the scope of the trigger
+   */
+  public Scope getTrigger(String jobName) {
+    return getScope(triggers, "Trigger", StringUtils.defaultString(jobName));
+  }
+
+  /**
+   * Moves the metrics of a renamed job. The MXBean of the trigger is
+   * registered again under the new name.
+   *
+   * @param oldJobName   full name before the change
+   * @param newJobName   full name after the change
+   */
+  public void moveTrigger(String oldJobName, String newJobName) {
+    final Scope scope = triggers.remove(StringUtils.defaultString(oldJobName));
+    if(scope != null) {
+      unregister(scope);
+      scope.setName(StringUtils.defaultString(newJobName));
+      if(triggers.putIfAbsent(scope.getName(), scope) == null) {
+        register(scope);
+      }
+    }
+  }
+
+  /**
+   * Removes the metrics of a deleted job and unregisters its MXBean.
+   *
+   * @param jobName   full name of the job
+   */
+  public void removeTrigger(String jobName) {
+    final Scope scope = triggers.remove(StringUtils.defaultString(jobName));
+    if(scope != null) {
+      unregister(scope);
+    }
+  }
+
+  /**
+   * Gets the metrics of an AWS account and region.
+   *
+   * @param credentialsId   AWS credentials identifier
+   * @param regionName      AWS region name
+   * @return the scope of the account and region
+   */
+  public Scope getSource(String credentialsId, String regionName) {
+    return getScope(sources, "Source", StringUtils.defaultString(credentialsId) + "/" + StringUtils.defaultString(regionName));
+  }
+
+  /**
+   * Gets the metrics of every trigger.
+   * @return the trigger scopes
+   */
+  public Collection<Scope> getTriggers() {
+    return Collections.unmodifiableCollection(triggers.values());
+  }
+
+  /**
+   * Gets the metrics of every AWS account and region.
+   * @return the source scopes
+   */
+  public Collection<Scope> getSources() {
+    return Collections.unmodifiableCollection(sources.values());
+  }
+
+  /**
+   * Gets the totals across all AWS accounts and regions.
+   * @return the total scope
+   */
+  public Scope getTotal() {
+    return total;
+  }
+
+  /**
+   * Gets the metrics of the trigger state store.
+   * @return the store scope
+   */
+  public Scope getStore() {
+    return store;
+  }
+
+  /**
+   * Records the start of a trigger run.
+   */
+  public void startPoll() {
+    pollsInFlight.incrementAndGet();
+  }
+
+  /**
+   * Records the end of a trigger run.
+   */
+  public void endPoll() {
+    pollsInFlight.decrementAndGet();
+  }
+
+  /**
+   * Gets the number of trigger runs in progress.
+   * @return number of polls in flight
+   */
+  public int getPollsInFlight() {
+    return pollsInFlight.get();
+  }
+
+  /**
+   * Creates a collector that records the HTTP metrics of AWS requests
+   * into a source scope and the totals.
+   *
+   * @param source   the source scope
+   * @return the collector
+   */
+  public RequestMetricCollector createCollector(Scope source) {
+    return new Collector(source, total);
+  }
+
+  /**
+   * Gets or creates a scope.
+   *
+   * @param scopes   the scopes of the type
+   * @param type     the type of the scope
+   * @param name     the name of the scope
+   * @return the scope
+   */
+  private Scope getScope(ConcurrentMap<String, Scope> scopes, String type, String name) {
+    Scope scope = scopes.get(name);
+    if(scope == null) {
+      final Scope created = new Scope(type, name);
+      scope = scopes.putIfAbsent(name, created);
+      if(scope == null) {
+        scope = register(created);
+      }
+    }
+    return scope;
+  }
+
+  /**
+   * Registers a scope as an MXBean.
+   *
+   * @param scope   the scope
+   * @return the scope
+   */
+  private Scope register(Scope scope) {
+    if(jmx) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(scope, scope.getObjectName());
+      } catch(JMException e) {
+        LOGGER.log(Level.FINE, "Failed to register " + scope.getObjectName(), e);
+      }
+    }
+    return scope;
+  }
+
+  /**
+   * Unregisters the MXBean of a scope.
+   *
+   * @param scope   the scope
+   */
+  private void unregister(Scope scope) {
+    if(jmx) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(scope.getObjectName());
+      } catch(JMException e) {
+        LOGGER.log(Level.FINE, "Failed to unregister " + scope.getObjectName(), e);
+      }
+    }
+  }
+
+  /**
+   * Unregisters the MXBeans when Jenkins shuts down.
+   */
+  @Terminator
+  public static void unregisterOnShutdown() {
+    final AwsAmiMetrics metrics = get();
+    final List<Scope> scopes = new ArrayList<Scope>();
+    scopes.add(metrics.total);
+    scopes.add(metrics.store);
+    scopes.addAll(metrics.triggers.values());
+    scopes.addAll(metrics.sources.values());
+    for(Scope scope : scopes) {
+      metrics.unregister(scope);
+    }
+  }
+
+  /**
+   * Management interface of a {@link Scope}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public interface ScopeMXBean {
+
+    /**
+     * Gets the number of DescribeImages calls.
+     * @return number of calls
+     */
+    long getCalls();
+
+    /**
+     * Gets the number of images returned.
+     * @return number of images
+     */
+    long getImages();
+
+    /**
+     * Gets the number of response bytes received.
+     * @return number of bytes
+     */
+    long getBytes();
+
+    /**
+     * Gets the number of throttled requests.
+     * @return number of throttles
+     */
+    long getThrottles();
+
+    /**
+     * Gets the number of failed calls.
+     * @return number of errors
+     */
+    long getErrors();
+
+    /**
+     * Gets the number of timings of each phase.
+     * @return map of phase to count
+     */
+    Map<String, Long> getPhaseCounts();
+
+    /**
+     * Gets the total time of each phase.
+     * @return map of phase to milliseconds
+     */
+    Map<String, Double> getPhaseTotalMillis();
+
+    /**
+     * Gets the median time of each phase.
+     * @return map of phase to milliseconds
+     */
+    Map<String, Double> getPhaseP50Millis();
+
+    /**
+     * Gets the 99th percentile time of each phase.
+     * @return map of phase to milliseconds
+     */
+    Map<String, Double> getPhaseP99Millis();
+  }
+
+  /**
+   * Counters and latency histograms of a trigger, an AWS account and
+   * region, or the totals.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Scope implements ScopeMXBean {
+    private final String type;
+    private volatile String name;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong images = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<Phase, AwsAmiHistogram> histograms = new EnumMap<Phase, AwsAmiHistogram>(Phase.class);
+
+    /**
+     * Creates a new {@link Scope}.
+     *
+     * @param type   the type of the scope
+     * @param name   the name of the scope
+     */
+    Scope(String type, String name) {
+      this.type = type;
+      this.name = name;
+      for(Phase phase : Phase.values()) {
+        histograms.put(phase, new AwsAmiHistogram());
+      }
+    }
+
+    /**
+     * Gets the type of the scope.
+     * @return Total, Store, Trigger or Source
+     */
+    public String getType() {
+      return type;
+    }
+
+    /**
+     * Gets the name of the scope.
+     * @return job name, or credentials id and region name
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Sets the name of the scope when its job is renamed.
+     * @param name   full name of the job
+     */
+    void setName(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Gets the JMX name of the scope.
+     * @return the object name
+     */
+    ObjectName getObjectName() {
+      try {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+      } catch(JMException e) {
+        throw new IllegalArgumentException(name, e);
+      }
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase   the phase
+     * @param nanos   duration in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+      histograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Records the duration of a phase that started at <code>start</code>.
+     *
+     * @param phase   the phase
+     * @param start   start time from <code>System.nanoTime()</code>
+     */
+    public void recordSince(Phase phase, long start) {
+      record(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Records a DescribeImages call.
+     *
+     * @param imageCount   number of images returned
+     */
+    public void recordCall(int imageCount) {
+      calls.incrementAndGet();
+      images.addAndGet(imageCount);
+    }
+
+    /**
+     * Records received response bytes.
+     *
+     * @param byteCount   number of bytes
+     */
+    public void recordBytes(long byteCount) {
+      bytes.addAndGet(byteCount);
+    }
+
+    /**
+     * Records throttled requests.
+     *
+     * @param throttleCount   number of throttled requests
+     */
+    public void recordThrottles(long throttleCount) {
+      throttles.addAndGet(throttleCount);
+    }
+
+    /**
+     * Records a failed call.
+     */
+    public void recordError() {
+      errors.incrementAndGet();
+    }
+
+    /**
+     * Gets the histogram of a phase.
+     *
+     * @param phase   the phase
+     * @return the histogram
+     */
+    public AwsAmiHistogram getHistogram(Phase phase) {
+      return histograms.get(phase);
+    }
+
+    /**
+     * Gets the number of DescribeImages calls.
+     * @return number of calls
+     */
+    @Override
+    public long getCalls() {
+      return calls.get();
+    }
+
+    /**
+     * Gets the number of images returned.
+     * @return number of images
+     */
+    @Override
+    public long getImages() {
+      return images.get();
+    }
+
+    /**
+     * Gets the number of response bytes received.
+     * @return number of bytes
+     */
+    @Override
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    /**
+     * Gets the number of throttled requests.
+     * @return number of throttles
+     */
+    @Override
+    public long getThrottles() {
+      return throttles.get();
+    }
+
+    /**
+     * Gets the number of failed calls.
+     * @return number of errors
+     */
+    @Override
+    public long getErrors() {
+      return errors.get();
+    }
+
+    /**
+     * Gets the number of timings of each phase.
+     * @return map of phase to count
+     */
+    @Override
+    public Map<String, Long> getPhaseCounts() {
+      final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+      for(Map.Entry<Phase, AwsAmiHistogram> histogram : histograms.entrySet()) {
+        counts.put(histogram.getKey().name(), histogram.getValue().getCount());
+      }
+      return counts;
+    }
+
+    /**
+     * Gets the total time of each phase.
+     * @return map of phase to milliseconds
+     */
+    @Override
+    public Map<String, Double> getPhaseTotalMillis() {
+      final Map<String, Double> totals = new LinkedHashMap<String, Double>();
+      for(Map.Entry<Phase, AwsAmiHistogram> histogram : histograms.entrySet()) {
+        totals.put(histogram.getKey().name(), histogram.getValue().getSum() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      return totals;
+    }
+
+    /**
+     * Gets the median time of each phase.
+     * @return map of phase to milliseconds
+     */
+    @Override
+    public Map<String, Double> getPhaseP50Millis() {
+      return getQuantilesMillis(0.5);
+    }
+
+    /**
+     * Gets the 99th percentile time of each phase.
+     * @return map of phase to milliseconds
+     */
+    @Override
+    public Map<String, Double> getPhaseP99Millis() {
+      return getQuantilesMillis(0.99);
+    }
+
+    /**
+     * Gets a quantile of each phase.
+     *
+     * @param quantile   the quantile (0 to 1)
+     * @return map of phase to milliseconds
+     */
+    private Map<String, Double> getQuantilesMillis(double quantile) {
+      final Map<String, Double> quantiles = new LinkedHashMap<String, Double>();
+      for(Map.Entry<Phase, AwsAmiHistogram> histogram : histograms.entrySet()) {
+        quantiles.put(histogram.getKey().name(), histogram.getValue().getQuantileMillis(quantile));
+      }
+      return quantiles;
+    }
+  }
+
+  /**
+   * Records the HTTP, unmarshalling, throttle and byte metrics of AWS
+   * requests. Attaching it to a request turns on the SDK request metrics
+   * for that request only.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  static final class Collector extends RequestMetricCollector {
+    private final Scope[] scopes;
+
+    /**
+     * Creates a new {@link Collector}.
+     *
+     * @param scopes   the scopes to record into
+     */
+    Collector(Scope... scopes) {
+      this.scopes = scopes;
+    }
+
+    /**
+     * Records the metrics of a completed request.
+     *
+     * @param request    the request
+     * @param response   the response or <code>null</code> if it failed
+     */
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+      final AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+      if(metrics == null) {
+        return;
+      }
+      final TimingInfo timing = metrics.getTimingInfo();
+      final long http = getNanos(timing, AWSRequestMetrics.Field.HttpRequestTime);
+      final long unmarshall = getNanos(timing, AWSRequestMetrics.Field.ResponseProcessingTime);
+      final Number throttles = timing.getCounter(AWSRequestMetrics.Field.ThrottleException.name());
+      long bytes = -1;
+      if(response != null && response.getHttpResponse() != null) {
+        final String length = response.getHttpResponse().getHeaders().get("Content-Length");
+        bytes = StringUtils.isNumeric(length) && !length.isEmpty() ? Long.parseLong(length) : -1;
+      }
+
+      for(Scope scope : scopes) {
+        if(http >= 0) {
+          scope.record(Phase.HTTP, http);
+        }
+        if(unmarshall >= 0) {
+          scope.record(Phase.UNMARSHALL, unmarshall);
+        }
+        if(throttles != null) {
+          scope.recordThrottles(throttles.longValue());
+        }
+        if(bytes >= 0) {
+          scope.recordBytes(bytes);
+        }
+      }
+    }
+
+    /**
+     * Gets the total time of the sub-measurements of a field.
+     *
+     * @param timing   the timing of the request
+     * @param field    the field
+     * @return total time in nanoseconds or -1 if not measured
+     */
+    private static long getNanos(TimingInfo timing, AWSRequestMetrics.Field field) {
+      final List<TimingInfo> measurements = timing.getAllSubMeasurements(field.name());
+      if(measurements == null || measurements.isEmpty()) {
+        return -1;
+      }
+      double millis = 0;
+      for(TimingInfo measurement : measurements) {
+        final Double taken = measurement.getTimeTakenMillisIfKnown();
+        if(taken != null) {
+          millis += taken;
+        }
+      }
+      return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+import hudson.Extension;
+
+import jenkins.metrics.api.MetricProvider;
+
+/**
+ * Publishes the {@link AwsAmiMetrics} totals through the Metrics plugin.
+ * Only registered when the Metrics plugin is installed. Per trigger and
+ * per account and region metrics are available through JMX.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension(optional = true)
+public final class AwsAmiMetricsProvider extends MetricProvider {
+
+  private static final String PREFIX = "aws-ami-trigger.";
+
+  /**
+   * Gets the metrics of the plugin.
+   * @return gauges over the total and store scopes
+   */
+  @Override
+  public MetricSet getMetricSet() {
+    final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+    addScope(metrics, "total.", AwsAmiMetrics.get().getTotal());
+    addScope(metrics, "store.", AwsAmiMetrics.get().getStore());
+    final Map<String, Metric> unmodifiable = Collections.unmodifiableMap(metrics);
+    return new MetricSet() {
+      @Override
+      public Map<String, Metric> getMetrics() {
+        return unmodifiable;
+      }
+    };
+  }
+
+  /**
+   * Adds gauges over the counters and phase histograms of a scope.
+   *
+   * @param metrics   the metrics to add to
+   * @param prefix    the prefix of the metric names
+   * @param scope     the scope
+   */
+  private static void addScope(Map<String, Metric> metrics, String prefix, final AwsAmiMetrics.Scope scope) {
+    metrics.put(PREFIX + prefix + "calls", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return scope.getCalls();
+      }
+    });
+    metrics.put(PREFIX + prefix + "images", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return scope.getImages();
+      }
+    });
+    metrics.put(PREFIX + prefix + "bytes", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return scope.getBytes();
+      }
+    });
+    metrics.put(PREFIX + prefix + "throttles", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return scope.getThrottles();
+      }
+    });
+    metrics.put(PREFIX + prefix + "errors", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return scope.getErrors();
+      }
+    });
+    for(AwsAmiMetrics.Phase phase : AwsAmiMetrics.Phase.values()) {
+      final AwsAmiHistogram histogram = scope.getHistogram(phase);
+      final String name = PREFIX + prefix + phase.name().toLowerCase() + ".";
+      metrics.put(name + "count", new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return histogram.getCount();
+        }
+      });
+      metrics.put(name + "p50", new Gauge<Double>() {
+        @Override
+        public Double getValue() {
+          return histogram.getQuantileMillis(0.5);
+        }
+      });
+      metrics.put(name + "p99", new Gauge<Double>() {
+        @Override
+        public Double getValue() {
+          return histogram.getQuantileMillis(0.99);
+        }
+      });
+    }
+  }
+}
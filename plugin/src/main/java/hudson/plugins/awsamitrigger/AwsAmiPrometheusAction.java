@@ -0,0 +1,274 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import hudson.Extension;
+import hudson.model.BuildableItem;
+import hudson.model.Item;
+import hudson.model.RootAction;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Prometheus text exposition of the polling health and cost of the AMI
+ * triggers at <code>/aws-ami-prometheus/</code>.
+ *
+ * <p>The output is built from the atomic counters and histograms of
+ * {@link AwsAmiMetrics} and {@link AwsAmiImageCache}, so a scrape never
+ * waits for a poll. Per-job series are only written for jobs the user can
+ * read.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiPrometheusAction implements RootAction {
+
+  private static final String PREFIX = "aws_ami_trigger_";
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+  /**
+   * Gets the icon file name.
+   * @return <code>null</code> as the endpoint has no page
+   */
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  /**
+   * Gets the display name.
+   * @return display name of the action
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.PrometheusDisplayName();
+  }
+
+  /**
+   * Gets the URL name.
+   * @return URL of the action relative to the Jenkins root
+   */
+  @Override
+  public String getUrlName() {
+    return "aws-ami-prometheus";
+  }
+
+  /**
+   * Writes the metrics in the Prometheus text format.
+   *
+   * @param request    the request
+   * @param response   the response
+   * @throws IOException if the response could not be written
+   * @throws ServletException if the response could not be written
+   */
+  public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+    Jenkins.getActiveInstance().checkPermission(Jenkins.READ);
+
+    final List<AwsAmiTrigger> triggers = new ArrayList<AwsAmiTrigger>();
+    for(AwsAmiTrigger trigger : AwsAmiTrigger.getRunningTriggers()) {
+      final BuildableItem item = trigger.getItem();
+      if(item != null && item.hasPermission(Item.READ)) {
+        triggers.add(trigger);
+      }
+    }
+
+    response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+    response.getWriter().write(format(AwsAmiMetrics.get(), AwsAmiImageCache.get(), AwsAmiPollWatchdog.get(), triggers, System.currentTimeMillis()));
+  }
+
+  /**
+   * Formats the metrics.
+   *
+   * @param metrics    the polling metrics
+   * @param cache      the image cache
+   * @param watchdog   the poll watchdog
+   * @param triggers   the triggers to write per-job series for
+   * @param now        the current time
+   * @return metrics in the Prometheus text format
+   */
+  static String format(AwsAmiMetrics metrics, AwsAmiImageCache cache, AwsAmiPollWatchdog watchdog, List<AwsAmiTrigger> triggers,
+      long now) {
+    final StringBuilder out = new StringBuilder();
+
+    writeHeader(out, "poll_duration_seconds", "summary", "Duration of AMI trigger polls");
+    writeSummary(out, "poll_duration_seconds", "", metrics.getTotal().getHistogram(AwsAmiMetrics.Phase.POLL));
+
+    writeHeader(out, "phase_duration_seconds", "summary", "Duration of each phase of AMI trigger polls");
+    for(AwsAmiMetrics.Phase phase : AwsAmiMetrics.Phase.values()) {
+      final AwsAmiMetrics.Scope scope = phase == AwsAmiMetrics.Phase.SAVE ? metrics.getStore() : metrics.getTotal();
+      writeSummary(out, "phase_duration_seconds", "phase=\"" + phase.name().toLowerCase() + "\"", scope.getHistogram(phase));
+    }
+
+    writeHeader(out, "polls_in_flight", "gauge", "AMI trigger polls in progress");
+    writeSample(out, "polls_in_flight", "", metrics.getPollsInFlight());
+    writeHeader(out, "stalls_total", "counter", "AMI trigger polls abandoned after the poll timeout");
+    writeSample(out, "stalls_total", "", watchdog.getStallCount());
+
+    final List<AwsAmiMetrics.Scope> sources = new ArrayList<AwsAmiMetrics.Scope>(metrics.getSources());
+    writeHeader(out, "describe_images_calls_total", "counter", "DescribeImages calls per credentials and region");
+    for(AwsAmiMetrics.Scope source : sources) {
+      writeSample(out, "describe_images_calls_total", getSourceLabels(source), source.getCalls());
+    }
+    writeHeader(out, "images_total", "counter", "Images returned by DescribeImages per credentials and region");
+    for(AwsAmiMetrics.Scope source : sources) {
+      writeSample(out, "images_total", getSourceLabels(source), source.getImages());
+    }
+    writeHeader(out, "throttles_total", "counter", "Throttled AWS requests per credentials and region");
+    for(AwsAmiMetrics.Scope source : sources) {
+      writeSample(out, "throttles_total", getSourceLabels(source), source.getThrottles());
+    }
+    writeHeader(out, "errors_total", "counter", "Failed DescribeImages calls per credentials and region");
+    for(AwsAmiMetrics.Scope source : sources) {
+      writeSample(out, "errors_total", getSourceLabels(source), source.getErrors());
+    }
+
+    final long hits = cache.getHits();
+    final long misses = cache.getMisses();
+    writeHeader(out, "cache_hits_total", "counter", "Latest image lookups served from the cache");
+    writeSample(out, "cache_hits_total", "", hits);
+    writeHeader(out, "cache_misses_total", "counter", "Latest image lookups that called DescribeImages");
+    writeSample(out, "cache_misses_total", "", misses);
+    writeHeader(out, "cache_hit_ratio", "gauge", "Share of latest image lookups served from the cache");
+    writeSample(out, "cache_hit_ratio", "", hits + misses == 0 ? 0 : hits / (double) (hits + misses));
+
+    writeHeader(out, "fires_total", "counter", "Builds scheduled per job");
+    for(AwsAmiTrigger trigger : triggers) {
+      writeSample(out, "fires_total", getJobLabels(trigger), trigger.getFires());
+    }
+    writeHeader(out, "oldest_watermark_age_seconds", "gauge", "Age of the oldest filter watermark per job");
+    for(AwsAmiTrigger trigger : triggers) {
+      writeSample(out, "oldest_watermark_age_seconds", getJobLabels(trigger),
+        Math.max(0, now - trigger.getOldestWatermark()) / 1000.0);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes the HELP and TYPE lines of a metric.
+   *
+   * @param out    the output
+   * @param name   the metric name without prefix
+   * @param type   the metric type
+   * @param help   the help text
+   */
+  static void writeHeader(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Writes a sample.
+   *
+   * @param out      the output
+   * @param name     the metric name without prefix
+   * @param labels   the labels, without braces, or empty
+   * @param value    the value
+   */
+  static void writeSample(StringBuilder out, String name, String labels, double value) {
+    out.append(PREFIX).append(name);
+    if(!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ');
+    if(Double.isInfinite(value)) {
+      out.append(value > 0 ? "+Inf" : "-Inf");
+    } else if(value == Math.rint(value)) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  /**
+   * Writes the quantiles, sum and count of a histogram as a summary in
+   * seconds.
+   *
+   * @param out         the output
+   * @param name        the metric name without prefix
+   * @param labels      the labels, without braces, or empty
+   * @param histogram   the histogram
+   */
+  static void writeSummary(StringBuilder out, String name, String labels, AwsAmiHistogram histogram) {
+    final String separator = labels.isEmpty() ? "" : ",";
+    for(double quantile : QUANTILES) {
+      writeSample(out, name, labels + separator + "quantile=\"" + quantile + "\"", toSeconds(histogram.getQuantile(quantile)));
+    }
+    writeSample(out, name + "_sum", labels, toSeconds(histogram.getSum()));
+    writeSample(out, name + "_count", labels, histogram.getCount());
+  }
+
+  /**
+   * Gets the labels of a source scope.
+   *
+   * @param source   the source scope
+   * @return credentials id and region labels
+   */
+  private static String getSourceLabels(AwsAmiMetrics.Scope source) {
+    final String name = source.getName();
+    final int slash = name.lastIndexOf('/');
+    return "credentials_id=\"" + escape(name.substring(0, slash)) + "\",region=\"" + escape(name.substring(slash + 1)) + "\"";
+  }
+
+  /**
+   * Gets the labels of a trigger.
+   *
+   * @param trigger   the trigger
+   * @return job label
+   */
+  private static String getJobLabels(AwsAmiTrigger trigger) {
+    return "job=\"" + escape(trigger.getItem().getFullName()) + "\"";
+  }
+
+  /**
+   * Converts nanoseconds to seconds, keeping the overflow bucket infinite.
+   *
+   * @param nanos   duration in nanoseconds
+   * @return duration in seconds
+   */
+  private static double toSeconds(long nanos) {
+    return nanos == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : nanos / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+
+  /**
+   * Escapes a label value.
+   *
+   * @param value   the value
+   * @return value with backslashes, quotes and newlines escaped
+   */
+  static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
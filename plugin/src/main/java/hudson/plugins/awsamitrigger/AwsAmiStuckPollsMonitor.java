@@ -0,0 +1,95 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.util.List;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Warns administrators about AMI trigger polls that are stuck or were
+ * abandoned by the {@link AwsAmiPollWatchdog}, with thread dumps of the
+ * threads running them.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiStuckPollsMonitor extends AdministrativeMonitor {
+
+  /**
+   * Gets the display name.
+   * @return display name of the monitor
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.StuckPollsDisplayName();
+  }
+
+  /**
+   * Checks whether any poll is stuck or was abandoned.
+   * @return true if there are stuck polls or recorded stalls
+   */
+  @Override
+  public boolean isActivated() {
+    return !getStuckPolls().isEmpty() || !getStalls().isEmpty();
+  }
+
+  /**
+   * Gets the polls running for longer than the poll timeout.
+   * @return the stuck polls
+   */
+  public List<AwsAmiPollWatchdog.InFlightPoll> getStuckPolls() {
+    return AwsAmiPollWatchdog.get().getStuckPolls(AwsAmiTriggerConfiguration.getPollTimeoutMillis());
+  }
+
+  /**
+   * Gets the recently abandoned polls.
+   * @return the stalls, newest first
+   */
+  public List<AwsAmiPollWatchdog.Stall> getStalls() {
+    return AwsAmiPollWatchdog.get().getStalls();
+  }
+
+  /**
+   * Forgets the recorded stalls.
+   *
+   * @return redirect to the manage page
+   * @throws IOException never
+   */
+  @RequirePOST
+  public HttpResponse doClear() throws IOException {
+    Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER);
+    AwsAmiPollWatchdog.get().clearStalls();
+    return HttpResponses.redirectViaContextPath("/manage");
+  }
+}
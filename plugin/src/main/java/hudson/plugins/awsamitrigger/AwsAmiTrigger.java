@@ -0,0 +1,1144 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+
+import javax.servlet.ServletException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+
+import antlr.ANTLRException;
+
+import hudson.Extension;
+import hudson.model.BuildableItem;
+import hudson.model.Item;
+import hudson.scheduler.CronTab;
+import hudson.scheduler.Hash;
+import hudson.security.ACL;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import org.apache.commons.lang.CharUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A Jenkins {@link hudson.triggers.Trigger} for AWS AMIs.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTrigger extends Trigger<BuildableItem> {
+
+  private final static int MAX_TEST_IMAGES = 10;
+  private final static Logger LOGGER = Logger.getLogger(AwsAmiTrigger.class.getName());
+  private final static Pattern tagsPattern =  Pattern.compile("^[^=]+=[^=]+.*");
+  private final static long HANDOFF_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+  private final static int DEFAULT_HISTORY_SIZE = 5;
+  private final static ConcurrentMap<String, EC2ServiceHandoff> handoffs = new ConcurrentHashMap<String, EC2ServiceHandoff>();
+  private final static ConcurrentMap<String, AwsAmiTriggerStatus> statuses = new ConcurrentHashMap<String, AwsAmiTriggerStatus>();
+  private final static Set<AwsAmiTrigger> running = Collections.newSetFromMap(new ConcurrentHashMap<AwsAmiTrigger, Boolean>());
+
+  private final String credentialsId;
+  private final String regionName;
+  private final List<AwsAmiTriggerFilter> filters;
+  @Deprecated
+  private Date lastRun;
+  private int settleMinutes;
+  private int maxDelayMinutes;
+  private AwsAmiTriggerPriority priority;
+  private boolean excludeImageDetails;
+  private boolean excludeFilter;
+  private boolean includeImageExtras;
+  private int historySize;
+  private boolean buildOnRemoved;
+  private boolean buildOnStateChanged;
+
+  private transient AwsAmiTriggerState state;
+  private transient EC2Service ec2Service;
+  private transient AwsAmiImagePoller poller;
+  private transient AwsAmiTriggerStatus status;
+
+  /**
+   * Creates a new {@link AwsAmiTrigger}.
+   *
+   * @param spec            crontab specification that defines how often to poll
+   * @param credentialsId   aws credentials id
+   * @param regionName      aws region name
+   * @param filters         list of filters
+   * @throws ANTLRException if unable to parse the crontab specification
+   */
+  @DataBoundConstructor
+  public AwsAmiTrigger(String spec, String credentialsId, String regionName, List<AwsAmiTriggerFilter> filters)
+      throws ANTLRException {
+    super(spec);
+
+    this.credentialsId = credentialsId;
+    this.regionName = regionName;
+    this.filters = filters;
+    this.state = new AwsAmiTriggerState(System.currentTimeMillis());
+    LOGGER.log(Level.INFO, "constructor:" + toString());
+  }
+
+  /**
+   * Migrates the <code>lastRun</code> saved in the job configuration by
+   * earlier versions into an {@link AwsAmiTriggerState}.
+   *
+   * @return this trigger
+   * @throws ObjectStreamException if the trigger could not be resolved
+   */
+  @Override
+  protected Object readResolve() throws ObjectStreamException {
+    state = new AwsAmiTriggerState(lastRun == null ? System.currentTimeMillis() : lastRun.getTime());
+    lastRun = null;
+    return super.readResolve();
+  }
+
+  /**
+   * Starts the trigger. The polling state is restored from the
+   * {@link AwsAmiTriggerStateStore}. When the trigger has just been
+   * configured with the same credentials and region, the watermarks of
+   * unchanged filters and the warm {@link EC2Service} of the previous
+   * trigger are carried over.
+   *
+   * @param project       the job this trigger belongs to
+   * @param newInstance   true if the trigger was created from a configuration
+   *                      form submission
+   */
+  @Override
+  public void start(BuildableItem project, boolean newInstance) {
+    super.start(project, newInstance);
+
+    final String jobName = project.getFullName();
+    final long created = state.getLastRun();
+    final AwsAmiTriggerStateStore store = AwsAmiTriggerStateStore.get();
+    if(newInstance) {
+      final AwsAmiTriggerState previous = store.getState(jobName, state);
+      if(previous != state && previous.isSameSource(credentialsId, regionName)) {
+        state = previous;
+      } else {
+        store.putState(jobName, state);
+      }
+      adoptEc2Service(jobName);
+      state.configure(credentialsId, regionName, getFilterKeys(), created);
+    } else {
+      state = store.getState(jobName, state);
+      state.configure(credentialsId, regionName, getFilterKeys(), state.getLastRun());
+    }
+    synchronized(this) {
+      poller = null;
+    }
+    store.markDirty();
+    running.add(this);
+  }
+
+  /**
+   * Stops the trigger. Any pending matches are discarded with the
+   * {@link AwsAmiImagePoller}; they are found again by the next poll
+   * because the watermark is only advanced when a build is released. The
+   * {@link EC2Service} is handed off in case the trigger is being
+   * reconfigured.
+   */
+  @Override
+  public void stop() {
+    running.remove(this);
+    final EC2Service service;
+    synchronized(this) {
+      poller = null;
+      service = ec2Service;
+    }
+    if(job != null && service != null) {
+      final String jobName = job.getFullName();
+      final EC2ServiceHandoff handoff = new EC2ServiceHandoff(credentialsId, regionName, service, System.currentTimeMillis());
+      handoffs.put(jobName, handoff);
+      Timer.get().schedule(new Runnable() {
+        @Override
+        public void run() {
+          handoffs.remove(jobName, handoff);
+        }
+      }, HANDOFF_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    super.stop();
+  }
+
+  /**
+   * Adopts the {@link EC2Service} handed off by the previous trigger of
+   * the job if it uses the same credentials and region.
+   *
+   * @param jobName   full name of the job
+   */
+  private void adoptEc2Service(String jobName) {
+    final EC2ServiceHandoff handoff = handoffs.remove(jobName);
+    if(handoff != null && System.currentTimeMillis() - handoff.time <= HANDOFF_TIMEOUT
+        && StringUtils.equals(handoff.credentialsId, credentialsId) && StringUtils.equals(handoff.regionName, regionName)) {
+      synchronized(this) {
+        ec2Service = handoff.service;
+      }
+    }
+  }
+
+  /**
+   * Gets the keys of the configured filters.
+   * @return list of filter keys
+   */
+  private List<String> getFilterKeys() {
+    final List<String> filterKeys = new ArrayList<String>();
+    for(AwsAmiTriggerFilter filter : filters) {
+      filterKeys.add(filter.getKey());
+    }
+    return filterKeys;
+  }
+
+  /**
+   * Returns an {@link EC2Service}.
+   * @return {@link EC2Service} singleton using the <code>credentialsId</code>
+   * and <code>regionName</code>
+   */
+  private synchronized EC2Service getEc2Service() {
+    if(ec2Service == null) {
+      ec2Service = new EC2Service(credentialsId, regionName);
+    }
+    return ec2Service;
+  }
+
+  /**
+   * Checks for new AMIs since the last run. The {@link AwsAmiImagePoller}
+   * collects matches into a pending set and a new job is scheduled once the
+   * settle window has passed (immediately if no settle window is
+   * configured). The poll runs as the system user on the
+   * {@link AwsAmiPollWatchdog}, which abandons it after the poll timeout.
+   */
+  @Override
+  public void run() {
+    LOGGER.log(Level.INFO, "run:" + toString());
+    final String jobName = job == null ? "@" + System.identityHashCode(this) : job.getFullName();
+    AwsAmiPollWatchdog.get().run(jobName, new Runnable() {
+      @Override
+      public void run() {
+        final SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+        try {
+          runPoll();
+        } finally {
+          SecurityContextHolder.setContext(context);
+        }
+      }
+    }, AwsAmiTriggerConfiguration.getPollTimeoutMillis());
+  }
+
+  /**
+   * Runs a poll on the {@link AwsAmiPollWatchdog} thread, recording its
+   * status, metrics and flight recorder event. The poll is skipped while
+   * the circuit breaker of the trigger is open.
+   */
+  private void runPoll() {
+    final AwsAmiTriggerStatus status = getStatus();
+    final long startTime = System.currentTimeMillis();
+    if(!status.allowPoll(startTime)) {
+      LOGGER.log(Level.FINE, "Circuit breaker open, skipping poll: {0}", this);
+      return;
+    }
+
+    final AwsAmiMetrics.Scope metrics = AwsAmiMetrics.get().getTrigger(job == null ? null : job.getFullName());
+    final long start = System.nanoTime();
+    final Object event = AwsAmiFlightRecorder.POLL.begin();
+    int imageCount = 0;
+    AwsAmiMetrics.get().startPoll();
+    try {
+      imageCount = poll(metrics, status);
+      status.recordSuccess(startTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch(RuntimeException e) {
+      status.recordFailure(startTime, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), e);
+      throw e;
+    } finally {
+      AwsAmiFlightRecorder.POLL.commit(event, job == null ? null : job.getFullName(), null, regionName, imageCount);
+      final long time = System.nanoTime() - start;
+      metrics.record(AwsAmiMetrics.Phase.POLL, time);
+      AwsAmiMetrics.get().getTotal().record(AwsAmiMetrics.Phase.POLL, time);
+      AwsAmiMetrics.get().endPoll();
+    }
+  }
+
+  /**
+   * Polls each filter for its latest images through the
+   * {@link AwsAmiImagePoller}, passes the events found to the
+   * {@link AwsAmiEventListener}s and schedules a build for the matches once
+   * the settle window has passed.
+   *
+   * @param metrics   the metrics of the trigger
+   * @param status    the status of the trigger
+   * @return number of images returned for all filters
+   */
+  private int poll(AwsAmiMetrics.Scope metrics, AwsAmiTriggerStatus status) {
+    final AwsAmiImagePoller.Poll poll = getPoller().poll(new MeteredImageSource(getEc2Service(), metrics), status,
+      job == null ? null : job.getFullName(), System.currentTimeMillis());
+    AwsAmiEventListener.fire(poll.getEvents());
+    if(poll.getFlushDelay() > 0) {
+      Timer.get().schedule(new Runnable() {
+        @Override
+        public void run() {
+          flushPendingMatches();
+        }
+      }, poll.getFlushDelay(), TimeUnit.MILLISECONDS);
+    }
+    flushPendingMatches();
+    return poll.getImageCount();
+  }
+
+  /**
+   * Gets the {@link AwsAmiImagePoller} of the trigger, creating it from the
+   * filters and settings of the trigger when it is first used after the
+   * trigger starts.
+   *
+   * @return the poller
+   */
+  private synchronized AwsAmiImagePoller getPoller() {
+    if(poller == null) {
+      final List<AwsAmiImageQuery> queries = new ArrayList<AwsAmiImageQuery>();
+      for(AwsAmiTriggerFilter filter : filters) {
+        queries.add(filter.toQuery());
+      }
+      poller = new AwsAmiImagePoller(state, regionName, queries);
+      poller.setSettleMinutes(settleMinutes);
+      poller.setMaxDelayMinutes(maxDelayMinutes);
+      poller.setHistorySize(getHistorySize());
+      poller.setBuildOnRemoved(buildOnRemoved);
+      poller.setBuildOnStateChanged(buildOnStateChanged);
+    }
+    return poller;
+  }
+
+  /**
+   * Gets the filter with a key.
+   *
+   * @param filterKey   key of the filter
+   * @return the filter or <code>null</code> if no filter has the key
+   */
+  private AwsAmiTriggerFilter getFilter(String filterKey) {
+    for(AwsAmiTriggerFilter filter : filters) {
+      if(filter.getKey().equals(filterKey)) {
+        return filter;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Schedules a single build for all pending matches if the settle window
+   * (or max delay) has passed.
+   */
+  private void flushPendingMatches() {
+    flushPendingMatches(System.currentTimeMillis());
+  }
+
+  /**
+   * Schedules a single build for all pending matches if the settle window
+   * (or max delay) has passed by <code>now</code>. The watermark only
+   * advances once the {@link AwsAmiTriggerAdmission} releases the build, so
+   * a build that is still held at a restart is found again.
+   *
+   * @param now   the current time
+   */
+  void flushPendingMatches(long now) {
+    final AwsAmiImagePoller.Fire fire = getPoller().flush(now);
+    if(fire == null) {
+      return;
+    }
+
+    final AwsAmiTriggerCause cause = new AwsAmiTriggerCause(credentialsId, regionName, excludeImageDetails, excludeFilter,
+      includeImageExtras);
+    for(Map.Entry<AwsAmiImageQuery, List<Image>> match : fire.getMatches().entrySet()) {
+      final AwsAmiTriggerFilter filter = getFilter(match.getKey().getKey());
+      for(Image image : match.getValue()) {
+        cause.addMatch(filter, image, fire.getImageHistoryBefore(match.getKey(), image.getImageId()));
+      }
+    }
+    for(AwsAmiEvent event : fire.getEvents()) {
+      cause.addEvent(event);
+    }
+
+    final Object event = AwsAmiFlightRecorder.FIRE.begin();
+    AwsAmiTriggerAdmission.schedule(job, cause, getPriority(), new Runnable() {
+      @Override
+      public void run() {
+        fire.release();
+      }
+    });
+    AwsAmiFlightRecorder.FIRE.commit(event, job == null ? null : job.getFullName(), null, regionName, cause.getMatches().size());
+  }
+
+  /**
+   * Checks if the image has a <code>creationDate</code> newer than the
+   * watermark of the filter.
+   *
+   * @param filter   the filter that matched the image
+   * @param image    the latest image matching the filter
+   * @return true if the image is newer than the watermark
+   */
+  boolean isNewImage(AwsAmiTriggerFilter filter, Image image) {
+    return AwsAmiImageMatcher.isNewImage(image, state.getWatermark(filter.getKey()));
+  }
+
+  /**
+   * Gets AWS credentials identifier.
+   * @return AWS credentials identifier
+   */
+  public String getCredentialsId() {
+    return credentialsId;
+  }
+
+  /**
+   * Gets AWS region name.
+   * @return AWS region name
+   */
+  public String getRegionName() {
+      return regionName;
+  }
+
+  /**
+   * Gets {@link AwsAmiTriggerFilter} filters.
+   * @return {@link AwsAmiTriggerFilter} filters
+   */
+  public List<AwsAmiTriggerFilter> getFilters() {
+    return filters;
+  }
+
+  /**
+   * Gets the settle window.
+   * @return minutes without a new match before a build is scheduled
+   */
+  public int getSettleMinutes() {
+    return settleMinutes;
+  }
+
+  /**
+   * Sets the settle window.
+   * @param settleMinutes   minutes without a new match before a build is
+   *                        scheduled (0 schedules immediately)
+   */
+  @DataBoundSetter
+  public void setSettleMinutes(int settleMinutes) {
+    this.settleMinutes = Math.max(0, settleMinutes);
+  }
+
+  /**
+   * Gets the maximum delay.
+   * @return maximum minutes a match may wait for the settle window
+   */
+  public int getMaxDelayMinutes() {
+    return maxDelayMinutes;
+  }
+
+  /**
+   * Sets the maximum delay.
+   * @param maxDelayMinutes maximum minutes a match may wait for the settle
+   *                        window (0 for no limit)
+   */
+  @DataBoundSetter
+  public void setMaxDelayMinutes(int maxDelayMinutes) {
+    this.maxDelayMinutes = Math.max(0, maxDelayMinutes);
+  }
+
+  /**
+   * Gets the admission priority.
+   * @return priority of scheduled builds when AMI triggered builds are capped
+   */
+  public AwsAmiTriggerPriority getPriority() {
+    return priority == null ? AwsAmiTriggerPriority.NORMAL : priority;
+  }
+
+  /**
+   * Sets the admission priority.
+   * @param priority        priority of scheduled builds when AMI triggered
+   *                        builds are capped
+   */
+  @DataBoundSetter
+  public void setPriority(AwsAmiTriggerPriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Gets whether image details are left out of the build environment.
+   * @return true if only the id, name and creation date of images are exported
+   */
+  public boolean isExcludeImageDetails() {
+    return excludeImageDetails;
+  }
+
+  /**
+   * Sets whether image details are left out of the build environment.
+   * @param excludeImageDetails   true to only export the id, name and
+   *                              creation date of images
+   */
+  @DataBoundSetter
+  public void setExcludeImageDetails(boolean excludeImageDetails) {
+    this.excludeImageDetails = excludeImageDetails;
+  }
+
+  /**
+   * Gets whether filter values are left out of the build environment.
+   * @return true if filter values are not exported
+   */
+  public boolean isExcludeFilter() {
+    return excludeFilter;
+  }
+
+  /**
+   * Sets whether filter values are left out of the build environment.
+   * @param excludeFilter   true to not export filter values
+   */
+  @DataBoundSetter
+  public void setExcludeFilter(boolean excludeFilter) {
+    this.excludeFilter = excludeFilter;
+  }
+
+  /**
+   * Gets whether the extra image metadata is exported to the build
+   * environment.
+   * @return true if the extra image metadata is exported
+   */
+  public boolean isIncludeImageExtras() {
+    return includeImageExtras;
+  }
+
+  /**
+   * Sets whether the extra image metadata is exported to the build
+   * environment. It is fetched when the build environment is first built.
+   * @param includeImageExtras   true to export the extra image metadata
+   */
+  @DataBoundSetter
+  public void setIncludeImageExtras(boolean includeImageExtras) {
+    this.includeImageExtras = includeImageExtras;
+  }
+
+  /**
+   * Gets the number of images kept in the history of each filter.
+   * @return number of images kept per filter
+   */
+  public int getHistorySize() {
+    return historySize > 0 ? historySize : DEFAULT_HISTORY_SIZE;
+  }
+
+  /**
+   * Sets the number of images kept in the history of each filter.
+   * @param historySize   number of images kept per filter (0 for the
+   *                      default)
+   */
+  @DataBoundSetter
+  public void setHistorySize(int historySize) {
+    this.historySize = Math.max(0, historySize);
+  }
+
+  /**
+   * Gets whether a build is started when a matching image is removed.
+   * @return true if removed images start a build
+   */
+  public boolean isBuildOnRemoved() {
+    return buildOnRemoved;
+  }
+
+  /**
+   * Sets whether a build is started when a matching image is removed.
+   * @param buildOnRemoved   true if removed images start a build
+   */
+  @DataBoundSetter
+  public void setBuildOnRemoved(boolean buildOnRemoved) {
+    this.buildOnRemoved = buildOnRemoved;
+  }
+
+  /**
+   * Gets whether a build is started when the public flag, tags, name or
+   * description of a matching image changes.
+   * @return true if state changes start a build
+   */
+  public boolean isBuildOnStateChanged() {
+    return buildOnStateChanged;
+  }
+
+  /**
+   * Sets whether a build is started when the public flag, tags, name or
+   * description of a matching image changes.
+   * @param buildOnStateChanged   true if state changes start a build
+   */
+  @DataBoundSetter
+  public void setBuildOnStateChanged(boolean buildOnStateChanged) {
+    this.buildOnStateChanged = buildOnStateChanged;
+  }
+
+  /**
+   * Gets the ids of the latest images seen by the polls of a filter.
+   *
+   * @param filter   the filter
+   * @return list of image ids, newest first
+   */
+  public List<String> getImageHistory(AwsAmiTriggerFilter filter) {
+    return state.getImageHistory(filter.getKey());
+  }
+
+  /**
+   * Gets the last time the trigger checked for new images.
+   * @return the last run
+   */
+  public Date getLastRun() {
+    return new Date(state.getLastRun());
+  }
+
+  /**
+   * Gets the last time the trigger polled for images.
+   * @return the last poll
+   */
+  public Date getLastPoll() {
+    return new Date(state.getLastPoll());
+  }
+
+  /**
+   * Gets the oldest watermark of the configured filters, the creation time
+   * up to which images have been handled.
+   * @return oldest watermark in milliseconds
+   */
+  public long getOldestWatermark() {
+    long oldest = Long.MAX_VALUE;
+    for(AwsAmiTriggerFilter filter : filters) {
+      oldest = Math.min(oldest, state.getWatermark(filter.getKey()));
+    }
+    return oldest == Long.MAX_VALUE ? state.getLastRun() : oldest;
+  }
+
+  /**
+   * Gets the number of builds the trigger has scheduled.
+   * @return number of fires
+   */
+  public long getFires() {
+    return state.getFires();
+  }
+
+  /**
+   * Gets the in-memory polling status of the trigger. The status is kept
+   * per job, so it survives reconfiguration of the trigger.
+   * @return the status
+   */
+  public synchronized AwsAmiTriggerStatus getStatus() {
+    if(status == null) {
+      if(job == null) {
+        return new AwsAmiTriggerStatus();
+      }
+      final AwsAmiTriggerStatus created = new AwsAmiTriggerStatus();
+      final AwsAmiTriggerStatus previous = statuses.putIfAbsent(job.getFullName(), created);
+      status = previous == null ? created : previous;
+    }
+    return status;
+  }
+
+  /**
+   * Moves the polling status of a renamed job.
+   *
+   * @param oldFullName   full name before the change
+   * @param newFullName   full name after the change
+   */
+  static void moveStatus(String oldFullName, String newFullName) {
+    final AwsAmiTriggerStatus status = statuses.remove(oldFullName);
+    if(status != null) {
+      statuses.put(newFullName, status);
+    }
+  }
+
+  /**
+   * Forgets the polling status of a deleted job.
+   *
+   * @param fullName   full name of the job
+   */
+  static void removeStatus(String fullName) {
+    statuses.remove(fullName);
+  }
+
+  /**
+   * Gets the next time the trigger is scheduled to poll.
+   * @return the next poll or <code>null</code> if the schedule is invalid
+   */
+  public Date getNextPoll() {
+    final Calendar next = Calendar.getInstance();
+    next.set(Calendar.SECOND, 0);
+    next.set(Calendar.MILLISECOND, 0);
+    next.add(Calendar.MINUTE, 1);
+
+    Calendar earliest = null;
+    try {
+      for(String line : StringUtils.split(StringUtils.defaultString(getSpec()), "\n")) {
+        line = line.trim();
+        if(line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final Calendar ceil = new CronTab(line, 1, job == null ? null : Hash.from(job.getFullName())).ceil((Calendar) next.clone());
+        if(earliest == null || ceil.before(earliest)) {
+          earliest = ceil;
+        }
+      }
+    } catch(ANTLRException e) {
+      return null;
+    } catch(IllegalStateException e) {
+      return null;
+    }
+    return earliest == null ? null : earliest.getTime();
+  }
+
+  /**
+   * Gets the job this trigger belongs to.
+   * @return the job or <code>null</code> if the trigger is not started
+   */
+  BuildableItem getItem() {
+    return job;
+  }
+
+  /**
+   * Gets the started triggers.
+   * @return unmodifiable view of the started triggers
+   */
+  static Set<AwsAmiTrigger> getRunningTriggers() {
+    return Collections.unmodifiableSet(running);
+  }
+
+  /**
+   * Gets the number of filter results that differed from the previous
+   * poll of the filter.
+   * @return number of changed results
+   */
+  public long getChangedResults() {
+    return state.getChangedResults();
+  }
+
+  /**
+   * Gets the number of filter results that were the same as the previous
+   * poll of the filter and so were skipped.
+   * @return number of unchanged results
+   */
+  public long getUnchangedResults() {
+    return state.getUnchangedResults();
+  }
+
+  /**
+   * Converts {@link AwsAmiTrigger} into a <code>String</code>
+   * representation.
+   *
+   * @return string containing all fields
+   */
+  public String toString() {
+    return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+      .append("credentialsId", credentialsId)
+      .append("regionName", regionName)
+      .append("lastRun", getLastRun())
+      .append("settleMinutes", settleMinutes)
+      .append("maxDelayMinutes", maxDelayMinutes)
+      .append("priority", getPriority())
+      .append("excludeImageDetails", excludeImageDetails)
+      .append("excludeFilter", excludeFilter)
+      .append("includeImageExtras", includeImageExtras)
+      .append("historySize", historySize)
+      .append("buildOnRemoved", buildOnRemoved)
+      .append("buildOnStateChanged", buildOnStateChanged)
+      .append("filters", filters).toString();
+  }
+
+  /**
+   * An {@link AwsAmiImageSource} that records the fetches of a trigger
+   * against its metrics.
+   */
+  private static final class MeteredImageSource implements AwsAmiImageSource {
+    private final EC2Service service;
+    private final AwsAmiMetrics.Scope metrics;
+
+    private MeteredImageSource(EC2Service service, AwsAmiMetrics.Scope metrics) {
+      this.service = service;
+      this.metrics = metrics;
+    }
+
+    /**
+     * Gets the key of the {@link EC2Service}.
+     * @return <code>credentialsId|regionName</code>
+     */
+    @Override
+    public String getKey() {
+      return service.getKey();
+    }
+
+    /**
+     * Fetches the latest images of a filter.
+     *
+     * @param filters   collection of AWS <code>Filter</code>
+     * @param count     the number of images to return
+     * @return up to <code>count</code> AWS images, newest first
+     */
+    @Override
+    public List<Image> fetchLatestImages(Collection<Filter> filters, int count) {
+      return fetchLatestImages(filters, count, null).getImages();
+    }
+
+    /**
+     * Fetches the latest images of a filter, recording the call.
+     *
+     * @param filters    collection of AWS <code>Filter</code>
+     * @param count      the number of images to return
+     * @param previous   the latest images of the previous poll of the
+     *                   filter, or <code>null</code>
+     * @return <code>previous</code> if the result is unchanged, otherwise up
+     * to <code>count</code> AWS images, newest first
+     */
+    @Override
+    public AwsAmiLatestImages fetchLatestImages(Collection<Filter> filters, int count, AwsAmiLatestImages previous) {
+      final long start = System.nanoTime();
+      final AwsAmiLatestImages images;
+      try {
+        images = service.fetchLatestImages(filters, count, previous);
+      } catch(RuntimeException e) {
+        metrics.recordError();
+        throw e;
+      } finally {
+        metrics.recordSince(AwsAmiMetrics.Phase.FETCH, start);
+      }
+      metrics.recordCall(images.getImages().size());
+      return images;
+    }
+  }
+
+  /**
+   * An {@link EC2Service} handed off by a stopped trigger.
+   */
+  private static final class EC2ServiceHandoff {
+    private final String credentialsId;
+    private final String regionName;
+    private final EC2Service service;
+    private final long time;
+
+    private EC2ServiceHandoff(String credentialsId, String regionName, EC2Service service, long time) {
+      this.credentialsId = credentialsId;
+      this.regionName = regionName;
+      this.service = service;
+      this.time = time;
+    }
+  }
+
+  /**
+   * A Jenkins <code>TriggerDescriptor</code> for the {@link AwsAmiTrigger}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class AwsAmiTriggerDescriptor extends TriggerDescriptor {
+
+    /**
+     * Returns the applicability of this trigger.
+     * @return true if the {@link hudson.model.Item} is a
+     * {@link hudson.model.BuildableItem}
+     */
+    @Override
+    public boolean isApplicable(Item item) {
+      return item instanceof BuildableItem;
+    }
+
+    /**
+     * Returns the trigger display name.
+     * @return a one line description of the {@link AwsAmiTrigger}
+     */
+    @Override
+    public String getDisplayName() {
+      return Messages.DisplayName();
+    }
+
+    /**
+     * Returns a list of AWS credentials identifiers.
+     * @return {@link ListBoxModel} populated with AWS credential identifiers
+     */
+    public ListBoxModel doFillCredentialsIdItems() {
+      return AWSCredentialsHelper.doFillCredentialsIdItems(Jenkins.getActiveInstance());
+    }
+
+    /**
+     * Returns a list of AWS region names.
+     * @return {@link ListBoxModel} populated with AWS region names
+     */
+    public ListBoxModel doFillRegionNameItems() {
+      final ListBoxModel options = new ListBoxModel();
+      final List<String> regionNames = new ArrayList<String>();
+      final List<Region> regions = RegionUtils.getRegions();
+      for(Region region : regions) {
+        regionNames.add(region.getName());
+      }
+      Collections.sort(regionNames);
+      options.add("- select -");
+      for(String regionName : regionNames) {
+        options.add(regionName);
+      }
+      return options;
+    }
+
+    /**
+     * Returns a list of admission priorities.
+     * @return {@link ListBoxModel} populated with admission priority options
+     */
+    public ListBoxModel doFillPriorityItems() {
+      final ListBoxModel options = new ListBoxModel();
+      for(AwsAmiTriggerPriority priority : AwsAmiTriggerPriority.values()) {
+        options.add(priority.getDisplayName(), priority.name());
+      }
+      return options;
+    }
+
+    /**
+     * Returns a list of AMI architectures.
+     * @return {@link ListBoxModel} populated with AMI architecture options
+     */
+    public ListBoxModel doFillArchitectureItems() {
+      final ListBoxModel options = new ListBoxModel();
+      options.add(AwsAmiTriggerFilter.ANY);
+      options.add("i386");
+      options.add("x86_64");
+      return options;
+    }
+
+    /**
+     * Returns a list of AMI owner aliases.
+     * @return {@link ListBoxModel} populated with AMI owner alias options
+     */
+    public ListBoxModel doFillOwnerAliasItems() {
+      final ListBoxModel options = new ListBoxModel();
+      options.add(AwsAmiTriggerFilter.ANY);
+      options.add("amazon");
+      options.add("aws-marketplace");
+      options.add("microsoft");
+      return options;
+    }
+
+    /**
+     * Returns a list of AMI is-public options.
+     * @return {@link ListBoxModel} populated with AMI is-public options
+     */
+    public ListBoxModel doFillSharedItems() {
+      final ListBoxModel options = new ListBoxModel();
+      options.add(AwsAmiTriggerFilter.ANY);
+      options.add("true");
+      options.add("false");
+      return options;
+    }
+
+    /**
+     * Validates the <code>settleMinutes</code>.
+     *
+     * @param value          settle window in minutes
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckSettleMinutes(@QueryParameter String value) {
+      return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Validates the <code>maxDelayMinutes</code>.
+     *
+     * @param value          max delay in minutes
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckMaxDelayMinutes(@QueryParameter String value) {
+      return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Validates the <code>historySize</code>.
+     *
+     * @param value          number of images kept per filter
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckHistorySize(@QueryParameter String value) {
+      return FormValidation.validatePositiveInteger(value);
+    }
+
+    /**
+     * Validates the filter <code>name</code>.
+     *
+     * @param name           AMI name pattern
+     * @param description    AMI description pattern
+     * @param tags           AMI tags
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckName(@QueryParameter String name, @QueryParameter String description, @QueryParameter String tags) {
+      if("*".equals(StringUtils.trim(name)) && StringUtils.isEmpty(description) && StringUtils.isEmpty(tags)) {
+        return FormValidation.error(Messages.WildcardTooWild());
+      }
+      return checkMinimum(name, description, tags);
+    }
+
+    /**
+     * Validates the filter <code>description</code>.
+     *
+     * @param description    AMI description pattern
+     * @param name           AMI name pattern
+     * @param tags           AMI tags
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckDescription(@QueryParameter String description, @QueryParameter String name, @QueryParameter String tags) {
+      if("*".equals(StringUtils.trim(description)) && StringUtils.isEmpty(name) && StringUtils.isEmpty(tags)) {
+        return FormValidation.error(Messages.WildcardTooWild());
+      }
+      return checkMinimum(name, description, tags);
+    }
+
+    /**
+     * Validates the filter <code>tags</code>.
+     *
+     * @param tags           AMI tags
+     * @param name           AMI name pattern
+     * @param description    AMI description pattern
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckTags(@QueryParameter String tags, @QueryParameter String name, @QueryParameter String description) {
+      if(!StringUtils.isEmpty(tags)) {
+        final Matcher matcher = tagsPattern.matcher(tags);
+        if(!matcher.matches()) {
+          return FormValidation.error(Messages.InvalidTagsSpecification());
+        }
+      }
+      return checkMinimum(name, description, tags);
+    }
+
+    /**
+     * Checks that at least one of <code>name</code>, <code>description</code>
+     * or <code>tags</code> has a value.
+     * @param name           AMI name pattern
+     * @param description    AMI description pattern
+     * @param tags           AMI tags
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     **/
+    private FormValidation checkMinimum(String name, String description, String tags) {
+      if(StringUtils.isEmpty(name) && StringUtils.isEmpty(description) && StringUtils.isEmpty(tags)) {
+        return FormValidation.error(Messages.CheckMinimum());
+      }
+      return FormValidation.ok();
+    }
+
+    /**
+     * Tests the filter via the AWS EC2 service.
+     *
+     * @param testCredentialsId    AWS credentials id
+     * @param testRegionName       AWS region name
+     * @param testArchitecture     AMI architecture
+     * @param testDescription      AMI description pattern
+     * @param testName             AMI name pattern
+     * @param testOwnerAlias       AMI owner alias
+     * @param testOwnerId          AMI owner id
+     * @param testProductCode      AMI product code
+     * @param testTags             AMI tags
+     * @param testShared           AMI is-public indicator
+     * @return FormValidation.ok and up to 10 matching AMIs (creationDate, imageId, Name)
+     *         or FormValidation.error if an AWS exception occurred
+     * @throws IOException if IO error occurred
+     * @throws ServletException if servlet error occurred
+     */
+    public FormValidation doTestFilter(@QueryParameter("credentialsId") final String testCredentialsId,
+                                       @QueryParameter("regionName") final String testRegionName,
+                                       @QueryParameter("architecture") final String testArchitecture,
+                                       @QueryParameter("description") final String testDescription,
+                                       @QueryParameter("name") final String testName,
+                                       @QueryParameter("ownerAlias") final String testOwnerAlias,
+                                       @QueryParameter("ownerId") final String testOwnerId,
+                                       @QueryParameter("productCode") final String testProductCode,
+                                       @QueryParameter("tags") final String testTags,
+                                       @QueryParameter("shared") final String testShared) throws IOException, ServletException {
+      final StringBuffer testResults = new StringBuffer();
+      final EC2Service testEc2Service = new EC2Service(testCredentialsId, testRegionName);
+      final AwsAmiTriggerFilter testFilter = new AwsAmiTriggerFilter(testArchitecture, testDescription, testName, testOwnerAlias, testOwnerId, testProductCode, testTags, testShared);
+
+      try {
+        final List<Image> testImages = testEc2Service.describeImages(testFilter.toAWSFilters());
+        final int testImagesCount = testImages.size();
+        final int testImagesMax = Math.min(testImagesCount, MAX_TEST_IMAGES);
+        if(testImagesCount <= MAX_TEST_IMAGES) {
+          testResults.append(Messages.MatchedImages(testImagesCount));
+        } else {
+          testResults.append(Messages.MatchedImagesLimit(testImagesCount, MAX_TEST_IMAGES));
+        }
+        testResults.append(CharUtils.LF);
+        if(testImagesMax > 0) {
+          for(Image testImage : testImages.subList(0, testImagesMax)) {
+            testResults.append(testImage.getCreationDate());
+            testResults.append(CharUtils.LF);
+            testResults.append(testImage.getImageId());
+            testResults.append(" ");
+            testResults.append(testImage.getName());
+            testResults.append(CharUtils.LF);
+            if(testImage.getDescription() != null) {
+              testResults.append(testImage.getDescription());
+              testResults.append(CharUtils.LF);
+            }
+            testResults.append(CharUtils.LF);
+          }
+        }
+        return FormValidation.ok(testResults.toString());
+      } catch(AmazonClientException e) {
+        return FormValidation.error(e.getMessage());
+      }
+    }
+  }
+}
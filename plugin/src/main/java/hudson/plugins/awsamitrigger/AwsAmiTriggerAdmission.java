@@ -0,0 +1,376 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.BuildableItem;
+import hudson.model.Cause;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.model.Run;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Admission controller for builds scheduled by {@link AwsAmiTrigger}.
+ *
+ * <p>When a vendor publishes new base images hundreds of jobs can trigger
+ * in the same minute. Builds are held in a queue per priority and folder
+ * and released in priority order, round-robin across folders, without
+ * exceeding the concurrency and rate caps from
+ * {@link AwsAmiTriggerConfiguration}.</p>
+ *
+ * <p>Held builds are only kept in memory. Triggers therefore advance their
+ * watermark when a build is released rather than when it is submitted, so
+ * a build that is still held when Jenkins restarts is found again by the
+ * next poll.</p>
+ *
+ * <p>Until then the same match can be found again by a later poll, so a job
+ * has at most one held build. A build submitted for a job that already has
+ * a held build is merged into it.</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiTriggerAdmission extends PeriodicWork {
+
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiTriggerAdmission.class.getName());
+
+  private final Map<AwsAmiTriggerPriority, LinkedHashMap<String, Deque<PendingBuild>>> queues =
+    new EnumMap<AwsAmiTriggerPriority, LinkedHashMap<String, Deque<PendingBuild>>>(AwsAmiTriggerPriority.class);
+  private final Map<String, PendingBuild> pendingJobs = new HashMap<String, PendingBuild>();
+  private int pendingCount;
+  private double tokens;
+  private long tokensUpdated;
+
+  /**
+   * Creates a new {@link AwsAmiTriggerAdmission}.
+   */
+  public AwsAmiTriggerAdmission() {
+    for(AwsAmiTriggerPriority priority : AwsAmiTriggerPriority.values()) {
+      queues.put(priority, new LinkedHashMap<String, Deque<PendingBuild>>());
+    }
+  }
+
+  /**
+   * Schedules a build through the admission controller. The build is
+   * scheduled straight away if Jenkins is not running or no caps are
+   * configured.
+   *
+   * @param job        the job to build
+   * @param cause      the cause of the build
+   * @param priority   the admission priority
+   */
+  public static void schedule(BuildableItem job, Cause cause, AwsAmiTriggerPriority priority) {
+    schedule(job, cause, priority, null);
+  }
+
+  /**
+   * Schedules a build through the admission controller and runs
+   * <code>onRelease</code> once the build has been handed to the Jenkins
+   * queue.
+   *
+   * @param job         the job to build
+   * @param cause       the cause of the build
+   * @param priority    the admission priority
+   * @param onRelease   runs when the build is released (may be <code>null</code>)
+   */
+  public static void schedule(BuildableItem job, Cause cause, AwsAmiTriggerPriority priority, Runnable onRelease) {
+    final AwsAmiTriggerConfiguration configuration = AwsAmiTriggerConfiguration.get();
+    final AwsAmiTriggerAdmission admission = get();
+    if(configuration == null || admission == null) {
+      new PendingBuild(job, cause, onRelease).release();
+    } else {
+      admission.submit(job, cause, priority, onRelease, configuration);
+    }
+  }
+
+  /**
+   * Gets the {@link AwsAmiTriggerAdmission} singleton.
+   * @return the admission controller or <code>null</code> if Jenkins is not running
+   */
+  public static AwsAmiTriggerAdmission get() {
+    final Jenkins jenkins = Jenkins.getInstance();
+    if(jenkins == null) {
+      return null;
+    }
+    return jenkins.getExtensionList(PeriodicWork.class).get(AwsAmiTriggerAdmission.class);
+  }
+
+  /**
+   * Queues a build and releases as many queued builds as the caps allow.
+   * If the job already has a held build the build is merged into it
+   * instead.
+   *
+   * @param job             the job to build
+   * @param cause           the cause of the build
+   * @param priority        the admission priority
+   * @param onRelease       runs when the build is released (may be <code>null</code>)
+   * @param configuration   the caps
+   */
+  void submit(BuildableItem job, Cause cause, AwsAmiTriggerPriority priority, Runnable onRelease,
+      AwsAmiTriggerConfiguration configuration) {
+    final PendingBuild build = new PendingBuild(job, cause, onRelease);
+    synchronized(this) {
+      final PendingBuild held = pendingJobs.get(job.getFullName());
+      if(held != null) {
+        LOGGER.log(Level.FINE, "Merging build of {0} into its held build", job.getFullName());
+        held.merge(cause, onRelease);
+        return;
+      }
+      if(pendingCount == 0 && configuration.getMaxConcurrentBuilds() == 0 && configuration.getMaxBuildsPerMinute() == 0) {
+        build.release();
+        return;
+      }
+
+      final String folder = job.getParent().getFullName();
+      final Map<String, Deque<PendingBuild>> folders = queues.get(priority == null ? AwsAmiTriggerPriority.NORMAL : priority);
+      Deque<PendingBuild> pending = folders.get(folder);
+      if(pending == null) {
+        pending = new ArrayDeque<PendingBuild>();
+        folders.put(folder, pending);
+      }
+      pending.add(build);
+      pendingJobs.put(job.getFullName(), build);
+      pendingCount++;
+    }
+    release(configuration);
+  }
+
+  /**
+   * Gets the number of builds waiting for admission.
+   * @return the number of queued builds
+   */
+  public synchronized int getPendingCount() {
+    return pendingCount;
+  }
+
+  /**
+   * Releases queued builds while the concurrency and rate caps allow.
+   *
+   * @param configuration   the caps
+   */
+  void release(AwsAmiTriggerConfiguration configuration) {
+    final int maxConcurrentBuilds = configuration.getMaxConcurrentBuilds();
+    final int maxBuildsPerMinute = configuration.getMaxBuildsPerMinute();
+
+    int inFlight = 0;
+    if(maxConcurrentBuilds > 0) {
+      if(getPendingCount() == 0) {
+        return;
+      }
+      inFlight = countInFlight();
+    }
+
+    while(true) {
+      final PendingBuild pending;
+      synchronized(this) {
+        if(maxConcurrentBuilds > 0 && inFlight >= maxConcurrentBuilds) {
+          return;
+        }
+        if(maxBuildsPerMinute > 0 && !takeToken(maxBuildsPerMinute)) {
+          return;
+        }
+        pending = poll();
+        if(pending == null) {
+          return;
+        }
+      }
+      LOGGER.log(Level.FINE, "Admitting build of {0}", pending.job.getFullName());
+      if(pending.release()) {
+        inFlight++;
+      }
+    }
+  }
+
+  /**
+   * Takes a token from the rate limiting bucket. The bucket holds at most
+   * one minute of tokens and refills continuously.
+   *
+   * @param maxBuildsPerMinute   the rate cap
+   * @return true if a token was available
+   */
+  private boolean takeToken(int maxBuildsPerMinute) {
+    final long now = System.currentTimeMillis();
+    if(tokensUpdated == 0) {
+      tokens = maxBuildsPerMinute;
+    } else {
+      tokens = Math.min(maxBuildsPerMinute, tokens + (now - tokensUpdated) * maxBuildsPerMinute / (double) TimeUnit.MINUTES.toMillis(1));
+    }
+    tokensUpdated = now;
+    if(tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  /**
+   * Removes the next build from the queues: highest priority first and then
+   * round-robin across the folders of that priority.
+   *
+   * @return the next build or <code>null</code> if nothing is queued
+   */
+  private PendingBuild poll() {
+    for(LinkedHashMap<String, Deque<PendingBuild>> folders : queues.values()) {
+      final Iterator<Map.Entry<String, Deque<PendingBuild>>> iterator = folders.entrySet().iterator();
+      if(iterator.hasNext()) {
+        final Map.Entry<String, Deque<PendingBuild>> entry = iterator.next();
+        final PendingBuild pending = entry.getValue().poll();
+        iterator.remove();
+        if(!entry.getValue().isEmpty()) {
+          folders.put(entry.getKey(), entry.getValue());
+        }
+        pendingJobs.remove(pending.job.getFullName());
+        pendingCount--;
+        return pending;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Counts the builds caused by {@link AwsAmiTrigger} that are queued or
+   * running.
+   *
+   * @return number of AMI triggered builds in flight
+   */
+  int countInFlight() {
+    final Jenkins jenkins = Jenkins.getInstance();
+    if(jenkins == null) {
+      return 0;
+    }
+
+    int inFlight = 0;
+    for(Queue.Item item : jenkins.getQueue().getItems()) {
+      for(Cause cause : item.getCauses()) {
+        if(cause instanceof AwsAmiTriggerCause) {
+          inFlight++;
+          break;
+        }
+      }
+    }
+    for(Computer computer : jenkins.getComputers()) {
+      inFlight += countRunning(computer.getExecutors());
+      inFlight += countRunning(computer.getOneOffExecutors());
+    }
+    return inFlight;
+  }
+
+  /**
+   * Counts the executors running a build caused by {@link AwsAmiTrigger}.
+   *
+   * @param executors   the executors to check
+   * @return number of AMI triggered builds running on the executors
+   */
+  private int countRunning(List<? extends Executor> executors) {
+    int inFlight = 0;
+    for(Executor executor : executors) {
+      final Queue.Executable executable = executor.getCurrentExecutable();
+      if(executable instanceof Run && ((Run<?,?>) executable).getCause(AwsAmiTriggerCause.class) != null) {
+        inFlight++;
+      }
+    }
+    return inFlight;
+  }
+
+  /**
+   * Returns how often queued builds are checked for admission.
+   * @return recurrence period in milliseconds
+   */
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.SECONDS.toMillis(5);
+  }
+
+  /**
+   * Releases queued builds as capacity becomes available.
+   */
+  @Override
+  protected void doRun() {
+    final AwsAmiTriggerConfiguration configuration = AwsAmiTriggerConfiguration.get();
+    if(configuration != null) {
+      release(configuration);
+    }
+  }
+
+  /**
+   * A build waiting for admission.
+   */
+  private static final class PendingBuild {
+    private final BuildableItem job;
+    private Cause cause;
+    private Runnable onRelease;
+
+    private PendingBuild(BuildableItem job, Cause cause, Runnable onRelease) {
+      this.job = job;
+      this.cause = cause;
+      this.onRelease = onRelease;
+    }
+
+    /**
+     * Merges a later build of the same job into this build. The matches and
+     * events of the causes are combined and the later release callback
+     * replaces this one, since it comes from a later poll of the job.
+     *
+     * @param cause       the cause of the later build
+     * @param onRelease   runs when the build is released (may be <code>null</code>)
+     */
+    private void merge(Cause cause, Runnable onRelease) {
+      if(this.cause instanceof AwsAmiTriggerCause && cause instanceof AwsAmiTriggerCause) {
+        ((AwsAmiTriggerCause) this.cause).merge((AwsAmiTriggerCause) cause);
+      }
+      if(onRelease != null) {
+        this.onRelease = onRelease;
+      }
+    }
+
+    /**
+     * Hands the build to the Jenkins queue and runs the release callback.
+     * @return true if the build was scheduled
+     */
+    private boolean release() {
+      final boolean scheduled = job.scheduleBuild(cause);
+      if(onRelease != null) {
+        onRelease.run();
+      }
+      return scheduled;
+    }
+  }
+}
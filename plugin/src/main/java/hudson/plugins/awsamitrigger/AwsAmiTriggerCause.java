@@ -0,0 +1,522 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import hudson.EnvVars;
+import hudson.model.Cause;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Cause for triggering {@link AwsAmiTrigger}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerCause extends Cause {
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiTriggerCause.class.getName());
+
+  private final List<AwsAmiTriggerMatch> matches = new ArrayList<AwsAmiTriggerMatch>();
+  private final boolean excludeImageDetails;
+  private final boolean excludeFilter;
+  private final boolean includeImageExtras;
+  private final String credentialsId;
+  private final String regionName;
+  private Map<String, AwsAmiImageExtras> extras;
+  private List<AwsAmiEvent> events;
+
+  private transient volatile Map<String, String> environment;
+  private transient boolean extrasFailed;
+
+  /**
+   * Creates a new {@link AwsAmiTriggerCause} that exports all environment
+   * variables.
+   */
+  public AwsAmiTriggerCause() {
+    this(false, false);
+  }
+
+  /**
+   * Creates a new {@link AwsAmiTriggerCause}.
+   *
+   * @param excludeImageDetails   true to only export the id, name and
+   *                              creation date of the images
+   * @param excludeFilter         true to not export the filter values
+   */
+  public AwsAmiTriggerCause(boolean excludeImageDetails, boolean excludeFilter) {
+    this(null, null, excludeImageDetails, excludeFilter, false);
+  }
+
+  /**
+   * Creates a new {@link AwsAmiTriggerCause} that can fetch extra image
+   * metadata from the account and region the images were found in.
+   *
+   * @param credentialsId         AWS credentials identifier
+   * @param regionName            AWS region name
+   * @param excludeImageDetails   true to only export the id, name and
+   *                              creation date of the images
+   * @param excludeFilter         true to not export the filter values
+   * @param includeImageExtras    true to export the extra image metadata
+   */
+  public AwsAmiTriggerCause(String credentialsId, String regionName, boolean excludeImageDetails, boolean excludeFilter,
+      boolean includeImageExtras) {
+    super();
+    this.credentialsId = credentialsId;
+    this.regionName = regionName;
+    this.excludeImageDetails = excludeImageDetails;
+    this.excludeFilter = excludeFilter;
+    this.includeImageExtras = includeImageExtras;
+  }
+
+  /**
+   * Add a new filter/image match.
+   *
+   * @param filter   the filter that matched the image
+   * @param image    the image that matched the filter
+   */
+  public void addMatch(AwsAmiTriggerFilter filter, Image image) {
+    addMatch(filter, image, null);
+  }
+
+  /**
+   * Add a new filter/image match with the images the filter matched
+   * before.
+   *
+   * @param filter             the filter that matched the image
+   * @param image              the image that matched the filter
+   * @param previousImageIds   ids of the images the filter matched before,
+   *                           newest first, or <code>null</code> if not known
+   */
+  public void addMatch(AwsAmiTriggerFilter filter, Image image, List<String> previousImageIds) {
+    matches.add(new AwsAmiTriggerMatch(filter, AwsAmiImage.from(image), previousImageIds));
+    environment = null;
+  }
+
+  /**
+   * Add an event that started the build.
+   *
+   * @param event   the removed or state changed event
+   */
+  public void addEvent(AwsAmiEvent event) {
+    if(events == null) {
+      events = new ArrayList<AwsAmiEvent>();
+    }
+    events.add(event);
+    environment = null;
+  }
+
+  /**
+   * Merges the matches and events of a later cause of the same job into
+   * this cause. An image matched by the same filter in both causes is only
+   * kept once.
+   *
+   * @param other   the later cause
+   */
+  void merge(AwsAmiTriggerCause other) {
+    for(AwsAmiTriggerMatch match : other.getMatches()) {
+      if(!hasMatch(match.getFilter(), match.getImageId())) {
+        matches.add(match);
+      }
+    }
+    for(AwsAmiEvent event : other.getEvents()) {
+      addEvent(event);
+    }
+    environment = null;
+  }
+
+  /**
+   * Checks if an image has been matched by a filter.
+   *
+   * @param filter    the filter
+   * @param imageId   the image id
+   * @return true if the cause has a match of the image by the filter
+   */
+  private boolean hasMatch(AwsAmiTriggerFilter filter, String imageId) {
+    for(AwsAmiTriggerMatch match : matches) {
+      if(StringUtils.equals(match.getImageId(), imageId)
+          && StringUtils.equals(match.getFilter().getKey(), filter.getKey())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the events that started the build.
+   * @return unmodifiable list of events
+   */
+  public List<AwsAmiEvent> getEvents() {
+    return events == null ? Collections.<AwsAmiEvent>emptyList() : Collections.unmodifiableList(events);
+  }
+
+  /**
+   * Gets the filter/image matches.
+   * @return unmodifiable list of matches
+   */
+  List<AwsAmiTriggerMatch> getMatches() {
+    return Collections.unmodifiableList(matches);
+  }
+
+  /**
+   * Gets the extra metadata of the matched images. Nothing is fetched when
+   * the build is triggered; the first call fetches the metadata of all the
+   * matched images in one batch with the shared {@link EC2Service} of the
+   * account and region, and the result is kept with the cause, so it is
+   * saved with the build. A failed fetch is not retried until the build is
+   * loaded again.
+   *
+   * @return map of image id to extras; empty if the metadata could not be
+   * fetched
+   */
+  public Map<String, AwsAmiImageExtras> getExtras() {
+    synchronized(this) {
+      if(extras != null) {
+        return extras;
+      }
+      if(extrasFailed) {
+        return Collections.emptyMap();
+      }
+    }
+    if(credentialsId == null && regionName == null) {
+      return Collections.emptyMap();
+    }
+    return getExtras(EC2Service.get(credentialsId, regionName));
+  }
+
+  /**
+   * Gets the extra metadata of the matched images, fetching it with the
+   * supplied <code>ec2Service</code> if it has not been fetched or failed
+   * before.
+   *
+   * @param ec2Service   the EC2 client to fetch the metadata with
+   * @return map of image id to extras; empty if the metadata could not be
+   * fetched
+   */
+  synchronized Map<String, AwsAmiImageExtras> getExtras(EC2Service ec2Service) {
+    if(extras == null && !extrasFailed) {
+      final List<String> imageIds = new ArrayList<String>();
+      for(AwsAmiTriggerMatch match : matches) {
+        imageIds.add(match.getImageId());
+      }
+      try {
+        extras = Collections.unmodifiableMap(ec2Service.describeImageExtras(imageIds));
+      } catch(Exception e) {
+        LOGGER.log(Level.WARNING, "Unable to fetch extra image metadata, the build has no image extras variables", e);
+        extrasFailed = true;
+      }
+    }
+    return extras == null ? Collections.<String, AwsAmiImageExtras>emptyMap() : extras;
+  }
+
+  /**
+   * Gets short description.
+   * @return description of cause
+   */
+  @Override
+  public String getShortDescription() {
+    final List<String> imageIds = new ArrayList<String>();
+    for(AwsAmiTriggerMatch match : matches) {
+      imageIds.add(match.getImageId());
+    }
+    final List<String> eventDescriptions = new ArrayList<String>();
+    for(AwsAmiEvent event : getEvents()) {
+      eventDescriptions.add(event.getType() + " " + event.getImageId());
+    }
+    if(imageIds.isEmpty()) {
+      return Messages.EventCause(StringUtils.join(eventDescriptions, ","));
+    }
+    if(!eventDescriptions.isEmpty()) {
+      return Messages.Cause(StringUtils.join(imageIds, ",")) + "; " + Messages.EventCause(StringUtils.join(eventDescriptions, ","));
+    }
+    return Messages.Cause(StringUtils.join(imageIds, ","));
+  }
+
+  /**
+   * Populates environment variables in the build environment.
+   *
+   * @param envVars         the environment variables to populate
+   */
+  public void populateEnvironment(EnvVars envVars) {
+    envVars.putAll(getEnvironment());
+  }
+
+  /**
+   * Gets the environment variables for the matches. The variables are
+   * computed once and cached, as they are needed for every environment
+   * computation of the build (for example every <code>sh</code> step).
+   * Variable groups excluded by the trigger are left out. When image extras
+   * are included they are fetched by the first call, whether or not the
+   * build reads them; if the fetch fails the variables are cached without
+   * them, consistently with {@link #getExtras()}.
+   *
+   * @return immutable map of environment variables
+   */
+  public Map<String, String> getEnvironment() {
+    Map<String, String> env = environment;
+    if(env == null) {
+      env = Collections.unmodifiableMap(createEnvironment(excludeImageDetails, excludeFilter, includeImageExtras));
+      environment = env;
+    }
+    return env;
+  }
+
+  /**
+   * Gets all the environment variables for the matches, including the
+   * groups excluded by the trigger and the extra image metadata.
+   *
+   * @return map of environment variables
+   */
+  public Map<String, String> getFullEnvironment() {
+    if(!excludeImageDetails && !excludeFilter && includeImageExtras) {
+      return getEnvironment();
+    }
+    return createEnvironment(false, false, true);
+  }
+
+  /**
+   * Creates the environment variables for the matches.
+   *
+   * @param excludeImageDetails   true to only add the id, name and creation
+   *                              date of the images
+   * @param excludeFilter         true to not add the filter values
+   * @param includeImageExtras    true to add the extra image metadata
+   * @return map of environment variables
+   */
+  private Map<String, String> createEnvironment(boolean excludeImageDetails, boolean excludeFilter, boolean includeImageExtras) {
+    final Map<String, String> variables = new LinkedHashMap<String, String>();
+    if(!matches.isEmpty()) {
+      variables.put("awsAmiTriggerCount", String.valueOf(matches.size()));
+
+      final Map<String, AwsAmiImageExtras> imageExtras = includeImageExtras
+        ? getExtras() : Collections.<String, AwsAmiImageExtras>emptyMap();
+      int num = 1;
+      for(AwsAmiTriggerMatch match : matches) {
+        String suffix = String.valueOf(num++);
+        match.populateEnvironment(variables, suffix, excludeImageDetails, excludeFilter);
+        if(includeImageExtras) {
+          match.populateEnvironment(variables, suffix, imageExtras.get(match.getImageId()));
+        }
+      }
+    }
+    if(events != null && !events.isEmpty()) {
+      variables.put("awsAmiTriggerEventCount", String.valueOf(events.size()));
+
+      int num = 1;
+      for(AwsAmiEvent event : events) {
+        variables.put("awsAmiTriggerEventType" + num, event.getType().name());
+        variables.put("awsAmiTriggerEventImageId" + num, event.getImageId());
+        num++;
+      }
+    }
+    return variables;
+  }
+
+  /**
+   * An image and filter match. The image is kept as a compact
+   * {@link AwsAmiImage} snapshot which is persisted by the
+   * {@link AwsAmiImageConverter}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  static class AwsAmiTriggerMatch {
+    private final AwsAmiTriggerFilter filter;
+    private final AwsAmiImage image;
+    private final List<String> previousImageIds;
+
+    /**
+     * Creates a new {@link AwsAmiTriggerMatch}.
+     *
+     * @param filter   the filter that matched the image
+     * @param image    the image that matched the filter
+     */
+    public AwsAmiTriggerMatch(AwsAmiTriggerFilter filter, AwsAmiImage image) {
+      this(filter, image, null);
+    }
+
+    /**
+     * Creates a new {@link AwsAmiTriggerMatch}.
+     *
+     * @param filter             the filter that matched the image
+     * @param image              the image that matched the filter
+     * @param previousImageIds   ids of the images the filter matched
+     *                           before, newest first, or <code>null</code>
+     */
+    public AwsAmiTriggerMatch(AwsAmiTriggerFilter filter, AwsAmiImage image, List<String> previousImageIds) {
+      this.filter = filter;
+      this.image = image;
+      this.previousImageIds = previousImageIds == null ? null : new ArrayList<String>(previousImageIds);
+    }
+
+    /**
+     * Gets image id.
+     * @return image id
+     */
+    public String getImageId() {
+      return image.getImageId();
+    }
+
+    /**
+     * Gets the filter that matched the image.
+     * @return the filter
+     */
+    public AwsAmiTriggerFilter getFilter() {
+      return filter;
+    }
+
+    /**
+     * Gets the image that matched the filter.
+     * @return snapshot of the image
+     */
+    public AwsAmiImage getImage() {
+      return image;
+    }
+
+    /**
+     * Gets the id of an image the filter matched before this one.
+     *
+     * @param n   number of images back, 1 for the previous image
+     * @return the image id or <code>null</code> if not known
+     */
+    public String getPreviousImageId(int n) {
+      if(previousImageIds == null || n < 1 || n > previousImageIds.size()) {
+        return null;
+      }
+      return previousImageIds.get(n - 1);
+    }
+
+    /**
+     * Gets the ids of the images the filter matched before this one.
+     * @return list of image ids, newest first
+     */
+    public List<String> getPreviousImageIds() {
+      return previousImageIds == null ? Collections.<String>emptyList() : Collections.unmodifiableList(previousImageIds);
+    }
+
+    /**
+     * Populates environment variables in the build environment.
+     *
+     * @param envVars   the environment variables
+     * @param suffix    suffix to add to environment variable names
+     */
+    public void populateEnvironment(Map<String, String> envVars, String suffix) {
+      populateEnvironment(envVars, suffix, false, false);
+    }
+
+    /**
+     * Populates the selected groups of environment variables in the build
+     * environment.
+     *
+     * @param envVars               the environment variables
+     * @param suffix                suffix to add to environment variable names
+     * @param excludeImageDetails   true to only add the id, name and creation
+     *                              date of the image
+     * @param excludeFilter         true to not add the filter values
+     */
+    public void populateEnvironment(Map<String, String> envVars, String suffix, boolean excludeImageDetails, boolean excludeFilter) {
+      putEnvVar(envVars, "awsAmiTriggerImageCreationDate", suffix, image.getCreationDate());
+      putEnvVar(envVars, "awsAmiTriggerImageId", suffix, image.getImageId());
+      putEnvVar(envVars, "awsAmiTriggerImageName", suffix, image.getName());
+
+      if(!excludeImageDetails) {
+        putEnvVar(envVars, "awsAmiTriggerImageArchitecture", suffix, image.getArchitecture());
+        putEnvVar(envVars, "awsAmiTriggerImageDescription", suffix, image.getDescription());
+        putEnvVar(envVars, "awsAmiTriggerImageHypervisor", suffix, image.getHypervisor());
+        putEnvVar(envVars, "awsAmiTriggerImageType", suffix, image.getImageType());
+        putEnvVar(envVars, "awsAmiTriggerImageOwnerAlias", suffix, image.getOwnerAlias());
+        putEnvVar(envVars, "awsAmiTriggerImageOwnerId", suffix, image.getOwnerId());
+        putEnvVar(envVars, "awsAmiTriggerImageProductCodes", suffix, image.getProductCodes());
+        putEnvVar(envVars, "awsAmiTriggerImageTags", suffix, image.getTags());
+        putEnvVar(envVars, "awsAmiTriggerImageIsPublic", suffix, image.getShared());
+        if(previousImageIds != null) {
+          putEnvVar(envVars, "awsAmiTriggerPreviousImageId", suffix, getPreviousImageId(1));
+          putEnvVar(envVars, "awsAmiTriggerPreviousImageIds", suffix, StringUtils.join(previousImageIds, ","));
+        }
+      }
+
+      if(!excludeFilter) {
+        putEnvVar(envVars, "awsAmiTriggerFilterArchitecture", suffix, filter.getArchitecture());
+        putEnvVar(envVars, "awsAmiTriggerFilterDescription", suffix, filter.getDescription());
+        putEnvVar(envVars, "awsAmiTriggerFilterName", suffix, filter.getName());
+        putEnvVar(envVars, "awsAmiTriggerFilterOwnerAlias", suffix, filter.getOwnerAlias());
+        putEnvVar(envVars, "awsAmiTriggerFilterOwnerId", suffix, filter.getOwnerId());
+        putEnvVar(envVars, "awsAmiTriggerFilterProductCode", suffix, filter.getProductCode());
+        putEnvVar(envVars, "awsAmiTriggerFilterTags", suffix, filter.getTags());
+        putEnvVar(envVars, "awsAmiTriggerFilterIsPublic", suffix, filter.getShared());
+      }
+    }
+
+    /**
+     * Populates the extra image metadata in the build environment.
+     *
+     * @param envVars   the environment variables
+     * @param suffix    suffix to add to environment variable names
+     * @param extras    the extra metadata or <code>null</code> if it could
+     *                  not be fetched
+     */
+    public void populateEnvironment(Map<String, String> envVars, String suffix, AwsAmiImageExtras extras) {
+      if(extras != null) {
+        putEnvVar(envVars, "awsAmiTriggerImageRootDeviceType", suffix, extras.getRootDeviceType());
+        putEnvVar(envVars, "awsAmiTriggerImageSnapshotIds", suffix, extras.getSnapshotIds());
+        putEnvVar(envVars, "awsAmiTriggerImageVolumeSizes", suffix, extras.getVolumeSizes());
+        putEnvVar(envVars, "awsAmiTriggerImageLaunchPermissions", suffix, extras.getLaunchPermissions());
+      }
+    }
+
+    /**
+     * Adds a boolean value to the environment - <code>true</code>, <code>false</code> or <code>null</code>.
+     *
+     * @param envVars   environment variables to populate
+     * @param name      name of environment variable
+     * @param suffix    suffix to add to name of environment variable
+     * @param value     boolean value of environment variable
+     */
+    private void putEnvVar(Map<String, String> envVars, String name, String suffix, Boolean value) {
+      putEnvVar(envVars, name, suffix, BooleanUtils.toString(value, "true", "false", null));
+    }
+
+    /**
+     * Adds a string value to the environment (or empty value for <code>null</code>).
+     *
+     * @param envVars   environment variables to populate
+     * @param name      name of environment variable
+     * @param suffix    suffix to add to name of environment variable
+     * @param value     string value of environment variable
+     */
+    private void putEnvVar(Map<String, String> envVars, String name, String suffix, String value) {
+      envVars.put(name+suffix, StringUtils.defaultString(value));
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.util.FormValidation;
+
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Controller-wide configuration for {@link AwsAmiTrigger}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiTriggerConfiguration extends GlobalConfiguration {
+
+  public static final int DEFAULT_CACHE_MAX_AGE_SECONDS = 60;
+  public static final int DEFAULT_POLL_TIMEOUT_SECONDS = 300;
+
+  private int maxConcurrentBuilds;
+  private int maxBuildsPerMinute;
+  private int cacheMaxAgeSeconds = -1;
+  private int pollTimeoutSeconds;
+
+  /**
+   * Creates a new {@link AwsAmiTriggerConfiguration} and loads the
+   * saved values.
+   */
+  public AwsAmiTriggerConfiguration() {
+    load();
+  }
+
+  /**
+   * Gets the {@link AwsAmiTriggerConfiguration} singleton.
+   * @return the configuration or <code>null</code> if Jenkins is not running
+   */
+  public static AwsAmiTriggerConfiguration get() {
+    final Jenkins jenkins = Jenkins.getInstance();
+    if(jenkins == null) {
+      return null;
+    }
+    return jenkins.getDescriptorByType(AwsAmiTriggerConfiguration.class);
+  }
+
+  /**
+   * Gets the maximum number of AMI triggered builds that may be queued or
+   * running at the same time.
+   * @return maximum concurrent builds (0 for no limit)
+   */
+  public int getMaxConcurrentBuilds() {
+    return maxConcurrentBuilds;
+  }
+
+  /**
+   * Sets the maximum number of AMI triggered builds that may be queued or
+   * running at the same time.
+   * @param maxConcurrentBuilds   maximum concurrent builds (0 for no limit)
+   */
+  @DataBoundSetter
+  public void setMaxConcurrentBuilds(int maxConcurrentBuilds) {
+    this.maxConcurrentBuilds = Math.max(0, maxConcurrentBuilds);
+  }
+
+  /**
+   * Gets the maximum number of AMI triggered builds that may be scheduled
+   * per minute.
+   * @return maximum builds per minute (0 for no limit)
+   */
+  public int getMaxBuildsPerMinute() {
+    return maxBuildsPerMinute;
+  }
+
+  /**
+   * Sets the maximum number of AMI triggered builds that may be scheduled
+   * per minute.
+   * @param maxBuildsPerMinute    maximum builds per minute (0 for no limit)
+   */
+  @DataBoundSetter
+  public void setMaxBuildsPerMinute(int maxBuildsPerMinute) {
+    this.maxBuildsPerMinute = Math.max(0, maxBuildsPerMinute);
+  }
+
+  /**
+   * Gets the default maximum age of the latest images served from the
+   * {@link AwsAmiImageCache}.
+   * @return maximum age in seconds (0 to always fetch)
+   */
+  public int getCacheMaxAgeSeconds() {
+    return cacheMaxAgeSeconds >= 0 ? cacheMaxAgeSeconds : DEFAULT_CACHE_MAX_AGE_SECONDS;
+  }
+
+  /**
+   * Sets the default maximum age of the latest images served from the
+   * {@link AwsAmiImageCache}.
+   * @param cacheMaxAgeSeconds    maximum age in seconds (0 to always fetch,
+   *                              -1 for the default)
+   */
+  @DataBoundSetter
+  public void setCacheMaxAgeSeconds(int cacheMaxAgeSeconds) {
+    this.cacheMaxAgeSeconds = cacheMaxAgeSeconds < 0 ? -1 : cacheMaxAgeSeconds;
+  }
+
+  /**
+   * Validates the <code>cacheMaxAgeSeconds</code>.
+   *
+   * @param value   maximum age in seconds
+   * @return FormValidation. ok if valid or FormValidation.error and an error
+   * message if invalid
+   */
+  public FormValidation doCheckCacheMaxAgeSeconds(@QueryParameter String value) {
+    return validateMaxAgeSeconds(value);
+  }
+
+  /**
+   * Validates a maximum age of cached images, which is a non-negative
+   * number of seconds or -1 (or empty) for the default.
+   *
+   * @param value   maximum age in seconds
+   * @return FormValidation. ok if valid or FormValidation.error and an error
+   * message if invalid
+   */
+  static FormValidation validateMaxAgeSeconds(String value) {
+    if(StringUtils.isBlank(value) || "-1".equals(value.trim())) {
+      return FormValidation.ok();
+    }
+    return FormValidation.validateNonNegativeInteger(value);
+  }
+
+  /**
+   * Gets the deadline of a trigger poll, after which the
+   * {@link AwsAmiPollWatchdog} abandons it.
+   * @return deadline in seconds
+   */
+  public int getPollTimeoutSeconds() {
+    return pollTimeoutSeconds > 0 ? pollTimeoutSeconds : DEFAULT_POLL_TIMEOUT_SECONDS;
+  }
+
+  /**
+   * Gets the deadline of a trigger poll from the global configuration.
+   * @return deadline in milliseconds
+   */
+  public static long getPollTimeoutMillis() {
+    final AwsAmiTriggerConfiguration configuration = get();
+    return TimeUnit.SECONDS.toMillis(configuration == null
+      ? DEFAULT_POLL_TIMEOUT_SECONDS : configuration.getPollTimeoutSeconds());
+  }
+
+  /**
+   * Sets the deadline of a trigger poll.
+   * @param pollTimeoutSeconds    deadline in seconds (0 for the default)
+   */
+  @DataBoundSetter
+  public void setPollTimeoutSeconds(int pollTimeoutSeconds) {
+    this.pollTimeoutSeconds = Math.max(0, pollTimeoutSeconds);
+  }
+
+  /**
+   * Saves the configuration submitted from the global configuration page.
+   *
+   * @param req      the request
+   * @param json     the submitted form data
+   * @return true to indicate the configuration was accepted
+   * @throws FormException if the form data is invalid
+   */
+  @Override
+  public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+    req.bindJSON(this, json);
+    save();
+    return true;
+  }
+
+  /**
+   * Returns the configuration display name.
+   * @return a one line description of the configuration
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.ConfigurationDisplayName();
+  }
+}
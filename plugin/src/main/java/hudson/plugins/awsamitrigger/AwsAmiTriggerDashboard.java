@@ -0,0 +1,524 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import hudson.Extension;
+import hudson.model.BuildableItem;
+import hudson.model.ManagementLink;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Management page listing every started {@link AwsAmiTrigger} with its
+ * live polling status. Rows are built from the triggers and their
+ * {@link AwsAmiTriggerStatus} in memory, without loading any job
+ * configuration, and can be searched, sorted and paged.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@Extension
+public final class AwsAmiTriggerDashboard extends ManagementLink {
+
+  public static final int PAGE_SIZE = 50;
+
+  /**
+   * Gets the icon file name.
+   * @return icon of the link
+   */
+  @Override
+  public String getIconFileName() {
+    return "clock.png";
+  }
+
+  /**
+   * Gets the display name.
+   * @return display name of the link
+   */
+  @Override
+  public String getDisplayName() {
+    return Messages.DashboardDisplayName();
+  }
+
+  /**
+   * Gets the description shown on the manage page.
+   * @return description of the link
+   */
+  @Override
+  public String getDescription() {
+    return Messages.DashboardDescription();
+  }
+
+  /**
+   * Gets the URL name.
+   * @return URL of the page relative to the manage page
+   */
+  @Override
+  public String getUrlName() {
+    return "aws-ami-triggers";
+  }
+
+  /**
+   * Gets a page of the started triggers.
+   *
+   * @param query   text to search for or empty for all triggers
+   * @param sort    column to sort by (job, region, lastPoll, duration,
+   *                calls, errors, breaker or next)
+   * @param order   <code>desc</code> for descending order
+   * @param page    page number, starting at 1
+   * @return the page
+   */
+  public Page getPage(String query, String sort, String order, String page) {
+    final long now = System.currentTimeMillis();
+    final List<Row> rows = new ArrayList<Row>();
+    for(AwsAmiTrigger trigger : AwsAmiTrigger.getRunningTriggers()) {
+      final BuildableItem item = trigger.getItem();
+      if(item != null) {
+        rows.add(new Row(item, trigger, now));
+      }
+    }
+    return getPage(rows, query, sort, order, page);
+  }
+
+  /**
+   * Searches, sorts and pages rows.
+   *
+   * @param rows    the rows
+   * @param query   text to search for or empty for all rows
+   * @param sort    column to sort by
+   * @param order   <code>desc</code> for descending order
+   * @param page    page number, starting at 1
+   * @return the page
+   */
+  static Page getPage(Collection<Row> rows, String query, String sort, String order, String page) {
+    final String text = StringUtils.trimToEmpty(query).toLowerCase(Locale.ENGLISH);
+    final List<Row> matches = new ArrayList<Row>();
+    for(Row row : rows) {
+      if(text.isEmpty() || row.matches(text)) {
+        matches.add(row);
+      }
+    }
+
+    final String column = StringUtils.defaultIfEmpty(sort, "job");
+    final boolean descending = "desc".equals(order);
+    Comparator<Row> comparator = getComparator(column);
+    if(descending) {
+      comparator = Collections.reverseOrder(comparator);
+    }
+    Collections.sort(matches, comparator);
+
+    final int pages = Math.max(1, (matches.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    int number = 1;
+    if(StringUtils.isNumeric(page) && !StringUtils.isEmpty(page)) {
+      number = Math.min(pages, Math.max(1, Integer.parseInt(page)));
+    }
+    final int from = (number - 1) * PAGE_SIZE;
+    final int to = Math.min(matches.size(), from + PAGE_SIZE);
+    return new Page(new ArrayList<Row>(matches.subList(from, to)), matches.size(), number, pages,
+      StringUtils.trimToEmpty(query), column, descending ? "desc" : "asc");
+  }
+
+  /**
+   * Gets the comparator of a column, breaking ties by job name.
+   *
+   * @param column   the column
+   * @return the comparator
+   */
+  private static Comparator<Row> getComparator(final String column) {
+    return new Comparator<Row>() {
+      @Override
+      public int compare(Row row1, Row row2) {
+        int result;
+        switch(column) {
+          case "region":
+            result = StringUtils.defaultString(row1.getRegionName()).compareTo(StringUtils.defaultString(row2.getRegionName()));
+            break;
+          case "lastPoll":
+            result = compareLongs(row1.lastPoll, row2.lastPoll);
+            break;
+          case "duration":
+            result = compareLongs(row1.getLastPollDuration(), row2.getLastPollDuration());
+            break;
+          case "calls":
+            result = compareLongs(row1.getCallsPerHour(), row2.getCallsPerHour());
+            break;
+          case "errors":
+            result = compareLongs(row1.getErrors(), row2.getErrors());
+            break;
+          case "breaker":
+            result = row1.getBreakerState().compareTo(row2.getBreakerState());
+            break;
+          case "next":
+            result = compareLongs(row1.nextPoll, row2.nextPoll);
+            break;
+          default:
+            result = 0;
+        }
+        return result != 0 ? result : row1.getJobName().compareTo(row2.getJobName());
+      }
+    };
+  }
+
+  /**
+   * Compares two longs.
+   *
+   * @param value1   the first value
+   * @param value2   the second value
+   * @return negative, zero or positive as <code>value1</code> is less than,
+   * equal to or greater than <code>value2</code>
+   */
+  private static int compareLongs(long value1, long value2) {
+    return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+  }
+
+  /**
+   * Describes the non-empty values of a filter.
+   *
+   * @param filter   the filter
+   * @return description of the filter
+   */
+  static String describe(AwsAmiTriggerFilter filter) {
+    final List<String> values = new ArrayList<String>();
+    addValue(values, "name", filter.getName());
+    addValue(values, "description", filter.getDescription());
+    addValue(values, "tags", filter.getTags());
+    addValue(values, "architecture", filter.getArchitecture());
+    addValue(values, "ownerAlias", filter.getOwnerAlias());
+    addValue(values, "ownerId", filter.getOwnerId());
+    addValue(values, "productCode", filter.getProductCode());
+    addValue(values, "shared", filter.getShared());
+    if(filter.getTopK() > 1) {
+      values.add("latest=" + filter.getTopK());
+    }
+    return StringUtils.join(values, ", ");
+  }
+
+  /**
+   * Adds a filter value to a description if it is set.
+   *
+   * @param values   the description values
+   * @param name     the name of the value
+   * @param value    the value
+   */
+  private static void addValue(List<String> values, String name, String value) {
+    if(!StringUtils.isEmpty(value) && !AwsAmiTriggerFilter.ANY.equals(value)) {
+      values.add(name + "=" + value);
+    }
+  }
+
+  /**
+   * A page of triggers.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Page {
+    private final List<Row> rows;
+    private final int total;
+    private final int number;
+    private final int pages;
+    private final String query;
+    private final String sort;
+    private final String order;
+
+    /**
+     * Creates a new {@link Page}.
+     *
+     * @param rows     the rows of the page
+     * @param total    number of rows matching the query
+     * @param number   the page number, starting at 1
+     * @param pages    number of pages
+     * @param query    the query
+     * @param sort     the sort column
+     * @param order    the sort order (asc|desc)
+     */
+    Page(List<Row> rows, int total, int number, int pages, String query, String sort, String order) {
+      this.rows = rows;
+      this.total = total;
+      this.number = number;
+      this.pages = pages;
+      this.query = query;
+      this.sort = sort;
+      this.order = order;
+    }
+
+    /**
+     * Gets the rows of the page.
+     * @return the rows
+     */
+    public List<Row> getRows() {
+      return rows;
+    }
+
+    /**
+     * Gets the number of rows matching the query.
+     * @return number of rows
+     */
+    public int getTotal() {
+      return total;
+    }
+
+    /**
+     * Gets the page number.
+     * @return page number, starting at 1
+     */
+    public int getNumber() {
+      return number;
+    }
+
+    /**
+     * Gets the number of pages.
+     * @return number of pages
+     */
+    public int getPages() {
+      return pages;
+    }
+
+    /**
+     * Gets the query.
+     * @return the query
+     */
+    public String getQuery() {
+      return query;
+    }
+
+    /**
+     * Gets the sort column.
+     * @return the column
+     */
+    public String getSort() {
+      return sort;
+    }
+
+    /**
+     * Gets the sort order.
+     * @return asc or desc
+     */
+    public String getOrder() {
+      return order;
+    }
+  }
+
+  /**
+   * A snapshot of the status of a trigger.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  public static final class Row {
+    private final String jobName;
+    private final String jobUrl;
+    private final String credentialsId;
+    private final String regionName;
+    private final List<String> filters = new ArrayList<String>();
+    private final long lastPoll;
+    private final long lastPollDuration;
+    private final String lastImageId;
+    private final int callsPerHour;
+    private final long errors;
+    private final String lastError;
+    private final AwsAmiTriggerStatus.BreakerState breakerState;
+    private final long nextPoll;
+
+    /**
+     * Creates a new {@link Row}.
+     *
+     * @param item      the job
+     * @param trigger   the trigger of the job
+     * @param now       the current time
+     */
+    Row(BuildableItem item, AwsAmiTrigger trigger, long now) {
+      final AwsAmiTriggerStatus status = trigger.getStatus();
+      final Date next = trigger.getNextPoll();
+      this.jobName = item.getFullName();
+      this.jobUrl = item.getUrl();
+      this.credentialsId = trigger.getCredentialsId();
+      this.regionName = trigger.getRegionName();
+      for(AwsAmiTriggerFilter filter : trigger.getFilters()) {
+        filters.add(describe(filter));
+      }
+      this.lastPoll = status.getLastPoll();
+      this.lastPollDuration = status.getLastPollDuration();
+      this.lastImageId = status.getLastImageId();
+      this.callsPerHour = status.getCallsPerHour(now);
+      this.errors = status.getErrors();
+      this.lastError = status.getLastError();
+      this.breakerState = status.getBreakerState(now);
+      this.nextPoll = next == null ? Long.MAX_VALUE : next.getTime();
+    }
+
+    /**
+     * Creates a new {@link Row} from values.
+     *
+     * @param jobName        full name of the job
+     * @param regionName     AWS region name
+     * @param lastPoll       start time of the last poll
+     * @param callsPerHour   DescribeImages calls in the last hour
+     * @param errors         number of failed polls
+     */
+    Row(String jobName, String regionName, long lastPoll, int callsPerHour, long errors) {
+      this.jobName = jobName;
+      this.jobUrl = null;
+      this.credentialsId = null;
+      this.regionName = regionName;
+      this.lastPoll = lastPoll;
+      this.lastPollDuration = 0;
+      this.lastImageId = null;
+      this.callsPerHour = callsPerHour;
+      this.errors = errors;
+      this.lastError = null;
+      this.breakerState = AwsAmiTriggerStatus.BreakerState.CLOSED;
+      this.nextPoll = Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether the row contains a search text.
+     *
+     * @param text   lower case search text
+     * @return true if the job, credentials, region, filters or last image
+     * contain the text
+     */
+    boolean matches(String text) {
+      final StringBuilder values = new StringBuilder();
+      values.append(jobName).append('\n').append(credentialsId).append('\n').append(regionName).append('\n').append(lastImageId);
+      for(String filter : filters) {
+        values.append('\n').append(filter);
+      }
+      return values.toString().toLowerCase(Locale.ENGLISH).contains(text);
+    }
+
+    /**
+     * Gets the job name.
+     * @return full name of the job
+     */
+    public String getJobName() {
+      return jobName;
+    }
+
+    /**
+     * Gets the job URL.
+     * @return URL of the job relative to the Jenkins root
+     */
+    public String getJobUrl() {
+      return jobUrl;
+    }
+
+    /**
+     * Gets AWS credentials identifier.
+     * @return AWS credentials identifier
+     */
+    public String getCredentialsId() {
+      return credentialsId;
+    }
+
+    /**
+     * Gets AWS region name.
+     * @return AWS region name
+     */
+    public String getRegionName() {
+      return regionName;
+    }
+
+    /**
+     * Gets the descriptions of the filters.
+     * @return filter descriptions
+     */
+    public List<String> getFilters() {
+      return filters;
+    }
+
+    /**
+     * Gets the start time of the last poll.
+     * @return the last poll or <code>null</code> if the trigger has not
+     * polled since startup
+     */
+    public Date getLastPoll() {
+      return lastPoll == 0 ? null : new Date(lastPoll);
+    }
+
+    /**
+     * Gets the duration of the last poll.
+     * @return duration in milliseconds
+     */
+    public long getLastPollDuration() {
+      return lastPollDuration;
+    }
+
+    /**
+     * Gets the newest matched image.
+     * @return image id or <code>null</code>
+     */
+    public String getLastImageId() {
+      return lastImageId;
+    }
+
+    /**
+     * Gets the DescribeImages calls in the last hour.
+     * @return number of calls
+     */
+    public int getCallsPerHour() {
+      return callsPerHour;
+    }
+
+    /**
+     * Gets the number of failed polls.
+     * @return number of errors
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * Gets the last failure.
+     * @return the failure or <code>null</code>
+     */
+    public String getLastError() {
+      return lastError;
+    }
+
+    /**
+     * Gets the circuit breaker state.
+     * @return the breaker state
+     */
+    public AwsAmiTriggerStatus.BreakerState getBreakerState() {
+      return breakerState;
+    }
+
+    /**
+     * Gets the next scheduled poll.
+     * @return the next poll or <code>null</code> if unknown
+     */
+    public Date getNextPoll() {
+      return nextPoll == Long.MAX_VALUE ? null : new Date(nextPoll);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Properties;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.FormValidation;
+
+import jenkins.tasks.SimpleBuildStep;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Build step that writes all the {@link AwsAmiTriggerCause} environment
+ * variables to a file in the workspace. This makes the full details of the
+ * matched images available to builds that exclude them from the
+ * environment.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerDetailsBuilder extends Builder implements SimpleBuildStep {
+
+  public static final String DEFAULT_FILE = "aws-ami-trigger.properties";
+
+  private final String file;
+
+  /**
+   * Creates a new {@link AwsAmiTriggerDetailsBuilder}.
+   *
+   * @param file   workspace relative path of the file to write; a
+   *               <code>.json</code> extension writes JSON, anything else
+   *               writes a properties file
+   */
+  @DataBoundConstructor
+  public AwsAmiTriggerDetailsBuilder(String file) {
+    this.file = StringUtils.defaultIfEmpty(StringUtils.trim(file), DEFAULT_FILE);
+  }
+
+  /**
+   * Gets the file name.
+   * @return workspace relative path of the file to write
+   */
+  public String getFile() {
+    return file;
+  }
+
+  /**
+   * Writes the details of the matched images to the workspace.
+   *
+   * @param run         the run in progress
+   * @param workspace   the workspace
+   * @param launcher    the launcher
+   * @param listener    task listener
+   * @throws InterruptedException if interrupted while writing
+   * @throws IOException if the file could not be written or is not inside
+   * the workspace
+   */
+  @Override
+  public void perform(Run<?,?> run, FilePath workspace, Launcher launcher, TaskListener listener)
+      throws InterruptedException, IOException {
+    if(!isInsideWorkspace(file)) {
+      throw new AbortException(Messages.InvalidDetailsFile());
+    }
+
+    final AwsAmiTriggerCause cause = run.getCause(AwsAmiTriggerCause.class);
+    if(cause == null) {
+      listener.getLogger().println(Messages.NotTriggeredByAmi());
+      return;
+    }
+
+    final Map<String, String> environment = cause.getFullEnvironment();
+    final String content;
+    if(file.toLowerCase().endsWith(".json")) {
+      content = JSONObject.fromObject(environment).toString(2);
+    } else {
+      final Properties properties = new Properties();
+      properties.putAll(environment);
+      final StringWriter writer = new StringWriter();
+      properties.store(writer, null);
+      content = writer.toString();
+    }
+    workspace.child(file).write(content, "UTF-8");
+    listener.getLogger().println(Messages.WroteDetails(file));
+  }
+
+  /**
+   * Checks that a path stays inside the directory it is relative to: it is
+   * not absolute and its <code>..</code> segments never climb above the
+   * directory.
+   *
+   * @param path   workspace relative path
+   * @return true if the path resolves inside the workspace
+   */
+  static boolean isInsideWorkspace(String path) {
+    if(StringUtils.isEmpty(path) || path.startsWith("/") || path.startsWith("\\") || path.matches("^[A-Za-z]:.*")) {
+      return false;
+    }
+    int depth = 0;
+    for(String segment : path.split("[/\\\\]")) {
+      if(segment.equals("..")) {
+        if(--depth < 0) {
+          return false;
+        }
+      } else if(segment.length() > 0 && !segment.equals(".")) {
+        depth++;
+      }
+    }
+    return depth > 0;
+  }
+
+  /**
+   * A Jenkins <code>BuildStepDescriptor</code> for the
+   * {@link AwsAmiTriggerDetailsBuilder}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class AwsAmiTriggerDetailsBuilderDescriptor extends BuildStepDescriptor<Builder> {
+
+    /**
+     * Returns the applicability of this build step.
+     * @return true for all projects
+     */
+    @Override
+    public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+      return true;
+    }
+
+    /**
+     * Returns the build step display name.
+     * @return a one line description of the {@link AwsAmiTriggerDetailsBuilder}
+     */
+    @Override
+    public String getDisplayName() {
+      return Messages.DetailsDisplayName();
+    }
+
+    /**
+     * Validates the <code>file</code>.
+     *
+     * @param value   workspace relative path of the file to write
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckFile(@QueryParameter String value) {
+      if(!isInsideWorkspace(StringUtils.defaultIfEmpty(StringUtils.trim(value), DEFAULT_FILE))) {
+        return FormValidation.error(Messages.InvalidDetailsFile());
+      }
+      return FormValidation.ok();
+    }
+  }
+}
@@ -53,7 +53,9 @@ public final class AwsAmiTriggerEnvironmentContributor extends EnvironmentContri
   }
 
   /**
-   * Populates environment variables in the build environment.
+   * Populates environment variables in the build environment. Runs that
+   * were not caused by {@link AwsAmiTrigger} are left untouched; for the
+   * others the cached variables of the cause are copied in bulk.
    *
    * @param run             the run in progress
    * @param envVars         the environment variables
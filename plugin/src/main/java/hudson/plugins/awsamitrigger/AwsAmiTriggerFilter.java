@@ -23,23 +23,21 @@
   */
 package hudson.plugins.awsamitrigger;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import com.amazonaws.services.ec2.model.Filter;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
+import hudson.util.FormValidation;
 
 import jenkins.model.Jenkins;
 
@@ -50,9 +48,8 @@ import jenkins.model.Jenkins;
  *
  */
 public final class AwsAmiTriggerFilter extends AbstractDescribableImpl<AwsAmiTriggerFilter> {
-  public static final String ANY = "- any -";
-
-  private static final Logger LOGGER = Logger.getLogger(AwsAmiTriggerFilter.class.getName());
+  public static final String ANY = AwsAmiImageQuery.ANY;
+  public static final int MAX_TOP_K = 100;
 
   private final String architecture;
   private final String description;
@@ -62,6 +59,7 @@ public final class AwsAmiTriggerFilter extends AbstractDescribableImpl<AwsAmiTri
   private final String productCode;
   private final String tags;
   private final String shared;
+  private int topK;
 
   /**
    * Creates a new {@link AwsAmiTriggerFilter}.
@@ -151,61 +149,67 @@ public final class AwsAmiTriggerFilter extends AbstractDescribableImpl<AwsAmiTri
     return shared;
   }
 
+  /**
+   * Gets the number of latest images the filter tracks. The trigger fires
+   * when the set of latest images changes.
+   * @return number of latest images, at least 1
+   */
+  public int getTopK() {
+    return Math.min(MAX_TOP_K, Math.max(1, topK));
+  }
+
+  /**
+   * Sets the number of latest images the filter tracks.
+   * @param topK   number of latest images (1 for only the latest image, at
+   *               most {@link #MAX_TOP_K})
+   */
+  @DataBoundSetter
+  public void setTopK(int topK) {
+    this.topK = Math.min(MAX_TOP_K, Math.max(1, topK));
+  }
+
+  /**
+   * Gets a key that identifies the values of the filter. Filters with the
+   * same values have the same key. The key of a filter that tracks only
+   * the latest image does not include the number of latest images, so it
+   * is the same as before top-K mode was added.
+   *
+   * @return key for the filter values
+   */
+  public String getKey() {
+    return toString();
+  }
+
+  /**
+   * Converts {@link AwsAmiTriggerFilter} into an {@link AwsAmiImageQuery}
+   * with the same key.
+   *
+   * @return the query
+   */
+  public AwsAmiImageQuery toQuery() {
+    return new AwsAmiImageQuery(getKey(), architecture, description, name, ownerAlias, ownerId, productCode, tags, shared, getTopK());
+  }
+
   /**
    * Converts {@link AwsAmiTriggerFilter} into a Collection of
    * AWS spec <code>Filter</code> objects.
    *
-   * <p>Any filters that are empty are ignored or set to -any- are
-   * ignored. A filter of <code>state=available</code> is always added.
-   * Tags are parsed and added as individual <code>Filter</code> objects.</p>
-   *
    * @return Collection of Filter objects
+   * @see AwsAmiImageQuery#toAWSFilters()
    */
   public Collection<Filter> toAWSFilters() {
-    Collection<Filter> filters = new ArrayList<Filter>();
-    filters.add(new Filter("state", Collections.singletonList("available")));
-    if(!StringUtils.isEmpty(architecture) && !ANY.equals(architecture)) {
-      filters.add(new Filter("architecture", Collections.singletonList(architecture)));
-    }
-    if(!StringUtils.isEmpty(description)) {
-      filters.add(new Filter("description", Collections.singletonList(description)));
-    }
-    if(!StringUtils.isEmpty(name)) {
-      filters.add(new Filter("name", Collections.singletonList(name)));
-    }
-    if(!StringUtils.isEmpty(ownerAlias) && !ANY.equals(ownerAlias)) {
-      filters.add(new Filter("owner-alias", Collections.singletonList(ownerAlias)));
-    }
-    if(!StringUtils.isEmpty(ownerId)) {
-      filters.add(new Filter("owner-id", Collections.singletonList(ownerId)));
-    }
-    if(!StringUtils.isEmpty(productCode)) {
-      filters.add(new Filter("product-code", Collections.singletonList(productCode)));
-    }
-    if(!StringUtils.isEmpty(tags)) {
-      for(String tag : tags.split(";")) {
-        String[] nv = tag.split("=",2);
-        if(nv.length != 2) {
-          LOGGER.log(Level.WARNING, "Invalid tags specification {0}", nv);
-        } else {
-          filters.add(new Filter("tag:"+nv[0],Collections.singletonList(nv[1])));
-        }
-      }
-    }
-    if(!StringUtils.isEmpty(shared) && !ANY.equals(shared)) {
-      filters.add(new Filter("is-public", Collections.singletonList(shared)));
-    }
-    return filters;
+    return toQuery().toAWSFilters();
   }
 
   /**
    * Converts {@link AwsAmiTriggerFilter} into a <code>String</code>
    * representation.
    *
-   * @return string containing all fields
+   * @return string containing all fields, and the number of latest images
+   * if more than one
    */
   public String toString() {
-    return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+    final ToStringBuilder builder = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
       .append("architecture", architecture)
       .append("description", description)
       .append("name", name)
@@ -213,7 +217,11 @@ public final class AwsAmiTriggerFilter extends AbstractDescribableImpl<AwsAmiTri
       .append("ownerId", ownerId)
       .append("productCode", productCode)
       .append("tags", tags)
-      .append("shared", shared).toString();
+      .append("shared", shared);
+    if(getTopK() > 1) {
+      builder.append("topK", getTopK());
+    }
+    return builder.toString();
   }
 
   /**
@@ -233,5 +241,20 @@ public final class AwsAmiTriggerFilter extends AbstractDescribableImpl<AwsAmiTri
     public String getDisplayName() {
       return "";
     }
+
+    /**
+     * Validates the <code>topK</code>.
+     *
+     * @param value          number of latest images
+     * @return FormValidation. ok if valid or FormValidation.error and an error
+     * message otherwise
+     */
+    public FormValidation doCheckTopK(@QueryParameter String value) {
+      final FormValidation validation = FormValidation.validatePositiveInteger(value);
+      if(validation.kind == FormValidation.Kind.OK && Integer.parseInt(value) > MAX_TOP_K) {
+        return FormValidation.error(Messages.TopKTooLarge(MAX_TOP_K));
+      }
+      return validation;
+    }
   }
 }
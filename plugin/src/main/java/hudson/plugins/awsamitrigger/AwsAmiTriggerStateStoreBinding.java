@@ -0,0 +1,160 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.PeriodicWork;
+import hudson.model.listeners.ItemListener;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Binds the {@link AwsAmiTriggerStateStore} to Jenkins: the store lives in
+ * the Jenkins root directory, is flushed periodically and on shutdown and
+ * follows renamed and deleted jobs.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiTriggerStateStoreBinding {
+
+  static final String FILE_NAME = "aws-ami-trigger-state.bin";
+
+  /**
+   * Prevents instantiation.
+   */
+  private AwsAmiTriggerStateStoreBinding() {
+  }
+
+  /**
+   * Installs the store in the Jenkins root directory before jobs, and so
+   * their triggers, are loaded.
+   */
+  @Initializer(after = InitMilestone.PLUGINS_STARTED, before = InitMilestone.JOB_LOADED)
+  public static void install() {
+    final Jenkins jenkins = Jenkins.getInstance();
+    if(jenkins != null) {
+      AwsAmiTriggerStateStore.set(AwsAmiTriggerStateStore.open(new File(jenkins.getRootDir(), FILE_NAME)));
+    }
+  }
+
+  /**
+   * Flushes the store, recording the time taken and any failure in the
+   * {@link AwsAmiMetrics}.
+   */
+  static void flush() {
+    final AwsAmiTriggerStateStore store = AwsAmiTriggerStateStore.get();
+    if(!store.isDirty()) {
+      return;
+    }
+
+    final long start = System.nanoTime();
+    try {
+      if(!store.flush()) {
+        AwsAmiMetrics.get().getStore().recordError();
+      }
+    } finally {
+      AwsAmiMetrics.get().getStore().recordSince(AwsAmiMetrics.Phase.SAVE, start);
+    }
+  }
+
+  /**
+   * Flushes the store when Jenkins shuts down.
+   */
+  @Terminator
+  public static void flushOnShutdown() {
+    flush();
+  }
+
+  /**
+   * Periodically flushes the {@link AwsAmiTriggerStateStore}.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class Flusher extends PeriodicWork {
+
+    /**
+     * Returns how often the store is flushed.
+     * @return recurrence period in milliseconds
+     */
+    @Override
+    public long getRecurrencePeriod() {
+      return TimeUnit.SECONDS.toMillis(15);
+    }
+
+    /**
+     * Flushes the store.
+     */
+    @Override
+    protected void doRun() {
+      flush();
+    }
+  }
+
+  /**
+   * Keeps the {@link AwsAmiTriggerStateStore} and the in-memory trigger
+   * statuses in step with renamed and deleted jobs.
+   *
+   * @author Rik Turnbull
+   *
+   */
+  @Extension
+  public static final class ItemListenerImpl extends ItemListener {
+
+    /**
+     * Moves the state, status and metrics of a renamed or moved job.
+     *
+     * @param item          the job
+     * @param oldFullName   full name before the change
+     * @param newFullName   full name after the change
+     */
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+      AwsAmiTriggerStateStore.get().moveState(oldFullName, newFullName);
+      AwsAmiTrigger.moveStatus(oldFullName, newFullName);
+      AwsAmiMetrics.get().moveTrigger(oldFullName, newFullName);
+    }
+
+    /**
+     * Removes the state, status and metrics of a deleted job.
+     *
+     * @param item          the job
+     */
+    @Override
+    public void onDeleted(Item item) {
+      AwsAmiTriggerStateStore.get().removeState(item.getFullName());
+      AwsAmiTrigger.removeStatus(item.getFullName());
+      AwsAmiMetrics.get().removeTrigger(item.getFullName());
+    }
+  }
+}
@@ -0,0 +1,455 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeImageAttributeRequest;
+import com.amazonaws.services.ec2.model.DescribeImageAttributeResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.LaunchPermission;
+
+import com.cloudbees.jenkins.plugins.awscredentials.AWSCredentialsHelper;
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+
+import hudson.ProxyConfiguration;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * AWS EC2 client.
+ *
+ * @author Rik Turnbull
+ *
+ */
+public class EC2Service implements AwsAmiImageSource {
+  private static final Logger LOGGER = Logger.getLogger(EC2Service.class.getName());
+
+  /**
+   * System property holding an EC2 endpoint URL to use instead of the
+   * endpoint of the region, for example a local emulator.
+   */
+  public static final String ENDPOINT_PROPERTY = EC2Service.class.getName() + ".endpoint";
+
+  /**
+   * System property holding a directory that DescribeImages responses are
+   * recorded to.
+   */
+  public static final String RECORD_PROPERTY = EC2Service.class.getName() + ".record";
+
+  /**
+   * System property holding a directory of recorded DescribeImages
+   * responses to replay instead of calling EC2.
+   */
+  public static final String REPLAY_PROPERTY = EC2Service.class.getName() + ".replay";
+
+  /**
+   * The maximum number of shared services. The least recently used service
+   * is dropped when a new credentials and region is looked up.
+   */
+  static final int MAX_SERVICES = 64;
+
+  private static final Map<String, EC2Service> SERVICES = new LinkedHashMap<String, EC2Service>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, EC2Service> eldest) {
+      return size() > MAX_SERVICES;
+    }
+  };
+
+  private AmazonEC2Client client;
+
+  private String credentialsId;
+  private String regionName;
+  private AmazonWebServicesCredentials credentials;
+  private boolean resolved;
+  private AwsAmiMetrics.Scope metrics;
+
+  /**
+   * Creates a new {@link EC2Service}.
+   *
+   * @param credentialsId  AWS credentials identifier
+   * @param regionName     AWS region name
+   */
+  public EC2Service(String credentialsId, String regionName) {
+    super();
+    this.credentialsId = credentialsId;
+    this.regionName = regionName;
+    this.metrics = AwsAmiMetrics.get().getSource(credentialsId, regionName);
+  }
+
+  /**
+   * Creates a new {@link EC2Service} that uses credentials the caller has
+   * already looked up.
+   *
+   * @param credentialsId  AWS credentials identifier
+   * @param regionName     AWS region name
+   * @param credentials    the credentials of <code>credentialsId</code>, or
+   *                       <code>null</code> to use the default AWS credentials
+   */
+  public EC2Service(String credentialsId, String regionName, AmazonWebServicesCredentials credentials) {
+    this(credentialsId, regionName);
+    this.credentials = credentials;
+    this.resolved = true;
+  }
+
+  /**
+   * Gets the shared {@link EC2Service} of a credentials and region, looking
+   * up the credentials in the Jenkins root.
+   *
+   * @param credentialsId  AWS credentials identifier
+   * @param regionName     AWS region name
+   * @return the service
+   */
+  public static EC2Service get(String credentialsId, String regionName) {
+    return get(credentialsId, regionName, getAWSCredentials(credentialsId));
+  }
+
+  /**
+   * Gets the shared {@link EC2Service} of a credentials and region. The
+   * service is replaced if it was created with other credentials, so a
+   * secret that is updated under the same identifier is picked up.
+   *
+   * @param credentialsId  AWS credentials identifier
+   * @param regionName     AWS region name
+   * @param credentials    the credentials of <code>credentialsId</code>
+   * @return the service
+   */
+  public static EC2Service get(String credentialsId, String regionName, AmazonWebServicesCredentials credentials) {
+    final String key = getKey(credentialsId, regionName);
+    synchronized(SERVICES) {
+      EC2Service service = SERVICES.get(key);
+      if(service == null || service.credentials != credentials) {
+        service = new EC2Service(credentialsId, regionName, credentials);
+        SERVICES.put(key, service);
+      }
+      return service;
+    }
+  }
+
+  /**
+   * Gets a key that identifies the credentials and region of the service.
+   * @return <code>credentialsId|regionName</code>
+   */
+  @Override
+  public String getKey() {
+    return getKey(credentialsId, regionName);
+  }
+
+  /**
+   * Gets the source key of a credentials and region.
+   *
+   * @param credentialsId  AWS credentials identifier
+   * @param regionName     AWS region name
+   * @return <code>credentialsId|regionName</code>
+   */
+  public static String getKey(String credentialsId, String regionName) {
+    return credentialsId + "|" + regionName;
+  }
+
+  /**
+   * Returns an {@link AmazonEC2Client}.
+   * @return {@link AmazonEC2Client} singleton using the <code>credentialsId</code>
+   * and <code>regionName</code>
+   */
+  private synchronized AmazonEC2Client getAmazonEC2Client() {
+    if(client == null) {
+      final long start = System.nanoTime();
+      ClientConfiguration clientConfiguration = new ClientConfiguration();
+      clientConfiguration.setClientExecutionTimeout((int) Math.min(Integer.MAX_VALUE, AwsAmiTriggerConfiguration.getPollTimeoutMillis()));
+      Jenkins jenkins = Jenkins.getInstance();
+      if(jenkins != null) {
+        ProxyConfiguration proxy = jenkins.proxy;
+        if(proxy != null) {
+          clientConfiguration.setProxyHost(proxy.name);
+          clientConfiguration.setProxyPort(proxy.port);
+          clientConfiguration.setProxyUsername(proxy.getUserName());
+          clientConfiguration.setProxyPassword(proxy.getPassword());
+        }
+      }
+
+      final long credentialsStart = System.nanoTime();
+      if(!resolved) {
+        credentials = getAWSCredentials(credentialsId);
+        resolved = true;
+      }
+      final long credentialsTime = System.nanoTime() - credentialsStart;
+      record(AwsAmiMetrics.Phase.CREDENTIALS, credentialsTime);
+      if(credentials == null) {
+        client = new AmazonEC2Client(clientConfiguration);
+      } else {
+        client = new AmazonEC2Client(credentials, clientConfiguration);
+      }
+      client.setRegion(getRegion(regionName));
+      final String endpoint = System.getProperty(ENDPOINT_PROPERTY);
+      if(!StringUtils.isEmpty(endpoint)) {
+        client.setEndpoint(endpoint);
+      }
+      record(AwsAmiMetrics.Phase.CLIENT, System.nanoTime() - start - credentialsTime);
+    }
+    return client;
+  }
+
+  /**
+   * Gets AWS region.
+   *
+   * @param regionName AWS region name
+   * @return AWS region for <code>regionName</code> or US_EAST_1
+   */
+  private Region getRegion(String regionName) {
+    Region region = RegionUtils.getRegion(regionName);
+    if(region == null) {
+      region = Region.getRegion(Regions.US_EAST_1);
+    }
+    return region;
+  }
+
+  /**
+   * Gets AWS credentials.
+   *
+   * @param credentialsId Jenkins credentials identifier
+   * @return AWS credentials for <code>credentialsId</code> that can be used
+   * for AWS calls, or <code>null</code> to use the default AWS credentials
+   * if Jenkins is not running
+   */
+  private static AmazonWebServicesCredentials getAWSCredentials(String credentialsId) {
+    final Jenkins jenkins = Jenkins.getInstance();
+    return jenkins == null ? null : AWSCredentialsHelper.getCredentials(credentialsId, jenkins);
+  }
+
+  /**
+   * Fetches a list of images matching the supplied <code>filters</code>. The
+   * list is returned sorted by <code>creationDate</code> with the newest
+   * item at the beginning of the list.
+   *
+   * @param filters   collection of AWS <code>Filter</code>
+   * @return a list of AWS images sorted in reverse order by <code>creationDate</code>
+   */
+  public List<Image> describeImages(Collection<Filter> filters) {
+    final DescribeImagesRequest request = new DescribeImagesRequest();
+    request.setFilters(filters);
+
+    final List<Image> images = describeImages(request);
+    final long start = System.nanoTime();
+    AwsAmiImageMatcher.sortByCreationDate(images);
+    record(AwsAmiMetrics.Phase.SORT, System.nanoTime() - start);
+    return images;
+  }
+
+  /**
+   * Fetches the latest image matching the supplied <code>filters</code>.
+   *
+   * @param filters   collection of AWS <code>Filter</code>
+   * @return the latest AWS image matching the <code>filters</code>
+   */
+  public Image fetchLatestImage(Collection<Filter> filters) {
+    Image image = null;
+
+    List<Image> images = fetchLatestImages(filters, 1);
+    if(!images.isEmpty()) {
+      image = images.get(0);
+    }
+
+    return image;
+  }
+
+  /**
+   * Fetches the latest <code>count</code> images matching the supplied
+   * <code>filters</code>. The newest images are selected by
+   * {@link AwsAmiImageMatcher#newestImages(Collection, int)}.
+   *
+   * @param filters   collection of AWS <code>Filter</code>
+   * @param count     the number of images to return
+   * @return up to <code>count</code> AWS images sorted in reverse order by
+   * <code>creationDate</code>
+   */
+  @Override
+  public List<Image> fetchLatestImages(Collection<Filter> filters, int count) {
+    return fetchLatestImages(filters, count, null).getImages();
+  }
+
+  /**
+   * Fetches the latest <code>count</code> images matching the supplied
+   * <code>filters</code> unless every image matching them is the same as in
+   * a previous poll. The fingerprint is taken over all the images returned
+   * by DescribeImages before any creation date is parsed, so an unchanged
+   * result skips the selection of the newest images.
+   *
+   * @param filters    collection of AWS <code>Filter</code>
+   * @param count      the number of images to return
+   * @param previous   the result of the previous poll with the same filters
+   *                   and count, or <code>null</code>
+   * @return <code>previous</code> if the images are unchanged, otherwise up
+   * to <code>count</code> AWS images sorted in reverse order by
+   * <code>creationDate</code>
+   */
+  @Override
+  public AwsAmiLatestImages fetchLatestImages(Collection<Filter> filters, int count, AwsAmiLatestImages previous) {
+    final DescribeImagesRequest request = new DescribeImagesRequest();
+    request.setFilters(filters);
+
+    final List<Image> results = describeImages(request);
+    final long fingerprint = AwsAmiImageMatcher.fingerprint(results);
+    if(previous != null && previous.getFingerprint() == fingerprint) {
+      return previous;
+    }
+    final long start = System.nanoTime();
+    final List<Image> images = AwsAmiImageMatcher.newestImages(results, count);
+    record(AwsAmiMetrics.Phase.SORT, System.nanoTime() - start);
+    return new AwsAmiLatestImages(fingerprint, images);
+  }
+
+  /**
+   * Calls DescribeImages, recording the call, the images returned and the
+   * HTTP metrics of the request against the account and region, and a
+   * flight recorder event if one is enabled. Responses are replayed from
+   * or recorded to an {@link AwsAmiImageRecording} when one is configured.
+   *
+   * @param request   the request
+   * @return the images
+   */
+  private List<Image> describeImages(DescribeImagesRequest request) {
+    final AwsAmiMetrics.Scope total = AwsAmiMetrics.get().getTotal();
+    request.setRequestMetricCollector(AwsAmiMetrics.get().createCollector(metrics));
+    final Object event = AwsAmiFlightRecorder.DESCRIBE_IMAGES.begin();
+    List<Image> images = null;
+    try {
+      final AwsAmiImageRecording replay = AwsAmiImageRecording.fromProperty(REPLAY_PROPERTY);
+      if(replay == null) {
+        images = getAmazonEC2Client().describeImages(request).getImages();
+        recordResponse(request, images);
+      } else {
+        images = replay.replay(getKey(), request);
+      }
+    } catch(IOException e) {
+      metrics.recordError();
+      total.recordError();
+      throw new AmazonClientException("Unable to replay DescribeImages " + AwsAmiImageRecording.getKey(getKey(), request), e);
+    } catch(RuntimeException e) {
+      metrics.recordError();
+      total.recordError();
+      throw e;
+    } finally {
+      if(event != null) {
+        AwsAmiFlightRecorder.DESCRIBE_IMAGES.commit(event, null, String.valueOf(request.getFilters()), regionName,
+          images == null ? 0 : images.size());
+      }
+    }
+    metrics.recordCall(images.size());
+    total.recordCall(images.size());
+    return images;
+  }
+
+  /**
+   * Records a DescribeImages response if recording is configured. A
+   * response that cannot be recorded is logged and otherwise ignored.
+   *
+   * @param request   the request
+   * @param images    the images returned
+   */
+  private void recordResponse(DescribeImagesRequest request, List<Image> images) {
+    final AwsAmiImageRecording recorder = AwsAmiImageRecording.fromProperty(RECORD_PROPERTY);
+    if(recorder != null) {
+      try {
+        recorder.record(getKey(), request, images);
+      } catch(IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to record DescribeImages " + AwsAmiImageRecording.getKey(getKey(), request), e);
+      }
+    }
+  }
+
+  /**
+   * Records the duration of a phase against the account and region and
+   * the totals.
+   *
+   * @param phase   the phase
+   * @param nanos   duration in nanoseconds
+   */
+  private void record(AwsAmiMetrics.Phase phase, long nanos) {
+    metrics.record(phase, nanos);
+    AwsAmiMetrics.get().getTotal().record(phase, nanos);
+  }
+
+  /**
+   * Fetches the extra metadata of the images with the supplied
+   * <code>imageIds</code>. The images are described in a single call;
+   * launch permissions have no batch call and are read per image, and are
+   * left as <code>null</code> when the credentials may not read them.
+   * Launch permissions are not recorded, so this fails when responses are
+   * replayed rather than calling EC2.
+   *
+   * @param imageIds   ids of the images
+   * @return map of image id to extras for the images that still exist
+   */
+  public Map<String, AwsAmiImageExtras> describeImageExtras(Collection<String> imageIds) {
+    final Map<String, AwsAmiImageExtras> extras = new LinkedHashMap<String, AwsAmiImageExtras>();
+    if(imageIds.isEmpty()) {
+      return extras;
+    }
+    if(AwsAmiImageRecording.fromProperty(REPLAY_PROPERTY) != null) {
+      throw new AmazonClientException("Unable to replay DescribeImageAttribute, launch permissions are not recorded");
+    }
+
+    final AmazonEC2Client client = getAmazonEC2Client();
+
+    final DescribeImagesRequest request = new DescribeImagesRequest();
+    request.setImageIds(imageIds);
+
+    for(Image image : describeImages(request)) {
+      List<LaunchPermission> launchPermissions = null;
+      try {
+        DescribeImageAttributeResult result = client.describeImageAttribute(
+          new DescribeImageAttributeRequest(image.getImageId(), "launchPermission"));
+        launchPermissions = result.getImageAttribute().getLaunchPermissions();
+      } catch(AmazonServiceException e) {
+        LOGGER.log(Level.FINE, MessageFormat.format("Unable to read launch permissions of {0}", image.getImageId()), e);
+      }
+      extras.put(image.getImageId(), AwsAmiImageExtras.from(image, launchPermissions));
+    }
+    return extras;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiBuildIndex}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiBuildIndexTest extends AwsAmiAbstractTest {
+
+  private final static String JOB_NAME = "folder/projectName";
+  private final static String NEW_JOB_NAME = "folder/newProjectName";
+  private final static String IMAGE_ID = "ami-123";
+  private final static String FILTER_KEY = "filter";
+
+  @Parameter(0)
+  public int builds;
+
+  private File file;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0 },
+        { 1 },
+        { 200 }
+      }
+    );
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("aws-ami-trigger-index", ".bin");
+    Assert.assertTrue("delete()", file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  /**
+   * Tests that references can be looked up by image and filter, and that
+   * removed builds are no longer returned.
+   */
+  @Test
+  public void testGetBuilds() {
+    AwsAmiBuildIndex index = createIndex(new AwsAmiBuildIndex(null));
+    Assert.assertEquals("getBuilds()", builds, index.getBuilds(IMAGE_ID).size());
+    Assert.assertEquals("getBuilds(filter)", builds, index.getBuilds(IMAGE_ID, FILTER_KEY).size());
+    Assert.assertEquals("getBuilds(otherFilter)", 0, index.getBuilds(IMAGE_ID, "other").size());
+    Assert.assertEquals("getBuilds(other)", 0, index.getBuilds("ami-456").size());
+
+    index.remove(JOB_NAME, 1);
+    Assert.assertEquals("size()", Math.max(0, builds - 1), index.size());
+
+    index.remove(JOB_NAME);
+    Assert.assertEquals("size()", 0, index.size());
+    Assert.assertTrue("getBuilds()", index.getBuilds(IMAGE_ID).isEmpty());
+  }
+
+  /**
+   * Tests that the index is replayed from the log, including renames and
+   * removals, and that log compaction keeps the live references.
+   */
+  @Test
+  public void testLoad() {
+    AwsAmiBuildIndex index = createIndex(new AwsAmiBuildIndex(file));
+    for(int i = 1; i <= builds; i += 2) {
+      index.remove(JOB_NAME, i);
+    }
+    index.rename(JOB_NAME, NEW_JOB_NAME);
+
+    AwsAmiBuildIndex loaded = new AwsAmiBuildIndex(file);
+    Assert.assertEquals("size()", builds / 2, loaded.size());
+    for(AwsAmiBuildIndex.BuildReference reference : loaded.getBuilds(IMAGE_ID)) {
+      Assert.assertEquals("getJobName()", NEW_JOB_NAME, reference.getJobName());
+      Assert.assertEquals("getBuildNumber()", 0, reference.getBuildNumber() % 2);
+    }
+  }
+
+  /**
+   * Tests that a partly written record at the end of the log is dropped.
+   *
+   * @throws IOException if the log could not be written
+   */
+  @Test
+  public void testLoadTruncated() throws IOException {
+    createIndex(new AwsAmiBuildIndex(file));
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(new byte[] { 1, 0, 10 });
+    } finally {
+      out.close();
+    }
+
+    Assert.assertEquals("size()", builds, new AwsAmiBuildIndex(file).size());
+    Assert.assertEquals("size()", builds, new AwsAmiBuildIndex(file).size());
+  }
+
+  /**
+   * Tests that a log with an unknown version is moved aside rather than
+   * appended to, and that the index is then backfilled.
+   *
+   * @throws IOException if the log could not be written
+   */
+  @Test
+  public void testLoadUnknownVersion() throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      out.writeInt(99);
+      out.writeUTF("future record");
+    } finally {
+      out.close();
+    }
+    File old = new File(file.getPath() + ".old");
+    try {
+      AwsAmiBuildIndex index = new AwsAmiBuildIndex(file);
+      Assert.assertEquals("size()", 0, index.size());
+      Assert.assertTrue("isBackfillNeeded()", index.isBackfillNeeded());
+      Assert.assertTrue("old exists()", old.exists());
+      Assert.assertFalse("exists()", file.exists());
+
+      createIndex(index);
+      Assert.assertEquals("size()", builds, new AwsAmiBuildIndex(file).size());
+    } finally {
+      old.delete();
+    }
+  }
+
+  /**
+   * Tests that an index without a log is backfilled once, skipping builds
+   * that were indexed in the meantime, and that the backfill is written.
+   */
+  @Test
+  public void testBackfill() {
+    AwsAmiBuildIndex index = new AwsAmiBuildIndex(file);
+    Assert.assertTrue("isBackfillNeeded()", index.isBackfillNeeded());
+    index.add(new AwsAmiBuildIndex.BuildReference(JOB_NAME, 1, IMAGE_ID, FILTER_KEY));
+
+    List<AwsAmiBuildIndex.BuildReference> references = new ArrayList<AwsAmiBuildIndex.BuildReference>();
+    for(int i = 1; i <= builds; i++) {
+      references.add(new AwsAmiBuildIndex.BuildReference(JOB_NAME, i, IMAGE_ID, FILTER_KEY));
+    }
+    index.backfill(references);
+    Assert.assertFalse("isBackfillNeeded()", index.isBackfillNeeded());
+    Assert.assertEquals("size()", Math.max(1, builds), index.size());
+
+    index.backfill(references);
+    Assert.assertEquals("size()", Math.max(1, builds), index.size());
+
+    AwsAmiBuildIndex loaded = new AwsAmiBuildIndex(file);
+    Assert.assertFalse("isBackfillNeeded()", loaded.isBackfillNeeded());
+    Assert.assertEquals("size()", Math.max(1, builds), loaded.size());
+  }
+
+  /**
+   * Creates builds <code>1..builds</code> for the test image.
+   *
+   * @param index   the index to add to
+   * @return the index
+   */
+  private AwsAmiBuildIndex createIndex(AwsAmiBuildIndex index) {
+    for(int i = 1; i <= builds; i++) {
+      index.add(new AwsAmiBuildIndex.BuildReference(JOB_NAME, i, IMAGE_ID, FILTER_KEY));
+    }
+    return index;
+  }
+}
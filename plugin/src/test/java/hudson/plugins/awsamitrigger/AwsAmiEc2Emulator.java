@@ -0,0 +1,475 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ProductCode;
+import com.amazonaws.services.ec2.model.Tag;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Local emulator of the DescribeImages action of the EC2 query API. It
+ * evaluates the filters used by {@link AwsAmiTriggerFilter}, pages results
+ * with <code>MaxResults</code> and <code>NextToken</code>, and can inject
+ * latency and <code>RequestLimitExceeded</code> throttling, so that
+ * {@link EC2Service} can be run over real HTTP and unmarshalling by
+ * setting {@link EC2Service#ENDPOINT_PROPERTY} to {@link #getEndpoint()}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+final class AwsAmiEc2Emulator implements HttpHandler, Closeable {
+
+  private static final String NAMESPACE = "http://ec2.amazonaws.com/doc/2016-11-15/";
+
+  private final List<Image> images = new CopyOnWriteArrayList<Image>();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+  private final AtomicLong imagesReturned = new AtomicLong();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private volatile long latencyMillis;
+  private volatile int throttleEvery;
+
+  /**
+   * Creates and starts a new {@link AwsAmiEc2Emulator} on a free local
+   * port.
+   *
+   * @param images   the images to serve
+   * @throws IOException if the server could not be started
+   */
+  AwsAmiEc2Emulator(Collection<Image> images) throws IOException {
+    this.images.addAll(images);
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Gets the endpoint URL of the emulator.
+   * @return the endpoint
+   */
+  String getEndpoint() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Adds an image.
+   *
+   * @param image   the image
+   */
+  void addImage(Image image) {
+    images.add(image);
+  }
+
+  /**
+   * Sets the delay added to every response.
+   *
+   * @param latencyMillis   delay in milliseconds
+   */
+  void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * Throttles every <code>throttleEvery</code>th request with
+   * <code>RequestLimitExceeded</code>.
+   *
+   * @param throttleEvery   request interval or 0 for no throttling
+   */
+  void setThrottleEvery(int throttleEvery) {
+    this.throttleEvery = throttleEvery;
+  }
+
+  /**
+   * Gets the number of requests received.
+   * @return number of requests
+   */
+  long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Gets the number of requests throttled.
+   * @return number of throttled requests
+   */
+  long getThrottled() {
+    return throttled.get();
+  }
+
+  /**
+   * Gets the number of images returned by all requests.
+   * @return number of images
+   */
+  long getImagesReturned() {
+    return imagesReturned.get();
+  }
+
+  /**
+   * Stops the emulator if it is running.
+   */
+  @Override
+  public void close() {
+    if(closed.compareAndSet(false, true)) {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Handles a query API request.
+   *
+   * @param exchange   the request and response
+   * @throws IOException if the response could not be written
+   */
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      final long request = requests.incrementAndGet();
+      if(latencyMillis > 0) {
+        Thread.sleep(latencyMillis);
+      }
+
+      final Map<String, String> parameters = readParameters(exchange);
+      final int every = throttleEvery;
+      if(every > 0 && request % every == 0) {
+        throttled.incrementAndGet();
+        respond(exchange, 503, error("RequestLimitExceeded", "Request limit exceeded."));
+      } else if(!"DescribeImages".equals(parameters.get("Action"))) {
+        respond(exchange, 400, error("InvalidAction", "The action " + parameters.get("Action") + " is not valid for this web service."));
+      } else {
+        describeImages(exchange, parameters);
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      respond(exchange, 500, error("InternalError", "Interrupted"));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Responds to a DescribeImages request.
+   *
+   * @param exchange     the request and response
+   * @param parameters   the request parameters
+   * @throws IOException if the response could not be written
+   */
+  private void describeImages(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+    final Map<String, List<Pattern>> filters = new HashMap<String, List<Pattern>>();
+    for(int i = 1; parameters.containsKey("Filter." + i + ".Name"); i++) {
+      final String name = parameters.get("Filter." + i + ".Name");
+      if(!isKnownFilter(name)) {
+        respond(exchange, 400, error("InvalidParameterValue", "The filter '" + name + "' is invalid"));
+        return;
+      }
+      final List<Pattern> values = new ArrayList<Pattern>();
+      for(int j = 1; parameters.containsKey("Filter." + i + ".Value." + j); j++) {
+        values.add(toPattern(parameters.get("Filter." + i + ".Value." + j)));
+      }
+      filters.put(name, values);
+    }
+
+    final List<Image> matches = new ArrayList<Image>();
+    for(Image image : images) {
+      if(matches(image, filters)) {
+        matches.add(image);
+      }
+    }
+
+    final int from = StringUtils.isNumeric(parameters.get("NextToken")) && !StringUtils.isEmpty(parameters.get("NextToken"))
+      ? Math.min(matches.size(), Integer.parseInt(parameters.get("NextToken"))) : 0;
+    int to = matches.size();
+    if(StringUtils.isNumeric(parameters.get("MaxResults")) && !StringUtils.isEmpty(parameters.get("MaxResults"))) {
+      to = Math.min(to, from + Integer.parseInt(parameters.get("MaxResults")));
+    }
+
+    final StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    xml.append("<DescribeImagesResponse xmlns=\"").append(NAMESPACE).append("\">");
+    xml.append("<requestId>").append(requests.get()).append("</requestId><imagesSet>");
+    for(Image image : matches.subList(from, to)) {
+      writeImage(xml, image);
+    }
+    xml.append("</imagesSet>");
+    if(to < matches.size()) {
+      xml.append("<nextToken>").append(to).append("</nextToken>");
+    }
+    xml.append("</DescribeImagesResponse>");
+    imagesReturned.addAndGet(to - from);
+    respond(exchange, 200, xml.toString());
+  }
+
+  /**
+   * Checks whether a filter name is supported.
+   *
+   * @param name   the filter name
+   * @return true if the filter is supported
+   */
+  private static boolean isKnownFilter(String name) {
+    return name.startsWith("tag:") || "state".equals(name) || "architecture".equals(name)
+      || "description".equals(name) || "name".equals(name) || "owner-alias".equals(name)
+      || "owner-id".equals(name) || "product-code".equals(name) || "is-public".equals(name)
+      || "image-id".equals(name);
+  }
+
+  /**
+   * Checks whether an image matches every filter. An image matches a
+   * filter if one of its values matches one of the filter values.
+   *
+   * @param image     the image
+   * @param filters   map of filter name to value patterns
+   * @return true if the image matches
+   */
+  private static boolean matches(Image image, Map<String, List<Pattern>> filters) {
+    for(Map.Entry<String, List<Pattern>> filter : filters.entrySet()) {
+      boolean matched = false;
+      for(String value : getValues(image, filter.getKey())) {
+        for(Pattern pattern : filter.getValue()) {
+          if(value != null && pattern.matcher(value).matches()) {
+            matched = true;
+          }
+        }
+      }
+      if(!matched) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the values of an image for a filter.
+   *
+   * @param image   the image
+   * @param name    the filter name
+   * @return the values
+   */
+  private static List<String> getValues(Image image, String name) {
+    final List<String> values = new ArrayList<String>();
+    if(name.startsWith("tag:")) {
+      if(image.getTags() != null) {
+        for(Tag tag : image.getTags()) {
+          if(name.substring(4).equals(tag.getKey())) {
+            values.add(tag.getValue());
+          }
+        }
+      }
+    } else if("product-code".equals(name)) {
+      if(image.getProductCodes() != null) {
+        for(ProductCode productCode : image.getProductCodes()) {
+          values.add(productCode.getProductCodeId());
+        }
+      }
+    } else if("state".equals(name)) {
+      values.add(StringUtils.defaultString(image.getState(), "available"));
+    } else if("architecture".equals(name)) {
+      values.add(image.getArchitecture());
+    } else if("description".equals(name)) {
+      values.add(image.getDescription());
+    } else if("name".equals(name)) {
+      values.add(image.getName());
+    } else if("owner-alias".equals(name)) {
+      values.add(image.getImageOwnerAlias());
+    } else if("owner-id".equals(name)) {
+      values.add(image.getOwnerId());
+    } else if("is-public".equals(name)) {
+      values.add(String.valueOf(Boolean.TRUE.equals(image.getPublic())));
+    } else if("image-id".equals(name)) {
+      values.add(image.getImageId());
+    }
+    return values;
+  }
+
+  /**
+   * Converts an EC2 filter value with <code>*</code> and <code>?</code>
+   * wildcards to a pattern.
+   *
+   * @param value   the filter value
+   * @return the pattern
+   */
+  private static Pattern toPattern(String value) {
+    final StringBuilder regex = new StringBuilder();
+    for(char c : value.toCharArray()) {
+      if(c == '*') {
+        regex.append(".*");
+      } else if(c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  /**
+   * Writes an image as a DescribeImages <code>item</code>.
+   *
+   * @param xml     the response
+   * @param image   the image
+   */
+  private static void writeImage(StringBuilder xml, Image image) {
+    xml.append("<item>");
+    writeElement(xml, "imageId", image.getImageId());
+    writeElement(xml, "imageState", StringUtils.defaultString(image.getState(), "available"));
+    writeElement(xml, "imageOwnerId", image.getOwnerId());
+    writeElement(xml, "creationDate", image.getCreationDate());
+    writeElement(xml, "isPublic", image.getPublic() == null ? null : String.valueOf(image.getPublic()));
+    if(image.getProductCodes() != null) {
+      xml.append("<productCodes>");
+      for(ProductCode productCode : image.getProductCodes()) {
+        xml.append("<item>");
+        writeElement(xml, "productCode", productCode.getProductCodeId());
+        writeElement(xml, "type", StringUtils.defaultString(productCode.getProductCodeType(), "marketplace"));
+        xml.append("</item>");
+      }
+      xml.append("</productCodes>");
+    }
+    writeElement(xml, "architecture", image.getArchitecture());
+    writeElement(xml, "imageType", image.getImageType());
+    writeElement(xml, "imageOwnerAlias", image.getImageOwnerAlias());
+    writeElement(xml, "name", image.getName());
+    writeElement(xml, "description", image.getDescription());
+    writeElement(xml, "rootDeviceType", StringUtils.defaultString(image.getRootDeviceType(), "ebs"));
+    writeElement(xml, "virtualizationType", StringUtils.defaultString(image.getVirtualizationType(), "hvm"));
+    if(image.getTags() != null) {
+      xml.append("<tagSet>");
+      for(Tag tag : image.getTags()) {
+        xml.append("<item>");
+        writeElement(xml, "key", tag.getKey());
+        writeElement(xml, "value", tag.getValue());
+        xml.append("</item>");
+      }
+      xml.append("</tagSet>");
+    }
+    writeElement(xml, "hypervisor", image.getHypervisor());
+    xml.append("</item>");
+  }
+
+  /**
+   * Writes an element if its value is not <code>null</code>.
+   *
+   * @param xml     the response
+   * @param name    the element name
+   * @param value   the element value
+   */
+  private static void writeElement(StringBuilder xml, String name, String value) {
+    if(value != null) {
+      xml.append('<').append(name).append('>').append(StringEscapeUtils.escapeXml(value)).append("</").append(name).append('>');
+    }
+  }
+
+  /**
+   * Builds an EC2 error response.
+   *
+   * @param code      the error code
+   * @param message   the error message
+   * @return the response
+   */
+  private String error(String code, String message) {
+    return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Response><Errors><Error><Code>" + code + "</Code><Message>"
+      + StringEscapeUtils.escapeXml(message) + "</Message></Error></Errors><RequestID>" + requests.get() + "</RequestID></Response>";
+  }
+
+  /**
+   * Writes a response.
+   *
+   * @param exchange   the request and response
+   * @param status     the HTTP status
+   * @param body       the XML body
+   * @throws IOException if the response could not be written
+   */
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    final byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    final OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Reads the query string and form parameters of a request.
+   *
+   * @param exchange   the request
+   * @return map of parameter name to value
+   * @throws IOException if the request could not be read
+   */
+  private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final InputStream in = exchange.getRequestBody();
+    try {
+      final byte[] buffer = new byte[8192];
+      for(int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        body.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+
+    final Map<String, String> parameters = new TreeMap<String, String>();
+    for(String query : new String[] { exchange.getRequestURI().getRawQuery(), body.toString("UTF-8") }) {
+      if(StringUtils.isEmpty(query)) {
+        continue;
+      }
+      for(String pair : query.split("&")) {
+        final String[] nv = pair.split("=", 2);
+        parameters.put(URLDecoder.decode(nv[0], "UTF-8"), nv.length == 2 ? URLDecoder.decode(nv[1], "UTF-8") : "");
+      }
+    }
+    return parameters;
+  }
+}
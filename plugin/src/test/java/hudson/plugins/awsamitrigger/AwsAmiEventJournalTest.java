@@ -0,0 +1,118 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiEventJournal}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiEventJournalTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public int events;
+  @Parameter(1)
+  public int count;
+
+  private File file;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0, 10 },
+        { 5, 10 },
+        { 25, 10 }
+      }
+    );
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("aws-ami-trigger-events", ".log");
+    Assert.assertTrue("delete()", file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".1").delete();
+  }
+
+  /**
+   * Tests that the most recent events are read back, oldest first, and
+   * that invalid lines are skipped.
+   *
+   * @throws IOException if the journal could not be written
+   */
+  @Test
+  public void testGetRecent() throws IOException {
+    AwsAmiEventJournal journal = new AwsAmiEventJournal(file);
+    List<AwsAmiEvent> appended = new ArrayList<AwsAmiEvent>();
+    for(int i = 0; i < events; i++) {
+      appended.add(new AwsAmiEvent(AwsAmiEvent.Type.values()[i % 3], i, "job", REGION_NAME, "filter", "ami-" + i, i));
+    }
+    journal.append(appended);
+    if(events > 0) {
+      FileOutputStream out = new FileOutputStream(file, true);
+      try {
+        out.write("{\"type\":\"UNKNOWN\"}\n{invalid\n".getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+    }
+
+    List<AwsAmiEvent> recent = journal.getRecent(count);
+    Assert.assertEquals("size()", Math.min(events, count), recent.size());
+    for(int i = 0; i < recent.size(); i++) {
+      AwsAmiEvent event = recent.get(i);
+      AwsAmiEvent expected = appended.get(events - recent.size() + i);
+      Assert.assertEquals("getType()", expected.getType(), event.getType());
+      Assert.assertEquals("getImageId()", expected.getImageId(), event.getImageId());
+      Assert.assertEquals("getRegionName()", REGION_NAME, event.getRegionName());
+    }
+  }
+}
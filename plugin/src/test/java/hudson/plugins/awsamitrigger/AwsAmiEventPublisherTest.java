@@ -0,0 +1,189 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Run tests for {@link AwsAmiEventPublisher}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiEventPublisherTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public int events;
+  @Parameter(1)
+  public int request;
+  @Parameter(2)
+  public int bufferSize;
+
+  private AwsAmiEventPublisher publisher;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0, 1, 10 },
+        { 5, 2, 10 },
+        { 5, 10, 10 },
+        { 20, 3, 10 }
+      }
+    );
+  }
+
+  @Before
+  public void setUp() {
+    publisher = new AwsAmiEventPublisher(MoreExecutors.sameThreadExecutor());
+  }
+
+  /**
+   * Tests that only requested events are delivered, the rest are
+   * buffered and the oldest are dropped when the buffer is full.
+   */
+  @Test
+  public void testBackPressure() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber, Predicates.<AwsAmiEvent>alwaysTrue(), bufferSize);
+    Assert.assertEquals("getSubscriberCount()", 1, publisher.getSubscriberCount());
+
+    publishEvents();
+    Assert.assertTrue("received", subscriber.received.isEmpty());
+    Assert.assertEquals("getDroppedCount()", Math.max(0, events - bufferSize), publisher.getDroppedCount());
+
+    subscriber.subscription.request(request);
+    Assert.assertEquals("received", Math.min(request, Math.min(events, bufferSize)), subscriber.received.size());
+
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Assert.assertEquals("received", Math.min(events, bufferSize), subscriber.received.size());
+    if(events > 0) {
+      Assert.assertEquals("first", "ami-" + Math.max(0, events - bufferSize), subscriber.received.get(0).getImageId());
+      Assert.assertEquals("last", "ami-" + (events - 1), subscriber.received.get(subscriber.received.size() - 1).getImageId());
+    }
+
+    publisher.complete();
+    Assert.assertTrue("completed", subscriber.completed);
+    Assert.assertEquals("getSubscriberCount()", 0, publisher.getSubscriberCount());
+  }
+
+  /**
+   * Tests that a subscriber only receives the events accepted by its
+   * filter and nothing after cancelling.
+   */
+  @Test
+  public void testFilterAndCancel() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber, new Predicate<AwsAmiEvent>() {
+      @Override
+      public boolean apply(AwsAmiEvent event) {
+        return event.getType() == AwsAmiEvent.Type.REMOVED;
+      }
+    }, bufferSize);
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    publishEvents();
+    for(AwsAmiEvent event : subscriber.received) {
+      Assert.assertEquals("getType()", AwsAmiEvent.Type.REMOVED, event.getType());
+    }
+
+    subscriber.subscription.cancel();
+    int received = subscriber.received.size();
+    publishEvents();
+    Assert.assertEquals("received", received, subscriber.received.size());
+    Assert.assertEquals("getSubscriberCount()", 0, publisher.getSubscriberCount());
+  }
+
+  /**
+   * Tests that a non-positive request is signalled as an error.
+   */
+  @Test
+  public void testInvalidRequest() {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(0);
+    Assert.assertTrue("error", subscriber.error instanceof IllegalArgumentException);
+    Assert.assertEquals("getSubscriberCount()", 0, publisher.getSubscriberCount());
+  }
+
+  /**
+   * Publishes the test events.
+   */
+  private void publishEvents() {
+    for(int i = 0; i < events; i++) {
+      publisher.publish(new AwsAmiEvent(AwsAmiEvent.Type.values()[i % 3], i, "job", REGION_NAME, "filter", "ami-" + i, i));
+    }
+  }
+
+  /**
+   * Subscriber that records what it receives.
+   */
+  private static final class RecordingSubscriber implements Subscriber<AwsAmiEvent> {
+    private final List<AwsAmiEvent> received = new ArrayList<AwsAmiEvent>();
+    private Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(AwsAmiEvent event) {
+      received.add(event);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import hudson.util.XStream2;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiImageConverter}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiImageConverterTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public String imageDescription;
+  @Parameter(1)
+  public String imageShared;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { DESCRIPTION, SHARED },
+        { null, SHARED },
+        { "description with \"quotes\" & <markup>", "false" }
+      }
+    );
+  }
+
+  /**
+   * Tests that an image is written compactly and read back unchanged.
+   */
+  @Test
+  public void testRoundTrip() {
+    AwsAmiImage image = AwsAmiImage.from(createImage());
+    XStream2 xstream = createXStream();
+
+    String xml = xstream.toXML(image);
+    Assert.assertThat("toXML()", xml, Matchers.startsWith("<image id=\"" + IMAGE_ID + "\""));
+    Assert.assertEquals("fromXML()", image, xstream.fromXML(xml));
+  }
+
+  /**
+   * Tests that an AWS image written by earlier versions is migrated.
+   */
+  @Test
+  public void testLegacy() {
+    Image legacyImage = createImage();
+    XStream2 legacyXStream = new XStream2();
+    legacyXStream.alias("image", Image.class);
+
+    String xml = legacyXStream.toXML(legacyImage);
+    Assert.assertEquals("fromXML()", AwsAmiImage.from(legacyImage), createXStream().fromXML(xml));
+  }
+
+  /**
+   * Creates an XStream with the converter registered.
+   *
+   * @return an XStream
+   */
+  private XStream2 createXStream() {
+    XStream2 xstream = new XStream2();
+    xstream.registerConverter(new AwsAmiImageConverter());
+    xstream.alias("image", AwsAmiImage.class);
+    return xstream;
+  }
+
+  /**
+   * Creates an image based on the test values.
+   *
+   * @return an image
+   */
+  private Image createImage() {
+    return createImage(ARCHITECTURE, new Date(), imageDescription, HYPERVISOR, IMAGE_ID, IMAGE_TYPE, NAME,
+      OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAG_KEY, TAG_VALUE, imageShared);
+  }
+}
@@ -0,0 +1,194 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import antlr.ANTLRException;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import hudson.model.BuildableItem;
+import hudson.security.Permission;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiLatestImagesAction}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiLatestImagesActionTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public long fetched;
+  @Parameter(1)
+  public long now;
+  @Parameter(2)
+  public long expectedAge;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 1000L, 1000L, 0L },
+        { 1000L, 61000L, 60000L },
+        { 2000L, 1000L, 0L }
+      }
+    );
+  }
+
+  /**
+   * Tests that the age of a fetched image is added and the age of an
+   * unfetched filter is not.
+   */
+  @Test
+  public void testAddAges() {
+    JSONObject fetchedFilter = new JSONObject();
+    fetchedFilter.put("filter", "filter1");
+    fetchedFilter.put("fetched", fetched);
+    JSONObject unfetchedFilter = new JSONObject();
+    unfetchedFilter.put("filter", "filter2");
+    JSONArray filters = new JSONArray();
+    filters.add(fetchedFilter);
+    filters.add(unfetchedFilter);
+    JSONObject job = new JSONObject();
+    job.put("job", "folder/projectName");
+    job.put("filters", filters);
+    JSONArray jobs = new JSONArray();
+    jobs.add(job);
+    JSONObject result = new JSONObject();
+    result.put("triggers", jobs);
+    final String etagSource = result.toString();
+
+    AwsAmiLatestImagesAction.addAges(result, now);
+
+    JSONArray aged = result.getJSONArray("triggers").getJSONObject(0).getJSONArray("filters");
+    Assert.assertEquals("ageMillis", expectedAge, aged.getJSONObject(0).getLong("ageMillis"));
+    Assert.assertFalse("has(ageMillis)", aged.getJSONObject(1).has("ageMillis"));
+    Assert.assertNotEquals("toString()", etagSource, result.toString());
+  }
+
+  /**
+   * Tests that no triggers give an empty result.
+   */
+  @Test
+  public void testGetLatestImagesEmpty() {
+    JSONObject result = AwsAmiLatestImagesAction.getLatestImages(Collections.<AwsAmiTrigger>emptyList());
+    Assert.assertTrue("isEmpty()", result.getJSONArray("triggers").isEmpty());
+  }
+
+  /**
+   * Tests that a request repeated after a poll found the same image again
+   * gets a 304, and that a poll that finds a different image changes the
+   * ETag.
+   *
+   * @throws ANTLRException if there is a problem with the trigger spec
+   * @throws InterruptedException if interrupted while waiting for the clock
+   * @throws IOException if the response could not be written
+   * @throws ServletException if the response could not be written
+   */
+  @Test
+  public void testNotModifiedAfterPoll() throws ANTLRException, InterruptedException, IOException, ServletException {
+    AwsAmiTriggerFilter filter = createFilter(ARCHITECTURE, DESCRIPTION, NAME + fetched, OWNER_ALIAS, OWNER_ID,
+      PRODUCT_CODE, TAGS, SHARED);
+    AwsAmiTrigger trigger = createTrigger(SPEC, CREDENTIALS_ID, REGION_NAME, Collections.singletonList(filter));
+    BuildableItem item = PowerMockito.mock(BuildableItem.class);
+    PowerMockito.when(item.getFullName()).thenReturn("folder/projectName" + fetched);
+    PowerMockito.when(item.hasPermission(Mockito.any(Permission.class))).thenReturn(true);
+    trigger.start(item, false);
+    try {
+      AwsAmiLatestImagesAction action = new AwsAmiLatestImagesAction();
+      String sourceKey = EC2Service.getKey(CREDENTIALS_ID, REGION_NAME);
+      AwsAmiImageCache.get().putLatestImage(sourceKey, filter.toQuery(), createImage(IMAGE_ID));
+      StaplerResponse response = PowerMockito.mock(StaplerResponse.class);
+      PowerMockito.when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+      action.doLatest(item.getFullName(), mockRequest(null), response);
+      String etag = AwsAmiLatestImagesAction.getETag(AwsAmiLatestImagesAction.getLatestImages(Collections.singletonList(trigger)));
+      Mockito.verify(response).setHeader("ETag", etag);
+      Mockito.verify(response, Mockito.never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+      Thread.sleep(5);
+      AwsAmiImageCache.get().putLatestImage(sourceKey, filter.toQuery(), createImage(IMAGE_ID));
+      response = PowerMockito.mock(StaplerResponse.class);
+      action.doLatest(item.getFullName(), mockRequest(etag), response);
+      Mockito.verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      Mockito.verify(response, Mockito.never()).getWriter();
+
+      AwsAmiImageCache.get().putLatestImage(sourceKey, filter.toQuery(), createImage("ami-def456"));
+      Assert.assertNotEquals("getETag()", etag,
+        AwsAmiLatestImagesAction.getETag(AwsAmiLatestImagesAction.getLatestImages(Collections.singletonList(trigger))));
+    } finally {
+      trigger.stop();
+    }
+  }
+
+  /**
+   * Mocks a request with an <code>If-None-Match</code> header.
+   *
+   * @param etag   the ETag to match or <code>null</code>
+   * @return the request
+   */
+  private StaplerRequest mockRequest(String etag) {
+    StaplerRequest request = PowerMockito.mock(StaplerRequest.class);
+    PowerMockito.when(request.getHeader("If-None-Match")).thenReturn(etag);
+    return request;
+  }
+
+  /**
+   * Creates a test image.
+   *
+   * @param imageId   the image id
+   * @return the image
+   */
+  private Image createImage(String imageId) {
+    return createImage(ARCHITECTURE, CREATION_DATE, DESCRIPTION, HYPERVISOR, imageId, IMAGE_TYPE, NAME, OWNER_ALIAS,
+      OWNER_ID, PRODUCT_CODE, TAG_KEY, TAG_VALUE, SHARED);
+  }
+}
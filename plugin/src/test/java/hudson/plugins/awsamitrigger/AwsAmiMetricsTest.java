@@ -0,0 +1,111 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiMetrics}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiMetricsTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public String credentialsId;
+  @Parameter(1)
+  public String regionName;
+  @Parameter(2)
+  public String expectedName;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { CREDENTIALS_ID, REGION_NAME, CREDENTIALS_ID + "/" + REGION_NAME },
+        { null, REGION_NAME, "/" + REGION_NAME },
+        { null, null, "/" }
+      }
+    );
+  }
+
+  /**
+   * Tests that a source scope is created once and counts calls, images and
+   * errors.
+   */
+  @Test
+  public void testGetSource() {
+    AwsAmiMetrics metrics = new AwsAmiMetrics(false);
+    AwsAmiMetrics.Scope scope = metrics.getSource(credentialsId, regionName);
+    Assert.assertSame("getSource()", scope, metrics.getSource(credentialsId, regionName));
+    Assert.assertEquals("getName()", expectedName, scope.getName());
+    Assert.assertEquals("getType()", "Source", scope.getType());
+
+    scope.recordCall(3);
+    scope.recordCall(2);
+    scope.recordError();
+    scope.record(AwsAmiMetrics.Phase.HTTP, 5000L);
+    Assert.assertEquals("getCalls()", 2, scope.getCalls());
+    Assert.assertEquals("getImages()", 5, scope.getImages());
+    Assert.assertEquals("getErrors()", 1, scope.getErrors());
+    Assert.assertEquals("getPhaseCounts(HTTP)", Long.valueOf(1), scope.getPhaseCounts().get("HTTP"));
+    Assert.assertEquals("getPhaseCounts(SORT)", Long.valueOf(0), scope.getPhaseCounts().get("SORT"));
+    Assert.assertEquals("getSources()", 1, metrics.getSources().size());
+    Assert.assertEquals("getCalls(total)", 0, metrics.getTotal().getCalls());
+  }
+
+  /**
+   * Tests that the metrics of a renamed job move to the new name and the
+   * metrics of a deleted job are removed.
+   */
+  @Test
+  public void testMoveAndRemoveTrigger() {
+    AwsAmiMetrics metrics = new AwsAmiMetrics(false);
+    AwsAmiMetrics.Scope scope = metrics.getTrigger("folder/" + expectedName);
+    scope.recordCall(3);
+
+    metrics.moveTrigger("folder/" + expectedName, "other/" + expectedName);
+    Assert.assertEquals("getName()", "other/" + expectedName, scope.getName());
+    Assert.assertSame("getTrigger()", scope, metrics.getTrigger("other/" + expectedName));
+    Assert.assertEquals("getCalls()", 1, metrics.getTrigger("other/" + expectedName).getCalls());
+    Assert.assertEquals("getTriggers()", 1, metrics.getTriggers().size());
+
+    metrics.removeTrigger("other/" + expectedName);
+    Assert.assertTrue("getTriggers()", metrics.getTriggers().isEmpty());
+    Assert.assertNotSame("getTrigger()", scope, metrics.getTrigger("other/" + expectedName));
+  }
+}
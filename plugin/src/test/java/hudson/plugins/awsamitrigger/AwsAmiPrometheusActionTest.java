@@ -0,0 +1,87 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiPrometheusAction}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiPrometheusActionTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public String credentialsId;
+  @Parameter(1)
+  public String expectedLabel;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { CREDENTIALS_ID, CREDENTIALS_ID },
+        { "folder/credentials", "folder/credentials" },
+        { "quote\"back\\slash", "quote\\\"back\\\\slash" },
+        { null, "" }
+      }
+    );
+  }
+
+  /**
+   * Tests that the calls of each credentials and region are written with
+   * escaped labels.
+   */
+  @Test
+  public void testFormat() {
+    AwsAmiMetrics metrics = new AwsAmiMetrics(false);
+    metrics.getSource(credentialsId, REGION_NAME).recordCall(4);
+    metrics.getTotal().record(AwsAmiMetrics.Phase.POLL, 2000000L);
+
+    String text = AwsAmiPrometheusAction.format(metrics, new AwsAmiImageCache(), AwsAmiPollWatchdog.get(), Collections.<AwsAmiTrigger>emptyList(), 0L);
+
+    Assert.assertTrue(text, text.contains("aws_ami_trigger_describe_images_calls_total{credentials_id=\""
+      + expectedLabel + "\",region=\"" + REGION_NAME + "\"} 1\n"));
+    Assert.assertTrue(text, text.contains("aws_ami_trigger_images_total{credentials_id=\""
+      + expectedLabel + "\",region=\"" + REGION_NAME + "\"} 4\n"));
+    Assert.assertTrue(text, text.contains("aws_ami_trigger_poll_duration_seconds{quantile=\"0.5\"} 0.002097152\n"));
+    Assert.assertTrue(text, text.contains("aws_ami_trigger_poll_duration_seconds_count 1\n"));
+    Assert.assertTrue(text, text.contains("aws_ami_trigger_cache_hit_ratio 0\n"));
+    Assert.assertTrue(text, text.contains("# TYPE aws_ami_trigger_polls_in_flight gauge\n"));
+  }
+}
@@ -0,0 +1,156 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.ArchitectureValues;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.util.DateUtils;
+
+import hudson.model.BuildableItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.mockito.Mockito;
+
+/**
+ * Soak harness that polls thousands of triggers against the
+ * {@link AwsAmiEc2Emulator} as the Jenkins cron thread would, and reports
+ * the cron thread time, heap and EC2 call volume of each round. A newer
+ * image is published before every round so that some triggers match.
+ *
+ * <p>Settings are read from system properties: <code>soak.triggers</code>
+ * (default 2000), <code>soak.images</code> (10000), <code>soak.rounds</code>
+ * (5), <code>soak.latencyMillis</code> (5) and <code>soak.throttleEvery</code>
+ * (0 for no throttling).</p>
+ *
+ * @author Rik Turnbull
+ *
+ */
+public final class AwsAmiSoakHarness {
+
+  private static final int NAMES = 100;
+  private static final Logger LOGGER = Logger.getLogger(AwsAmiSoakHarness.class.getPackage().getName());
+
+  /**
+   * Prevents instantiation.
+   */
+  private AwsAmiSoakHarness() {
+  }
+
+  /**
+   * Runs the soak.
+   *
+   * @param args   unused
+   * @throws Exception if the emulator or a trigger could not be created
+   */
+  public static void main(String[] args) throws Exception {
+    final int triggerCount = Integer.getInteger("soak.triggers", 2000);
+    final int imageCount = Integer.getInteger("soak.images", 10000);
+    final int rounds = Integer.getInteger("soak.rounds", 5);
+    LOGGER.setLevel(Level.WARNING);
+
+    final long start = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(imageCount);
+    final List<Image> images = new ArrayList<Image>(imageCount);
+    for(int i = 0; i < imageCount; i++) {
+      images.add(createImage("ami-" + i, "name-" + (i % NAMES) + "-" + i, new Date(start + TimeUnit.HOURS.toMillis(i))));
+    }
+
+    final AwsAmiEc2Emulator emulator = new AwsAmiEc2Emulator(images);
+    try {
+      emulator.setLatencyMillis(Long.getLong("soak.latencyMillis", 5));
+      emulator.setThrottleEvery(Integer.getInteger("soak.throttleEvery", 0));
+      System.setProperty(EC2Service.ENDPOINT_PROPERTY, emulator.getEndpoint());
+      System.setProperty("aws.accessKeyId", "emulator");
+      System.setProperty("aws.secretKey", "emulator");
+
+      final List<AwsAmiTrigger> triggers = new ArrayList<AwsAmiTrigger>(triggerCount);
+      for(int i = 0; i < triggerCount; i++) {
+        final AwsAmiTriggerFilter filter = new AwsAmiTriggerFilter("x86_64", null, "name-" + (i % NAMES) + "-*", null,
+          null, null, "project=soak", null);
+        final AwsAmiTrigger trigger = new AwsAmiTrigger("* * * * *", "soak", "eu-west-1", Collections.singletonList(filter));
+        final BuildableItem job = Mockito.mock(BuildableItem.class);
+        Mockito.when(job.getFullName()).thenReturn("soak/job-" + i);
+        trigger.start(job, true);
+        triggers.add(trigger);
+      }
+
+      System.out.println("round,cronMillis,maxRunMillis,heapMB,requests,throttled,images");
+      for(int round = 1; round <= rounds; round++) {
+        emulator.addImage(createImage("ami-round-" + round, "name-" + (round % NAMES) + "-round-" + round,
+          new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(round))));
+        final long requests = emulator.getRequests();
+        final long throttled = emulator.getThrottled();
+        final long returned = emulator.getImagesReturned();
+
+        long maxRun = 0;
+        final long roundStart = System.nanoTime();
+        for(AwsAmiTrigger trigger : triggers) {
+          final long runStart = System.nanoTime();
+          trigger.run();
+          maxRun = Math.max(maxRun, System.nanoTime() - runStart);
+        }
+        final long cron = System.nanoTime() - roundStart;
+
+        System.gc();
+        final Runtime runtime = Runtime.getRuntime();
+        System.out.println(round + "," + TimeUnit.NANOSECONDS.toMillis(cron) + "," + TimeUnit.NANOSECONDS.toMillis(maxRun)
+          + "," + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)
+          + "," + (emulator.getRequests() - requests) + "," + (emulator.getThrottled() - throttled)
+          + "," + (emulator.getImagesReturned() - returned));
+      }
+
+      for(AwsAmiTrigger trigger : triggers) {
+        trigger.stop();
+      }
+    } finally {
+      emulator.close();
+    }
+  }
+
+  /**
+   * Creates an image tagged for the soak.
+   *
+   * @param imageId        the image id
+   * @param name           the image name
+   * @param creationDate   the creation date
+   * @return a new image
+   */
+  private static Image createImage(String imageId, String name, Date creationDate) {
+    final Image image = new Image();
+    image.setImageId(imageId);
+    image.setName(name);
+    image.setArchitecture(ArchitectureValues.X86_64);
+    image.setCreationDate(DateUtils.formatISO8601Date(creationDate));
+    image.setTags(Collections.singletonList(new Tag().withKey("project").withValue("soak")));
+    image.setPublic(false);
+    return image;
+  }
+}
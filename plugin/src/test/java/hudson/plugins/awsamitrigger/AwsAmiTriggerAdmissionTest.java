@@ -0,0 +1,263 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import hudson.model.BuildableItem;
+import hudson.model.Cause;
+import hudson.model.ItemGroup;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiTriggerAdmission}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+@PrepareForTest({AwsAmiTriggerConfiguration.class, AwsAmiTriggerAdmission.class})
+public class AwsAmiTriggerAdmissionTest extends AwsAmiAbstractTest {
+
+  private final static List<String> RELEASE_ORDER = Arrays.asList("a3", "b1", "c1", "a4", "a2", "b2", "a1");
+
+  @Parameter(0)
+  public int maxBuildsPerMinute;
+  @Parameter(1)
+  public int submittedBuilds;
+  @Parameter(2)
+  public int expectedScheduledBuilds;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { 0, 5, 5 },
+        { 2, 5, 2 },
+        { 5, 5, 5 }
+      }
+    );
+  }
+
+  /**
+   * Tests that builds are scheduled and released straight away when Jenkins
+   * is not running.
+   */
+  @Test
+  public void testScheduleWithoutJenkins() {
+    BuildableItem job = mockBuildableItem("folder", "projectName");
+    List<String> released = new ArrayList<String>();
+    for(int i = 0; i < submittedBuilds; i++) {
+      AwsAmiTriggerAdmission.schedule(job, new AwsAmiTriggerCause(), AwsAmiTriggerPriority.values()[i % 3],
+        record(released, "build-" + i));
+    }
+    Mockito.verify(job, Mockito.times(submittedBuilds)).scheduleBuild(Mockito.any(Cause.class));
+    Assert.assertEquals("released", submittedBuilds, released.size());
+  }
+
+  /**
+   * Tests that held builds are released highest priority first,
+   * round-robin across folders, no more than the concurrency cap at a time.
+   */
+  @Test
+  public void testConcurrencyCap() {
+    AwsAmiTriggerConfiguration configuration = PowerMockito.mock(AwsAmiTriggerConfiguration.class);
+    PowerMockito.when(configuration.getMaxConcurrentBuilds()).thenReturn(2);
+    AwsAmiTriggerAdmission admission = PowerMockito.spy(new AwsAmiTriggerAdmission());
+    List<String> released = submitHeld(admission, configuration);
+
+    Mockito.doReturn(0).when(admission).countInFlight();
+    for(int i = 2; i < RELEASE_ORDER.size(); i += 2) {
+      admission.release(configuration);
+      Assert.assertEquals("released", RELEASE_ORDER.subList(0, i), released);
+    }
+    admission.release(configuration);
+    Assert.assertEquals("released", RELEASE_ORDER, released);
+    Assert.assertEquals("getPendingCount()", 0, admission.getPendingCount());
+  }
+
+  /**
+   * Tests that held builds are released in priority and folder order, no
+   * more than the rate cap at a time.
+   */
+  @Test
+  public void testRateCapOrder() {
+    AwsAmiTriggerConfiguration configuration = PowerMockito.mock(AwsAmiTriggerConfiguration.class);
+    PowerMockito.when(configuration.getMaxConcurrentBuilds()).thenReturn(2);
+    AwsAmiTriggerAdmission admission = PowerMockito.spy(new AwsAmiTriggerAdmission());
+    List<String> released = submitHeld(admission, configuration);
+
+    PowerMockito.when(configuration.getMaxConcurrentBuilds()).thenReturn(0);
+    PowerMockito.when(configuration.getMaxBuildsPerMinute()).thenReturn(maxBuildsPerMinute);
+    admission.release(configuration);
+    int expected = maxBuildsPerMinute == 0 ? RELEASE_ORDER.size() : Math.min(maxBuildsPerMinute, RELEASE_ORDER.size());
+    Assert.assertEquals("released", RELEASE_ORDER.subList(0, expected), released);
+    Assert.assertEquals("getPendingCount()", RELEASE_ORDER.size() - expected, admission.getPendingCount());
+  }
+
+  /**
+   * Tests that builds above the rate cap are held.
+   */
+  @Test
+  public void testRateCap() {
+    AwsAmiTriggerConfiguration configuration = PowerMockito.mock(AwsAmiTriggerConfiguration.class);
+    PowerMockito.when(configuration.getMaxBuildsPerMinute()).thenReturn(maxBuildsPerMinute);
+
+    AwsAmiTriggerAdmission admission = new AwsAmiTriggerAdmission();
+    List<String> released = new ArrayList<String>();
+    for(int i = 0; i < submittedBuilds; i++) {
+      admission.submit(mockBuildableItem("folder", "job" + i), new AwsAmiTriggerCause(), AwsAmiTriggerPriority.values()[i % 3],
+        record(released, "job" + i), configuration);
+    }
+
+    Assert.assertEquals("released", expectedScheduledBuilds, released.size());
+    Assert.assertEquals("getPendingCount()", submittedBuilds - expectedScheduledBuilds, admission.getPendingCount());
+  }
+
+  /**
+   * Tests that builds submitted for a job that already has a held build
+   * are merged into it, so the job is built once with the matches of every
+   * submission and the latest release callback.
+   */
+  @Test
+  public void testMergeHeldBuild() {
+    AwsAmiTriggerConfiguration configuration = PowerMockito.mock(AwsAmiTriggerConfiguration.class);
+    PowerMockito.when(configuration.getMaxConcurrentBuilds()).thenReturn(1);
+    AwsAmiTriggerAdmission admission = PowerMockito.spy(new AwsAmiTriggerAdmission());
+    Mockito.doReturn(1).when(admission).countInFlight();
+
+    BuildableItem job = mockBuildableItem("folder", "projectName");
+    AwsAmiTriggerFilter filter = createFilter(ARCHITECTURE, DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED);
+    List<String> released = new ArrayList<String>();
+    for(int i = 0; i < submittedBuilds; i++) {
+      AwsAmiTriggerCause cause = new AwsAmiTriggerCause();
+      cause.addMatch(filter, createImage(ARCHITECTURE, new Date(), DESCRIPTION, HYPERVISOR, IMAGE_ID, IMAGE_TYPE, NAME,
+        OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAG_KEY, TAG_VALUE + i, SHARED));
+      if(i > 0) {
+        cause.addMatch(filter, createImage(ARCHITECTURE, new Date(), DESCRIPTION, HYPERVISOR, "ami-" + i, IMAGE_TYPE, NAME,
+          OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAG_KEY, TAG_VALUE, SHARED));
+      }
+      admission.submit(job, cause, AwsAmiTriggerPriority.NORMAL, record(released, "build-" + i), configuration);
+      Assert.assertEquals("getPendingCount()", 1, admission.getPendingCount());
+    }
+
+    Mockito.doReturn(0).when(admission).countInFlight();
+    admission.release(configuration);
+    Assert.assertEquals("getPendingCount()", 0, admission.getPendingCount());
+    Assert.assertEquals("released", Collections.singletonList("build-" + (submittedBuilds - 1)), released);
+
+    ArgumentCaptor<Cause> cause = ArgumentCaptor.forClass(Cause.class);
+    Mockito.verify(job, Mockito.times(1)).scheduleBuild(cause.capture());
+    Assert.assertEquals("getMatches()", submittedBuilds, ((AwsAmiTriggerCause) cause.getValue()).getMatches().size());
+  }
+
+  /**
+   * Submits builds from three folders and all priorities while the
+   * concurrency cap is full, so every build is held.
+   *
+   * @param admission       the admission controller
+   * @param configuration   the caps
+   * @return names of the builds released so far, in release order
+   */
+  private List<String> submitHeld(AwsAmiTriggerAdmission admission, AwsAmiTriggerConfiguration configuration) {
+    Mockito.doReturn(2).when(admission).countInFlight();
+    List<String> released = new ArrayList<String>();
+    submit(admission, configuration, released, "a1", "a", AwsAmiTriggerPriority.LOW);
+    submit(admission, configuration, released, "a2", "a", AwsAmiTriggerPriority.NORMAL);
+    submit(admission, configuration, released, "a3", "a", AwsAmiTriggerPriority.HIGH);
+    submit(admission, configuration, released, "a4", "a", AwsAmiTriggerPriority.HIGH);
+    submit(admission, configuration, released, "b1", "b", AwsAmiTriggerPriority.HIGH);
+    submit(admission, configuration, released, "b2", "b", AwsAmiTriggerPriority.NORMAL);
+    submit(admission, configuration, released, "c1", "c", AwsAmiTriggerPriority.HIGH);
+    Assert.assertTrue("held", released.isEmpty());
+    Assert.assertEquals("getPendingCount()", RELEASE_ORDER.size(), admission.getPendingCount());
+    return released;
+  }
+
+  /**
+   * Submits a build of a job in a folder.
+   *
+   * @param admission       the admission controller
+   * @param configuration   the caps
+   * @param released        names of the released builds
+   * @param name            name of the build
+   * @param folder          full name of the folder
+   * @param priority        the admission priority
+   */
+  private void submit(AwsAmiTriggerAdmission admission, AwsAmiTriggerConfiguration configuration, List<String> released,
+      String name, String folder, AwsAmiTriggerPriority priority) {
+    admission.submit(mockBuildableItem(folder, name), new AwsAmiTriggerCause(), priority, record(released, name), configuration);
+  }
+
+  /**
+   * Creates a release callback that records the name of the build.
+   *
+   * @param released   names of the released builds
+   * @param name       name of the build
+   * @return the callback
+   */
+  private Runnable record(final List<String> released, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        released.add(name);
+      }
+    };
+  }
+
+  /**
+   * Mocks a <code>BuildableItem</code> in a folder.
+   *
+   * @param folder   full name of the folder
+   * @param name     name of the job
+   * @return BuildableItem mocked BuildableItem
+   */
+  private BuildableItem mockBuildableItem(String folder, String name) {
+    ItemGroup itemGroupMock = PowerMockito.mock(ItemGroup.class);
+    PowerMockito.when(itemGroupMock.getFullName()).thenReturn(folder);
+    BuildableItem buildableItemMock = PowerMockito.mock(BuildableItem.class);
+    PowerMockito.when(buildableItemMock.getFullName()).thenReturn(folder + "/" + name);
+    PowerMockito.when(buildableItemMock.getParent()).thenReturn(itemGroupMock);
+    PowerMockito.when(buildableItemMock.scheduleBuild(Mockito.any(Cause.class))).thenReturn(true);
+    return buildableItemMock;
+  }
+}
@@ -23,6 +23,7 @@
   */
 package hudson.plugins.awsamitrigger;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.services.ec2.model.ProductCode;
 import com.amazonaws.services.ec2.model.Tag;
@@ -31,8 +32,10 @@ import com.amazonaws.util.DateUtils;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import hudson.EnvVars;
 
@@ -43,6 +46,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.modules.junit4.PowerMockRunnerDelegate;
 
@@ -179,6 +184,95 @@ public class AwsAmiTriggerCauseTest extends AwsAmiAbstractTest {
     }
   }
 
+  /**
+   * Tests that the environment is computed once and cannot be modified.
+   */
+  @Test
+  public void testGetEnvironment() {
+    AwsAmiTriggerCause cause = new AwsAmiTriggerCause();
+    for(int i = 0; i < testMatches; i++) {
+      cause.addMatch(createFilter(), createImage());
+    }
+
+    Map<String, String> environment = cause.getEnvironment();
+    Assert.assertSame("getEnvironment()", environment, cause.getEnvironment());
+    Assert.assertEquals("size()", testMatches == 0 ? 0 : 1 + (20 * testMatches), environment.size());
+    try {
+      environment.put("awsAmiTriggerCount", "0");
+      Assert.fail("Expected UnsupportedOperationException");
+    } catch(UnsupportedOperationException e) {
+      // expected
+    }
+
+    cause.addMatch(createFilter(), createImage());
+    Assert.assertEquals("awsAmiTriggerCount", String.valueOf(testMatches + 1), cause.getEnvironment().get("awsAmiTriggerCount"));
+  }
+
+  /**
+   * Tests {@link AwsAmiTriggerCause#getEnvironment()} with the image details
+   * and filter excluded.
+   */
+  @Test
+  public void testGetEnvironmentExcluded() {
+    AwsAmiTriggerCause cause = new AwsAmiTriggerCause(true, true);
+    for(int i = 0; i < testMatches; i++) {
+      cause.addMatch(createFilter(), createImage());
+    }
+
+    Map<String, String> environment = cause.getEnvironment();
+    Assert.assertEquals("size()", testMatches == 0 ? 0 : 1 + (3 * testMatches), environment.size());
+    Assert.assertEquals("getFullEnvironment().size()", testMatches == 0 ? 0 : 1 + (20 * testMatches), cause.getFullEnvironment().size());
+    for(int i = 1; i <= testMatches; i++) {
+      Assert.assertEquals("envImageId", imageId, environment.get("awsAmiTriggerImageId" + i));
+      Assert.assertFalse("envImageArchitecture", environment.containsKey("awsAmiTriggerImageArchitecture" + i));
+      Assert.assertFalse("envFilterName", environment.containsKey("awsAmiTriggerFilterName" + i));
+    }
+  }
+
+  /**
+   * Tests {@link AwsAmiTriggerCause#getExtras()} fetches the extras once
+   * and only when they are read.
+   */
+  @Test
+  public void testGetExtras() {
+    EC2Service ec2Service = Mockito.mock(EC2Service.class);
+    Mockito.when(ec2Service.describeImageExtras(Matchers.<Collection<String>>any())).thenReturn(
+      Collections.singletonMap(imageId, new AwsAmiImageExtras(imageId, "ebs", "snap-123", "8", "all")));
+
+    AwsAmiTriggerCause cause = new AwsAmiTriggerCause(CREDENTIALS_ID, REGION_NAME, false, false, false);
+    for(int i = 0; i < testMatches; i++) {
+      cause.addMatch(createFilter(), createImage());
+    }
+    Assert.assertEquals("size()", testMatches == 0 ? 0 : 1 + (20 * testMatches), cause.getEnvironment().size());
+
+    Map<String, AwsAmiImageExtras> extras = cause.getExtras(ec2Service);
+    Assert.assertSame("getExtras()", extras, cause.getExtras(ec2Service));
+    Assert.assertEquals("snapshotIds", "snap-123", extras.get(imageId).getSnapshotIds());
+    Mockito.verify(ec2Service, Mockito.times(1)).describeImageExtras(Matchers.<Collection<String>>any());
+  }
+
+  /**
+   * Tests that a failed fetch of the extras is kept, so the extras are not
+   * fetched again and the environment is built without them.
+   */
+  @Test
+  public void testGetExtrasFailure() {
+    EC2Service ec2Service = Mockito.mock(EC2Service.class);
+    Mockito.when(ec2Service.describeImageExtras(Matchers.<Collection<String>>any())).thenThrow(
+      new AmazonClientException("unavailable"));
+
+    AwsAmiTriggerCause cause = new AwsAmiTriggerCause(CREDENTIALS_ID, REGION_NAME, false, false, true);
+    for(int i = 0; i < testMatches; i++) {
+      cause.addMatch(createFilter(), createImage());
+    }
+
+    Assert.assertTrue("getExtras()", cause.getExtras(ec2Service).isEmpty());
+    Assert.assertTrue("getExtras()", cause.getExtras(ec2Service).isEmpty());
+    Assert.assertTrue("getExtras()", cause.getExtras().isEmpty());
+    Assert.assertFalse("envRootDeviceType", cause.getEnvironment().containsKey("awsAmiTriggerImageRootDeviceType1"));
+    Mockito.verify(ec2Service, Mockito.times(1)).describeImageExtras(Matchers.<Collection<String>>any());
+  }
+
   /**
    * Asserts that the constants have been added to the environment.
    *
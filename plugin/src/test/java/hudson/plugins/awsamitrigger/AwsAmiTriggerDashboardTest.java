@@ -0,0 +1,102 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiTriggerDashboard}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiTriggerDashboardTest extends AwsAmiAbstractTest {
+
+  private final static int ROWS = 120;
+
+  @Parameter(0)
+  public String query;
+  @Parameter(1)
+  public String sort;
+  @Parameter(2)
+  public String order;
+  @Parameter(3)
+  public String page;
+  @Parameter(4)
+  public int total;
+  @Parameter(5)
+  public int number;
+  @Parameter(6)
+  public String firstJobName;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { null, null, null, null, ROWS, 1, "job000" },
+        { "", "job", "desc", "1", ROWS, 1, "job119" },
+        { null, "errors", "desc", "3", ROWS, 3, "job023" },
+        { null, "calls", "asc", "99", ROWS, 3, "job100" },
+        { "JOB01", "lastPoll", "asc", "x", 10, 1, "job010" },
+        { REGION_NAME, "region", "asc", null, ROWS / 2, 1, "job000" },
+        { "missing", null, null, null, 0, 1, null }
+      }
+    );
+  }
+
+  /**
+   * Tests that rows are searched, sorted and paged.
+   */
+  @Test
+  public void testGetPage() {
+    List<AwsAmiTriggerDashboard.Row> rows = new ArrayList<AwsAmiTriggerDashboard.Row>();
+    for(int i = 0; i < ROWS; i++) {
+      rows.add(new AwsAmiTriggerDashboard.Row(String.format("job%03d", i), i % 2 == 0 ? REGION_NAME : "us-east-1", i, i, i % 20));
+    }
+
+    AwsAmiTriggerDashboard.Page result = AwsAmiTriggerDashboard.getPage(rows, query, sort, order, page);
+    Assert.assertEquals("getTotal()", total, result.getTotal());
+    Assert.assertEquals("getNumber()", number, result.getNumber());
+    Assert.assertTrue("getRows().size()", result.getRows().size() <= AwsAmiTriggerDashboard.PAGE_SIZE);
+    if(firstJobName == null) {
+      Assert.assertTrue("getRows().isEmpty()", result.getRows().isEmpty());
+    } else {
+      Assert.assertEquals("getJobName()", firstJobName, result.getRows().get(0).getJobName());
+    }
+  }
+}
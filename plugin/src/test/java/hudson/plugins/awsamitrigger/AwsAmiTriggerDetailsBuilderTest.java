@@ -0,0 +1,78 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link AwsAmiTriggerDetailsBuilder}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+public class AwsAmiTriggerDetailsBuilderTest extends AwsAmiAbstractTest {
+
+  @Parameter(0)
+  public String file;
+  @Parameter(1)
+  public boolean expectedInsideWorkspace;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { AwsAmiTriggerDetailsBuilder.DEFAULT_FILE, true },
+        { "build/ami.json", true },
+        { "./build/../ami.json", true },
+        { "build\\ami.json", true },
+        { "../ami.json", false },
+        { "build/../../ami.json", false },
+        { "build/..", false },
+        { "/tmp/ami.json", false },
+        { "\\tmp\\ami.json", false },
+        { "C:\\ami.json", false }
+      }
+    );
+  }
+
+  /**
+   * Tests that only paths that resolve inside the workspace are accepted.
+   */
+  @Test
+  public void testIsInsideWorkspace() {
+    Assert.assertEquals("isInsideWorkspace()", expectedInsideWorkspace, AwsAmiTriggerDetailsBuilder.isInsideWorkspace(file));
+  }
+}
@@ -160,6 +160,26 @@ public class AwsAmiTriggerFilterTest extends AwsAmiAbstractTest {
     );
   }
 
+  /**
+   * Tests that the number of latest images is bounded and only becomes part
+   * of the key when it is more than one.
+   */
+  @Test
+  public void testTopK() {
+    AwsAmiTriggerFilter filter = createFilter();
+    String key = filter.getKey();
+    filter.setTopK(0);
+    Assert.assertEquals("getTopK()", 1, filter.getTopK());
+    Assert.assertEquals("getKey()", key, filter.getKey());
+
+    filter.setTopK(5);
+    Assert.assertEquals("getTopK()", 5, filter.getTopK());
+    Assert.assertEquals("getKey()", key.substring(0, key.length() - 1) + ",topK=5]", filter.getKey());
+
+    filter.setTopK(Integer.MAX_VALUE);
+    Assert.assertEquals("getTopK()", AwsAmiTriggerFilter.MAX_TOP_K, filter.getTopK());
+  }
+
   /**
    * Asserts that a filter exists with the given <code>filterName</code> and
    * has the <code>expectedValue</code>.
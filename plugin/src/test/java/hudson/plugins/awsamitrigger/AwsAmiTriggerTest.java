@@ -31,15 +31,18 @@ import com.amazonaws.services.ec2.model.ProductCode;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.util.DateUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import jenkins.model.Jenkins;
 
 import hudson.model.BuildableItem;
+import hudson.model.ItemGroup;
 
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -67,7 +70,7 @@ import org.powermock.modules.junit4.PowerMockRunnerDelegate;
  */
 @RunWith(PowerMockRunner.class)
 @PowerMockRunnerDelegate(value = Parameterized.class)
-@PrepareForTest(AwsAmiTrigger.class)
+@PrepareForTest({AwsAmiTrigger.class, AwsAmiTriggerAdmission.class, AwsAmiTriggerConfiguration.class})
 public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
 
   @Parameter(0)
@@ -121,10 +124,8 @@ public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
   @Parameter(24)
   public String imageTagValue;
   @Parameter(25)
-  public int saveMethodCount;
-  @Parameter(26)
   public int scheduleBuildMethodCount;
-  @Parameter(27)
+  @Parameter(26)
   public Boolean expectANTLRException;
 
   @Parameters
@@ -134,19 +135,28 @@ public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
         { CREDENTIALS_ID, REGION_NAME, SPEC,
             ARCHITECTURE, DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
             ARCHITECTURE, new Date(System.currentTimeMillis()+(1000*60*30)), DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
-            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 1, 1, false },
+            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 1, false },
         { CREDENTIALS_ID, REGION_NAME, SPEC,
             ARCHITECTURE, DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
             ARCHITECTURE, new Date(), DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
-            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 0, 0, false },
+            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 0, false },
         { CREDENTIALS_ID, REGION_NAME, "invalid-spec",
             ARCHITECTURE, DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
             ARCHITECTURE, new Date(), DESCRIPTION, NAME, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, TAGS, SHARED,
-            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 0, 0, true },
+            HYPERVISOR, IMAGE_ID, IMAGE_TYPE, TAG_KEY, TAG_VALUE, 0, true },
       }
     );
   }
 
+  /**
+   * Starts each test with an empty in-memory state store, so that state
+   * saved for the job by an earlier test is not restored.
+   */
+  @Before
+  public void setUp() {
+    AwsAmiTriggerStateStore.set(new AwsAmiTriggerStateStore(null));
+  }
+
   /**
    * Test that the getters returns values set in the constructor.
    * @throws ANTLRException if there is a problem with the trigger spec
@@ -185,6 +195,15 @@ public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
         "credentialsId=" + nullIfEmpty(credentialsId)  + "," +
         "regionName="    + nullIfEmpty(regionName)     + "," +
         "lastRun="       + ".{28}"                     + "," +
+        "settleMinutes=" + "0"                         + "," +
+        "maxDelayMinutes=" + "0"                       + "," +
+        "priority="      + "NORMAL"                    + "," +
+        "excludeImageDetails=" + "false"               + "," +
+        "excludeFilter=" + "false"                     + "," +
+        "includeImageExtras=" + "false"                + "," +
+        "historySize=" + "0"                           + "," +
+        "buildOnRemoved=" + "false"                    + "," +
+        "buildOnStateChanged=" + "false"               + "," +
         "filters="       +
           "[AwsAmiTriggerFilter[" +
             "architecture=" + nullIfEmpty(filterArchitecture) + "," +
@@ -204,23 +223,160 @@ public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
   }
 
   /**
-    * Runs the trigger and counts the number of method calls.
-    */
-  private void testRunTrigger() {
+   * Runs the trigger and tests that the polling state is written to the
+   * state store instead of the job configuration.
+   * @throws IOException if the state file cannot be created
+   */
+  @Test
+  public void testRunTrigger() throws IOException {
+    File file = File.createTempFile("aws-ami-trigger-state", ".bin");
+    Assert.assertTrue("delete()", file.delete());
     try {
+      AwsAmiTriggerStateStore store = new AwsAmiTriggerStateStore(file);
+      AwsAmiTriggerStateStore.set(store);
       AwsAmiTrigger trigger = createTrigger();
       BuildableItem buildableItemMock = mockBuildableItem();
       trigger.start(buildableItemMock, true);
       trigger.run();
-      Mockito.verify(buildableItemMock, Mockito.times(saveMethodCount)).save();
-      Mockito.verify(buildableItemMock, Mockito.times(scheduleBuildMethodCount)).scheduleBuild(Mockito.any(AwsAmiTriggerCause.class));
+      Mockito.verify(buildableItemMock, Mockito.never()).save();
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+
+      Assert.assertTrue("isDirty()", store.isDirty());
+      Assert.assertTrue("flush()", store.flush());
+      AwsAmiTriggerState loaded = new AwsAmiTriggerStateStore(file).getState("projectName", new AwsAmiTriggerState(-1));
+      Assert.assertEquals("getPolls()", 1, loaded.getPolls());
+      Assert.assertEquals("getFires()", scheduleBuildMethodCount, loaded.getFires());
     } catch(ANTLRException ae) {
       Assert.assertTrue("ANTLRException", expectANTLRException);
-    } catch(IOException ioe) {
-      Assert.fail("Unexpected exception: " + ioe.getMessage());
+    } finally {
+      file.delete();
     }
   }
 
+  /**
+   * Tests that a match is held for the settle window and then scheduled as
+   * exactly one build, and that the watermark advances to the poll that
+   * found the match rather than to the time the build was scheduled.
+   */
+  @Test
+  public void testSettleWindow() {
+    try {
+      AwsAmiTrigger trigger = createTrigger();
+      trigger.setSettleMinutes(1);
+      BuildableItem buildableItemMock = mockBuildableItem();
+      trigger.start(buildableItemMock, true);
+      long before = System.currentTimeMillis();
+      trigger.run();
+      long after = System.currentTimeMillis();
+      verifyScheduleBuild(buildableItemMock, 0);
+
+      trigger.flushPendingMatches(after + TimeUnit.SECONDS.toMillis(30));
+      verifyScheduleBuild(buildableItemMock, 0);
+
+      trigger.flushPendingMatches(after + TimeUnit.MINUTES.toMillis(1));
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+
+      trigger.flushPendingMatches(after + TimeUnit.MINUTES.toMillis(2));
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+
+      if(scheduleBuildMethodCount > 0) {
+        Assert.assertThat("getOldestWatermark()", trigger.getOldestWatermark(), Matchers.greaterThanOrEqualTo(before));
+        Assert.assertThat("getOldestWatermark()", trigger.getOldestWatermark(), Matchers.lessThanOrEqualTo(after));
+      }
+    } catch(ANTLRException e) {
+      Assert.assertTrue("ANTLRException", expectANTLRException);
+    }
+  }
+
+  /**
+   * Tests that the max delay schedules a held match before a longer settle
+   * window ends, as exactly one build.
+   */
+  @Test
+  public void testMaxDelay() {
+    try {
+      AwsAmiTrigger trigger = createTrigger();
+      trigger.setSettleMinutes(10);
+      trigger.setMaxDelayMinutes(2);
+      BuildableItem buildableItemMock = mockBuildableItem();
+      trigger.start(buildableItemMock, true);
+      trigger.run();
+      long after = System.currentTimeMillis();
+      verifyScheduleBuild(buildableItemMock, 0);
+
+      trigger.flushPendingMatches(after + TimeUnit.MINUTES.toMillis(1));
+      verifyScheduleBuild(buildableItemMock, 0);
+
+      trigger.flushPendingMatches(after + TimeUnit.MINUTES.toMillis(2));
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+
+      trigger.flushPendingMatches(after + TimeUnit.MINUTES.toMillis(10));
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+    } catch(ANTLRException e) {
+      Assert.assertTrue("ANTLRException", expectANTLRException);
+    }
+  }
+
+  /**
+   * Tests that a poll whose result changes while the build of an image is
+   * held for admission does not hold a second build for the same image.
+   * The job is built once when the build is released and the watermark
+   * advances then.
+   * @throws Exception if the admission controller cannot be mocked
+   */
+  @Test
+  public void testHeldBuildChangedPoll() throws Exception {
+    AwsAmiTriggerConfiguration configuration = PowerMockito.mock(AwsAmiTriggerConfiguration.class);
+    PowerMockito.when(configuration.getMaxConcurrentBuilds()).thenReturn(1);
+    PowerMockito.when(configuration.getPollTimeoutSeconds()).thenReturn(AwsAmiTriggerConfiguration.DEFAULT_POLL_TIMEOUT_SECONDS);
+    PowerMockito.spy(AwsAmiTriggerConfiguration.class);
+    PowerMockito.doReturn(configuration).when(AwsAmiTriggerConfiguration.class, "get");
+    AwsAmiTriggerAdmission admission = PowerMockito.spy(new AwsAmiTriggerAdmission());
+    Mockito.doReturn(1).when(admission).countInFlight();
+    PowerMockito.spy(AwsAmiTriggerAdmission.class);
+    PowerMockito.doReturn(admission).when(AwsAmiTriggerAdmission.class, "get");
+
+    try {
+      EC2Service ec2ServiceMock = mockEC2Service();
+      AwsAmiTrigger trigger = createTrigger(spec, credentialsId, regionName,
+        Collections.singletonList(createFilter(filterArchitecture, filterDescription, filterName, filterOwnerAlias,
+          filterOwnerId, filterProductCode, filterTags, filterShared)));
+      BuildableItem buildableItemMock = mockBuildableItem();
+      trigger.start(buildableItemMock, true);
+      trigger.run();
+      Assert.assertEquals("getPendingCount()", scheduleBuildMethodCount, admission.getPendingCount());
+
+      Image changed = createImage(imageArchitecture, imageCreationDate, imageDescription, imageHypervisor, imageId,
+        imageType, imageName, imageOwnerAlias, imageOwnerId, imageProductCode, imageTagKey, imageTagValue + "-changed", imageShared);
+      PowerMockito.when(ec2ServiceMock.fetchLatestImages(Mockito.any(Collection.class), Mockito.anyInt(),
+        Mockito.any(AwsAmiLatestImages.class))).thenReturn(
+          new AwsAmiLatestImages(AwsAmiImageMatcher.fingerprint(Collections.singletonList(changed)),
+            Collections.singletonList(changed)));
+      trigger.run();
+      Assert.assertEquals("getPendingCount()", scheduleBuildMethodCount, admission.getPendingCount());
+      verifyScheduleBuild(buildableItemMock, 0);
+      Assert.assertEquals("getFires()", 0, trigger.getFires());
+
+      Mockito.doReturn(0).when(admission).countInFlight();
+      admission.release(configuration);
+      Assert.assertEquals("getPendingCount()", 0, admission.getPendingCount());
+      verifyScheduleBuild(buildableItemMock, scheduleBuildMethodCount);
+      Assert.assertEquals("getFires()", scheduleBuildMethodCount, trigger.getFires());
+    } catch(ANTLRException e) {
+      Assert.assertTrue("ANTLRException", expectANTLRException);
+    }
+  }
+
+  /**
+   * Verifies the number of builds scheduled for a job.
+   *
+   * @param buildableItemMock   the mocked job
+   * @param times               the expected number of builds
+   */
+  private void verifyScheduleBuild(BuildableItem buildableItemMock, int times) {
+    Mockito.verify(buildableItemMock, Mockito.times(times)).scheduleBuild(Mockito.any(AwsAmiTriggerCause.class));
+  }
+
   /**
    * Creates a new trigger.
    *
@@ -235,29 +391,39 @@ public class AwsAmiTriggerTest extends AwsAmiAbstractTest {
   }
 
   /**
-   * Mocks a the <code>getFullName()</code> method of the <code>BuildableItem</code>
-   * class. This method must return a value so that the trigger can start.
+   * Mocks the <code>getFullName()</code> and <code>getParent()</code> methods of
+   * the <code>BuildableItem</code> class. They must return a value so that the
+   * trigger can start and submit builds for admission.
    *
    * @return BuildableItem mocked BuildableItem
    */
   private BuildableItem mockBuildableItem() {
+    ItemGroup itemGroupMock = PowerMockito.mock(ItemGroup.class);
+    PowerMockito.when(itemGroupMock.getFullName()).thenReturn("");
     BuildableItem buildableItemMock = PowerMockito.mock(BuildableItem.class);
     PowerMockito.when(buildableItemMock.getFullName()).thenReturn("projectName");
+    PowerMockito.when(buildableItemMock.getParent()).thenReturn(itemGroupMock);
     return buildableItemMock;
   }
 
   /**
-   * Mocks the constructor and fetchLatestImage() methods of the <code>EC2Service</code>.
+   * Mocks the constructor and fetchLatestImages() methods of the <code>EC2Service</code>.
+   *
+   * @return the mocked EC2Service
    */
-  private void mockEC2Service() {
+  private EC2Service mockEC2Service() {
     EC2Service ec2ServiceMock = PowerMockito.mock(EC2Service.class);
-    PowerMockito.when(ec2ServiceMock.fetchLatestImage(Mockito.any(Collection.class))).thenReturn(
-      createImage(imageArchitecture, imageCreationDate, imageDescription, imageHypervisor, imageId,
-        imageType, imageName, imageOwnerAlias, imageOwnerId, imageProductCode, imageTagKey, imageTagValue, imageShared));
+    Image image = createImage(imageArchitecture, imageCreationDate, imageDescription, imageHypervisor, imageId,
+      imageType, imageName, imageOwnerAlias, imageOwnerId, imageProductCode, imageTagKey, imageTagValue, imageShared);
+    PowerMockito.when(ec2ServiceMock.fetchLatestImages(Mockito.any(Collection.class), Mockito.anyInt(),
+      Mockito.any(AwsAmiLatestImages.class))).thenReturn(
+        new AwsAmiLatestImages(AwsAmiImageMatcher.fingerprint(Collections.singletonList(image)),
+          Collections.singletonList(image)));
     try {
       PowerMockito.whenNew(EC2Service.class).withAnyArguments().thenReturn(ec2ServiceMock);
     } catch(Exception e) {
       Assert.fail("Unexpected exception: " + e.getMessage());
     }
+    return ec2ServiceMock;
   }
 }
@@ -0,0 +1,166 @@
+/**
+  * MIT License
+  *
+  * Copyright (c) 2017 Rik Turnbull
+  *
+  * Permission is hereby granted, free of charge, to any person obtaining a copy
+  * of this software and associated documentation files (the "Software"), to deal
+  * in the Software without restriction, including without limitation the rights
+  * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+  * copies of the Software, and to permit persons to whom the Software is
+  * furnished to do so, subject to the following conditions:
+  *
+  * The above copyright notice and this permission notice shall be included in all
+  * copies or substantial portions of the Software.
+  *
+  * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+  * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+  * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+  * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+  * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+  * SOFTWARE.
+  */
+package hudson.plugins.awsamitrigger;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.modules.junit4.PowerMockRunnerDelegate;
+
+/**
+ * Run tests for {@link EC2Service} over HTTP against the
+ * {@link AwsAmiEc2Emulator}.
+ *
+ * @author Rik Turnbull
+ *
+ */
+@RunWith(PowerMockRunner.class)
+@PowerMockRunnerDelegate(value = Parameterized.class)
+@PowerMockIgnore({ "javax.net.ssl.*", "javax.management.*", "javax.crypto.*" })
+public class EC2ServiceEmulatorTest extends AwsAmiAbstractTest {
+
+  private final static int IMAGES = 20;
+  private final static long START = 1497298758000L;
+
+  @Parameter(0)
+  public String filterName;
+  @Parameter(1)
+  public String filterTags;
+  @Parameter(2)
+  public int throttleEvery;
+  @Parameter(3)
+  public int expectedCount;
+  @Parameter(4)
+  public String expectedImageId;
+
+  private AwsAmiEc2Emulator emulator;
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(
+      new Object[][] {
+        { "name-*", null, 0, IMAGES, "ami-19" },
+        { "name-1?", null, 0, 10, "ami-19" },
+        { "name-1?", null, 2, 10, "ami-19" },
+        { "name-*", "parity=even", 0, IMAGES / 2, "ami-18" },
+        { "other-*", null, 0, 0, null }
+      }
+    );
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    List<Image> images = new ArrayList<Image>();
+    for(int i = 0; i < IMAGES; i++) {
+      images.add(createImage(ARCHITECTURE, new Date(START + TimeUnit.HOURS.toMillis(i)), DESCRIPTION, HYPERVISOR,
+        "ami-" + i, IMAGE_TYPE, "name-" + i, OWNER_ALIAS, OWNER_ID, PRODUCT_CODE, "parity", i % 2 == 0 ? "even" : "odd", SHARED));
+    }
+    emulator = new AwsAmiEc2Emulator(images);
+    emulator.setThrottleEvery(throttleEvery);
+    System.setProperty(EC2Service.ENDPOINT_PROPERTY, emulator.getEndpoint());
+    System.setProperty("aws.accessKeyId", "emulator");
+    System.setProperty("aws.secretKey", "emulator");
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(EC2Service.ENDPOINT_PROPERTY);
+    System.clearProperty(EC2Service.RECORD_PROPERTY);
+    System.clearProperty(EC2Service.REPLAY_PROPERTY);
+    System.clearProperty("aws.accessKeyId");
+    System.clearProperty("aws.secretKey");
+    emulator.close();
+  }
+
+  /**
+   * Tests that images are filtered, unmarshalled and sorted, retrying
+   * throttled requests.
+   */
+  @Test
+  public void testDescribeImages() {
+    EC2Service service = new EC2Service(CREDENTIALS_ID, REGION_NAME);
+    AwsAmiTriggerFilter filter = createFilter(ARCHITECTURE, null, filterName, null, null, null, filterTags, null);
+
+    List<Image> images = service.describeImages(filter.toAWSFilters());
+    Assert.assertEquals("describeImages().size()", expectedCount, images.size());
+
+    Image latest = service.fetchLatestImage(filter.toAWSFilters());
+    if(expectedImageId == null) {
+      Assert.assertNull("fetchLatestImage()", latest);
+    } else {
+      Assert.assertEquals("describeImages().get(0)", expectedImageId, images.get(0).getImageId());
+      Assert.assertEquals("fetchLatestImage()", expectedImageId, latest.getImageId());
+      Assert.assertEquals("getTags()", images.get(0).getTags(), latest.getTags());
+      Assert.assertEquals("getProductCodes()", PRODUCT_CODE, latest.getProductCodes().get(0).getProductCodeId());
+    }
+    Assert.assertEquals("getThrottled()", throttleEvery == 0 ? 0 : 1, emulator.getThrottled());
+  }
+
+  /**
+   * Tests that a recorded response is replayed without calling EC2.
+   *
+   * @throws IOException if the recording directory could not be created
+   */
+  @Test
+  public void testRecordAndReplay() throws IOException {
+    File directory = File.createTempFile("aws-ami-recording", "");
+    Assert.assertTrue("delete()", directory.delete());
+    try {
+      AwsAmiTriggerFilter filter = createFilter(ARCHITECTURE, null, filterName, null, null, null, filterTags, null);
+      System.setProperty(EC2Service.RECORD_PROPERTY, directory.getPath());
+      List<Image> recorded = new EC2Service(CREDENTIALS_ID, REGION_NAME).describeImages(filter.toAWSFilters());
+      System.clearProperty(EC2Service.RECORD_PROPERTY);
+
+      emulator.close();
+      long requests = emulator.getRequests();
+      System.setProperty(EC2Service.REPLAY_PROPERTY, directory.getPath());
+      List<Image> replayed = new EC2Service(CREDENTIALS_ID, REGION_NAME).describeImages(filter.toAWSFilters());
+      Assert.assertEquals("describeImages()", recorded, replayed);
+      Assert.assertEquals("getRequests()", requests, emulator.getRequests());
+    } finally {
+      for(File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+}
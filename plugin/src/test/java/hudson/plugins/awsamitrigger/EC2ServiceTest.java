@@ -32,6 +32,8 @@ import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.util.DateUtils;
 
+import com.cloudbees.jenkins.plugins.awscredentials.AmazonWebServicesCredentials;
+
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -134,6 +136,64 @@ public class EC2ServiceTest extends AwsAmiAbstractTest {
     Assert.assertEquals("imageId", newestImageId, image.getImageId());
   }
 
+  /**
+   * Tests the <code>fetchLatestImages</code> method returns the newest
+   * images, newest first.
+   */
+  @Test
+  public void testFetchLatestImages() {
+    EC2Service ec2Service = new EC2Service(CREDENTIALS_ID, REGION_NAME);
+    List<Image> images = ec2Service.fetchLatestImages(null, 1);
+    Assert.assertEquals("size()", 1, images.size());
+    Assert.assertEquals("imageId", newestImageId, images.get(0).getImageId());
+
+    images = ec2Service.fetchLatestImages(null, 3);
+    Assert.assertEquals("size()", imageCount, images.size());
+    Assert.assertEquals("imageId", newestImageId, images.get(0).getImageId());
+    Assert.assertNotEquals("imageId", newestImageId, images.get(1).getImageId());
+  }
+
+  /**
+   * Tests the <code>fetchLatestImages</code> method returns the previous
+   * result when the images returned are unchanged, and selects the newest
+   * images again otherwise.
+   */
+  @Test
+  public void testFetchLatestImagesUnchanged() {
+    EC2Service ec2Service = new EC2Service(CREDENTIALS_ID, REGION_NAME);
+    AwsAmiLatestImages latest = ec2Service.fetchLatestImages(null, 1, null);
+    Assert.assertEquals("imageId", newestImageId, latest.getImages().get(0).getImageId());
+    Assert.assertSame("unchanged", latest, ec2Service.fetchLatestImages(null, 1, latest));
+
+    AwsAmiLatestImages stale = new AwsAmiLatestImages(latest.getFingerprint() + 1, Collections.<Image>emptyList());
+    AwsAmiLatestImages changed = ec2Service.fetchLatestImages(null, 1, stale);
+    Assert.assertNotSame("changed", stale, changed);
+    Assert.assertEquals("getFingerprint()", latest.getFingerprint(), changed.getFingerprint());
+    Assert.assertEquals("imageId", newestImageId, changed.getImages().get(0).getImageId());
+  }
+
+  /**
+   * Tests that the shared service of a credentials and region is reused
+   * until its credentials change, and that the number of shared services
+   * is bounded.
+   */
+  @Test
+  public void testGetSharedService() {
+    AmazonWebServicesCredentials credentials = Mockito.mock(AmazonWebServicesCredentials.class);
+    AmazonWebServicesCredentials rotated = Mockito.mock(AmazonWebServicesCredentials.class);
+    EC2Service service = EC2Service.get(image1ImageId, REGION_NAME, credentials);
+    Assert.assertSame("same credentials", service, EC2Service.get(image1ImageId, REGION_NAME, credentials));
+
+    EC2Service replaced = EC2Service.get(image1ImageId, REGION_NAME, rotated);
+    Assert.assertNotSame("rotated credentials", service, replaced);
+    Assert.assertEquals("getKey()", service.getKey(), replaced.getKey());
+
+    for(int i = 0; i < EC2Service.MAX_SERVICES; i++) {
+      EC2Service.get(image2ImageId + i, REGION_NAME, credentials);
+    }
+    Assert.assertNotSame("evicted", replaced, EC2Service.get(image1ImageId, REGION_NAME, rotated));
+  }
+
   /**
    * Mocks the constructor and describeImages() methods of the <code>AmazonEC2Client</code>.
    */